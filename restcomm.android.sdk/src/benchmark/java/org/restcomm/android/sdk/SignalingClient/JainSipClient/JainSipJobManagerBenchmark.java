@@ -0,0 +1,81 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.message.Request;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Job lookup cost as the number of jobs grows: the Call-ID/branch id
+ *  indexes of JainSipJobManager vs a scan of all jobs comparing their
+ *  transaction's Call-ID, which is how jobs used to be found.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipJobManagerBenchmark {
+    private static final int LOOKUPS = 200000;
+
+    @Test
+    public void lookup_IndexedVsScan() {
+        long indexedSmallNs = timeIndexed(createJobManager(100));
+        JainSipJobManager jainSipJobManager = createJobManager(5000);
+        long indexedLargeNs = timeIndexed(jainSipJobManager);
+        long scanLargeNs = timeScan(jainSipJobManager);
+
+        System.out.println("lookup_IndexedVsScan(): indexed lookup " + indexedSmallNs + " ns with 100 jobs, " + indexedLargeNs +
+                " ns with 5000 jobs; scan " + scanLargeNs + " ns with 5000 jobs");
+        // constant time, give or take cache effects; a scan would be 50 times slower
+        assertThat(indexedLargeNs).isLessThan(indexedSmallNs * 5 + 100);
+        assertThat(indexedLargeNs).isLessThan(scanLargeNs);
+    }
+
+    private JainSipJobManager createJobManager(int jobCount) {
+        JainSipJobManager jainSipJobManager = new JainSipJobManager(null);
+        for (int i = 0; i < jobCount; i++) {
+            jainSipJobManager.add("job-" + i, JainSipJob.Type.TYPE_MESSAGE, JainSipFakes.createTransaction(Request.MESSAGE, "branch-" + i, "call-" + i),
+                    new HashMap<String, Object>(), null);
+        }
+        return jainSipJobManager;
+    }
+
+    // Average time of a Call-ID plus a branch id lookup, in nanoseconds
+    private long timeIndexed(JainSipJobManager jainSipJobManager) {
+        int jobCount = jainSipJobManager.jobs.size();
+        // warm up
+        for (int i = 0; i < LOOKUPS; i++) {
+            jainSipJobManager.getByCallId("call-" + (i % jobCount));
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertThat(jainSipJobManager.getByCallId("call-" + (i % jobCount))).isNotNull();
+            assertThat(jainSipJobManager.getByBranchId("branch-" + (i % jobCount))).isNotNull();
+        }
+        return (System.nanoTime() - startTime) / LOOKUPS;
+    }
+
+    // Same, scanning all jobs; fewer lookups since each one is much slower
+    private long timeScan(JainSipJobManager jainSipJobManager) {
+        int jobCount = jainSipJobManager.jobs.size();
+        int lookups = LOOKUPS / 100;
+        long startTime = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            String callId = "call-" + (i % jobCount);
+            JainSipJob found = null;
+            for (JainSipJob jainSipJob : jainSipJobManager.jobs.values()) {
+                if (((CallIdHeader) jainSipJob.transaction.getRequest().getHeader(CallIdHeader.NAME)).getCallId().equals(callId)) {
+                    found = jainSipJob;
+                    break;
+                }
+            }
+            assertThat(found).isNotNull();
+        }
+        return (System.nanoTime() - startTime) / lookups;
+    }
+}
@@ -0,0 +1,76 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.message.MessageFactoryImpl;
+import android.javax.sip.message.Message;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Custom header extraction in JainSipMessageBuilder vs the regex based
+ *  extraction it replaced (kept in JainSipMessageBuilderTest), per message
+ *  with and without X- headers: time and, where the JVM can tell, bytes
+ *  allocated. The prefix scan should win on both counts for every message.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessageBuilderBenchmark {
+    private static final int ITERATIONS = 100000;
+
+    @Test
+    public void prefixScanVsRegex() throws Exception {
+        MessageFactoryImpl messageFactory = new MessageFactoryImpl();
+        Message[] messages = new Message[] {
+                messageFactory.createRequest(String.format(JainSipMessageBuilderTest.INVITE, "")),
+                messageFactory.createResponse(String.format(JainSipMessageBuilderTest.OK, "")),
+                messageFactory.createRequest(String.format(JainSipMessageBuilderTest.INVITE, "X-Account-Sid: AC1234\r\n")),
+                messageFactory.createResponse(String.format(JainSipMessageBuilderTest.OK, "X-Session: 42\r\n")),
+        };
+        String[] names = new String[] { "INVITE", "200 OK", "INVITE with X- header", "200 OK with X- header" };
+
+        for (int m = 0; m < messages.length; m++) {
+            // warm up
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                JainSipMessageBuilderTest.parseCustomHeadersRegex(messages[m]);
+                JainSipMessageBuilder.parseCustomHeaders(messages[m]);
+            }
+
+            long regexBytes = allocatedBytes();
+            long startTime = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                JainSipMessageBuilderTest.parseCustomHeadersRegex(messages[m]);
+            }
+            long regexNs = (System.nanoTime() - startTime) / ITERATIONS;
+            regexBytes = (allocatedBytes() - regexBytes) / ITERATIONS;
+
+            long scanBytes = allocatedBytes();
+            startTime = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                JainSipMessageBuilder.parseCustomHeaders(messages[m]);
+            }
+            long scanNs = (System.nanoTime() - startTime) / ITERATIONS;
+            scanBytes = (allocatedBytes() - scanBytes) / ITERATIONS;
+
+            System.out.println("prefixScanVsRegex(): " + names[m] + ": regex: " + regexNs + " ns, " + regexBytes + " bytes; prefix scan: " +
+                    scanNs + " ns, " + scanBytes + " bytes (per message)");
+            assertThat(scanNs).isLessThan(regexNs);
+            assertThat(scanBytes).isLessThanOrEqualTo(regexBytes);
+        }
+    }
+
+    // ------ Helpers
+    // Bytes allocated by this thread so far, where the JVM can tell (0 otherwise)
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,74 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Cost of queuing 10k messages while offline, flushing them once back
+ *  online and replaying whatever a dead process left behind. Queuing is a
+ *  single append per message, so even 10k of them should take well under a
+ *  millisecond each, and a fully flushed journal should leave no file behind.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessageJournalBenchmark {
+    private static final int MESSAGE_COUNT = 10000;
+    private static final long MAX_QUEUE_TIME_MS = MESSAGE_COUNT;
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("journal", null);
+        file.delete();
+    }
+
+    @After
+    public void teardown() {
+        file.delete();
+    }
+
+    @Test
+    public void journal_Flush10k() {
+        JainSipMessageJournal journal = new JainSipMessageJournal(file);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            journal.add("job-" + i, "bob", "message " + i);
+        }
+        long queueTimeMs = (System.nanoTime() - startTime) / 1000000;
+
+        startTime = System.nanoTime();
+        JainSipMessageJournal.Record record;
+        while ((record = journal.pollUndispatched()) != null) {
+            journal.remove(record.jobId);
+        }
+        journal.sync();
+        long flushTimeMs = (System.nanoTime() - startTime) / 1000000;
+        long flushedLength = file.length();
+
+        // messages left pending when the process dies are replayed on next load, to be reported
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            journal.add("job-" + i, "bob", "message " + i);
+        }
+        journal.close();
+        startTime = System.nanoTime();
+        journal = new JainSipMessageJournal(file);
+        int replayedCount = journal.takePreviousSession().size();
+        long loadTimeMs = (System.nanoTime() - startTime) / 1000000;
+        journal.close();
+
+        System.out.println("journal_Flush10k(): queued " + MESSAGE_COUNT + " messages in " + queueTimeMs + " ms, flushed in " + flushTimeMs +
+                " ms, replayed in " + loadTimeMs + " ms");
+        assertThat(queueTimeMs).isLessThan(MAX_QUEUE_TIME_MS);
+        assertThat(flushedLength).isEqualTo(0);
+        assertThat(replayedCount).isEqualTo(MESSAGE_COUNT);
+    }
+}
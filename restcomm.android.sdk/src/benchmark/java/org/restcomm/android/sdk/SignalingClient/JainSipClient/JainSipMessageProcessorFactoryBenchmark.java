@@ -0,0 +1,36 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Threads, memory and request latency of NIO vs blocking message processing,
+ *  with 50 TCP connections open at once towards the same listening point.
+ *  Blocking processing needs a thread per connection, NIO should get by with
+ *  far fewer no matter how many connections there are.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessageProcessorFactoryBenchmark {
+    private static final int CONNECTION_COUNT = 50;
+    private static final int REQUESTS_PER_CONNECTION = 10;
+
+    @Test
+    public void nioVsBlocking() throws Exception {
+        JainSipMessageProcessorFactoryTest.Result blocking = JainSipMessageProcessorFactoryTest.run("blocking", false, new SignalingCounters(),
+                CONNECTION_COUNT, REQUESTS_PER_CONNECTION);
+        JainSipMessageProcessorFactoryTest.Result nio = JainSipMessageProcessorFactoryTest.run("nio", true, new SignalingCounters(),
+                CONNECTION_COUNT, REQUESTS_PER_CONNECTION);
+
+        System.out.println("nioVsBlocking(): " + CONNECTION_COUNT + " connections, " + REQUESTS_PER_CONNECTION + " requests each");
+        System.out.println("   blocking: " + blocking.threads + " threads, " + blocking.memoryKb + " KB, latency avg: " + blocking.latencyAverageUs + " us");
+        System.out.println("   NIO:      " + nio.threads + " threads, " + nio.memoryKb + " KB, latency avg: " + nio.latencyAverageUs + " us");
+        assertThat(blocking.responses).isEqualTo(CONNECTION_COUNT * REQUESTS_PER_CONNECTION);
+        assertThat(nio.responses).isEqualTo(CONNECTION_COUNT * REQUESTS_PER_CONNECTION);
+        assertThat(nio.threads).isLessThan(blocking.threads);
+    }
+}
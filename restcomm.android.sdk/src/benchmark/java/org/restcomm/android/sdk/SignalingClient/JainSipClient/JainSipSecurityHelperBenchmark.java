@@ -0,0 +1,82 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.Callable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Startup cost of the signaling keystore: generating it from scratch (what
+ *  every open used to do) vs reusing the one from the previous open, with an
+ *  in-memory CA store the size of a typical Android one.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipSecurityHelperBenchmark {
+    private static final int CA_COUNT = 150;
+
+    private File keystoreFile;
+    private KeyStore caStore;
+    private Callable<KeyStore> caStoreLoader;
+    private Mac passwordMac;
+
+    @Before
+    public void setup() throws Exception {
+        keystoreFile = File.createTempFile("keystore", null);
+        keystoreFile.delete();
+
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        caStore = KeyStore.getInstance("BKS");
+        caStore.load(null);
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(new ECGenParameterSpec("secp256r1"));
+        for (int i = 0; i < CA_COUNT; i++) {
+            KeyPair kp = kpg.generateKeyPair();
+            caStore.setCertificateEntry("system:" + i, JainSipSecurityHelper.generateCertificate(kp));
+        }
+        caStoreLoader = new Callable<KeyStore>() {
+            @Override
+            public KeyStore call() {
+                return caStore;
+            }
+        };
+        passwordMac = Mac.getInstance("HmacSHA256");
+        passwordMac.init(new SecretKeySpec(new byte[32], "HmacSHA256"));
+    }
+
+    @After
+    public void teardown() {
+        keystoreFile.delete();
+        new File(keystoreFile.getPath() + ".properties").delete();
+    }
+
+    @Test
+    public void keystore_ColdVsCached() throws Exception {
+        long startTime = System.nanoTime();
+        JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+        long coldTimeMs = (System.nanoTime() - startTime) / 1000000;
+
+        startTime = System.nanoTime();
+        JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+        long cachedTimeMs = (System.nanoTime() - startTime) / 1000000;
+
+        System.out.println("keystore_ColdVsCached(): keystore with " + CA_COUNT + " CAs generated in " + coldTimeMs + " ms, reused in " +
+                cachedTimeMs + " ms");
+        assertThat(cachedTimeMs).isLessThan(coldTimeMs);
+    }
+}
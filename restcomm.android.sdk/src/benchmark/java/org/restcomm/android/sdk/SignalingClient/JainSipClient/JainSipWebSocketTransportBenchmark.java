@@ -0,0 +1,39 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  MESSAGE throughput over a single WebSocket connection to the stand-in
+ *  server of JainSipWebSocketTransportTest. Requests are pipelined rather
+ *  than waiting for each response, so even with the WebSocket handshake
+ *  included we should go well past a couple hundred messages per second.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipWebSocketTransportBenchmark {
+    private static final int MESSAGE_COUNT = 500;
+    private static final long MIN_MESSAGES_PER_SEC = 200;
+
+    @Test
+    public void throughput() throws Exception {
+        JainSipWebSocketTransportTest transport = new JainSipWebSocketTransportTest();
+        transport.setup();
+        try {
+            JainSipWebSocketTransportTest.Result result = transport.send(MESSAGE_COUNT);
+            long elapsedMs = Math.max(1, result.elapsedNs / 1000000);
+            long messagesPerSec = MESSAGE_COUNT * 1000L / elapsedMs;
+
+            System.out.println("throughput(): " + result.succeeded + " of " + MESSAGE_COUNT + " messages over WebSocket in " + elapsedMs + " ms (" +
+                    messagesPerSec + " messages/s)");
+            assertThat(result.succeeded).isEqualTo(MESSAGE_COUNT);
+            assertThat(messagesPerSec).isGreaterThan(MIN_MESSAGES_PER_SEC);
+        }
+        finally {
+            transport.teardown();
+        }
+    }
+}
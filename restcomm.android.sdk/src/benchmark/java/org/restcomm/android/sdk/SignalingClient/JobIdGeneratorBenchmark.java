@@ -0,0 +1,68 @@
+package org.restcomm.android.sdk.SignalingClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Throughput of JobIdGenerator with several threads generating ids at
+ *  once, like a burst of text messages sent from different App threads.
+ *  Bursts need hundreds of thousands of ids per second, all of them unique.
+ *
+ */
+public class JobIdGeneratorBenchmark {
+    private static final int THREAD_COUNT = 8;
+    private static final int IDS_PER_THREAD = 100000;
+    private static final long MIN_IDS_PER_SEC = 100000;
+
+    @Test
+    public void generate_Concurrent() throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final String[][] ids = new String[THREAD_COUNT][IDS_PER_THREAD];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final String[] threadIds = ids[t];
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        threadIds[i] = JobIdGenerator.generate();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long durationMs = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        long idsPerSec = THREAD_COUNT * IDS_PER_THREAD * 1000L / durationMs;
+        System.out.println("generate_Concurrent(): " + (THREAD_COUNT * IDS_PER_THREAD) + " ids from " + THREAD_COUNT + " threads in " + durationMs + " ms (" +
+                idsPerSec + " ids/sec)");
+
+        HashSet<String> uniqueIds = new HashSet<>();
+        for (String[] threadIds : ids) {
+            for (String id : threadIds) {
+                uniqueIds.add(id);
+            }
+        }
+        assertThat(uniqueIds).hasSize(THREAD_COUNT * IDS_PER_THREAD);
+        assertThat(idsPerSec).isGreaterThan(MIN_IDS_PER_SEC);
+    }
+}
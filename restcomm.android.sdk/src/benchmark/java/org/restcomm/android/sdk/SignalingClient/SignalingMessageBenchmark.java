@@ -0,0 +1,98 @@
+package org.restcomm.android.sdk.SignalingClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Events per second through the SignalingHandler -> SignalingClient handler
+ *  pair of SignalingMessageTest, and the cost of a pooled SignalingMessage
+ *  compared to a new one each time. Once the pool is warm, obtain/recycle
+ *  shouldn't allocate at all.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SignalingMessageBenchmark {
+    private static final int ITERATIONS = 100000;
+    private static final String JOB_ID = "benchmark-job";
+    private static final long MIN_EVENTS_PER_SEC = 10000;
+
+    private SignalingMessageTest handlerPair;
+
+    @Before
+    public void setup() throws Exception {
+        handlerPair = new SignalingMessageTest();
+        handlerPair.setup();
+    }
+
+    @After
+    public void teardown() {
+        handlerPair.teardown();
+    }
+
+    @Test
+    public void handlerPair() {
+        // warm up
+        handlerPair.sendEvents(ITERATIONS / 10);
+
+        long allocatedBytes = allocatedBytes();
+        long startTime = System.nanoTime();
+        handlerPair.sendEvents(ITERATIONS);
+        long durationMs = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        allocatedBytes = allocatedBytes() - allocatedBytes;
+
+        long eventsPerSec = ITERATIONS * 1000L / durationMs;
+        System.out.println("handlerPair(): " + ITERATIONS + " DTMF, message and call events in " + durationMs + " ms (" +
+                eventsPerSec + " events/sec, " + (allocatedBytes / ITERATIONS) + " bytes/event)");
+        assertThat(eventsPerSec).isGreaterThan(MIN_EVENTS_PER_SEC);
+    }
+
+    @Test
+    public void obtainVsNew() {
+        // warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            new SignalingMessage(JOB_ID, SignalingMessage.MessageType.CALL_SEND_DIGITS_EVENT);
+            SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.CALL_SEND_DIGITS_EVENT).recycle();
+        }
+
+        long newBytes = allocatedBytes();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            SignalingMessage message = new SignalingMessage(JOB_ID, SignalingMessage.MessageType.CALL_SEND_DIGITS_EVENT);
+            message.dtmfDigits = "1";
+        }
+        long newNs = (System.nanoTime() - startTime) / ITERATIONS;
+        newBytes = (allocatedBytes() - newBytes) / ITERATIONS;
+
+        long obtainBytes = allocatedBytes();
+        startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            SignalingMessage message = SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.CALL_SEND_DIGITS_EVENT);
+            message.dtmfDigits = "1";
+            message.recycle();
+        }
+        long obtainNs = (System.nanoTime() - startTime) / ITERATIONS;
+        obtainBytes = (allocatedBytes() - obtainBytes) / ITERATIONS;
+
+        System.out.println("obtainVsNew(): new: " + newNs + " ns, " + newBytes + " bytes; obtain/recycle: " + obtainNs + " ns, " +
+                obtainBytes + " bytes (per message)");
+        assertThat(obtainBytes).isEqualTo(0);
+    }
+
+    // ------ Helpers
+    // Bytes allocated by this thread so far, where the JVM can tell (0 otherwise)
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,73 @@
+package org.restcomm.android.sdk.fcm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  End-to-end push registration time with and without cached responses to
+ *  revalidate, against the stand-in Restcomm API of FcmConfigurationHandlerTest
+ *  (which adds a fixed latency to every request). Since the independent
+ *  lookups run concurrently, a registration should take well under the sum of
+ *  its requests, and once cached, lookups should come back as not modified.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FcmConfigurationHandlerBenchmark {
+    private static final int ITERATIONS = 20;
+    private static final String TOKEN = "fcm-token-1";
+
+    private FcmConfigurationHandlerTest api;
+
+    @Before
+    public void setup() throws Exception {
+        api = new FcmConfigurationHandlerTest();
+        api.setup();
+    }
+
+    @After
+    public void teardown() {
+        api.teardown();
+    }
+
+    @Test
+    public void registration() {
+        // warm up
+        for (int i = 0; i < ITERATIONS / 4; i++) {
+            api.register(TOKEN, false, new HashMap<String, String>());
+        }
+
+        int sent = api.totalRequests();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            FcmConfigurationClient.clearResponseCache();
+            api.register(TOKEN, false, new HashMap<String, String>());
+        }
+        long coldMs = (System.nanoTime() - startTime) / ITERATIONS / 1000000;
+        int coldRequests = (api.totalRequests() - sent) / ITERATIONS;
+
+        api.notModified.set(0);
+        sent = api.totalRequests();
+        startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            api.register(TOKEN, false, new HashMap<String, String>());
+        }
+        long warmMs = (System.nanoTime() - startTime) / ITERATIONS / 1000000;
+        int warmRequests = (api.totalRequests() - sent) / ITERATIONS;
+
+        long latencyMs = FcmConfigurationHandlerTest.LATENCY_MS;
+        System.out.println("registration(): " + latencyMs + " ms per request; no cached responses: " + coldMs + " ms, " + coldRequests +
+                " requests; revalidating: " + warmMs + " ms, " + warmRequests + " requests (" + (api.notModified.get() / ITERATIONS) + " not modified) " +
+                "(per registration; " + (latencyMs * coldRequests) + " ms if run one after another)");
+        assertThat(coldMs).isLessThan(latencyMs * coldRequests);
+        assertThat(warmMs).isLessThan(latencyMs * warmRequests);
+        // all 5 lookups of every registration were revalidated
+        assertThat(api.notModified.get()).isEqualTo(5 * ITERATIONS);
+    }
+}
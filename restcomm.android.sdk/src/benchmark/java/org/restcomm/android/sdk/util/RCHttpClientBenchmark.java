@@ -0,0 +1,105 @@
+package org.restcomm.android.sdk.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Request latency, threads started and connections opened by RCHttpClient
+ *  vs the thread per request, connection per request pattern it replaced,
+ *  against the stand-in server of RCHttpClientTest. The shared client should
+ *  start fewer threads and reuse its connections.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RCHttpClientBenchmark {
+    private static final int ITERATIONS = 200;
+
+    private RCHttpClientTest server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new RCHttpClientTest();
+        server.setup();
+    }
+
+    @After
+    public void teardown() {
+        server.teardown();
+    }
+
+    @Test
+    public void sharedClientVsThreadPerRequest() throws Exception {
+        String url = server.baseUrl + "/ice";
+        // warm up
+        for (int i = 0; i < ITERATIONS / 10; i++) {
+            legacyRequest(url);
+            server.httpClient.submit(new RCHttpClient.Request("GET", url)).get();
+        }
+
+        server.remotePorts.clear();
+        long threads = startedThreads();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            legacyRequest(url);
+        }
+        long legacyUs = (System.nanoTime() - startTime) / ITERATIONS / 1000;
+        long legacyThreads = startedThreads() - threads;
+        int legacyConnections = server.remotePorts.size();
+
+        server.remotePorts.clear();
+        threads = startedThreads();
+        startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            server.httpClient.submit(new RCHttpClient.Request("GET", url)).get();
+        }
+        long sharedUs = (System.nanoTime() - startTime) / ITERATIONS / 1000;
+        long sharedThreads = startedThreads() - threads;
+        int sharedConnections = server.remotePorts.size();
+
+        // notice that thread counts include the threads started by the stand-in server, which are the same for both
+        System.out.println("sharedClientVsThreadPerRequest(): " + ITERATIONS + " requests; thread per request: " + legacyUs + " us/request, " +
+                legacyThreads + " threads started, " + legacyConnections + " connections; shared client: " + sharedUs + " us/request, " +
+                sharedThreads + " threads started, " + sharedConnections + " connections");
+        assertThat(sharedThreads).isLessThan(legacyThreads);
+        assertThat(sharedConnections).isLessThan(legacyConnections);
+    }
+
+    // ------ Helpers
+    // What we used to do: a new thread and a new connection for each request
+    private static void legacyRequest(final String url) throws Exception {
+        final String[] body = new String[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                    connection.setUseCaches(false);
+                    body[0] = RCHttpClientTest.readFully(connection.getInputStream());
+                    connection.disconnect();
+                }
+                catch (IOException e) {
+                    body[0] = null;
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        if (body[0] == null) {
+            throw new IOException("Request to " + url + " failed");
+        }
+    }
+
+    private static long startedThreads() {
+        return ManagementFactory.getThreadMXBean().getTotalStartedThreadCount();
+    }
+}
@@ -114,10 +114,21 @@ public class PeerConnectionClient {
   // created on the same thread as previously destroyed factory.
   private static final ExecutorService executor = Executors.newSingleThreadExecutor();
 
+  // Factory pool (see startFactoryPool()): keeps the factory and EGL context of a finished call
+  // around so that the next call can skip creating them. Holds at most one idle entry. Guarded
+  // by PeerConnectionClient.class
+  private static boolean factoryPoolEnabled = false;
+  private static PooledFactory pooledFactory = null;
+
   private final PCObserver pcObserver = new PCObserver();
   private final SDPObserver sdpObserver = new SDPObserver();
 
   private final EglBase rootEglBase;
+  // Pool entry this client got its EGL context from and will return the factory to; null if
+  // the pool was disabled when the client was created
+  private final PooledFactory poolEntry;
+  // Factory came from the pool instead of being created for this call
+  private volatile boolean factoryReused;
   private PeerConnectionFactory factory;
   private PeerConnection peerConnection;
   PeerConnectionFactory.Options options = null;
@@ -325,8 +336,111 @@ public class PeerConnectionClient {
     void onVideoReattached();
   }
 
+  /**
+   * A peer connection factory together with the EGL context its video codecs were created with,
+   * as kept in the factory pool. The factory is only touched on the executor thread.
+   */
+  private static class PooledFactory {
+    final EglBase eglBase;
+    PeerConnectionFactory factory;
+    // settings the factory was created for, see factoryKey()
+    String key;
+
+    PooledFactory(EglBase eglBase) {
+      this.eglBase = eglBase;
+    }
+  }
+
   public PeerConnectionClient() {
-    rootEglBase = EglBase.create();
+    poolEntry = takeFromFactoryPool();
+    rootEglBase = (poolEntry != null) ? poolEntry.eglBase : EglBase.create();
+  }
+
+  // Used to warm up a pool entry, see startFactoryPool()
+  private PeerConnectionClient(PooledFactory poolEntry) {
+    this.poolEntry = poolEntry;
+    rootEglBase = poolEntry.eglBase;
+  }
+
+  /**
+   * Enable the factory pool and warm it up: a peer connection factory (with its EGL context,
+   * audio device module and codecs) is prepared in the background for the given settings, and
+   * from then on handed from one call to the next instead of being created and disposed for each
+   * call. Calls with settings that need a different factory still get one created on the spot.
+   */
+  public static void startFactoryPool(
+      final Context context, final PeerConnectionParameters peerConnectionParameters) {
+    synchronized (PeerConnectionClient.class) {
+      factoryPoolEnabled = true;
+      if (pooledFactory != null) {
+        return;
+      }
+      final PooledFactory entry = new PooledFactory(EglBase.create());
+      final PeerConnectionClient warmer = new PeerConnectionClient(entry);
+      warmer.peerConnectionParameters = peerConnectionParameters;
+      warmer.videoCallEnabled = peerConnectionParameters.videoCallEnabled;
+      pooledFactory = entry;
+      // Clients created from now on run their factory tasks after this one, so they find the
+      // factory in place
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          long startTime = System.currentTimeMillis();
+          warmer.createPeerConnectionFactoryInternal(context);
+          entry.factory = warmer.factory;
+          entry.key = factoryKey(peerConnectionParameters, null);
+          Log.d(TAG, "Pooled peer connection factory created in "
+              + (System.currentTimeMillis() - startTime) + "ms");
+        }
+      });
+    }
+  }
+
+  /**
+   * Release the idle pooled factory, if any, for example under memory pressure. The pool stays
+   * enabled, so the next call creates a factory from scratch and keeps it for the ones after it.
+   *
+   * @return true if there was an idle factory to release
+   */
+  public static boolean trimFactoryPool() {
+    final PooledFactory entry;
+    synchronized (PeerConnectionClient.class) {
+      entry = pooledFactory;
+      pooledFactory = null;
+    }
+    if (entry == null) {
+      return false;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (entry.factory != null) {
+          entry.factory.dispose();
+          entry.factory = null;
+        }
+        entry.eglBase.release();
+        Log.d(TAG, "Pooled peer connection factory released.");
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Disable the factory pool and release the idle pooled factory, if any. A factory in use by an
+   * ongoing call is disposed when the call ends.
+   */
+  public static void stopFactoryPool() {
+    synchronized (PeerConnectionClient.class) {
+      factoryPoolEnabled = false;
+    }
+    trimFactoryPool();
+  }
+
+  /**
+   * Was the factory of this client taken from the factory pool, instead of created for the call?
+   */
+  public boolean isFactoryReused() {
+    return factoryReused;
   }
 
   public void setPeerConnectionFactoryOptions(PeerConnectionFactory.Options options) {
@@ -548,6 +662,21 @@ public class PeerConnectionClient {
       }
     });
 
+    // Reuse the pooled factory if it was created for the same settings; audio and codec settings
+    // above only take effect when a factory is created
+    if (poolEntry != null && poolEntry.factory != null) {
+      if (factoryKey(peerConnectionParameters, options).equals(poolEntry.key)) {
+        factory = poolEntry.factory;
+        poolEntry.factory = null;
+        factoryReused = true;
+        Log.d(TAG, "Reusing pooled peer connection factory.");
+        return;
+      }
+      Log.d(TAG, "Pooled peer connection factory created for other settings, disposing it.");
+      poolEntry.factory.dispose();
+      poolEntry.factory = null;
+    }
+
     // Create peer connection factory.
     if (options != null) {
       Log.d(TAG, "Factory networkIgnoreMask option: " + options.networkIgnoreMask);
@@ -757,12 +886,15 @@ public class PeerConnectionClient {
     localRender = null;
     remoteRenders = null;
     Log.d(TAG, "Closing peer connection factory.");
-    if (factory != null) {
+    boolean pooled = returnToFactoryPool();
+    if (factory != null && !pooled) {
       factory.dispose();
-      factory = null;
     }
+    factory = null;
     options = null;
-    rootEglBase.release();
+    if (!pooled) {
+      rootEglBase.release();
+    }
     Log.d(TAG, "Closing peer connection done.");
     events.onPeerConnectionClosed();
     PeerConnectionFactory.stopInternalTracingCapture();
@@ -770,6 +902,56 @@ public class PeerConnectionClient {
     events = null;
   }
 
+  // Hand factory and EGL context over to the pool for the next call, if the pool is enabled and
+  // has room. Runs on the executor thread
+  private boolean returnToFactoryPool() {
+    if (poolEntry == null || factory == null || isError) {
+      return false;
+    }
+    synchronized (PeerConnectionClient.class) {
+      if (!factoryPoolEnabled || pooledFactory != null) {
+        return false;
+      }
+      poolEntry.factory = factory;
+      poolEntry.key = factoryKey(peerConnectionParameters, options);
+      pooledFactory = poolEntry;
+    }
+    Log.d(TAG, "Peer connection factory returned to pool.");
+    return true;
+  }
+
+  // Take the idle pool entry, or a fresh one to be returned to the pool after the call, if the
+  // pool is enabled
+  private static PooledFactory takeFromFactoryPool() {
+    synchronized (PeerConnectionClient.class) {
+      if (!factoryPoolEnabled) {
+        return null;
+      }
+      if (pooledFactory != null) {
+        PooledFactory entry = pooledFactory;
+        pooledFactory = null;
+        return entry;
+      }
+    }
+    return new PooledFactory(EglBase.create());
+  }
+
+  // Settings that go into creating a peer connection factory; a pooled factory is only reused
+  // for a call with the same ones
+  private static String factoryKey(
+      PeerConnectionParameters parameters, PeerConnectionFactory.Options options) {
+    String key = parameters.videoCodecHwAcceleration + ","
+        + VIDEO_CODEC_H264_HIGH.equals(parameters.videoCodec) + ","
+        + parameters.videoFlexfecEnabled + "," + parameters.disableWebRtcAGCAndHPF + ","
+        + parameters.useOpenSLES + "," + parameters.disableBuiltInAEC + ","
+        + parameters.disableBuiltInAGC + "," + parameters.disableBuiltInNS;
+    if (options != null) {
+      key += "," + options.networkIgnoreMask + "," + options.disableEncryption + ","
+          + options.disableNetworkMonitor;
+    }
+    return key;
+  }
+
   public boolean isHDVideo() {
     return videoCallEnabled && videoWidth * videoHeight >= 1280 * 720;
   }
@@ -1114,7 +1296,8 @@ public class PeerConnectionClient {
     executor.execute(new Runnable() {
       @Override
       public void run() {
-        if (!isError) {
+        // no events for a factory being warmed up for the pool
+        if (!isError && events != null) {
           events.onPeerConnectionError(errorMessage);
           isError = true;
         }
@@ -0,0 +1,269 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+
+package org.restcomm.android.sdk.MediaClient.util;
+
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+import org.webrtc.PeerConnection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IceServerCache keeps the ICE servers (and TURN credentials) retrieved from ICE servers configuration URLs process-wide, so that calls don't
+ * have to wait for an HTTP round trip before media setup can start. Specifically:
+ * - cache hits are served right away
+ * - entries are only served for as long as their credentials are valid (see IceServerFetcher.Settings.parseResponse()), minus a safety margin so that
+ *   the call has time to use them
+ * - entries are refreshed in the background before they expire, as long as they are in use
+ * - requests for an entry that is being fetched wait for that fetch instead of starting another one
+ *
+ * Entries are keyed by discovery type, URL and account (see IceServerFetcher.Settings.getCacheKey()), so that changing ICE settings never picks up
+ * servers retrieved for the old ones.
+ *
+ * Cache hits and misses are counted on the counters of the requesting fetcher, whereas fetches are counted on the counters of the device that
+ * requested the entry last, as the entry is shared process-wide.
+ *
+ * Fetching happens in a dedicated background thread; the cache is accessed both from there and from the UI thread, hence it's synchronized
+ */
+class IceServerCache {
+   // don't serve credentials that are that close to expiring
+   static final long EXPIRY_MARGIN = 30 * 1000;
+   // retry interval when a background refresh fails
+   static final long REFRESH_RETRY_INTERVAL = 30 * 1000;
+   // refresh entries once that much of their TTL has elapsed
+   private static final double REFRESH_RATIO = 0.8;
+
+   private static final IceServerCache instance = new IceServerCache(EXPIRY_MARGIN);
+
+   private static class Entry {
+      final String key;
+      // only the settings; the requesting fetchers (and the calls behind their events) must not outlive their request
+      final IceServerFetcher.Settings settings;
+      LinkedList<PeerConnection.IceServer> iceServers;
+      // uptime when the entry was last fetched and used, and when it stops being served
+      long fetchedTime;
+      long usedTime;
+      long expiryTime;
+      boolean fetching;
+      ScheduledFuture<?> refresh;
+      // requests waiting for the ongoing fetch
+      final List<IceServerFetcher.IceServerFetcherEvents> waiting = new ArrayList<>();
+      // counters of the device that requested the entry last; fetches (including background refreshes) are counted there
+      SignalingCounters counters;
+
+      Entry(IceServerFetcher.Settings settings)
+      {
+         this.key = settings.getCacheKey();
+         this.settings = settings;
+      }
+   }
+
+   private final long expiryMargin;
+   private final HashMap<String, Entry> cache = new HashMap<>();
+   private ScheduledExecutorService executor;
+   private static final String TAG = "IceServerCache";
+
+   IceServerCache(long expiryMargin)
+   {
+      this.expiryMargin = expiryMargin;
+   }
+
+   static IceServerCache getInstance()
+   {
+      return instance;
+   }
+
+   /**
+    * Get the ICE servers for a fetcher's settings; the result is conveyed through the fetcher's events. Served from the cache when there's
+    * a valid entry (in which case events fire before this returns), otherwise fetched in the background. The events are only kept until
+    * they are notified
+    * @param fetcher Fetcher with the ICE settings and events to use
+    */
+   void get(IceServerFetcher fetcher)
+   {
+      String key = fetcher.getSettings().getCacheKey();
+      LinkedList<PeerConnection.IceServer> iceServers = null;
+      synchronized (this) {
+         long now = now();
+         Entry entry = cache.get(key);
+         if (entry == null) {
+            entry = new Entry(fetcher.getSettings());
+            cache.put(key, entry);
+         }
+         entry.counters = fetcher.getCounters();
+
+         if (entry.iceServers != null && now < entry.expiryTime) {
+            entry.usedTime = now;
+            iceServers = new LinkedList<>(entry.iceServers);
+         }
+         else {
+            entry.waiting.add(fetcher.getEvents());
+            if (!entry.fetching) {
+               fetchAsync(entry, 0);
+            }
+         }
+      }
+
+      if (iceServers != null) {
+         RCLogger.i(TAG, "get(): serving cached ICE servers");
+         fetcher.getCounters().increment(SignalingMetrics.Counter.ICE_SERVERS_CACHE_HITS);
+         fetcher.getEvents().onIceServersReady(iceServers);
+      }
+      else {
+         fetcher.getCounters().increment(SignalingMetrics.Counter.ICE_SERVERS_CACHE_MISSES);
+      }
+   }
+
+   long now()
+   {
+      return SystemClock.elapsedRealtime();
+   }
+
+   // Blocks for as long as the HTTP request takes; only called from the cache's background thread
+   IceServerFetcher.IceServers fetch(IceServerFetcher.Settings settings) throws IOException
+   {
+      return settings.fetch();
+   }
+
+   // ------ Helpers
+   // Needs to be called with the lock held
+   private void fetchAsync(final Entry entry, long delay)
+   {
+      if (entry.refresh != null) {
+         entry.refresh.cancel(false);
+      }
+      entry.fetching = (delay == 0);
+      entry.refresh = getExecutor().schedule(new Runnable() {
+         @Override
+         public void run()
+         {
+            fetch(entry);
+         }
+      }, delay, TimeUnit.MILLISECONDS);
+   }
+
+   private void fetch(Entry entry)
+   {
+      SignalingCounters counters;
+      synchronized (this) {
+         if (cache.get(entry.key) != entry) {
+            // removed in the meantime
+            return;
+         }
+         // only keep entries warm while they are being used; an entry that hasn't been used since it was last fetched will be fetched again on demand
+         if (!entry.fetching && entry.waiting.isEmpty() && entry.usedTime < entry.fetchedTime) {
+            RCLogger.v(TAG, "fetch(): entry not used lately, won't refresh");
+            return;
+         }
+         entry.fetching = true;
+         counters = entry.counters;
+      }
+
+      long startTime = now();
+      IceServerFetcher.IceServers result = null;
+      String error = null;
+      try {
+         result = fetch(entry.settings);
+      }
+      catch (IOException e) {
+         error = e.getMessage();
+      }
+      long now = now();
+      counters.increment(SignalingMetrics.Counter.ICE_SERVERS_FETCHES);
+      if (result == null) {
+         counters.increment(SignalingMetrics.Counter.ICE_SERVERS_FETCH_FAILURES);
+      }
+      counters.add(SignalingMetrics.Counter.ICE_SERVERS_FETCH_LATENCY_TOTAL_MS, now - startTime);
+      counters.max(SignalingMetrics.Counter.ICE_SERVERS_FETCH_LATENCY_MAX_MS, now - startTime);
+
+      List<IceServerFetcher.IceServerFetcherEvents> waiting;
+      synchronized (this) {
+         entry.fetching = false;
+         entry.refresh = null;
+         waiting = new ArrayList<>(entry.waiting);
+         entry.waiting.clear();
+
+         if (result != null) {
+            entry.iceServers = result.iceServers;
+            entry.fetchedTime = now;
+            if (!waiting.isEmpty()) {
+               entry.usedTime = now;
+            }
+            entry.expiryTime = now + result.ttl - expiryMargin;
+            RCLogger.i(TAG, "fetch(): fetched " + result.iceServers.size() + " ICE servers in " + (now - startTime) + " ms, TTL: " + result.ttl / 1000 + " s");
+            if (cache.get(entry.key) == entry && entry.expiryTime > now) {
+               fetchAsync(entry, Math.max(0, (long) (result.ttl * REFRESH_RATIO) - expiryMargin));
+            }
+         }
+         else {
+            RCLogger.w(TAG, "fetch(): failed to fetch ICE servers: " + error);
+            if (entry.iceServers != null && now + REFRESH_RETRY_INTERVAL < entry.expiryTime) {
+               // keep serving what we have, and try again later
+               fetchAsync(entry, REFRESH_RETRY_INTERVAL);
+            }
+            else {
+               cache.remove(entry.key);
+            }
+         }
+      }
+
+      // notify outside the lock, as listeners might well come back for more
+      for (IceServerFetcher.IceServerFetcherEvents events : waiting) {
+         if (result != null) {
+            events.onIceServersReady(new LinkedList<>(result.iceServers));
+         }
+         else {
+            events.onIceServersError(error);
+         }
+      }
+   }
+
+   private synchronized ScheduledExecutorService getExecutor()
+   {
+      if (executor == null) {
+         executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "restcomm-ice");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+      return executor;
+   }
+}
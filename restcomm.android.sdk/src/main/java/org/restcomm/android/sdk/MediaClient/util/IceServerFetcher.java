@@ -53,27 +53,32 @@ package org.restcomm.android.sdk.MediaClient.util;
 //import org.appspot.apprtc.util.AsyncHttpURLConnection;
 //import org.appspot.apprtc.util.AsyncHttpURLConnection.AsyncHttpEvents;
 
+import android.util.Base64;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.util.RCHttpClient;
 import org.restcomm.android.sdk.util.RCLogger;
 import org.webrtc.PeerConnection;
 
+import java.io.IOException;
 import java.util.LinkedList;
 
-// Fetches the ICE Servers asynchronously and provides callbacks for result
+// Fetches the ICE Servers asynchronously and provides callbacks for result. Results are shared process-wide through IceServerCache, so most
+// calls are served without an HTTP round trip, and requests go through the SDK wide RCHttpClient
 public class IceServerFetcher {
     private static final String TAG = "IceServerFetcher";
+    // for how long ICE servers are cached when the response says nothing about credential lifetime
+    static final long DEFAULT_TTL = 5 * 60 * 1000;
+    private static final String HTTP_ORIGIN = "https://apprtc.appspot.com";
     private final IceServerFetcherEvents events;
-    private final String iceUrl;
-    private boolean turnEnabled = true;
-    private RCDevice.MediaIceServersDiscoveryType iceServersDiscoveryType;
-    private String username;
-    private String password;
-    private AsyncHttpURLConnection httpConnection;
+    private final Settings settings;
+    // counters of the device this fetcher works for; see IceServerCache on what is counted there
+    private final SignalingCounters counters;
 
     /**
      * Room parameters fetcher callbacks.
@@ -90,106 +95,187 @@ public class IceServerFetcher {
         public void onIceServersError(final String description);
     }
 
-    public IceServerFetcher(String iceUrl, boolean turnEnabled, RCDevice.MediaIceServersDiscoveryType iceServersDiscoveryType, String username, String password,
-                            final IceServerFetcherEvents events) {
-        RCLogger.i(TAG, "IceServerFetcher(): iceServersDiscoveryType: " + iceServersDiscoveryType + ", turn enabled: " + turnEnabled + ", username: " + username);
+    /**
+     * ICE servers as retrieved from the configuration URL, together with for how long their credentials are valid
+     */
+    static class IceServers {
+        final LinkedList<PeerConnection.IceServer> iceServers;
+        // in milliseconds
+        final long ttl;
 
-        this.iceUrl = iceUrl;
-        this.turnEnabled = turnEnabled;
-        this.iceServersDiscoveryType = iceServersDiscoveryType;
-        this.username = username;
-        this.password = password;
-        this.events = events;
+        IceServers(LinkedList<PeerConnection.IceServer> iceServers, long ttl) {
+            this.iceServers = iceServers;
+            this.ttl = ttl;
+        }
     }
 
-    public void makeRequest() {
-        RCLogger.d(TAG, "Requesting ICE servers from: " + iceUrl);
-        String method = "GET";
-        if (iceServersDiscoveryType == RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3) {
-            method = "PUT";
-        }
+    /**
+     * What ICE servers are fetched with: configuration URL, discovery type, account and whether TURN is enabled. Kept apart from the events
+     * so that IceServerCache can hold on to it process-wide without keeping the requesting call alive
+     */
+    static class Settings {
+        private final String iceUrl;
+        private final boolean turnEnabled;
+        private final RCDevice.MediaIceServersDiscoveryType iceServersDiscoveryType;
+        private final String username;
+        private final String password;
 
-        httpConnection = new AsyncHttpURLConnection(
-                method, iceUrl, iceServersDiscoveryType, username, password,
-                new AsyncHttpURLConnection.AsyncHttpEvents() {
-                    @Override
-                    public void onHttpError(String errorMessage) {
-                        RCLogger.e(TAG, "ICE servers timeout or error: " + errorMessage);
-                        events.onIceServersError("ICE servers timeout or error: " + errorMessage);
-                    }
+        Settings(String iceUrl, boolean turnEnabled, RCDevice.MediaIceServersDiscoveryType iceServersDiscoveryType, String username, String password) {
+            this.iceUrl = iceUrl;
+            this.turnEnabled = turnEnabled;
+            this.iceServersDiscoveryType = iceServersDiscoveryType;
+            this.username = username;
+            this.password = password;
+        }
 
-                    @Override
-                    public void onHttpComplete(String response) {
-                        iceServersHttpResponseParse(response);
-                    }
-                });
-        httpConnection.send();
-    }
+        // ICE servers depend on discovery type, URL and account, as well as on whether TURN is enabled (see parseResponse())
+        String getCacheKey() {
+            return iceServersDiscoveryType + "|" + iceUrl + "|" + username + "|" + (password != null ? password.hashCode() : 0) + "|" + turnEnabled;
+        }
 
-    private void iceServersHttpResponseParse(String response) {
-        try {
-            JSONObject iceServersJson = new JSONObject(response);
-
-            if (iceServersDiscoveryType == RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V2) {
-                int result = iceServersJson.getInt("s");
-                RCLogger.d(TAG, "Ice Servers response status: " + result);
-                if (result != 200) {
-                    events.onIceServersError("Ice Servers response error: " + iceServersJson.getString("e"));
-                    return;
-                }
-            }
-            else {
-                String result = iceServersJson.getString("s");
-                RCLogger.d(TAG, "Ice Servers response status: " + result);
-                if (!result.equals("ok")) {
-                    //events.onIceServersError("Ice Servers response error: " + iceServersJson.getString("e"));
-                    events.onIceServersError("Ice Servers response error: " + iceServersJson.getString("s"));
-                    return;
-                }
+        // Retrieve the ICE servers from the configuration URL. Blocks for as long as the HTTP request takes, so never call it from the main thread
+        IceServers fetch() throws IOException {
+            RCLogger.d(TAG, "Requesting ICE servers from: " + iceUrl);
+            String method = "GET";
+            if (iceServersDiscoveryType == RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3) {
+                method = "PUT";
             }
 
-            JSONArray iceServersArray;
-            LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<PeerConnection.IceServer>();
-            if (iceServersDiscoveryType == RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V2) {
-                iceServersArray = iceServersJson.getJSONObject("d").getJSONArray("iceServers");
+            RCHttpClient.Request request = new RCHttpClient.Request(method, iceUrl)
+                    .setHeader("origin", HTTP_ORIGIN)
+                    .setHeader("Content-Type", "text/plain; charset=utf-8");
+            if (iceServersDiscoveryType == RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3) {
+                String credentials = username + ":" + password;
+                request.setHeader("Authorization", "Basic " + Base64.encodeToString(credentials.getBytes(), Base64.NO_WRAP));
             }
-            else {
-                iceServersArray = iceServersJson.getJSONObject("v").getJSONArray("iceServers");
+
+            String response;
+            try {
+                RCHttpClient.Response httpResponse = RCHttpClient.getInstance().execute(request);
+                if (httpResponse.getStatusCode() != 200) {
+                    throw new IOException("Non-200 response to " + method + " to URL: " + iceUrl + " : " + httpResponse.getStatusCode());
+                }
+                response = httpResponse.getBody();
+            } catch (IOException e) {
+                RCLogger.e(TAG, "ICE servers timeout or error: " + e.getMessage());
+                throw new IOException("ICE servers timeout or error: " + e.getMessage(), e);
             }
-            for (int i = 0; i < iceServersArray.length(); ++i) {
+            return parseResponse(response);
+        }
 
-                String iceServerString = iceServersArray.getString(i);
-                JSONObject iceServerJson = new JSONObject(iceServerString);
+        IceServers parseResponse(String response) throws IOException {
+            try {
+                JSONObject iceServersJson = new JSONObject(response);
 
-                String url = iceServerJson.getString("url");
-                // Turn urls can start with 'turn' or 'turns'
-                if (!this.turnEnabled && url.startsWith("turn")) {
-                    // if turn is not enabled and the server we got back is a turn (as opposed to stun), skip it
-                    continue;
+                JSONObject body;
+                if (iceServersDiscoveryType == RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V2) {
+                    int result = iceServersJson.getInt("s");
+                    RCLogger.d(TAG, "Ice Servers response status: " + result);
+                    if (result != 200) {
+                        throw new IOException("Ice Servers response error: " + iceServersJson.getString("e"));
+                    }
+                    body = iceServersJson.getJSONObject("d");
                 }
-                /* When TURN is enabled, don't add turns urls
-                if (this.turnEnabled && url.startsWith("turns")) {
-                    // if turn is not enabled and the server we got back is a turn (as opposed to stun), skip it
-                    continue;
+                else {
+                    String result = iceServersJson.getString("s");
+                    RCLogger.d(TAG, "Ice Servers response status: " + result);
+                    if (!result.equals("ok")) {
+                        //events.onIceServersError("Ice Servers response error: " + iceServersJson.getString("e"));
+                        throw new IOException("Ice Servers response error: " + iceServersJson.getString("s"));
+                    }
+                    body = iceServersJson.getJSONObject("v");
                 }
-                */
 
-                // username and credentials is optional, for example in the STUN server setting
-                String username = "", password = "";
-                if (iceServerJson.has("username")) {
-                    username = iceServerJson.getString("username");
-                }
-                if (iceServerJson.has("credential")) {
-                    password = iceServerJson.getString("credential");
+                JSONArray iceServersArray = body.getJSONArray("iceServers");
+                LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<PeerConnection.IceServer>();
+                long ttl = parseTtl(iceServersJson, body);
+                for (int i = 0; i < iceServersArray.length(); ++i) {
+
+                    String iceServerString = iceServersArray.getString(i);
+                    JSONObject iceServerJson = new JSONObject(iceServerString);
+
+                    String url = iceServerJson.getString("url");
+                    // Turn urls can start with 'turn' or 'turns'
+                    if (!this.turnEnabled && url.startsWith("turn")) {
+                        // if turn is not enabled and the server we got back is a turn (as opposed to stun), skip it
+                        continue;
+                    }
+                    /* When TURN is enabled, don't add turns urls
+                    if (this.turnEnabled && url.startsWith("turns")) {
+                        // if turn is not enabled and the server we got back is a turn (as opposed to stun), skip it
+                        continue;
+                    }
+                    */
+
+                    // username and credentials is optional, for example in the STUN server setting
+                    String username = "", password = "";
+                    if (iceServerJson.has("username")) {
+                        username = iceServerJson.getString("username");
+                        ttl = Math.min(ttl, parseUsernameTtl(username));
+                    }
+                    if (iceServerJson.has("credential")) {
+                        password = iceServerJson.getString("credential");
+                    }
+                    iceServers.add(new PeerConnection.IceServer(url, username, password));
+
+                    RCLogger.d(TAG, "==== URL: " + url + ", username: " + username);
                 }
-                iceServers.add(new PeerConnection.IceServer(url, username, password));
 
-                RCLogger.d(TAG, "==== URL: " + url + ", username: " + username);
+                return new IceServers(iceServers, ttl);
+            } catch (JSONException e) {
+                throw new IOException("ICE server JSON parsing error: " + e.toString(), e);
             }
+        }
+    }
+
+    public IceServerFetcher(String iceUrl, boolean turnEnabled, RCDevice.MediaIceServersDiscoveryType iceServersDiscoveryType, String username, String password,
+                            SignalingCounters counters, final IceServerFetcherEvents events) {
+        RCLogger.i(TAG, "IceServerFetcher(): iceServersDiscoveryType: " + iceServersDiscoveryType + ", turn enabled: " + turnEnabled + ", username: " + username);
+
+        this.settings = new Settings(iceUrl, turnEnabled, iceServersDiscoveryType, username, password);
+        this.counters = counters;
+        this.events = events;
+    }
+
+    public void makeRequest() {
+        IceServerCache.getInstance().get(this);
+    }
+
+    IceServerFetcherEvents getEvents() {
+        return events;
+    }
+
+    Settings getSettings() {
+        return settings;
+    }
+
+    SignalingCounters getCounters() {
+        return counters;
+    }
 
-            events.onIceServersReady(iceServers);
-        } catch (JSONException e) {
-            events.onIceServersError("ICE server JSON parsing error: " + e.toString());
+    // Credential lifetime, if the response states one as 'ttl' in seconds (like the TURN REST API does), either at top level or next to the servers
+    private static long parseTtl(JSONObject iceServersJson, JSONObject body) {
+        if (body.has("ttl")) {
+            return body.optLong("ttl", DEFAULT_TTL / 1000) * 1000;
+        }
+        if (iceServersJson.has("ttl")) {
+            return iceServersJson.optLong("ttl", DEFAULT_TTL / 1000) * 1000;
+        }
+        return DEFAULT_TTL;
+    }
+
+    // With time-limited TURN credentials (as in the TURN REST API) the username is '<expiry timestamp>:<user>', which tells us when they expire
+    private static long parseUsernameTtl(String username) {
+        int index = username.indexOf(':');
+        // UNIX timestamps have had 10 digits since 2001; anything shorter is just a username that happens to contain a colon
+        if (index < 10) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            long expiry = Long.parseLong(username.substring(0, index));
+            return expiry * 1000 - System.currentTimeMillis();
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
         }
     }
 
@@ -106,6 +106,7 @@ public final class RCClient {
       ERROR_MESSAGE_SERVICE_UNAVAILABLE,
       ERROR_MESSAGE_UNTRUSTED_SERVER,
       ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE,
+      ERROR_MESSAGE_QUEUE_FULL,
 
       ERROR_DEVICE_PUSH_NOTIFICATION_ACCOUNT_SID_MISSING,
       ERROR_DEVICE_PUSH_NOTIFICATION_CLIENT_SID_MISSING,
@@ -337,6 +338,9 @@ public final class RCClient {
       else if (errorCode == ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE) {
          return "Failed to send message; RCDevice is offline";
       }
+      else if (errorCode == ErrorCodes.ERROR_MESSAGE_QUEUE_FULL) {
+         return "Failed to send message; too many messages pending to be sent";
+      }
       else  if (errorCode == ErrorCodes.ERROR_DEVICE_PUSH_NOTIFICATION_ACCOUNT_SID_MISSING) {
           return "Failed to register/update for push notification; Account sid cannot be found";
       }
@@ -61,6 +61,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +72,9 @@ import org.restcomm.android.sdk.MediaClient.AppRTCAudioManager;
 import org.restcomm.android.sdk.MediaClient.PeerConnectionClient;
 import org.restcomm.android.sdk.SignalingClient.SignalingParameters;
 import org.restcomm.android.sdk.SignalingClient.SignalingClient;
+import org.restcomm.android.sdk.SignalingClient.JobIdGenerator;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
 import org.restcomm.android.sdk.MediaClient.util.IceServerFetcher;
 
 import org.restcomm.android.sdk.util.PercentFrameLayout;
@@ -265,7 +269,10 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       public static final String CONNECTION_CUSTOM_INCOMING_SIP_HEADERS = "sip-headers-incoming";
       public static final String CONNECTION_SIP_HEADER_KEY_CALL_SID = "X-RestComm-CallSid";
 
-      // Until we have trickle, as a way to timeout sooner than 40 seconds (webrtc default timeout)
+      // Send offer/answer as soon as host candidates are available and trickle the rest over SIP INFO
+      public static final String CONNECTION_TRICKLE_ICE_ENABLED = "trickle-ice-enabled";
+
+      // As a way to timeout sooner than 40 seconds (webrtc default timeout) when not using trickle
       public static final String DEBUG_CONNECTION_CANDIDATE_TIMEOUT = "debug-connection-candidate-timeout";
    }
 
@@ -380,6 +387,8 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    // we need another parameter to keep track of user preference so that we can reattachVideo() properly
    private boolean hasUserMutedVideo;
    private long callStartedTimeMs = 0;
+   // when webrtc facilities started being set up for the call (i.e. call placed or accepted), to report time to offer/answer
+   private long webrtcStartedTimeMs = 0;
    private final boolean DO_TOAST = false;
    // if a call takes too long to establish this handler is used to emit a time out
    private Handler timeoutHandler = null;
@@ -387,6 +396,30 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    private final int CALL_TIMEOUT_DURATION_MILIS = 15 * 1000;
    private Handler candidateTimeoutHandler = null;
    private boolean iceGatheringCompleteCalled = false;
+   // Trickle ICE: offer/answer is sent as soon as host candidates are available and the rest of the candidates follow over SIP INFO
+   private boolean trickleIce = false;
+   // Half trickle (RFC 8838 section 4.3): as offerers we don't know yet whether the peer can take trickled candidates, so the offer waits for
+   // gathering to complete like without trickle ICE. It still advertises trickle ICE though, so that the answerer can trickle towards us
+   private boolean halfTrickle = false;
+   // Whether peers (by URI) supported trickle ICE in their last answer to us, so that we can do full trickle towards the ones we know can take it.
+   // Only accessed from the main thread
+   private static final int MAX_PEER_TRICKLE_SUPPORT_ENTRIES = 64;
+   private static final LinkedHashMap<String, Boolean> peerTrickleSupport = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+      {
+         return size() > MAX_PEER_TRICKLE_SUPPORT_ENTRIES;
+      }
+   };
+   // offer/answer has been sent (or is about to be)
+   private boolean localDescriptionSent = false;
+   // signaling is connected and the peer can take trickled candidates
+   private boolean trickleReady = false;
+   private boolean endOfCandidatesSent = false;
+   // how many of signalingParameters.iceCandidates have been conveyed to the peer so far
+   private int candidatesSent = 0;
+   // when offer/answer was sent, relative to callStartedTimeMs, to report call setup times
+   private long localDescriptionSentDelta = 0;
    // Device was already busy with another Connection when this Connection arrived. If so we need to set this so that we have custom behavior later
    private boolean deviceAlreadyBusy = false;
 
@@ -430,7 +463,7 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
 
       if (builder.jobId == null) {
          // create a unique jobId for the RCConnection, this is used for signaling actions to maintain state
-         jobId = Long.toString(System.currentTimeMillis());
+         jobId = JobIdGenerator.generate();
       }
       else {
          jobId = builder.jobId;
@@ -542,6 +575,10 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
     *   <b>RCConnection.ParameterKeys.CONNECTION_PREFERRED_VIDEO_FRAME_RATE</b>: Preferred frame rate to use. Default is 30fps. Possible values are enumerated at <i>RCConnection.VideoFrameRate</i> <br>
     *   <b>RCConnection.ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS</b>: An optional HashMap&lt;String,String&gt; of custom SIP headers we want to add. For an example
     *                   please check restcomm-helloworld or restcomm-olympus sample Apps (optional) <br>
+    *   <b>RCConnection.ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED</b>: An optional Boolean denoting whether to use trickle ICE, i.e. send the answer as soon as host candidates
+    *                   are available and convey the rest of the candidates over SIP INFO as they are gathered, instead of waiting for all of them. Only takes effect if the offer
+    *                   supports trickle ICE too. When placing calls, the offer only goes out early towards peers known (from previous calls) to support trickle ICE; towards
+    *                   the rest it waits for all candidates, while still letting the peer trickle its own (half trickle). Default is false (optional) <br>
     *   <b>RCConnection.ParameterKeys.DEBUG_CONNECTION_CANDIDATE_TIMEOUT</b>: An optional Integer denoting how long to wait for ICE candidates. Zero means default behaviour which is
     *                   to depend on onIceGatheringComplete from Peer Connection facilities. Any other integer value means to wait at most that amount of time no matter if onIceGatheringComplete has fired.
     *                   The problem we are addressing here is the new Peer Connection ICE gathering timeout which is 40 seconds which is way too long. Notice that the root cause here is in reality
@@ -974,6 +1011,12 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       if (state != ConnectionState.CONNECTED) {
          state = ConnectionState.SIGNALING_CONNECTED;
       }
+
+      if (trickleIce) {
+         // we only trickle if the offer supported it, so no need to check again
+         trickleReady = true;
+         trickleCandidates();
+      }
    }
 
    public void onCallOutgoingConnectedEvent(String jobId, String sdpAnswer, HashMap<String, String> customHeaders)
@@ -990,9 +1033,35 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       if (!this.isIncoming()) {
          remoteMediaType = sdp2Mediatype(sdpAnswer);
          onRemoteDescription(sdpAnswer);
+
+         if (trickleIce) {
+            trickleReady = SignalingParameters.supportsTrickleIce(sdpAnswer);
+            peerTrickleSupport.put(signalingParameters.sipUrl, trickleReady);
+            if (!trickleReady && !halfTrickle) {
+               // we only do full trickle towards peers that supported it last time, so this is rare; we 'll do half trickle towards it from now on
+               RCLogger.w(TAG, "onCallOutgoingConnectedEvent(): peer no longer supports trickle ICE, only candidates sent with the offer will be used");
+            }
+            trickleCandidates();
+         }
       }
    }
 
+   public void onCallRemoteCandidatesEvent(String jobId, String sdpFragment)
+   {
+      RCLogger.i(TAG, "onCallRemoteCandidatesEvent(): jobId: " + jobId);
+
+      final SignalingParameters params = SignalingParameters.extractCandidates(new SessionDescription(
+              isIncoming() ? SessionDescription.Type.OFFER : SessionDescription.Type.ANSWER, sdpFragment));
+      // remote description is applied asynchronously in the main thread, so let's queue the candidates behind it
+      new Handler(device.getMainLooper()).post(new Runnable() {
+         @Override
+         public void run()
+         {
+            onRemoteIceCandidates(params.iceCandidates);
+         }
+      });
+   }
+
    public void onCallLocalDisconnectedEvent(String jobId)
    {
       RCLogger.i(TAG, "onCallLocalDisconnectedEvent(): jobId: " + jobId);
@@ -1229,6 +1298,13 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
                RCConnection.this.signalingParameters.offerSdp = params.offerSdp;
                RCConnection.this.signalingParameters.iceCandidates = params.iceCandidates;
             }
+
+            // when answering we can only trickle if the offerer is ready for it
+            trickleIce = RCConnection.this.callParams.containsKey(ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED) &&
+                    (Boolean) RCConnection.this.callParams.get(ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED) &&
+                    (!RCConnection.this.incoming || SignalingParameters.supportsTrickleIce(incomingCallSdp));
+            // when offering we only send host candidates right away if we know the peer can take the rest trickled
+            halfTrickle = trickleIce && !RCConnection.this.incoming && !Boolean.TRUE.equals(peerTrickleSupport.get(RCConnection.this.signalingParameters.sipUrl));
             startCall(RCConnection.this.signalingParameters);
          }
       };
@@ -1321,7 +1397,7 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       //String url = "https://service.xirsys.com/ice?ident=atsakiridis&secret=SECRET_HERE&domain=cloud.restcomm.com&application=default&room=default&secure=1";
       //url = "https://ice.restcomm.io/_turn/restcomm";
       new IceServerFetcher(url, turnEnabled, iceServerDiscoveryType, (String)deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_USERNAME),
-              (String)deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_PASSWORD), this).makeRequest();
+              (String)deviceParameters.get(RCDevice.ParameterKeys.MEDIA_ICE_PASSWORD), device.getCounters(), this).makeRequest();
    }
 
    private LinkedList<PeerConnection.IceServer> external2InternalIceServers(List<Map<String, String>> iceServers)
@@ -1655,6 +1731,7 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
    {
       RCLogger.i(TAG, "initializeWebrtc()");
 
+      webrtcStartedTimeMs = System.currentTimeMillis();
       iceConnected = false;
       signalingParameters = null;
 
@@ -1681,19 +1758,31 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
       RCLogger.i(TAG, "Initializing PeerConnection parameters: audioCodec: " + preferredAudioCodecString + ", videoCodec: " + preferredVideoCodecString +
             ", resolution: " + resolution + ", frameRate: " + frameRateInt);
 
-      peerConnectionParameters = new PeerConnectionClient.PeerConnectionParameters(
+      peerConnectionParameters = createPeerConnectionParameters(videoEnabled, preferredVideoCodecString, preferredAudioCodecString, resolution, frameRateInt);
+
+      createPeerConnectionFactory();
+   }
+
+   // PeerConnection parameters for a call; also used by RCDevice to warm up the peer connection factory pool ahead of the first call
+   static PeerConnectionClient.PeerConnectionParameters createPeerConnectionParameters(boolean videoEnabled,
+                                                                                      String preferredVideoCodec,
+                                                                                      String preferredAudioCodec,
+                                                                                      Size resolution,
+                                                                                      int frameRate)
+   {
+      return new PeerConnectionClient.PeerConnectionParameters(
             videoEnabled,  // video call
             false,  // loopback
             false,  // tracing
             resolution.width,  // video width
             resolution.height,  // video height
-            frameRateInt,  // video fps
+            frameRate,  // video fps
             0,  // video start bitrate
-            preferredVideoCodecString,  // video codec
+            preferredVideoCodec,  // video codec
             true,  // video codec hw acceleration enabled
             false, // capture to texture
             0,  // audio start bitrate
-            preferredAudioCodecString,  // audio codec
+            preferredAudioCodec,  // audio codec
             false,  // no audio processing
             false,  // AEC dump
             false,  // use OpenGLES
@@ -1702,8 +1791,6 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
             false,  // disable builtin NS
             false,
             false);  // enable level control
-
-      createPeerConnectionFactory();
    }
 
    private void updateVideoView(VideoViewState state)
@@ -1875,6 +1962,16 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
          public void run()
          {
             RCLogger.i(TAG, "onLocalDescription" + sdp.type + ", delay=" + delta + "ms");
+            if (peerConnectionClient != null) {
+               final boolean warm = peerConnectionClient.isFactoryReused();
+               final long timeToOffer = System.currentTimeMillis() - webrtcStartedTimeMs;
+               RCLogger.i(TAG, "Time to " + sdp.type + ": " + timeToOffer + "ms, " + (warm ? "pooled" : "new") + " peer connection factory");
+               // calls that got their peer connection factory from the pool (see RCDevice.ParameterKeys.MEDIA_PREWARM_ENABLED) vs calls that had to create one
+               SignalingCounters counters = device.getCounters();
+               counters.increment(warm ? SignalingMetrics.Counter.CALLS_WARM : SignalingMetrics.Counter.CALLS_COLD);
+               counters.add(warm ? SignalingMetrics.Counter.TIME_TO_OFFER_WARM_TOTAL_MS : SignalingMetrics.Counter.TIME_TO_OFFER_COLD_TOTAL_MS, timeToOffer);
+               counters.set(SignalingMetrics.Counter.TIME_TO_OFFER_LAST_MS, timeToOffer);
+            }
             if (signalingParameters != null) {  // && !signalingParameters.sipUrl.isEmpty()) {
                //logAndToast("Sending " + sdp.type + ", delay=" + delta + "ms");
                if (signalingParameters.initiator) {
@@ -1909,6 +2006,27 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
          {
             RCLogger.i(TAG, "onIceCandidate:" + candidate);
             connection.signalingParameters.addIceCandidate(candidate);
+
+            if (trickleIce) {
+               if (!localDescriptionSent) {
+                  // with half trickle the offer goes out once gathering is complete, see onIceGatheringComplete()
+                  if (!halfTrickle && SignalingParameters.isHostCandidate(candidate)) {
+                     // Host candidates are here, no need to wait for the rest. Let's post it though, so that other host candidates already
+                     // on their way to the main thread make it into the offer/answer as well
+                     localDescriptionSent = true;
+                     new Handler(device.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                           sendLocalDescription();
+                        }
+                     });
+                  }
+               }
+               else {
+                  trickleCandidates();
+               }
+            }
          }
       };
       mainHandler.post(myRunnable);
@@ -1930,10 +2048,61 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
 
    }
 
-   public void onIceGatheringComplete()
+   // Send offer (with INVITE) or answer (with 200 OK) to the peer, together with the candidates gathered so far
+   private void sendLocalDescription()
    {
-      final RCConnection connection = this;
+      if (peerConnectionClient == null) {
+         // if the user hangs up the call before its setup we need to bail
+         return;
+      }
+
+      candidatesSent = signalingParameters.iceCandidates.size();
+      localDescriptionSentDelta = System.currentTimeMillis() - callStartedTimeMs;
+      RCLogger.i(TAG, "sendLocalDescription(): sending " + (signalingParameters.initiator ? "offer" : "answer") + " with " + candidatesSent +
+              " candidates, delay=" + localDescriptionSentDelta + "ms" + (trickleIce ? (halfTrickle ? ", half trickle" : ", trickling the rest") : ""));
+
+      if (signalingParameters.initiator) {
+         String sdp = signalingParameters.generateSipSdp(signalingParameters.offerSdp, signalingParameters.iceCandidates);
+         HashMap<String, Object> parameters = new HashMap<String, Object>();
+         parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, signalingParameters.sipUrl);
+         parameters.put("sdp", trickleIce ? SignalingParameters.addTrickleIceOption(sdp) : sdp);
+         parameters.put(ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS, signalingParameters.sipHeaders);
+         parameters.put(ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED, trickleIce);
+
+         signalingClient.call(jobId, parameters);
+      } else {
+         String sdp = signalingParameters.generateSipSdp(signalingParameters.answerSdp, signalingParameters.iceCandidates);
+         HashMap<String, Object> parameters = new HashMap<>();
+         parameters.put("sdp", trickleIce ? SignalingParameters.addTrickleIceOption(sdp) : sdp);
+         parameters.put(ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED, trickleIce);
+         signalingClient.accept(jobId, parameters);
+         //connection.state = ConnectionState.CONNECTING;
+      }
+   }
 
+   // Trickle ICE: convey candidates gathered since the last time we sent any to the peer, and once gathering is complete let the peer know
+   // there are no more. Candidates gathered before signaling is connected are sent all together once it is
+   private void trickleCandidates()
+   {
+      if (!trickleReady || endOfCandidatesSent || peerConnectionClient == null) {
+         return;
+      }
+
+      List<IceCandidate> candidates = signalingParameters.iceCandidates;
+      if (candidates.size() == candidatesSent && !iceGatheringCompleteCalled) {
+         return;
+      }
+
+      SessionDescription localSdp = signalingParameters.initiator ? signalingParameters.offerSdp : signalingParameters.answerSdp;
+      signalingClient.sendCandidates(jobId, SignalingParameters.generateTrickleSdpFrag(localSdp, candidates.subList(candidatesSent, candidates.size()),
+              iceGatheringCompleteCalled));
+      RCLogger.i(TAG, "trickleCandidates(): sent " + (candidates.size() - candidatesSent) + " candidates" + (iceGatheringCompleteCalled ? ", end of candidates" : ""));
+      candidatesSent = candidates.size();
+      endOfCandidatesSent = iceGatheringCompleteCalled;
+   }
+
+   public void onIceGatheringComplete()
+   {
       Handler mainHandler = new Handler(device.getMainLooper());
       Runnable myRunnable = new Runnable() {
          @Override
@@ -1950,19 +2119,13 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
                   // if the user hangs up the call before its setup we need to bail
                   return;
                }
-               if (signalingParameters.initiator) {
-                  HashMap<String, Object> parameters = new HashMap<String, Object>();
-                  parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, signalingParameters.sipUrl);
-                  parameters.put("sdp", connection.signalingParameters.generateSipSdp(connection.signalingParameters.offerSdp, connection.signalingParameters.iceCandidates));
-                  parameters.put(ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS, connection.signalingParameters.sipHeaders);
-
-                  signalingClient.call(jobId, parameters);
-               } else {
-                  HashMap<String, Object> parameters = new HashMap<>();
-                  parameters.put("sdp", connection.signalingParameters.generateSipSdp(connection.signalingParameters.answerSdp,
-                          connection.signalingParameters.iceCandidates));
-                  signalingClient.accept(jobId, parameters);
-                  //connection.state = ConnectionState.CONNECTING;
+               if (localDescriptionSent) {
+                  // trickle ICE: offer/answer is already out, just let the peer know that there are no more candidates coming
+                  trickleCandidates();
+               }
+               else {
+                  localDescriptionSent = true;
+                  sendLocalDescription();
                }
             }
             else {
@@ -1994,6 +2157,8 @@ public class RCConnection implements PeerConnectionClient.PeerConnectionEvents,
             timeoutHandler.removeCallbacksAndMessages(null);
 
             logAndToast("ICE connected, delay=" + delta + "ms");
+            RCLogger.i(TAG, "onIceConnected(): call setup as " + (signalingParameters.initiator ? "offerer" : "answerer") + (trickleIce ? " with" : " without") +
+                    " trickle ICE: " + (signalingParameters.initiator ? "offer" : "answer") + " sent after " + localDescriptionSentDelta + "ms, ICE connected after " + delta + "ms");
             iceConnected = true;
             RCConnection.this.state = ConnectionState.CONNECTED;
             updateVideoView(VideoViewState.ICE_CONNECTED);
@@ -40,8 +40,11 @@ import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
 import org.restcomm.android.sdk.MediaClient.AppRTCAudioManager;
+import org.restcomm.android.sdk.MediaClient.PeerConnectionClient;
 import org.restcomm.android.sdk.SignalingClient.JainSipClient.JainSipConfiguration;
 import org.restcomm.android.sdk.SignalingClient.SignalingClient;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
 import org.restcomm.android.sdk.fcm.FcmConfigurationHandler;
 import org.restcomm.android.sdk.fcm.FcmPushRegistrationListener;
 import org.restcomm.android.sdk.fcm.model.FcmBinding;
@@ -55,6 +58,7 @@ import org.restcomm.android.sdk.util.RCUtils;
 import org.squirrelframework.foundation.fsm.StateMachineBuilderFactory;
 import org.squirrelframework.foundation.fsm.UntypedStateMachine;
 import org.squirrelframework.foundation.fsm.UntypedStateMachineBuilder;
+import org.webrtc.Size;
 
 import java.net.URISyntaxException;
 import java.util.HashMap;
@@ -188,6 +192,16 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       public static final String SIGNALING_PASSWORD = "pref_sip_password";
       public static final String SIGNALING_SECURE_ENABLED = "signaling-secure";
       public static final String SIGNALING_LOCAL_PORT = "signaling-local-port";
+      public static final String SIGNALING_MESSAGE_WINDOW_SIZE = "signaling-message-window-size";
+      public static final String SIGNALING_MESSAGE_QUEUE_SIZE = "signaling-message-queue-size";
+      public static final String SIGNALING_MESSAGE_OFFLINE_QUEUE_SIZE = "signaling-message-offline-queue-size";
+      public static final String SIGNALING_CONCURRENT_RECONFIGURE_ENABLED = "signaling-concurrent-reconfigure-enabled";
+      public static final String SIGNALING_OUTBOUND_ENABLED = "signaling-outbound-enabled";
+      public static final String SIGNALING_KEEPALIVE_INTERVAL = "signaling-keepalive-interval";
+      public static final String SIGNALING_DUAL_STACK_ENABLED = "signaling-dual-stack-enabled";
+      public static final String SIGNALING_NIO_ENABLED = "signaling-nio-enabled";
+      public static final String SIGNALING_WEBSOCKET_ENABLED = "signaling-websocket-enabled";
+      public static final String SIGNALING_COMPACT_HEADERS_ENABLED = "signaling-compact-headers-enabled";
       public static final String DEBUG_JAIN_SIP_LOGGING_ENABLED = "jain-sip-logging-enabled";
       public static final String DEBUG_DISABLE_CERTIFICATE_VERIFICATION = "disable-certificate-verification";
       // WARNING This is NOT for production. It's for Integration Tests, where there is no activity to receive call/message events
@@ -200,6 +214,7 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       public static final String MEDIA_ICE_USERNAME = "turn-username";
       public static final String MEDIA_ICE_PASSWORD = "turn-password";
       public static final String MEDIA_ICE_DOMAIN = "ice-domain";
+      public static final String MEDIA_PREWARM_ENABLED = "media-prewarm-enabled";
       public static final String RESOURCE_SOUND_CALLING = "sound-calling";
       public static final String RESOURCE_SOUND_RINGING = "sound-ringing";
       public static final String RESOURCE_SOUND_DECLINED = "sound-declined";
@@ -355,6 +370,8 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
    //private RCConnection incomingConnection;
    private RCDeviceListener.RCConnectivityStatus cachedConnectivityStatus = RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone;
    private SignalingClient signalingClient;
+   // counters for SignalingMetrics kept by the device itself (i.e. call setup and ICE servers), as opposed to the ones of the signaling facilities
+   private final SignalingCounters counters = new SignalingCounters();
    private AppRTCAudioManager audioManager = null;
    //private Context context = null;
 
@@ -539,6 +556,25 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       return true;
    }
 
+   /**
+    * Internal service callback; not meant for application use
+    */
+   @Override
+   public void onTrimMemory(int level)
+   {
+      super.onTrimMemory(level);
+      Log.i(TAG, "%% onTrimMemory: " + level);
+
+      // Pooled media facilities are only there to speed up the next call, so let them go when memory runs low. Notice that we keep them
+      // when the UI is merely hidden (i.e. TRIM_MEMORY_UI_HIDDEN), as incoming calls in the background benefit from them too
+      if (level == TRIM_MEMORY_RUNNING_LOW || level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_BACKGROUND) {
+         if (PeerConnectionClient.trimFactoryPool()) {
+            RCLogger.i(TAG, "Released pooled media facilities, memory trim level: " + level);
+            counters.increment(SignalingMetrics.Counter.MEDIA_FACTORY_POOL_TRIMS);
+         }
+      }
+   }
+
    @Override
    public void onTaskRemoved(Intent rootIntent) {
       super.onTaskRemoved(rootIntent);
@@ -582,7 +618,17 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     *                        signaling facilities are initialized and added to a custom keystore. Also, added to this custom keystore are all the trusted certificates from
     *                        the System Wide Android CA Store, so that we properly accept only legit server certificates. If not passed (or false) signaling is cleartext (optional) <br>
     *                        <b>RCDevice.ParameterKeys.MEDIA_TURN_ENABLED</b>: Should TURN be enabled for webrtc media? (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.MEDIA_PREWARM_ENABLED</b>: Prepare the webrtc media facilities (peer connection factory, EGL context, audio device module and codecs) in the background at initialization and reuse them from call to call, instead of creating them each time a call is placed or accepted, which gets the offer/answer out sooner. They are released when Android is low on memory and prepared again with the next call. Only taken into account at initialization. Default is false (optional) <br>
     *                        <b>RCDevice.ParameterKeys.SIGNALING_LOCAL_PORT</b>: Local port to use for signaling (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW_SIZE</b>: Maximum number of text messages that can be in-flight (i.e. sent but not yet acknowledged) at any given time. Messages towards the same peer are always sent one at a time to preserve ordering. Default is 8 (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_MESSAGE_QUEUE_SIZE</b>: Maximum number of text messages waiting to be sent. When the queue is full sendMessage() fails with ERROR_MESSAGE_QUEUE_FULL. Default is 1000 (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_MESSAGE_OFFLINE_QUEUE_SIZE</b>: Maximum number of text messages kept while RCDevice is offline, to be sent once connectivity is back. When full sendMessage() fails with ERROR_MESSAGE_QUEUE_FULL. Default is 10000 (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_OUTBOUND_ENABLED</b>: Use SIP Outbound (RFC 5626): the registration flow is kept alive with tiny keep-alives (a few bytes each) instead of frequent re-registrations, which allows for a much longer registration expiry (4 hours unless overriden) and quicker detection of broken connections. Default is false (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_KEEPALIVE_INTERVAL</b>: When using SIP Outbound, keep-alive interval in seconds. The interval is halved whenever the flow fails, and never exceeds what the registrar asks for (Flow-Timer). Default is 120 (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_DUAL_STACK_ENABLED</b>: On networks with both IPv4 and IPv6, race the two towards the signaling server when setting up signaling facilities and use whichever connects first, instead of always using IPv4. Useful on IPv6-only (or IPv6 preferring) carriers. Notice that racing means one or two short lived probe TCP connections to the signaling server, on top of the one signaling uses, each time we move to another network. Default is false (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED</b>: Serve all signaling connections from a single thread using non-blocking I/O, instead of a dedicated thread per connection. Only taken into account at initialization, and doesn't affect WebSocket signaling which always uses non-blocking I/O. Default is true before Android Oreo and false from Oreo on, where enabling it is experimental because of known but not yet understood signaling issues (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_WEBSOCKET_ENABLED</b>: Use SIP over WebSocket (RFC 7118) for signaling, i.e. WSS if RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED is set and WS otherwise, for servers only reachable over WebSocket. Unless the domain includes a port, 443 (WSS) or 80 (WS) is used. Default is false (optional) <br>
+    *                        <b>RCDevice.ParameterKeys.SIGNALING_COMPACT_HEADERS_ENABLED</b>: Use the compact forms of the most common SIP headers (like 'i' for Call-ID or 'v' for Via) in registrations and text messages, to keep them smaller. Only turn this on if your signaling server understands compact headers (all RFC 3261 compliant ones should). Default is false (optional) <br>
     *                        <b>RCDevice.ParameterKeys.RESOURCE_SOUND_CALLING</b>: The SDK provides the user with default sounds for calling, ringing, busy (declined) and message events, but the user can override them
     *                        by providing their own resource files (i.e. .wav, .mp3, etc) at res/raw passing them here with Resource IDs like R.raw.user_provided_calling_sound. This parameter
     *                        configures the sound you will hear when you make a call and until the call is either replied or you hang up<br>
@@ -693,6 +739,13 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
                RCLogger.d(TAG, "Initializing the audio manager...");
                audioManager.init(parameters);
             }
+
+            if (parameters.containsKey(ParameterKeys.MEDIA_PREWARM_ENABLED) && (Boolean) parameters.get(ParameterKeys.MEDIA_PREWARM_ENABLED)) {
+               // warm up for an audio call with default codecs, which is what most calls will need; video calls reuse the same factory
+               RCLogger.i(TAG, "Warming up media facilities");
+               PeerConnectionClient.startFactoryPool(getApplicationContext(),
+                     RCConnection.createPeerConnectionParameters(false, null, null, new Size(0, 0), 0));
+            }
          }
          else {
             throw new RCException(RCClient.ErrorCodes.ERROR_DEVICE_ALREADY_INITIALIZED);
@@ -722,6 +775,12 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       return cachedConnectivityStatus;
    }
 
+   // Counters kept by the device itself, for connections to update
+   SignalingCounters getCounters()
+   {
+      return counters;
+   }
+
    // 'Copy' constructor
    RCDevice(RCDevice device)
    {
@@ -749,6 +808,7 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
          signalingClient.close();
          signalingClient = null;
       }
+      PeerConnectionClient.stopFactoryPool();
       state = DeviceState.OFFLINE;
 
       isServiceAttached = false;
@@ -811,6 +871,10 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     *                   <b>RCConnection.ParameterKeys.CONNECTION_PREFERRED_VIDEO_FRAME_RATE</b>: Preferred frame rate to use. Default is 30fps. Possible values are enumerated at <i>RCConnection.VideoFrameRate</i> (optional) <br>
     *                   <b>RCConnection.ParameterKeys.CONNECTION_CUSTOM_SIP_HEADERS</b>: An optional HashMap&lt;String,String&gt; of custom SIP headers we want to add. For an example
     *                   please check restcomm-helloworld or restcomm-olympus sample Apps (optional) <br>
+    *                   <b>RCConnection.ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED</b>: An optional Boolean denoting whether to use trickle ICE, i.e. send the offer as soon as host candidates
+    *                   are available and convey the rest of the candidates over SIP INFO as they are gathered, instead of waiting for all of them. This cuts call setup time considerably
+    *                   when candidates are gathered through TURN, but requires the peer to support trickle ICE over SIP. Until a peer has answered with trickle ICE support, calls
+    *                   towards it wait for all candidates before sending the offer, and only let the peer trickle its own (half trickle, RFC 8838). Default is false (optional) <br>
     *                   <b>RCConnection.ParameterKeys.DEBUG_CONNECTION_CANDIDATE_TIMEOUT</b>: An optional Integer denoting how long to wait for ICE candidates. Zero means default behaviour which is
     *                   to depend on onIceGatheringComplete from Peer Connection facilities. Any other integer value means to wait at most that amount of time no matter if onIceGatheringComplete has fired.
     *                   The problem we are addressing here is the new Peer Connection ICE gathering timeout which is 40 seconds which is way too long. Notice that the root cause here is in reality
@@ -858,7 +922,9 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
 
 
    /**
-    * Send an instant message to an endpoint
+    * Send an instant message to an endpoint. If RCDevice is offline the message is kept and sent once connectivity is back; the outcome is conveyed
+    * via RCDeviceListener.onMessageSent() as usual. Messages still pending when RCDevice is released (or switches accounts) fail with
+    * ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE, and so do messages left pending if the App got killed, once RCDevice is initialized again with the same account
     *
     * @param message    Message text
     * @param parameters Parameters used for the message, such as 'username' that holds the recepient for the message
@@ -869,7 +935,8 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       RCLogger.i(TAG, "sendMessage(): message:" + message + "\nparameters: " + parameters.toString());
 
 
-      if (state != DeviceState.OFFLINE) {
+      // even if we are offline the signaling facilities will queue the message until we get connectivity, as long as we are initialized
+      if (state != DeviceState.OFFLINE || isInitialized()) {
          HashMap<String, Object> messageParameters = new HashMap<>();
          messageParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER));
          messageParameters.put("text-message", message);
@@ -910,6 +977,23 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
       return map;
    }
 
+   /**
+    * Retrieve signaling metrics, like the outbound message queue depth and the message delivery latency. Useful for monitoring and troubleshooting.
+    * The returned object is a snapshot and won't change afterwards; call again to get up to date values
+    *
+    * @return Snapshot of signaling metrics; signaling counters start over each time the device is opened
+    */
+   public SignalingMetrics getSignalingMetrics()
+   {
+      SignalingMetrics.Builder builder = new SignalingMetrics.Builder().add(counters);
+      // keep a local reference, as signalingClient is released from the UI thread on close
+      SignalingClient client = signalingClient;
+      if (client != null) {
+         builder.add(client.getCounters());
+      }
+      return builder.build();
+   }
+
    /**
     * Retrieve the Device state
     *
@@ -1059,6 +1143,12 @@ public class RCDevice extends Service implements SignalingClient.SignalingClient
     *               the System Wide Android CA Store, so that we properly accept only legit server certificates. If not passed (or false) signaling is cleartext (optional) <br>
     *               <b>RCDevice.ParameterKeys.MEDIA_TURN_ENABLED</b>: Should TURN be enabled for webrtc media? (optional) <br>
     *               <b>RCDevice.ParameterKeys.SIGNALING_LOCAL_PORT</b>: Local port to use for signaling (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_CONCURRENT_RECONFIGURE_ENABLED</b>: When changing username or domain, register with the new settings right away instead of first waiting for the old registration to be removed, which is then removed in the background. When only the password changes the old registration is simply replaced. If not passed (or false) the old registration is removed first (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_OUTBOUND_ENABLED</b>: Use SIP Outbound (RFC 5626): the registration flow is kept alive with tiny keep-alives (a few bytes each) instead of frequent re-registrations, which allows for a much longer registration expiry (4 hours unless overriden) and quicker detection of broken connections. Default is false (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_KEEPALIVE_INTERVAL</b>: When using SIP Outbound, keep-alive interval in seconds. The interval is halved whenever the flow fails, and never exceeds what the registrar asks for (Flow-Timer). Default is 120 (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_DUAL_STACK_ENABLED</b>: On networks with both IPv4 and IPv6, race the two towards the signaling server when setting up signaling facilities and use whichever connects first, instead of always using IPv4. Useful on IPv6-only (or IPv6 preferring) carriers. Notice that racing means one or two short lived probe TCP connections to the signaling server, on top of the one signaling uses, each time we move to another network. Default is false (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_WEBSOCKET_ENABLED</b>: Use SIP over WebSocket (RFC 7118) for signaling, i.e. WSS if RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED is set and WS otherwise, for servers only reachable over WebSocket. Unless the domain includes a port, 443 (WSS) or 80 (WS) is used. Default is false (optional) <br>
+    *               <b>RCDevice.ParameterKeys.SIGNALING_COMPACT_HEADERS_ENABLED</b>: Use the compact forms of the most common SIP headers (like 'i' for Call-ID or 'v' for Via) in registrations and text messages, to keep them smaller. Only turn this on if your signaling server understands compact headers (all RFC 3261 compliant ones should). Default is false (optional) <br>
     *
     *                //push notification keys
     *                <b>RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_APPLICATION_NAME</b>: name of the client application
@@ -39,6 +39,7 @@ import android.javax.sip.message.Request;
 import android.javax.sip.message.Response;
 
 import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCConnection;
 import org.restcomm.android.sdk.util.RCLogger;
 
 import java.util.HashMap;
@@ -69,6 +70,9 @@ public class JainSipCall {
       void onCallArrivedEvent(String jobId, String peer, String sdpOffer, HashMap<String, String> customHeaders);
 
       void onCallDigitsEvent(String jobId, RCClient.ErrorCodes status, String text);
+
+      // trickle ICE candidates arrived from peer, as an SDP fragment
+      void onCallRemoteCandidatesEvent(String jobId, String sdpFragment);
    }
 
    JainSipClient jainSipClient;
@@ -131,6 +135,28 @@ public class JainSipCall {
       }
    }
 
+   // Send trickle ICE candidates over this call. Candidates are only trickled once the dialog is confirmed, and errors aren't reported
+   // back: candidates conveyed so far might well be enough for ICE to succeed, and if not ICE will fail on its own
+   public void sendCandidates(JainSipJob jainSipJob, String sdpFragment)
+   {
+      RCLogger.i(TAG, "sendCandidates(): jobId: " + jainSipJob.jobId);
+      if (!jainSipClient.jainSipNotificationManager.haveConnectivity()) {
+         RCLogger.w(TAG, "sendCandidates(): no connectivity, dropping candidates");
+         return;
+      }
+      Dialog dialog = jainSipJob.transaction.getDialog();
+      if (dialog == null || dialog.getState() != DialogState.CONFIRMED) {
+         RCLogger.w(TAG, "sendCandidates(): dialog not confirmed, dropping candidates");
+         return;
+      }
+      try {
+         jainSipCallSendCandidates(dialog, sdpFragment);
+      }
+      catch (SipException e) {
+         RCLogger.e(TAG, "sendCandidates(): failed to send candidates: " + e.toString());
+      }
+   }
+
    // Close an existing call. The actual SIP request emitted depends on current state: a. If its an early incoming call we Decline, b. If its an early outgoing
    // call we Cancel and c. On any other case we Bye
    public void disconnect(JainSipJob jainSipJob, String reason)
@@ -177,6 +203,7 @@ public class JainSipCall {
 
       try {
          Request inviteRequest = jainSipClient.jainSipMessageBuilder.buildInviteRequest(jainSipClient.jainSipListeningPoint, parameters, jainSipClient.configuration, jainSipClient.jainSipClientContext);
+         jainSipClient.jainSipClientAuthorize(inviteRequest, jainSipClient.configuration);
          RCLogger.i(TAG, "Sending SIP request: \n" + inviteRequest.toString());
          transaction = jainSipClient.jainSipProvider.getNewClientTransaction(inviteRequest);
          transaction.sendRequest();
@@ -198,8 +225,10 @@ public class JainSipCall {
       RCLogger.v(TAG, "jainSipCallAccept(): jobId: " + jainSipJob.jobId);
       try {
          ServerTransaction transaction = (ServerTransaction) jainSipJob.transaction;
-         Response response = jainSipClient.jainSipMessageBuilder.buildInvite200OKResponse(transaction, (String) parameters.get("sdp"), jainSipClient.jainSipListeningPoint,
-               jainSipClient.jainSipClientContext);
+         boolean trickleIce = parameters.containsKey(RCConnection.ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED) &&
+               (Boolean) parameters.get(RCConnection.ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED);
+         Response response = jainSipClient.jainSipMessageBuilder.buildInvite200OKResponse(transaction, (String) parameters.get("sdp"), trickleIce,
+               jainSipClient.jainSipListeningPoint, jainSipClient.jainSipClientContext);
 
          RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
          transaction.sendResponse(response);
@@ -290,6 +319,17 @@ public class JainSipCall {
       }
    }
 
+   public ClientTransaction jainSipCallSendCandidates(Dialog dialog, String sdpFragment) throws SipException
+   {
+      RCLogger.v(TAG, "jainSipCallSendCandidates()");
+
+      Request request = jainSipClient.jainSipMessageBuilder.buildTrickleIceInfoRequest(dialog, sdpFragment);
+      RCLogger.i(TAG, "Sending SIP request: \n" + request.toString());
+      ClientTransaction transaction = jainSipClient.jainSipProvider.getNewClientTransaction(request);
+      dialog.sendRequest(transaction);
+      return transaction;
+   }
+
    // Let's follow the naming conventions of SipListener, even though JainSipCall doesn't implement it, to keep it easier to follow
    public void processRequest(JainSipJob jainSipJob, final RequestEvent requestEvent)
    {
@@ -363,6 +403,24 @@ public class JainSipCall {
             throw new RuntimeException("Failed to send Ringing to incoming Invite", e);
          }
       }
+      else if (method.equals(Request.INFO)) {
+         try {
+            // we only support the trickle ICE Info Package
+            boolean trickleIce = JainSipMessageBuilder.isTrickleIce(request);
+            Response response = jainSipClient.jainSipMessageBuilder.buildResponse(trickleIce ? Response.OK : Response.UNSUPPORTED_MEDIA_TYPE, request);
+            RCLogger.i(TAG, "Sending SIP response: \n" + response.toString());
+            serverTransaction.sendResponse(response);
+
+            if (trickleIce) {
+               listener.onCallRemoteCandidatesEvent(jainSipJob.jobId, new String(request.getRawContent(), "UTF-8"));
+            }
+         }
+         catch (Exception e) {
+            // TODO: let's emit a RuntimeException for now so that we get a loud and clear indication of issues involved in the field and then
+            // we can adjust and only do a e.printStackTrace()
+            throw new RuntimeException("Failed to respond to Info request", e);
+         }
+      }
       else if (method.equals(Request.ACK)) {
          // A dialog transitions to the "confirmed" state when a 2xx final response is received to the INVITE Request
          if (serverTransaction.getDialog().getState() == DialogState.CONFIRMED) {
@@ -381,6 +439,15 @@ public class JainSipCall {
       CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
       String method = cseq.getMethod();
 
+      if (method.equals(Request.INFO) && responseEvent.getClientTransaction() != null &&
+            JainSipMessageBuilder.isTrickleIce(responseEvent.getClientTransaction().getRequest())) {
+         // trickled candidates are best effort (see sendCandidates()); whatever the outcome there's nothing to do, and it shouldn't affect the call
+         if (response.getStatusCode() != Response.OK) {
+            RCLogger.w(TAG, "processResponse(): peer didn't accept trickled candidates: " + response.getStatusCode());
+         }
+         return;
+      }
+
       if (response.getStatusCode() == Response.OK) {
          if (method.equals(Request.INVITE)) {
             try {
@@ -23,6 +23,7 @@
 package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
 import android.Manifest;
+import android.app.AlarmManager;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.gov.nist.javax.sip.ResponseEventExt;
@@ -45,8 +46,12 @@ import android.javax.sip.SipStack;
 import android.javax.sip.TimeoutEvent;
 import android.javax.sip.Transaction;
 import android.javax.sip.TransactionTerminatedEvent;
+import android.javax.sip.address.Hop;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.address.URI;
 import android.javax.sip.header.CSeqHeader;
 import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ContactHeader;
 import android.javax.sip.header.ViaHeader;
 import android.javax.sip.message.Request;
 import android.javax.sip.message.Response;
@@ -56,7 +61,6 @@ import android.org.mobicents.ext.javax.sip.dns.DNSAwareRouter;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.SystemClock;
 import android.text.format.Formatter;
 
 //import org.apache.http.conn.util.InetAddressUtils;
@@ -64,6 +68,9 @@ import org.restcomm.android.sdk.RCClient;
 import org.restcomm.android.sdk.RCConnection;
 import org.restcomm.android.sdk.RCDevice;
 import org.restcomm.android.sdk.RCDeviceListener;
+import org.restcomm.android.sdk.SignalingClient.JobIdGenerator;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
 import org.restcomm.android.sdk.util.RCLogger;
 
 import java.io.File;
@@ -74,6 +81,7 @@ import java.net.SocketException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Properties;
 
 /**
@@ -97,7 +105,7 @@ import java.util.Properties;
  *
  * JAIN SIP requests and responses are typically built by JainSipMessageBuilder
  */
-public class JainSipClient implements SipListener, JainSipNotificationManager.NotificationManagerListener {
+public class JainSipClient implements SipListener, JainSipNotificationManager.NotificationManagerListener, JainSipOutbound.OutboundListener {
 
    // Interface the JainSipClient listener needs to implement, to get events from us
    public interface JainSipClientListener {
@@ -123,6 +131,15 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    JainSipMessageBuilder jainSipMessageBuilder;
    JainSipJobManager jainSipJobManager;
    JainSipNotificationManager jainSipNotificationManager;
+   JainSipMessagePipeline jainSipMessagePipeline;
+   JainSipDigestCache jainSipDigestCache;
+   JainSipOutbound jainSipOutbound;
+   JainSipScheduler jainSipScheduler;
+   JainSipRttEstimator jainSipRttEstimator;
+   JainSipHappyEyeballs jainSipHappyEyeballs;
+   // local address picked by the last dual-stack race, and the job it was picked for (see jainSipClientPrepareBind())
+   private String racedBindAddress;
+   private JainSipJob racedBindJob;
    private Context androidContext;
    HashMap<String, Object> configuration;
    // any client context that is not configuration related, like the rport
@@ -130,17 +147,23 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    //boolean clientConnected = false;
    private static boolean clientOpened = false;
    private static final String TAG = "JainSipClient";
-   // android handler token to identify registration refresh posts
-   private final int REGISTER_REFRESH_HANDLER_TOKEN = 1;
+   // name of the registration refresh task in the scheduler
+   private final String REGISTER_REFRESH_TASK = "register-refresh";
    Handler signalingHandler;
+   // counters for SignalingMetrics, owned by our SignalingClient and updated by us and our components
+   final SignalingCounters counters;
    // Register expiry in seconds
    private final int DEFAULT_REGISTER_EXPIRY_PERIOD = 3600;
+   // When using SIP Outbound keep-alives keep the NAT binding and the connection up, so we can afford to register much less often
+   private final int DEFAULT_OUTBOUND_REGISTER_EXPIRY_PERIOD = 14400;
    private final int DEFAULT_LOCAL_SIP_PORT = 5090;
    // the registration refresh needs to happen sooner than expiry to make sure that the client has a registration at all times. Let's
    // set it to EXPIRY - 50 seconds. TODO: in the future we could randomize this so that for example it is between half the expiry
    // and full expiry (in this example, a random between [30, 60] seconds) to avoid having all android clients refreshing all at
    // the same time and stressing Restcomm. Actually this is how Sofia SIP in restcomm-ios-sdk does it by default. Value is in seconds
    final int REGISTER_REFRESH_MINUS_INTERVAL = 50;
+   // how much earlier than that a refresh may happen, so that it can be batched with other background work (fraction of the expiry)
+   private final double REGISTER_REFRESH_WINDOW_RATIO = 0.1;
    // how long after we force close the client if it takes too long to process JainSipClient.close()
    static final int FORCE_CLOSE_INTERVAL = 3000;
 
@@ -149,10 +172,14 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    private SipStack jainSipStack;
    ListeningPoint jainSipListeningPoint;
    SipProvider jainSipProvider;
+   // parameters and expiry of the last registration we sent, so that we can act on its response
+   private HashMap<String, Object> registerParameters;
+   private int registerExpiry;
 
-   public JainSipClient(Handler signalingHandler)
+   public JainSipClient(Handler signalingHandler, SignalingCounters counters)
    {
       this.signalingHandler = signalingHandler;
+      this.counters = counters;
    }
 
    // -- Published API
@@ -170,9 +197,15 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       this.listener = listener;
       this.androidContext = androidContext;
       this.configuration = configuration;
-      jainSipMessageBuilder = new JainSipMessageBuilder();
+      jainSipMessageBuilder = new JainSipMessageBuilder(counters);
       jainSipJobManager = new JainSipJobManager(this);
+      jainSipMessagePipeline = new JainSipMessagePipeline(this);
+      jainSipDigestCache = new JainSipDigestCache(counters);
+      jainSipRttEstimator = new JainSipRttEstimator(counters);
+      jainSipHappyEyeballs = new JainSipHappyEyeballs(counters);
       jainSipNotificationManager = new JainSipNotificationManager(androidContext, signalingHandler, this);
+      jainSipScheduler = new JainSipScheduler(signalingHandler, (AlarmManager) androidContext.getSystemService(Context.ALARM_SERVICE), counters);
+      jainSipOutbound = new JainSipOutbound(jainSipScheduler, counters, this);
       jainSipClientContext = new HashMap<String, Object>();
 
       jainSipFactory = SipFactory.getInstance();
@@ -182,19 +215,14 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       Properties properties = new Properties();
       properties.setProperty("android.javax.sip.STACK_NAME", "androidSip");
 
-      //we have issue with the signaling on Oreo device
-      if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.O) {
-         properties.setProperty("android.gov.nist.javax.sip.MESSAGE_PROCESSOR_FACTORY", "android.gov.nist.javax.sip.stack.NioMessageProcessorFactory");
-      }
-
       // DNS SRV
       // Important: for jain-sip.ext especially, we need to drop the 'android' part
       properties.setProperty("javax.sip.ROUTER_PATH", DNSAwareRouter.class.getCanonicalName());
 
       // Setup TLS even if currently we aren't using it, so that if user changes the setting later
-      // the SIP stack is ready to support it
+      // the SIP stack is ready to support it. The keystore is generated once and then reused, as generating it is expensive
       String keystoreFilename = "restcomm-android.keystore";
-      HashMap<String, String> securityParameters = JainSipSecurityHelper.generateKeystore(androidContext, keystoreFilename);
+      HashMap<String, String> securityParameters = JainSipSecurityHelper.getKeystore(androidContext, keystoreFilename);
       JainSipSecurityHelper.setProperties(properties, securityParameters.get("keystore-path"), securityParameters.get("keystore-password"),
             (Boolean)configuration.get(RCDevice.ParameterKeys.DEBUG_DISABLE_CERTIFICATE_VERIFICATION));
 
@@ -219,8 +247,15 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       try {
          JainSipConfiguration.normalizeParameters(configuration);
          jainSipStack = jainSipFactory.createSipStack(properties);
+         // NIO message processing serves all connections from a single thread. We had issues with it on Oreo devices that are still unresolved, so from
+         // Oreo on it's opt-in (and experimental) for TCP and TLS, and blocking (thread per connection) processing is used otherwise. WebSocket always needs NIO
+         JainSipMessageProcessorFactory.install(jainSipStack, JainSipMessageProcessorFactory.isEnabled(configuration), counters);
+         jainSipMessageBuilder.setCompactHeaders(JainSipConfiguration.getBoolean(configuration, RCDevice.ParameterKeys.SIGNALING_COMPACT_HEADERS_ENABLED));
+         // resume TLS sessions across reconnects, instead of doing a full handshake on every handover
+         JainSipTlsSocketFactory.install(jainSipStack, counters);
          JainSipMessageBuilder.normalizeDomain(configuration, configuration.containsKey(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED) &&
                  (boolean) configuration.get(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED));
+         jainSipMessagePipeline.open(new JainSipMessageJournal(getMessageJournalFile()));
 
          jainSipJobManager.add(jobId, JainSipJob.Type.TYPE_OPEN, configuration);
       }
@@ -239,12 +274,17 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
       if (JainSipClient.clientOpened) {
          // cancel any pending scheduled registrations
-         //signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
+         //jainSipScheduler.cancel(REGISTER_REFRESH_TASK);
 
          // TODO: close any active calls
          //
 
          jainSipNotificationManager.close();
+         jainSipOutbound.stop();
+         jainSipScheduler.cancelAll();
+         // pending messages won't make it, let the App know
+         jainSipMessagePipeline.close(RCClient.ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE);
+         jainSipDigestCache.clear();
          jainSipJobManager.removeAll();
 
          if (configuration.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !configuration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
@@ -296,6 +336,12 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       configuration = JainSipConfiguration.mergeParameters(configuration, parameters);
       JainSipMessageBuilder.normalizeDomain(configuration, configuration.containsKey(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED) &&
               (boolean) configuration.get(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED));
+      jainSipMessageBuilder.setCompactHeaders(JainSipConfiguration.getBoolean(configuration, RCDevice.ParameterKeys.SIGNALING_COMPACT_HEADERS_ENABLED));
+      if (modifiedParameters.containsKey(RCDevice.ParameterKeys.SIGNALING_USERNAME) || modifiedParameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN)) {
+         // pending messages were meant to be sent from the old account; fail them and switch to the journal of the new one
+         jainSipMessagePipeline.close(RCClient.ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE);
+         jainSipMessagePipeline.open(new JainSipMessageJournal(getMessageJournalFile()));
+      }
 
       // Set the media parameters right away, since they are irrelevant to signaling
       if (modifiedParameters.containsKey(RCDevice.ParameterKeys.MEDIA_TURN_ENABLED)) {
@@ -317,8 +363,9 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       HashMap<String, Object> multipleParameters = new HashMap<String, Object>();
       multipleParameters.put("old-parameters", oldParameters);
       multipleParameters.put("new-parameters", configuration);
-      if (modifiedParameters.containsKey(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED)) {
-         // if signaling secure has changed we need to a. unregister from old using old creds, b. unbind, c. bind, d. register with new using new creds
+      if (modifiedParameters.containsKey(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED) ||
+            modifiedParameters.containsKey(RCDevice.ParameterKeys.SIGNALING_WEBSOCKET_ENABLED)) {
+         // if signaling secure (or transport in general) has changed we need to a. unregister from old using old creds, b. unbind, c. bind, d. register with new using new creds
          // start FSM and pass it both previous and current parameters
          jainSipJobManager.add(jobId, JainSipJob.Type.TYPE_RECONFIGURE_RELOAD_NETWORKING, multipleParameters);
       }
@@ -402,21 +449,32 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       jainSipJob.jainSipCall.sendDigits(jainSipJob, digits);
    }
 
-   // ------ Message-related methods
-   public void sendMessage(String jobId, HashMap<String, Object> parameters)
+   public void sendCandidates(String jobId, String sdpFragment)
    {
-      RCLogger.i(TAG, "sendMessage(): jobId: " + jobId + ", parameters: " + parameters.toString());
+      RCLogger.i(TAG, "sendCandidates(): jobId: " + jobId);
 
-      if (!jainSipNotificationManager.haveConnectivity()) {
-         listener.onClientMessageReply(jobId, RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY, RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
+      JainSipJob jainSipJob = jainSipJobManager.get(jobId);
+      // candidates keep trickling in while the call is being set up, so the call might well be gone by now
+      if (jainSipJob == null) {
+         RCLogger.w(TAG, "sendCandidates(): job doesn't exist for the call; ignoring candidates");
          return;
       }
+      jainSipJob.jainSipCall.sendCandidates(jainSipJob, sdpFragment);
+   }
+
+   // ------ Message-related methods
+   public void sendMessage(String jobId, HashMap<String, Object> parameters)
+   {
+      RCLogger.i(TAG, "sendMessage(): jobId: " + jobId + ", parameters: " + parameters.toString());
 
       try {
-         jainSipMessageBuilder.normalizePeer(parameters, configuration, jainSipListeningPoint);
+         if (jainSipNotificationManager.haveConnectivity() && jainSipListeningPoint != null) {
+            jainSipMessageBuilder.normalizePeer(parameters, configuration, jainSipListeningPoint);
+         }
 
-         Transaction transaction = jainSipClientSendMessage(parameters);
-         jainSipJobManager.add(jobId, JainSipJob.Type.TYPE_MESSAGE, transaction, parameters, null);
+         // don't send right away; the pipeline takes care of flow control and ordering and sends the message when there's room (or persists
+         // it if we are offline)
+         jainSipMessagePipeline.enqueue(jobId, parameters);
       }
       catch (JainSipException e) {
          listener.onClientMessageReply(jobId, e.errorCode, e.errorText);
@@ -424,6 +482,93 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    }
 
    // ------ Internal APIs
+   // Add credentials to an outgoing request up front if we have a cached challenge for the signaling domain, to save the 401/407 round trip.
+   // If the cached nonce has gone stale the server will challenge us and we 'll go through the regular authentication path
+   void jainSipClientAuthorize(Request request, HashMap<String, Object> parameters)
+   {
+      jainSipDigestCache.authorize(request, (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN),
+            (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_USERNAME), (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_PASSWORD),
+            jainSipMessageBuilder.getHeaderFactory());
+   }
+
+   // We just got connectivity on a (possibly new) network: resolve the signaling domain in the background, so that we have fresh DNS results
+   // without blocking request building. Already cached results keep being used in the meantime
+   void jainSipClientPrefetchDomain(HashMap<String, Object> parameters)
+   {
+      String domain = (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN);
+      if (domain == null || domain.equals("")) {
+         // registrar-less, nothing to resolve
+         return;
+      }
+
+      String transport = JainSipConfiguration.getTransport(parameters);
+      try {
+         jainSipMessageBuilder.getDnsResolver().prefetch(jainSipFactory.createAddressFactory().createURI(domain), transport);
+      }
+      catch (Exception e) {
+         // not a big deal, we 'll resolve on demand
+         RCLogger.w(TAG, "jainSipClientPrefetchDomain(): failed to prefetch " + domain + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Get ready to bind on behalf of a job. In dual-stack mode, when we have both IPv4 and IPv6, that means racing IPv6 against IPv4 towards the
+    * signaling server, which happens in the background so that the signaling thread never blocks on it; the job's FSM is then resumed at the same
+    * state with FsmEvents.BIND_ADDRESS_READY, and the next jainSipClientBind() uses the winner
+    * @param jainSipJob Job that is about to bind
+    * @param parameters Job parameters
+    * @return true if jainSipClientBind() can go ahead right away, false if the job needs to wait for FsmEvents.BIND_ADDRESS_READY
+    */
+   boolean jainSipClientPrepareBind(final JainSipJob jainSipJob, HashMap<String, Object> parameters)
+   {
+      if (racedBindJob == jainSipJob) {
+         // race is over for this job
+         return true;
+      }
+      racedBindJob = null;
+      racedBindAddress = null;
+
+      final String ipv4Address = getIPAddressOrNull(true);
+      final String ipv6Address = getIPAddressOrNull(false);
+      String domain = (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN);
+      if (ipv4Address == null || ipv6Address == null || !JainSipConfiguration.getBoolean(configuration, RCDevice.ParameterKeys.SIGNALING_DUAL_STACK_ENABLED) ||
+            domain == null || domain.equals("")) {
+         // single family, dual stack disabled, or registrar-less (nobody to race towards)
+         return true;
+      }
+
+      String[] remoteHosts;
+      int remotePort;
+      try {
+         // this is the same (cached) resolution the REGISTER that follows will use. The hop is typically an address already, so we also give
+         // the domain itself, so that both its A and AAAA records take part
+         URI uri = jainSipFactory.createAddressFactory().createURI(domain);
+         Hop hop = jainSipMessageBuilder.getDnsResolver().resolve(uri, JainSipConfiguration.getTransport(configuration));
+         remoteHosts = uri.isSipURI() ? new String[] { hop.getHost(), ((SipURI) uri).getHost() } : new String[] { hop.getHost() };
+         remotePort = hop.getPort();
+      }
+      catch (Exception e) {
+         RCLogger.w(TAG, "jainSipClientPrepareBind(): failed to race IPv6 against IPv4: " + e.getMessage());
+         return true;
+      }
+
+      final String jobId = jainSipJob.jobId;
+      jainSipHappyEyeballs.raceAsync(ipv6Address, ipv4Address, remoteHosts, remotePort, signalingHandler, new JainSipHappyEyeballs.RaceListener() {
+         @Override
+         public void onRaceFinished(String winner)
+         {
+            if (jainSipJobManager.get(jobId) != jainSipJob) {
+               // job went away in the meantime, for example it timed out
+               return;
+            }
+            racedBindJob = jainSipJob;
+            racedBindAddress = (winner != null) ? winner : ipv4Address;
+            jainSipJob.processFsm(jobId, JainSipJob.FsmEvents.BIND_ADDRESS_READY, null, null, null);
+         }
+      });
+      return false;
+   }
+
    // Setup JAIN networking facilities
    public void jainSipClientBind(HashMap<String, Object> parameters) throws JainSipException
    {
@@ -435,11 +580,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          }
 
          // new network interface is up, let's retrieve its ip address
-         String transport = "tcp";
-         if (JainSipConfiguration.getBoolean(configuration, RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED)) {
-            transport = "tls";
-            //transport = "wss";
-         }
+         String transport = JainSipConfiguration.getTransport(configuration);
 
          Integer port = DEFAULT_LOCAL_SIP_PORT;
          if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_LOCAL_PORT)) {
@@ -447,10 +588,19 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          }
 
          try {
-            jainSipListeningPoint = jainSipStack.createListeningPoint(getIPAddress(true), port, transport);
-            jainSipProvider = jainSipStack.createSipProvider(jainSipListeningPoint);
-            jainSipProvider.addSipListener(this);
+            long startTime = System.currentTimeMillis();
+            boolean warm = (jainSipProvider != null);
+            jainSipListeningPoint = jainSipStack.createListeningPoint(getBindAddress(), port, transport);
+            if (warm) {
+               // provider survived the last unbind (see jainSipClientUnbind()), just hand it the new listening point
+               jainSipProvider.addListeningPoint(jainSipListeningPoint);
+            }
+            else {
+               jainSipProvider = jainSipStack.createSipProvider(jainSipListeningPoint);
+               jainSipProvider.addSipListener(this);
+            }
             jainSipMessageBuilder.initialize(jainSipFactory, jainSipProvider);
+            RCLogger.i(TAG, "bind(): took " + (System.currentTimeMillis() - startTime) + " ms, reused provider: " + warm);
          }
          /*
          catch (SocketException e) {
@@ -474,14 +624,28 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    {
       RCLogger.v(TAG, "unbind()");
       if (jainSipListeningPoint != null) {
+         // messages queued or in-flight can't make it out over this listening point; park them until networking facilities are back
+         jainSipMessagePipeline.park();
+         // the registration flow goes away with the listening point
+         jainSipOutbound.stop();
+
+         if (jainSipProvider.getListeningPoints().length > 1) {
+            RCLogger.e(TAG, "unbind(): Listening Point count > 1: " + jainSipProvider.getListeningPoints().length);
+         }
+
          try {
-            jainSipProvider.removeSipListener(this);
-            if (jainSipProvider.getListeningPoints().length > 1) {
-               RCLogger.e(TAG, "unbind(): Listening Point count > 1: " + jainSipProvider.getListeningPoints().length);
-            }
-            jainSipStack.deleteSipProvider(jainSipProvider);
-            jainSipStack.deleteListeningPoint(jainSipListeningPoint);
+            // Keep the provider (and hence our listener registration) around, so that next bind only needs to create a listening point. This way reconfiguring
+            // transport or handing over to a new network doesn't churn JAIN SIP objects
+            jainSipProvider.removeListeningPoint(jainSipListeningPoint);
+         }
+         catch (ObjectInUseException e) {
+            // listening point still busy with connections; fall back to tearing down the provider as well
+            RCLogger.w(TAG, "unbind(): listening point in use, tearing down provider");
+            deleteProvider();
+         }
 
+         try {
+            jainSipStack.deleteListeningPoint(jainSipListeningPoint);
             jainSipListeningPoint = null;
          }
          catch (ObjectInUseException e) {
@@ -503,6 +667,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
    void jainSipClientStopStack()
    {
+      // providers don't survive the stack, so the next open() needs to start over
+      deleteProvider();
       jainSipStack.stop();
       jainSipMessageBuilder.shutdown();
       jainSipFactory.resetFactory();
@@ -533,19 +699,22 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
       }
 
-      int expiry = DEFAULT_REGISTER_EXPIRY_PERIOD;
+      boolean outboundEnabled = JainSipConfiguration.getBoolean(parameters, RCDevice.ParameterKeys.SIGNALING_OUTBOUND_ENABLED);
+      int defaultExpiry = outboundEnabled ? DEFAULT_OUTBOUND_REGISTER_EXPIRY_PERIOD : DEFAULT_REGISTER_EXPIRY_PERIOD;
+      int expiry = defaultExpiry;
       if (parameters.containsKey("signaling-register-expiry") && !parameters.get("signaling-register-expiry").equals("")) {
          expiry = (Integer) parameters.get("signaling-register-expiry");
          if (expiry <= REGISTER_REFRESH_MINUS_INTERVAL) {
-            RCLogger.w(TAG, "jainSipRegister(): Register expiry period too small, using default: " + DEFAULT_REGISTER_EXPIRY_PERIOD);
-            expiry = DEFAULT_REGISTER_EXPIRY_PERIOD;
+            RCLogger.w(TAG, "jainSipRegister(): Register expiry period too small, using default: " + defaultExpiry);
+            expiry = defaultExpiry;
          }
       }
 
       ClientTransaction transaction;
       try {
-         Request registerRequest = jainSipMessageBuilder.buildRegisterRequest(jainSipListeningPoint, expiry, parameters);
-         RCLogger.i(TAG, "Sending SIP request: \n" + registerRequest.toString());
+         Request registerRequest = jainSipMessageBuilder.buildRegisterRequest(jainSipListeningPoint, expiry, parameters,
+               outboundEnabled ? JainSipOutbound.getInstanceId(androidContext) : null);
+         jainSipClientAuthorize(registerRequest, parameters);
 
          // only notify on registering on specific types of jobs, otherwise we would swamp the App with notifications
          if (jainSipJob.type == JainSipJob.Type.TYPE_RECONFIGURE || jainSipJob.type == JainSipJob.Type.TYPE_RECONFIGURE_RELOAD_NETWORKING ||
@@ -555,7 +724,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
          // Remember that this might block waiting for DNS server
          transaction = this.jainSipProvider.getNewClientTransaction(registerRequest);
-         transaction.sendRequest();
+         jainSipRttEstimator.onRequestSending(transaction, jainSipNotificationManager.getNetworkStatus());
+         updateRegisterMetrics(sendRequest(transaction).length());
       }
       catch (SipException e) {
          if (e.getMessage().contains("Trust anchor for certification path not found")) {
@@ -568,17 +738,9 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          }
       }
 
-      // cancel any pending scheduled registrations (in case this is an on-demand registration and we end up posting to handler on top of the old)
-      signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
-      // schedule a registration update after 'registrationRefresh' seconds
-      Runnable runnable = new Runnable() {
-         @Override
-         public void run()
-         {
-            jainSipJobManager.add(Long.toString(System.currentTimeMillis()), JainSipJob.Type.TYPE_REGISTER_REFRESH, parameters);
-         }
-      };
-      signalingHandler.postAtTime(runnable, REGISTER_REFRESH_HANDLER_TOKEN, SystemClock.uptimeMillis() + (expiry - REGISTER_REFRESH_MINUS_INTERVAL) * 1000);
+      registerParameters = parameters;
+      registerExpiry = expiry;
+      scheduleRegisterRefresh(parameters, expiry);
 
       return transaction;
    }
@@ -592,14 +754,19 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_NO_CONNECTIVITY));
       }
 
+      // no point keeping the flow alive once we are no longer registered over it
+      jainSipOutbound.stop();
+
       ClientTransaction transaction = null;
       try {
-         Request registerRequest = jainSipMessageBuilder.buildRegisterRequest(jainSipListeningPoint, 0, parameters);
-         RCLogger.i(TAG, "Sending SIP request: \n" + registerRequest.toString());
+         Request registerRequest = jainSipMessageBuilder.buildRegisterRequest(jainSipListeningPoint, 0, parameters,
+               JainSipConfiguration.getBoolean(parameters, RCDevice.ParameterKeys.SIGNALING_OUTBOUND_ENABLED) ? JainSipOutbound.getInstanceId(androidContext) : null);
+         jainSipClientAuthorize(registerRequest, parameters);
 
          // Remember that this might block waiting for DNS server
          transaction = this.jainSipProvider.getNewClientTransaction(registerRequest);
-         transaction.sendRequest();
+         jainSipRttEstimator.onRequestSending(transaction, jainSipNotificationManager.getNetworkStatus());
+         updateRegisterMetrics(sendRequest(transaction).length());
       }
       catch (SipException e) {
          throw new JainSipException(RCClient.ErrorCodes.ERROR_DEVICE_REGISTER_COULD_NOT_CONNECT,
@@ -607,7 +774,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       }
 
       // cancel any pending scheduled registrations
-      signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
+      jainSipScheduler.cancel(REGISTER_REFRESH_TASK);
 
       return transaction;
    }
@@ -619,10 +786,11 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       try {
          Request request = jainSipMessageBuilder.buildMessageRequest((String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER),
                (String) parameters.get("text-message"), jainSipListeningPoint, configuration);
-         RCLogger.i(TAG, "Sending SIP request: \n" + request.toString());
+         jainSipClientAuthorize(request, configuration);
 
          ClientTransaction transaction = this.jainSipProvider.getNewClientTransaction(request);
-         transaction.sendRequest();
+         jainSipRttEstimator.onRequestSending(transaction, jainSipNotificationManager.getNetworkStatus());
+         sendRequest(transaction);
          return transaction;
       }
       catch (SipException e) {
@@ -647,13 +815,21 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
 
          // should we retry to REGISTER, this time with creds
          if (jainSipJob.shouldRetry()) {
+            // remember the challenge so that subsequent requests can authenticate up front
+            jainSipDigestCache.onChallenge((String) parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN), responseEventExt.getResponse());
+
             ClientTransaction authenticationTransaction = authenticationHelper.handleChallenge(responseEventExt.getResponse(),
                   (ClientTransaction) jainSipJob.transaction, jainSipProvider, 5, true);
 
             // update previous transaction with authenticationTransaction (remember that previous ended with 407 final response)
             jainSipJob.updateTransaction(authenticationTransaction);
-            RCLogger.i(TAG, "Sending SIP request: \n" + authenticationTransaction.getRequest().toString());
-            authenticationTransaction.sendRequest();
+            if (!authenticationTransaction.getRequest().getMethod().equals(Request.INVITE)) {
+               jainSipRttEstimator.onRequestSending(authenticationTransaction, jainSipNotificationManager.getNetworkStatus());
+            }
+            String requestText = sendRequest(authenticationTransaction);
+            if (authenticationTransaction.getRequest().getMethod().equals(Request.REGISTER)) {
+               updateRegisterMetrics(requestText.length());
+            }
             jainSipJob.increaseAuthAttempts();
          }
          else {
@@ -693,7 +869,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             String callId = ((CallIdHeader)request.getHeader("Call-ID")).getCallId();
 
             // create a new jobId for the new job
-            String jobId = Long.toString(System.currentTimeMillis());
+            String jobId = JobIdGenerator.generate();
             ServerTransaction serverTransaction = requestEvent.getServerTransaction();
             String method = request.getMethod();
 
@@ -737,7 +913,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   e.printStackTrace();
                }
             }
-            else if (method.equals(Request.BYE) || method.equals(Request.CANCEL) || method.equals(Request.ACK)) {
+            else if (method.equals(Request.BYE) || method.equals(Request.CANCEL) || method.equals(Request.ACK) || method.equals(Request.INFO)) {
                JainSipJob jainSipJob = jainSipJobManager.getByCallId(callId);
                if (jainSipJob == null) {
                   // no need to notify UI thread
@@ -771,13 +947,21 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                return;
             }
 
+            updateAuthMetrics(jainSipJob, responseEvent.getClientTransaction(), response);
+
             CSeqHeader cseq = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
             String method = cseq.getMethod();
+            if (method.equals(Request.REGISTER) || method.equals(Request.MESSAGE)) {
+               // keep the RTT estimate up to date, so that new transactions use timers that fit the network
+               jainSipRttEstimator.onResponse(responseEvent.getClientTransaction());
+            }
             if (method.equals(Request.REGISTER)) {
                if (response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED || response.getStatusCode() == Response.UNAUTHORIZED) {
                   jainSipJob.processFsm(jainSipJob.jobId, JainSipJob.FsmEvents.AUTH_REQUIRED, responseEventExt, null, null);
                }
                else if (response.getStatusCode() == Response.FORBIDDEN) {
+                  // our credentials are no good, don't keep using them pre-emptively
+                  jainSipDigestCache.clear();
                   jainSipJob.processFsm(jainSipJob.jobId, JainSipJob.FsmEvents.REGISTER_FAILURE, null, RCClient.ErrorCodes.ERROR_DEVICE_REGISTER_AUTHENTICATION_FORBIDDEN,
                         RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_REGISTER_AUTHENTICATION_FORBIDDEN));
                }
@@ -789,6 +973,7 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                   // register succeeded
                   //ViaHeader viaHeader = (ViaHeader) response.getHeader(ViaHeader.NAME);
                   updateViaReceivedAndRport((ViaHeader)response.getHeader(ViaHeader.NAME));
+                  updateOutbound(responseEventExt);
 
                   jainSipJob.processFsm(jainSipJob.jobId, JainSipJob.FsmEvents.REGISTER_SUCCESS, null, RCClient.ErrorCodes.SUCCESS, RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
                }
@@ -799,26 +984,44 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                jainSipJob.jainSipCall.processResponse(jainSipJob, responseEvent);
             }
             else if (method.equals(Request.MESSAGE)) {
-               if (response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED || response.getStatusCode() == Response.UNAUTHORIZED) {
+               int statusCode = response.getStatusCode();
+               if (statusCode == Response.PROXY_AUTHENTICATION_REQUIRED || statusCode == Response.UNAUTHORIZED) {
+                  if (!jainSipJob.shouldRetry()) {
+                     // we already tried with credentials and got challenged again, give up
+                     jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_AUTHENTICATION_FORBIDDEN,
+                           RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_AUTHENTICATION_FORBIDDEN));
+                     return;
+                  }
                   try {
                      jainSipAuthenticate(jainSipJob, configuration, responseEventExt);
                   }
                   catch (JainSipException e) {
-                     listener.onClientMessageReply(jainSipJob.jobId, e.errorCode, e.errorText);
+                     jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, e.errorCode, e.errorText);
                   }
                }
-               else if (response.getStatusCode() == Response.OK) {
-                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.SUCCESS,
+               else if (statusCode >= Response.OK && statusCode < Response.MULTIPLE_CHOICES) {
+                  // 200 OK or 202 Accepted
+                  jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.SUCCESS,
                         RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
                }
-               else if (response.getStatusCode() == Response.FORBIDDEN) {
-                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_AUTHENTICATION_FORBIDDEN,
+               else if (statusCode == Response.FORBIDDEN) {
+                  jainSipDigestCache.invalidate((String) configuration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN));
+                  jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_AUTHENTICATION_FORBIDDEN,
                         RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_AUTHENTICATION_FORBIDDEN));
                }
-               else if (response.getStatusCode() == Response.SERVICE_UNAVAILABLE) {
-                  listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_SERVICE_UNAVAILABLE,
+               else if (statusCode == Response.SERVICE_UNAVAILABLE) {
+                  jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_SERVICE_UNAVAILABLE,
                         RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_SERVICE_UNAVAILABLE));
                }
+               else if (statusCode == Response.NOT_FOUND) {
+                  jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND,
+                        RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND));
+               }
+               else if (statusCode >= Response.MULTIPLE_CHOICES) {
+                  // any other final response means the message didn't make it; previously we ignored those and the job was never cleaned up
+                  jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_PEER_UNAVAILABLE,
+                        RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_PEER_UNAVAILABLE));
+               }
             }
          }
       };
@@ -847,6 +1050,9 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             RCLogger.e(TAG, "SipManager.processIOException: " + exceptionEvent.toString() + "\n" +
                   "\thost: " + exceptionEvent.getHost() + "\n" +
                   "\tport: " + exceptionEvent.getPort());
+
+            // if this is our registration flow, we need a new one
+            jainSipOutbound.onFlowFailure(exceptionEvent.getHost(), exceptionEvent.getPort());
          }
       };
       signalingHandler.post(runnable);
@@ -885,6 +1091,9 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             }
 
             RCLogger.w(TAG, "processTimeout(): method: " + request.getMethod() + " URI: " + request.getRequestURI());
+            if (request.getMethod().equals(Request.REGISTER) || request.getMethod().equals(Request.MESSAGE)) {
+               jainSipRttEstimator.onTimeout(timeoutEvent.getClientTransaction());
+            }
             JainSipJob jainSipJob = jainSipJobManager.getByCallId(((CallIdHeader) request.getHeader("Call-ID")).getCallId());
             if (jainSipJob == null) {
                // transaction is not identified, just emit a log error; don't notify UI thread
@@ -896,9 +1105,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
                jainSipJob.jainSipCall.processTimeout(jainSipJob, timeoutEvent);
             }
             else if (jainSipJob.type == JainSipJob.Type.TYPE_MESSAGE) {
-               listener.onClientMessageReply(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_TIMEOUT,
+               jainSipMessagePipeline.onMessageCompleted(jainSipJob.jobId, RCClient.ErrorCodes.ERROR_MESSAGE_TIMEOUT,
                      RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_TIMEOUT));
-               jainSipJobManager.remove(jainSipJob.jobId);
             }
             else {
                // register, register refresh, reconfigure, etc
@@ -910,21 +1118,31 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       signalingHandler.post(runnable);
    }
 
+   // ------ OutboundListener events
+   public void onFlowFailed()
+   {
+      // re-register, which establishes a new flow towards the registrar. If we lost connectivity altogether, the connectivity change will handle that
+      if (jainSipListeningPoint != null && jainSipNotificationManager.haveConnectivity() && registerParameters != null) {
+         RCLogger.w(TAG, "onFlowFailed(): registration flow failed, re-registering");
+         jainSipJobManager.add(JobIdGenerator.generate(), JainSipJob.Type.TYPE_REGISTER_REFRESH, registerParameters);
+      }
+   }
+
    // ------ NotificationManagerListener events
    public void onConnectivityChange(JainSipNotificationManager.ConnectivityChange connectivityChange)
    {
       // No matter the connectivity change, cancel any pending scheduled registrations
-      signalingHandler.removeCallbacksAndMessages(REGISTER_REFRESH_HANDLER_TOKEN);
+      jainSipScheduler.cancel(REGISTER_REFRESH_TASK);
 
       if (connectivityChange == JainSipNotificationManager.ConnectivityChange.OFFLINE) {
          try {
             jainSipClientUnbind();
-            listener.onClientConnectivityEvent(Long.toString(System.currentTimeMillis()), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
+            listener.onClientConnectivityEvent(JobIdGenerator.generate(), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
          }
          catch (JainSipException e) {
             // let's notify the App regardless of the exception since we no longer have connectivity
             e.printStackTrace();
-            listener.onClientConnectivityEvent(Long.toString(System.currentTimeMillis()), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
+            listener.onClientConnectivityEvent(JobIdGenerator.generate(), RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone);
          }
       }
       else if (connectivityChange == JainSipNotificationManager.ConnectivityChange.OFFLINE_TO_WIFI ||
@@ -940,7 +1158,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
          else {
             parameters.put("connectivity-status", RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusEthernet);
          }
-         jainSipJobManager.add(Long.toString(System.currentTimeMillis()), JainSipJob.Type.TYPE_START_NETWORKING, parameters);
+         jainSipClientPrefetchDomain(parameters);
+         jainSipJobManager.add(JobIdGenerator.generate(), JainSipJob.Type.TYPE_START_NETWORKING, parameters);
       }
       else if (connectivityChange == JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_WIFI ||
             connectivityChange == JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_CELLULAR_DATA ||
@@ -956,7 +1175,8 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
             // connectivityChange == JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_ETHERNET
             parameters.put("connectivity-status", RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusEthernet);
          }
-         jainSipJobManager.add(Long.toString(System.currentTimeMillis()), JainSipJob.Type.TYPE_RELOAD_NETWORKING, parameters);
+         jainSipClientPrefetchDomain(parameters);
+         jainSipJobManager.add(JobIdGenerator.generate(), JainSipJob.Type.TYPE_RELOAD_NETWORKING, parameters);
       }
    }
 
@@ -1017,10 +1237,85 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
    }
 
    // -- Helpers
+   // Send the request of a new client transaction, returning its text as it went on the wire. Requests are kept with full header names, and if
+   // compact headers are enabled they only get compact names while the stack encodes them, which happens synchronously as part of sending. This
+   // way anything that looks headers up by name later on (like the authentication helper, when it copies a challenged request) still finds them.
+   // Notice that UDP retransmissions, which the stack encodes again, go out with full names
+   private String sendRequest(ClientTransaction transaction) throws SipException
+   {
+      Request request = transaction.getRequest();
+      boolean compacted = jainSipMessageBuilder.compactHeaders(request);
+      try {
+         String requestText = request.toString();
+         RCLogger.i(TAG, "Sending SIP request: \n" + requestText);
+         transaction.sendRequest();
+         return requestText;
+      }
+      finally {
+         if (compacted) {
+            jainSipMessageBuilder.expandHeaders(request);
+         }
+      }
+   }
+
+   // Pending messages belong to the account they were sent from, so each account (and domain) gets its own journal
+   private File getMessageJournalFile()
+   {
+      return JainSipMessageJournal.getFile(androidContext.getFilesDir(), (String) configuration.get(RCDevice.ParameterKeys.SIGNALING_USERNAME),
+            (String) configuration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN));
+   }
+
+   // Local address to bind signaling to: the winner of the dual-stack race if jainSipClientPrepareBind() ran one, otherwise IPv4, unless the network
+   // has no IPv4
+   private String getBindAddress() throws SocketException
+   {
+      String racedAddress = racedBindAddress;
+      racedBindAddress = null;
+      racedBindJob = null;
+      if (racedAddress != null) {
+         return racedAddress;
+      }
+
+      String ipv4Address = getIPAddressOrNull(true);
+      if (ipv4Address != null) {
+         return ipv4Address;
+      }
+      String ipv6Address = getIPAddressOrNull(false);
+      if (ipv6Address != null) {
+         RCLogger.i(TAG, "getBindAddress(): no IPv4 address, using IPv6: " + ipv6Address);
+         return ipv6Address;
+      }
+      // let the regular path report why we couldn't find an address
+      return getIPAddress(true);
+   }
+
+   // Like getIPAddress(), but returns null if we have no address of the given family
+   private String getIPAddressOrNull(boolean useIPv4)
+   {
+      try {
+         String address = getIPAddress(useIPv4);
+         // notice that on WiFi getIPAddress() might come up with an IPv4 address even if asked for IPv6
+         if (address == null || address.equals("") || address.equals("0.0.0.0") || useIPv4 == address.contains(":")) {
+            return null;
+         }
+         return address;
+      }
+      catch (Exception e) {
+         return null;
+      }
+   }
+
    // TODO: Improve this, try to not depend on such low level facilities
    public String getIPAddress(boolean useIPv4) throws SocketException
    {
-      String stringAddress = "";
+      // if we know the default network, use the address we have on it, so that we bind to exactly the network Android switched to
+      String stringAddress = jainSipNotificationManager.getLocalAddress(useIPv4);
+      if (stringAddress != null) {
+         RCLogger.v(TAG, "getIPAddress(): " + stringAddress + " (default network)");
+         return stringAddress;
+      }
+
+      stringAddress = "";
       if (jainSipNotificationManager.getNetworkStatus() == JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi) {
          WifiManager wifiMgr = (WifiManager) androidContext.getSystemService(Context.WIFI_SERVICE);
          WifiInfo wifiInfo = wifiMgr.getConnectionInfo();
@@ -1048,6 +1343,43 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       return stringAddress;
    }
 
+   private void deleteProvider()
+   {
+      if (jainSipProvider == null) {
+         return;
+      }
+
+      jainSipProvider.removeSipListener(this);
+      try {
+         jainSipStack.deleteSipProvider(jainSipProvider);
+      }
+      catch (ObjectInUseException e) {
+         throw new RuntimeException("Failed to tear down networking facilities", e);
+      }
+      jainSipProvider = null;
+   }
+
+   // REGISTERs are the other half of registration upkeep, next to the keep-alives JainSipOutbound counts
+   private void updateRegisterMetrics(int bytes)
+   {
+      counters.increment(SignalingMetrics.Counter.REGISTERS_SENT);
+      counters.add(SignalingMetrics.Counter.REGISTER_BYTES_SENT, bytes);
+   }
+
+   // Keep track of how many challenges we get and how many we avoid thanks to pre-emptive authentication
+   private void updateAuthMetrics(JainSipJob jainSipJob, ClientTransaction clientTransaction, Response response)
+   {
+      int statusCode = response.getStatusCode();
+      if (statusCode == Response.UNAUTHORIZED || statusCode == Response.PROXY_AUTHENTICATION_REQUIRED) {
+         counters.increment(SignalingMetrics.Counter.AUTH_CHALLENGES);
+      }
+      else if (statusCode >= Response.OK && clientTransaction != null && jainSipJob.authenticationAttempts == 0 &&
+            JainSipDigestCache.isAuthorized(clientTransaction.getRequest())) {
+         // request carried credentials without having been challenged first, hence they were pre-emptive
+         counters.increment(SignalingMetrics.Counter.AUTH_CHALLENGES_AVOIDED);
+      }
+   }
+
    private void updateViaReceivedAndRport(ViaHeader viaHeader)
    {
       // keep around the Via received and rport parms so that we can populate the contact properly
@@ -1066,4 +1398,64 @@ public class JainSipClient implements SipListener, JainSipNotificationManager.No
       }
    }
 
+   // Schedule a registration refresh a bit before the registration expires. Notice that this replaces any pending scheduled registration (in case
+   // this is an on-demand registration)
+   private void scheduleRegisterRefresh(final HashMap<String, Object> parameters, int expiry)
+   {
+      Runnable runnable = new Runnable() {
+         @Override
+         public void run()
+         {
+            jainSipJobManager.add(JobIdGenerator.generate(), JainSipJob.Type.TYPE_REGISTER_REFRESH, parameters);
+         }
+      };
+      jainSipScheduler.schedule(REGISTER_REFRESH_TASK, (expiry - REGISTER_REFRESH_MINUS_INTERVAL) * 1000L,
+            (long) (expiry * REGISTER_REFRESH_WINDOW_RATIO * 1000), runnable);
+   }
+
+   // A REGISTER succeeded; if we are using SIP Outbound start keeping the registration flow alive, and make sure we refresh in time in case the
+   // registrar granted us a shorter expiry than the (long) one we asked for
+   private void updateOutbound(ResponseEventExt responseEventExt)
+   {
+      if (registerParameters == null || !JainSipConfiguration.getBoolean(registerParameters, RCDevice.ParameterKeys.SIGNALING_OUTBOUND_ENABLED) ||
+            responseEventExt.getClientTransaction() == null || responseEventExt.getClientTransaction().getRequest().getExpires() == null ||
+            responseEventExt.getClientTransaction().getRequest().getExpires().getExpires() == 0) {
+         // not using outbound, or this was an unregistration
+         return;
+      }
+
+      Response response = responseEventExt.getResponse();
+      if (!JainSipOutbound.isSupported(response)) {
+         // keep-alives still keep NAT bindings and the connection up, even if the registrar doesn't do flow routing
+         RCLogger.i(TAG, "updateOutbound(): registrar didn't confirm outbound support, sending keep-alives anyway");
+      }
+
+      int grantedExpiry = getGrantedExpiry(response);
+      if (grantedExpiry > REGISTER_REFRESH_MINUS_INTERVAL && grantedExpiry < registerExpiry) {
+         RCLogger.i(TAG, "updateOutbound(): registrar granted expiry: " + grantedExpiry + " instead of: " + registerExpiry + ", rescheduling refresh");
+         scheduleRegisterRefresh(registerParameters, grantedExpiry);
+      }
+
+      jainSipOutbound.start(jainSipListeningPoint, responseEventExt.getRemoteIpAddress(), responseEventExt.getRemotePort(),
+            JainSipOutbound.getFlowTimer(response),
+            JainSipConfiguration.getInt(registerParameters, RCDevice.ParameterKeys.SIGNALING_KEEPALIVE_INTERVAL, JainSipOutbound.DEFAULT_KEEPALIVE_INTERVAL));
+   }
+
+   // Expiry the registrar granted to our binding (i.e. the Contact with our instance id), falling back to the Expires header. Returns -1 if none
+   private int getGrantedExpiry(Response response)
+   {
+      String instance = "\"<urn:uuid:" + JainSipOutbound.getInstanceId(androidContext) + ">\"";
+      ListIterator contactHeaders = response.getHeaders(ContactHeader.NAME);
+      while (contactHeaders != null && contactHeaders.hasNext()) {
+         ContactHeader contactHeader = (ContactHeader) contactHeaders.next();
+         if (instance.equals(contactHeader.getParameter("+sip.instance")) && contactHeader.getExpires() != -1) {
+            return contactHeader.getExpires();
+         }
+      }
+
+      if (response.getExpires() != null) {
+         return response.getExpires().getExpires();
+      }
+      return -1;
+   }
 }
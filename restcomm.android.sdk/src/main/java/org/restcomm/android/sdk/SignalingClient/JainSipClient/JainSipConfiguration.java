@@ -22,12 +22,18 @@
 
 package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
+import android.javax.sip.ListeningPoint;
+
 import org.restcomm.android.sdk.RCDevice;
 
 import java.util.HashMap;
 import java.util.Map;
 
 public class JainSipConfiguration {
+   // SIP over WebSocket (RFC 7118) transports; JAIN SIP has no constants for those
+   static final String TRANSPORT_WS = "WS";
+   static final String TRANSPORT_WSS = "WSS";
+
    private static final String TAG = "JainSipConfiguration";
 
    // compares old and new parameters and returns a map with new keys as well as modified keys
@@ -73,6 +79,56 @@ public class JainSipConfiguration {
       return false;
    }
 
+   // Signaling transport to use: TLS or TCP depending on SIGNALING_SECURE_ENABLED, or their WebSocket counterparts if SIGNALING_WEBSOCKET_ENABLED is set
+   static String getTransport(HashMap<String, Object> parameters)
+   {
+      boolean secure = getBoolean(parameters, RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED);
+      if (getBoolean(parameters, RCDevice.ParameterKeys.SIGNALING_WEBSOCKET_ENABLED)) {
+         return secure ? TRANSPORT_WSS : TRANSPORT_WS;
+      }
+      return secure ? ListeningPoint.TLS : ListeningPoint.TCP;
+   }
+
+   static boolean isWebSocket(String transport)
+   {
+      return TRANSPORT_WS.equalsIgnoreCase(transport) || TRANSPORT_WSS.equalsIgnoreCase(transport);
+   }
+
+   // TLS and WSS are both secure, and hence use SIPS URIs
+   static boolean isSecure(String transport)
+   {
+      return ListeningPoint.TLS.equalsIgnoreCase(transport) || TRANSPORT_WSS.equalsIgnoreCase(transport);
+   }
+
+   // Check if two configurations register the same address of record, i.e. same username at the same domain
+   static boolean sameAddressOfRecord(HashMap<String, Object> parameters1, HashMap<String, Object> parameters2)
+   {
+      Object username1 = parameters1.get(RCDevice.ParameterKeys.SIGNALING_USERNAME);
+      Object username2 = parameters2.get(RCDevice.ParameterKeys.SIGNALING_USERNAME);
+      Object domain1 = parameters1.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN);
+      Object domain2 = parameters2.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN);
+      return username1 != null && username1.equals(username2) && domain1 != null && domain1.equals(domain2);
+   }
+
+   // Retrieve an integer parameter, using defaultValue if it is missing. Notice that the App may pass integers either as Integer or as String
+   static int getInt(HashMap<String, Object> parameters, String key, int defaultValue)
+   {
+      if (parameters == null || !parameters.containsKey(key)) {
+         return defaultValue;
+      }
+
+      Object value = parameters.get(key);
+      if (value instanceof Number) {
+         return ((Number) value).intValue();
+      }
+      try {
+         return Integer.parseInt(value.toString());
+      }
+      catch (NumberFormatException e) {
+         return defaultValue;
+      }
+   }
+
 
 /*
    static boolean getSecureEnabledValue(HashMap<String, Object> newParameters)
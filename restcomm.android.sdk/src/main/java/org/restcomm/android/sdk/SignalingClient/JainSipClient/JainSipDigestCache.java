@@ -0,0 +1,304 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.header.AuthorizationHeader;
+import android.javax.sip.header.CSeqHeader;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ProxyAuthenticateHeader;
+import android.javax.sip.header.ProxyAuthorizationHeader;
+import android.javax.sip.header.WWWAuthenticateHeader;
+import android.javax.sip.message.Request;
+import android.javax.sip.message.Response;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * JainSipDigestCache allows us to authenticate requests pre-emptively. Normally each REGISTER, INVITE and MESSAGE is first sent without credentials,
+ * gets challenged with 401/407 and is then re-sent with credentials by JainSipClient.jainSipAuthenticate(), which costs a full round trip each time.
+ * Instead, we remember the last digest challenge (realm, nonce, opaque, qop) we got for each signaling domain, realm and kind (i.e. 401 with
+ * WWW-Authenticate vs. 407 with Proxy-Authenticate) and use it to add an Authorization/Proxy-Authorization header to subsequent requests up front
+ * (RFC 2617 / RFC 3261 section 22).
+ *
+ * Servers don't necessarily challenge all requests the same way; Restcomm for example challenges REGISTER with 401 and INVITE/MESSAGE with 407.
+ * That's why we also remember which challenge each method got last time and authorize requests with the one matching their method, so that
+ * REGISTER refreshes and messages don't keep evicting each other's challenge. Methods that haven't been challenged yet get the latest challenge.
+ *
+ * If the server no longer likes our nonce (i.e. it is stale) it will simply challenge us again; the regular challenge path takes over and the
+ * new challenge replaces the cached one.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipDigestCache {
+   // Digest challenge parameters for a realm, as received in the last challenge
+   private static class Challenge {
+      boolean proxy;
+      String realm;
+      String nonce;
+      String opaque;
+      String algorithm;
+      // only 'auth' is supported; null if the server didn't offer it
+      String qop;
+      String cnonce;
+      // nonce count, increased every time we use the nonce
+      int nonceCount;
+   }
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   // challenges by signaling domain, kind and realm (see challengeKey())
+   private HashMap<String, Challenge> challenges;
+   // key of the challenge each method got last, by signaling domain and method (see methodKey()), plus the latest one for each domain (by domain)
+   private HashMap<String, String> lastChallenges;
+   private SecureRandom random;
+   private SignalingCounters counters;
+   private static final String TAG = "JainSipDigestCache";
+
+   JainSipDigestCache(SignalingCounters counters)
+   {
+      this.counters = counters;
+      challenges = new HashMap<>();
+      lastChallenges = new HashMap<>();
+      random = new SecureRandom();
+   }
+
+   /**
+    * Remember the digest challenge contained in a 401/407 response, so that we can use it for subsequent requests towards the same domain
+    * @param domain Signaling domain the challenge came from
+    * @param response The 401/407 response
+    */
+   void onChallenge(String domain, Response response)
+   {
+      if (domain == null || domain.equals("")) {
+         return;
+      }
+
+      Challenge challenge = new Challenge();
+      WWWAuthenticateHeader authenticateHeader;
+      if (response.getStatusCode() == Response.PROXY_AUTHENTICATION_REQUIRED) {
+         authenticateHeader = (WWWAuthenticateHeader) response.getHeader(ProxyAuthenticateHeader.NAME);
+         challenge.proxy = true;
+      }
+      else {
+         authenticateHeader = (WWWAuthenticateHeader) response.getHeader(WWWAuthenticateHeader.NAME);
+         challenge.proxy = false;
+      }
+
+      CSeqHeader cseqHeader = (CSeqHeader) response.getHeader(CSeqHeader.NAME);
+      String method = (cseqHeader != null) ? cseqHeader.getMethod() : null;
+      if (authenticateHeader == null || !"Digest".equalsIgnoreCase(authenticateHeader.getScheme())) {
+         forgetMethod(domain, method);
+         return;
+      }
+
+      String algorithm = authenticateHeader.getAlgorithm();
+      if (algorithm != null && !algorithm.equalsIgnoreCase("MD5")) {
+         // we only know how to do plain MD5; let the regular challenge path handle anything else
+         RCLogger.w(TAG, "onChallenge(): unsupported digest algorithm: " + algorithm + ", won't authenticate pre-emptively");
+         forgetMethod(domain, method);
+         return;
+      }
+
+      challenge.realm = authenticateHeader.getRealm();
+      challenge.nonce = authenticateHeader.getNonce();
+      challenge.opaque = authenticateHeader.getOpaque();
+      challenge.algorithm = algorithm;
+      String qop = authenticateHeader.getQop();
+      if (qop != null) {
+         for (String option : qop.split(",")) {
+            if (option.trim().equalsIgnoreCase("auth")) {
+               challenge.qop = "auth";
+            }
+         }
+      }
+      challenge.cnonce = Long.toHexString(random.nextLong());
+      // the challenged request will be re-sent by JAIN SIP's AuthenticationHelper with nonce count 1
+      challenge.nonceCount = 1;
+
+      // a new challenge for the same realm and kind (for example because the nonce went stale) replaces the old one, for all methods using it
+      String key = challengeKey(domain, challenge.proxy, challenge.realm);
+      challenges.put(key, challenge);
+      lastChallenges.put(domain, key);
+      if (method != null) {
+         lastChallenges.put(methodKey(domain, method), key);
+      }
+   }
+
+   /**
+    * Add an Authorization/Proxy-Authorization header to the given request, if we have a cached challenge for the domain. The challenge used
+    * is the one the request's method got last time, or the latest one for the domain if the method hasn't been challenged yet
+    * @param request Request to authorize
+    * @param domain Signaling domain the request is sent to
+    * @param username Username to use for authentication
+    * @param password Password to use for authentication
+    * @param headerFactory JAIN SIP header factory
+    * @return true if the request was authorized pre-emptively
+    */
+   boolean authorize(Request request, String domain, String username, String password, HeaderFactory headerFactory)
+   {
+      if (domain == null || username == null) {
+         return false;
+      }
+      String key = lastChallenges.get(methodKey(domain, request.getMethod()));
+      if (key == null) {
+         key = lastChallenges.get(domain);
+      }
+      Challenge challenge = (key != null) ? challenges.get(key) : null;
+      if (challenge == null) {
+         return false;
+      }
+      if (password == null) {
+         password = "";
+      }
+
+      try {
+         String uri = request.getRequestURI().toString();
+         challenge.nonceCount++;
+         String nc = String.format("%08x", challenge.nonceCount);
+
+         String ha1 = md5Hex(username + ":" + challenge.realm + ":" + password);
+         String ha2 = md5Hex(request.getMethod() + ":" + uri);
+         String response;
+         if (challenge.qop != null) {
+            response = md5Hex(ha1 + ":" + challenge.nonce + ":" + nc + ":" + challenge.cnonce + ":" + challenge.qop + ":" + ha2);
+         }
+         else {
+            response = md5Hex(ha1 + ":" + challenge.nonce + ":" + ha2);
+         }
+
+         AuthorizationHeader authorizationHeader;
+         if (challenge.proxy) {
+            authorizationHeader = headerFactory.createProxyAuthorizationHeader("Digest");
+         }
+         else {
+            authorizationHeader = headerFactory.createAuthorizationHeader("Digest");
+         }
+         authorizationHeader.setUsername(username);
+         authorizationHeader.setRealm(challenge.realm);
+         authorizationHeader.setNonce(challenge.nonce);
+         authorizationHeader.setURI(request.getRequestURI());
+         authorizationHeader.setResponse(response);
+         if (challenge.algorithm != null) {
+            authorizationHeader.setAlgorithm(challenge.algorithm);
+         }
+         if (challenge.opaque != null) {
+            authorizationHeader.setOpaque(challenge.opaque);
+         }
+         if (challenge.qop != null) {
+            authorizationHeader.setQop(challenge.qop);
+            authorizationHeader.setCNonce(challenge.cnonce);
+            authorizationHeader.setNonceCount(challenge.nonceCount);
+         }
+
+         request.setHeader(authorizationHeader);
+         counters.increment(SignalingMetrics.Counter.AUTH_PREEMPTIVE);
+         return true;
+      }
+      catch (ParseException e) {
+         RCLogger.e(TAG, "authorize(): failed to build authorization header: " + e.getMessage());
+         e.printStackTrace();
+         challenges.remove(key);
+         return false;
+      }
+   }
+
+   /**
+    * Check if a request carries credentials (either pre-emptive or in response to a challenge)
+    */
+   static boolean isAuthorized(Request request)
+   {
+      return request.getHeader(AuthorizationHeader.NAME) != null || request.getHeader(ProxyAuthorizationHeader.NAME) != null;
+   }
+
+   // Forget the cached challenges for a domain, for example when the server rejects our credentials
+   void invalidate(String domain)
+   {
+      if (domain == null) {
+         return;
+      }
+      String prefix = domain + "|";
+      for (Iterator<String> iterator = challenges.keySet().iterator(); iterator.hasNext(); ) {
+         if (iterator.next().startsWith(prefix)) {
+            iterator.remove();
+         }
+      }
+      for (Iterator<String> iterator = lastChallenges.keySet().iterator(); iterator.hasNext(); ) {
+         String key = iterator.next();
+         if (key.equals(domain) || key.startsWith(prefix)) {
+            iterator.remove();
+         }
+      }
+   }
+
+   void clear()
+   {
+      challenges.clear();
+      lastChallenges.clear();
+   }
+
+   // ------ Helpers
+   // The challenge we got for the method can't be used pre-emptively, so the method falls back to the regular challenge path next time
+   private void forgetMethod(String domain, String method)
+   {
+      if (method != null) {
+         lastChallenges.remove(methodKey(domain, method));
+      }
+   }
+
+   private static String challengeKey(String domain, boolean proxy, String realm)
+   {
+      return domain + "|" + (proxy ? "proxy" : "www") + "|" + realm;
+   }
+
+   private static String methodKey(String domain, String method)
+   {
+      return domain + "|" + method;
+   }
+
+   private static String md5Hex(String input)
+   {
+      try {
+         byte[] digest = MessageDigest.getInstance("MD5").digest(input.getBytes(UTF8));
+         char[] result = new char[digest.length * 2];
+         for (int i = 0; i < digest.length; i++) {
+            result[2 * i] = HEX[(digest[i] >> 4) & 0x0f];
+            result[2 * i + 1] = HEX[digest[i] & 0x0f];
+         }
+         return new String(result);
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException("MD5 not available", e);
+      }
+   }
+}
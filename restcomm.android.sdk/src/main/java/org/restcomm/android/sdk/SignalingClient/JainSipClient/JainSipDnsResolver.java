@@ -0,0 +1,341 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.stack.HopImpl;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.address.Hop;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.address.URI;
+import android.org.mobicents.ext.javax.sip.dns.DefaultDNSServerLocator;
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JainSipDnsResolver resolves the signaling domain to a hop (via DNS SRV/NAPTR, through the jain-sip.ext DNS locator) and caches the result, so that
+ * building a SIP request on the signaling thread doesn't have to block on DNS queries. Specifically:
+ * - cache hits are served right away
+ * - entries are refreshed in the background before they expire, as long as they are in use
+ * - expired entries are still served for a while (while being refreshed in the background), so that a slow DNS server doesn't stall signaling
+ * - entries can be refreshed in advance, for example when connectivity changes
+ *
+ * Only a cold cache (i.e. very first request towards a domain) blocks on DNS. Notice that the DNS locator doesn't expose record TTLs, so all entries
+ * share the same TTL.
+ *
+ * Resolution happens in a dedicated background thread; the cache is accessed both from there and from the signaling thread, hence it's concurrent
+ */
+class JainSipDnsResolver {
+   static final long DEFAULT_TTL = 5 * 60 * 1000;
+   // for how long after expiry we keep serving an entry while refreshing it
+   static final long MAX_STALE = 60 * 60 * 1000;
+   // retry interval when a background refresh fails
+   static final long REFRESH_RETRY_INTERVAL = 30 * 1000;
+   // default ports for SIP over WebSocket, same as HTTP(S)
+   static final int DEFAULT_WS_PORT = 80;
+   static final int DEFAULT_WSS_PORT = 443;
+   // refresh entries once that much of their TTL has elapsed
+   private static final double REFRESH_RATIO = 0.8;
+   // DNS queries that take longer than that are worth a warning
+   private static final long SLOW_QUERY_THRESHOLD = 3000;
+
+   private static class Entry {
+      URI uri;
+      String transport;
+      Hop hop;
+      // uptime when the entry was last resolved and used respectively
+      volatile long resolvedTime;
+      volatile long usedTime;
+      // the following are guarded by the entry itself: pending refresh (if any), whether a lookup is running right now, and whether the last
+      // background refresh failed (in which case a retry is already pending)
+      ScheduledFuture<?> refresh;
+      boolean lookingUp;
+      boolean refreshFailed;
+   }
+
+   private final long ttl;
+   private final ConcurrentHashMap<String, Entry> cache;
+   private ScheduledExecutorService executor;
+   private boolean shutdown;
+   // resolutions served from the cache vs. the ones that had to wait for DNS are counted here
+   private final SignalingCounters counters;
+   private static final String TAG = "JainSipDnsResolver";
+
+   JainSipDnsResolver(SignalingCounters counters)
+   {
+      this(counters, DEFAULT_TTL);
+   }
+
+   JainSipDnsResolver(SignalingCounters counters, long ttl)
+   {
+      this.counters = counters;
+      this.ttl = ttl;
+      cache = new ConcurrentHashMap<>();
+   }
+
+   /**
+    * Resolve a domain to the hop to use for sending requests. Served from the cache unless we have never resolved this domain before
+    * @param uri Domain URI, like sip:cloud.restcomm.com
+    * @param transport Transport we are using, like TCP or TLS
+    * @return The hop
+    * @throws JainSipException if the domain cannot be resolved
+    */
+   Hop resolve(URI uri, String transport) throws JainSipException
+   {
+      String key = key(uri, transport);
+      Entry entry = cache.get(key);
+      long now = now();
+      // notice that entries being prefetched don't have a hop yet
+      if (entry != null && entry.hop != null) {
+         entry.usedTime = now;
+         long age = now - entry.resolvedTime;
+         if (age < ttl) {
+            counters.increment(SignalingMetrics.Counter.DNS_CACHE_HITS);
+            return entry.hop;
+         }
+         if (age < ttl + MAX_STALE) {
+            // expired, but good enough to use while we refresh in the background
+            RCLogger.i(TAG, "resolve(): serving expired entry for " + key + " while refreshing");
+            counters.increment(SignalingMetrics.Counter.DNS_CACHE_HITS);
+            synchronized (entry) {
+               // if the last refresh failed let the pending retry take care of it, instead of hitting DNS on every request
+               if (!entry.refreshFailed) {
+                  refreshAsync(entry, 0);
+               }
+            }
+            return entry.hop;
+         }
+      }
+
+      // cold cache, we have to wait for DNS
+      counters.increment(SignalingMetrics.Counter.DNS_CACHE_MISSES);
+      entry = new Entry();
+      entry.uri = uri;
+      entry.transport = transport;
+      entry.hop = lookup(uri, transport);
+      entry.resolvedTime = now();
+      entry.usedTime = entry.resolvedTime;
+      cache.put(key, entry);
+      synchronized (entry) {
+         refreshAsync(entry, (long) (ttl * REFRESH_RATIO));
+      }
+
+      return entry.hop;
+   }
+
+   /**
+    * Resolve a domain in the background right away, so that subsequent resolve() calls for it are served from the cache. For a domain that
+    * is already cached this refreshes it (for example because we changed network and DNS results might now be different), while the current
+    * result keeps being served in the meantime
+    * @param uri Domain URI
+    * @param transport Transport we are using
+    */
+   void prefetch(URI uri, String transport)
+   {
+      String key = key(uri, transport);
+      Entry entry = cache.get(key);
+      if (entry == null) {
+         entry = new Entry();
+         entry.uri = uri;
+         entry.transport = transport;
+         entry.usedTime = now();
+         Entry existing = cache.putIfAbsent(key, entry);
+         if (existing != null) {
+            entry = existing;
+         }
+      }
+      synchronized (entry) {
+         refreshAsync(entry, 0);
+      }
+   }
+
+   void shutdown()
+   {
+      synchronized (this) {
+         shutdown = true;
+         if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+         }
+      }
+      cache.clear();
+   }
+
+   // Do the actual DNS queries. Blocks for as long as DNS takes
+   Hop lookup(URI uri, String transport) throws JainSipException
+   {
+      if (JainSipConfiguration.isWebSocket(transport)) {
+         // There are no SRV/NAPTR records for WebSocket (RFC 7118 doesn't define any), so servers are located like their TCP/TLS counterparts, but
+         // on the HTTP(S) port unless one is given. Notice that with an explicit port the DNS locator skips SRV and just resolves the host
+         boolean secure = JainSipConfiguration.isSecure(transport);
+         if (uri.isSipURI() && ((SipURI) uri).getPort() == -1) {
+            SipURI sipUri = (SipURI) uri.clone();
+            sipUri.setPort(secure ? DEFAULT_WSS_PORT : DEFAULT_WS_PORT);
+            uri = sipUri;
+         }
+         Hop hop = lookup(uri, secure ? ListeningPoint.TLS : ListeningPoint.TCP);
+         return new HopImpl(hop.getHost(), hop.getPort(), transport.toUpperCase());
+      }
+
+      Set<String> supportedTransports = new HashSet<String>();
+      // Somehow only in Android Oreo and only when using cleartext signaling dnsServerLocator.locateHops() breaks
+      // because somehow the transport string that reaches DefaultDNSServerLocator.getDefaultTransportForSipUri() isn't uppercase
+      // and hence the matching fails to identify trasport. So let's workaround that by always uppercasing it
+      supportedTransports.add(transport.toUpperCase());
+      DefaultDNSServerLocator dnsServerLocator = new DefaultDNSServerLocator(supportedTransports);
+
+      // This is a synchronous call that does one or more DNS queries (depending on if DNS SRV is used), let's time it to keep track of any big delays
+      long startTime = System.currentTimeMillis();
+      Queue<Hop> hops = dnsServerLocator.locateHops(uri);
+      if (hops == null || hops.size() == 0) {
+         throw new JainSipException(RCClient.ErrorCodes.ERROR_DEVICE_SIGNALING_DOMAIN_INVALID);
+      }
+      long queryDuration = System.currentTimeMillis() - startTime;
+      RCLogger.i(TAG, "lookup(): DNS query time: " + queryDuration + " ms, hops: " + hops.toString());
+      if (queryDuration > SLOW_QUERY_THRESHOLD) {
+         RCLogger.w(TAG, "Signaling DNS queries are taking too long, you might need to check your setup");
+      }
+      return hops.peek();
+   }
+
+   long now()
+   {
+      return SystemClock.elapsedRealtime();
+   }
+
+   // ------ Helpers
+   // Schedule a refresh of the entry, unless a lookup is running right now or a refresh is already due sooner. A refresh that is due later is
+   // rescheduled, so that for example a refresh requested for right now doesn't wait for the periodic one. Needs to be called with the entry lock held
+   private void refreshAsync(final Entry entry, final long delay)
+   {
+      if (entry.lookingUp) {
+         return;
+      }
+      if (entry.refresh != null && !entry.refresh.isDone()) {
+         if (entry.refresh.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+            return;
+         }
+         entry.refresh.cancel(false);
+      }
+
+      ScheduledExecutorService executor = getExecutor();
+      if (executor == null) {
+         return;
+      }
+
+      entry.refresh = executor.schedule(new Runnable() {
+         @Override
+         public void run()
+         {
+            // refreshes requested for right now happen no matter what, periodic ones only for entries in use
+            refresh(entry, delay > 0);
+         }
+      }, delay, TimeUnit.MILLISECONDS);
+   }
+
+   private void refresh(Entry entry, boolean periodic)
+   {
+      String key = key(entry.uri, entry.transport);
+      synchronized (entry) {
+         // the executor is single threaded, so the pending refresh is the one running right now
+         entry.refresh = null;
+         if (entry.lookingUp || cache.get(key) != entry) {
+            // already being looked up, or removed or replaced in the meantime
+            return;
+         }
+
+         // only keep entries warm while they are being used; an entry that hasn't been used since it was last resolved will be resolved again on demand
+         if (periodic && entry.hop != null && entry.usedTime < entry.resolvedTime) {
+            RCLogger.v(TAG, "refresh(): entry for " + key + " not used lately, won't refresh");
+            return;
+         }
+         entry.lookingUp = true;
+      }
+
+      long delay;
+      boolean failed = false;
+      try {
+         entry.hop = lookup(entry.uri, entry.transport);
+         entry.resolvedTime = now();
+         delay = (long) (ttl * REFRESH_RATIO);
+      }
+      catch (Exception e) {
+         // keep serving what we have, and try again later
+         RCLogger.w(TAG, "refresh(): failed to refresh " + key + ": " + e.getMessage());
+         if (entry.hop == null) {
+            // nothing to serve anyway
+            cache.remove(key, entry);
+            synchronized (entry) {
+               entry.lookingUp = false;
+            }
+            return;
+         }
+         delay = REFRESH_RETRY_INTERVAL;
+         failed = true;
+      }
+
+      synchronized (entry) {
+         entry.lookingUp = false;
+         entry.refreshFailed = failed;
+         refreshAsync(entry, delay);
+      }
+   }
+
+   private synchronized ScheduledExecutorService getExecutor()
+   {
+      if (shutdown) {
+         return null;
+      }
+      if (executor == null) {
+         ScheduledThreadPoolExecutor threadPoolExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "restcomm-dns");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         executor = threadPoolExecutor;
+      }
+      return executor;
+   }
+
+   private static String key(URI uri, String transport)
+   {
+      return uri.toString() + "|" + transport.toUpperCase();
+   }
+}
@@ -0,0 +1,319 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.os.Handler;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * JainSipHappyEyeballs picks the address family to bind signaling to on dual-stack networks, in the spirit of Happy Eyeballs (RFC 8305): we try to
+ * connect to the signaling server over IPv6 and, shortly after, over IPv4, and keep whichever gets through first. This way IPv6-only (or IPv6
+ * preferring) carriers don't have to sit through IPv4 timeouts, while networks with broken IPv6 still get IPv4 right away.
+ *
+ * Each family connects to the first address of that family among the given remote hosts (A and AAAA records alike), so a server known by an IPv4
+ * address (as DNS SRV resolution typically leaves us with) still gets an IPv6 attempt through its name.
+ *
+ * Racing happens in background threads. race() waits for the outcome (bounded by RACE_TIMEOUT), while raceAsync() posts it to a Handler, which is
+ * what the signaling thread uses so that it never blocks on the network
+ *
+ * Keep in mind that the race is a probe: the connections it makes are plain TCP ones (even if signaling then goes over TLS or WebSocket) and
+ * are closed as soon as there's a winner, since JAIN SIP opens its own connection when the listening point is created and has no way of
+ * adopting one. So each race costs the signaling server one or two short lived connections. To keep that down, a race with a winner is
+ * remembered for as long as the local addresses and the server stay the same (i.e. until we move to another network), and binding again
+ * in the meantime, like after a reconfigure or a restart of signaling, reuses its outcome instead of probing again
+ */
+class JainSipHappyEyeballs {
+   // RFC 8305 recommended 'Connection Attempt Delay', i.e. head start we give to IPv6
+   static final long IPV4_DELAY = 250;
+   // how long we wait for either family before giving up (the caller then falls back to its default)
+   static final long RACE_TIMEOUT = 3000;
+   private static final String TAG = "JainSipHappyEyeballs";
+
+   interface RaceListener {
+      // winner is the local address of the family that connected first, or null if neither did in time
+      void onRaceFinished(String winner);
+   }
+
+   // races, who won, and the connect latency of each family in the latest race (-1 if it failed or was cut short) are counted here
+   private final SignalingCounters counters;
+   // what the latest race with a winner was run for (local addresses, server hosts and port) and who won it. Races run in background threads,
+   // hence access goes through synchronized helpers
+   private String lastRaceKey;
+   private String lastWinner;
+
+   JainSipHappyEyeballs(SignalingCounters counters)
+   {
+      this.counters = counters;
+   }
+
+   private static class Attempt implements Runnable {
+      final String localAddress;
+      final String[] remoteHosts;
+      final int remotePort;
+      final boolean ipv6;
+      final long delay;
+      final AtomicReference<String> winner;
+      final CountDownLatch firstFinished;
+      final CountDownLatch decided;
+      final AtomicInteger remaining;
+      volatile Socket socket;
+      // connect latency in miliseconds, or -1 if the attempt failed or was cut short
+      volatile long latency = -1;
+
+      Attempt(String localAddress, String[] remoteHosts, int remotePort, boolean ipv6, long delay, AtomicReference<String> winner, CountDownLatch firstFinished,
+              CountDownLatch decided, AtomicInteger remaining)
+      {
+         this.localAddress = localAddress;
+         this.remoteHosts = remoteHosts;
+         this.remotePort = remotePort;
+         this.ipv6 = ipv6;
+         this.delay = delay;
+         this.winner = winner;
+         this.firstFinished = firstFinished;
+         this.decided = decided;
+         this.remaining = remaining;
+      }
+
+      @Override
+      public void run()
+      {
+         try {
+            if (delay > 0) {
+               // the other family might win in the meantime, in which case there's no point in trying
+               if (firstFinished.await(delay, TimeUnit.MILLISECONDS) && winner.get() != null) {
+                  return;
+               }
+            }
+
+            InetAddress remoteAddress = lookup(remoteHosts, ipv6);
+            if (remoteAddress == null) {
+               RCLogger.i(TAG, "run(): no " + family() + " address for " + Arrays.toString(remoteHosts));
+               return;
+            }
+
+            long startTime = System.nanoTime();
+            socket = new Socket();
+            socket.bind(new InetSocketAddress(InetAddress.getByName(localAddress), 0));
+            socket.connect(new InetSocketAddress(remoteAddress, remotePort), (int) RACE_TIMEOUT);
+            latency = (System.nanoTime() - startTime) / 1000000;
+            RCLogger.i(TAG, "run(): " + family() + " connected to " + remoteAddress.getHostAddress() + " in " + latency + " ms");
+            if (winner.compareAndSet(null, localAddress)) {
+               decided.countDown();
+            }
+         }
+         catch (IOException e) {
+            RCLogger.i(TAG, "run(): " + family() + " attempt failed: " + e.getMessage());
+         }
+         catch (InterruptedException e) {
+            // cut short
+         }
+         finally {
+            // this was just a probe, JAIN SIP makes its own connection once we bind
+            close();
+            firstFinished.countDown();
+            if (remaining.decrementAndGet() == 0) {
+               // both are over without a winner (or the winner already counted down, in which case this is a no-op)
+               decided.countDown();
+            }
+         }
+      }
+
+      void close()
+      {
+         Socket socket = this.socket;
+         if (socket != null) {
+            try {
+               socket.close();
+            }
+            catch (IOException e) {
+               // nothing to do
+            }
+         }
+      }
+
+      String family()
+      {
+         return ipv6 ? "IPv6" : "IPv4";
+      }
+   }
+
+   /**
+    * Race IPv6 against IPv4 towards the signaling server, blocking until there's an outcome
+    * @param ipv6Address Local IPv6 address
+    * @param ipv4Address Local IPv4 address
+    * @param remoteHosts Signaling server hosts (names or addresses), like the resolved hop and the signaling domain; each family goes for the
+    *                    first address of its own among them
+    * @param remotePort Signaling server port
+    * @return The local address of the family that connected first, or null if neither did in time
+    */
+   String race(String ipv6Address, String ipv4Address, String[] remoteHosts, int remotePort)
+   {
+      String key = getRaceKey(ipv6Address, ipv4Address, remoteHosts, remotePort);
+      String previousWinner = getPreviousWinner(key);
+      if (previousWinner != null) {
+         RCLogger.i(TAG, "race(): reusing previous winner: " + previousWinner);
+         return previousWinner;
+      }
+
+      AtomicReference<String> winner = new AtomicReference<>();
+      // released as soon as either family gets through, or once both are over
+      CountDownLatch decided = new CountDownLatch(1);
+      AtomicInteger remaining = new AtomicInteger(2);
+      // released when the IPv6 attempt is over; if it failed IPv4 doesn't have to wait for the rest of its delay (like RFC 8305 does)
+      CountDownLatch firstFinished = new CountDownLatch(1);
+      Attempt ipv6Attempt = new Attempt(ipv6Address, remoteHosts, remotePort, true, 0, winner, firstFinished, decided, remaining);
+      Attempt ipv4Attempt = new Attempt(ipv4Address, remoteHosts, remotePort, false, IPV4_DELAY, winner, firstFinished, decided, remaining);
+
+      long startTime = System.nanoTime();
+      start(ipv6Attempt);
+      start(ipv4Attempt);
+
+      try {
+         decided.await(RACE_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+
+      // the loser (if still trying) is of no use any more
+      ipv6Attempt.close();
+      ipv4Attempt.close();
+
+      String result = winner.get();
+      RCLogger.i(TAG, "race(): winner: " + result + " after " + (System.nanoTime() - startTime) / 1000000 + " ms; IPv6 connect: " +
+            ipv6Attempt.latency + " ms, IPv4 connect: " + ipv4Attempt.latency + " ms");
+      counters.increment(SignalingMetrics.Counter.DUAL_STACK_RACES);
+      if (result != null) {
+         counters.increment(result.equals(ipv6Address) ? SignalingMetrics.Counter.DUAL_STACK_IPV6_WINS : SignalingMetrics.Counter.DUAL_STACK_IPV4_WINS);
+      }
+      counters.set(SignalingMetrics.Counter.DUAL_STACK_IPV6_CONNECT_LAST_MS, ipv6Attempt.latency);
+      counters.set(SignalingMetrics.Counter.DUAL_STACK_IPV4_CONNECT_LAST_MS, ipv4Attempt.latency);
+      if (result != null) {
+         setPreviousWinner(key, result);
+      }
+      return result;
+   }
+
+   /**
+    * Like race(), but returns right away; the outcome is posted to the given handler
+    * @param handler Handler to notify the listener through, typically the signaling thread's
+    * @param listener Listener to notify
+    */
+   void raceAsync(final String ipv6Address, final String ipv4Address, final String[] remoteHosts, final int remotePort, final Handler handler,
+                  final RaceListener listener)
+   {
+      final String previousWinner = getPreviousWinner(getRaceKey(ipv6Address, ipv4Address, remoteHosts, remotePort));
+      if (previousWinner != null) {
+         // no need for a thread; still, the listener is always notified through the handler
+         RCLogger.i(TAG, "raceAsync(): reusing previous winner: " + previousWinner);
+         handler.post(new Runnable() {
+            @Override
+            public void run()
+            {
+               listener.onRaceFinished(previousWinner);
+            }
+         });
+         return;
+      }
+
+      Thread thread = new Thread(new Runnable() {
+         @Override
+         public void run()
+         {
+            final String winner = race(ipv6Address, ipv4Address, remoteHosts, remotePort);
+            handler.post(new Runnable() {
+               @Override
+               public void run()
+               {
+                  listener.onRaceFinished(winner);
+               }
+            });
+         }
+      }, "restcomm-happy-eyeballs");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   // Resolve hosts to the first address of the given family among them, or null if they have none. Hosts that are addresses already need no DNS
+   static InetAddress lookup(String[] hosts, boolean ipv6) throws IOException
+   {
+      UnknownHostException lastException = null;
+      for (String host : hosts) {
+         try {
+            for (InetAddress address : InetAddress.getAllByName(host)) {
+               if (ipv6 ? address instanceof Inet6Address : address instanceof Inet4Address) {
+                  return address;
+               }
+            }
+         }
+         catch (UnknownHostException e) {
+            // the other hosts might still do
+            lastException = e;
+         }
+      }
+      if (lastException != null) {
+         throw lastException;
+      }
+      return null;
+   }
+
+   // ------ Helpers
+   private static String getRaceKey(String ipv6Address, String ipv4Address, String[] remoteHosts, int remotePort)
+   {
+      return ipv6Address + "," + ipv4Address + "," + Arrays.toString(remoteHosts) + ":" + remotePort;
+   }
+
+   private synchronized String getPreviousWinner(String key)
+   {
+      return key.equals(lastRaceKey) ? lastWinner : null;
+   }
+
+   private synchronized void setPreviousWinner(String key, String winner)
+   {
+      lastRaceKey = key;
+      lastWinner = winner;
+   }
+
+   private static void start(Attempt attempt)
+   {
+      Thread thread = new Thread(attempt, "restcomm-happy-eyeballs");
+      thread.setDaemon(true);
+      thread.start();
+   }
+}
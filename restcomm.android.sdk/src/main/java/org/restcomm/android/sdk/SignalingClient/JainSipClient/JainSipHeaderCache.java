@@ -0,0 +1,212 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.header.SIPHeader;
+import android.gov.nist.javax.sip.message.SIPMessage;
+import android.javax.sip.InvalidArgumentException;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.ContentLengthHeader;
+import android.javax.sip.header.ContentTypeHeader;
+import android.javax.sip.header.FromHeader;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.MaxForwardsHeader;
+import android.javax.sip.header.SupportedHeader;
+import android.javax.sip.header.ToHeader;
+import android.javax.sip.header.UserAgentHeader;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.Message;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * JainSipHeaderCache keeps templates of the headers that are the same in every request we send (User-Agent, Max-Forwards, Supported) or only change
+ * when we bind or register again (Via, Contact), so that building a request doesn't have to create and parse them from scratch through the
+ * HeaderFactory each time. Templates are never handed out or modified; callers get a clone, which is much cheaper than parsing.
+ *
+ * It also knows how to switch the most common headers to their compact forms (RFC 3261 section 7.3.3), so that requests are smaller on the wire.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipHeaderCache {
+   // full and compact forms of the headers we compact
+   private static final String[][] COMPACT_FORMS = {
+         { CallIdHeader.NAME, "i" },
+         { FromHeader.NAME, "f" },
+         { ToHeader.NAME, "t" },
+         { ViaHeader.NAME, "v" },
+         { ContactHeader.NAME, "m" },
+         { ContentTypeHeader.NAME, "c" },
+         { ContentLengthHeader.NAME, "l" },
+   };
+
+   private static class ContactTemplate {
+      String ipAddress;
+      int port;
+      String transport;
+      String domain;
+      ContactHeader header;
+
+      boolean matches(String ipAddress, int port, String transport, String domain)
+      {
+         return this.port == port && this.ipAddress.equals(ipAddress) && this.transport.equals(transport) &&
+               (this.domain == null ? domain == null : this.domain.equals(domain));
+      }
+   }
+
+   private final HeaderFactory headerFactory;
+   private final UserAgentHeader userAgentHeader;
+   private final MaxForwardsHeader maxForwardsHeader;
+   // Supported headers by value
+   private final HashMap<String, SupportedHeader> supportedHeaders;
+   // Via for the listening point it was created for
+   private ListeningPoint viaListeningPoint;
+   private ViaHeader viaHeader;
+   // Contact of REGISTER requests, which carries the registering domain, and Contact of everything else
+   private ContactTemplate registerContact;
+   private ContactTemplate contact;
+
+   JainSipHeaderCache(HeaderFactory headerFactory, String userAgent, int maxForwards)
+   {
+      this.headerFactory = headerFactory;
+      supportedHeaders = new HashMap<>();
+      try {
+         userAgentHeader = headerFactory.createUserAgentHeader(Collections.singletonList(userAgent));
+         maxForwardsHeader = headerFactory.createMaxForwardsHeader(maxForwards);
+      }
+      catch (ParseException | InvalidArgumentException e) {
+         throw new RuntimeException("Error creating header templates", e);
+      }
+   }
+
+   UserAgentHeader getUserAgentHeader()
+   {
+      return (UserAgentHeader) userAgentHeader.clone();
+   }
+
+   MaxForwardsHeader getMaxForwardsHeader()
+   {
+      return (MaxForwardsHeader) maxForwardsHeader.clone();
+   }
+
+   SupportedHeader getSupportedHeader(String value) throws ParseException
+   {
+      SupportedHeader supportedHeader = supportedHeaders.get(value);
+      if (supportedHeader == null) {
+         supportedHeader = headerFactory.createSupportedHeader(value);
+         supportedHeaders.put(value, supportedHeader);
+      }
+      return (SupportedHeader) supportedHeader.clone();
+   }
+
+   // Via with rport for requests sent over the given listening point. The branch is added by the stack when sending, on the clone
+   ViaHeader getViaHeader(ListeningPoint listeningPoint) throws ParseException, InvalidArgumentException
+   {
+      if (viaHeader == null || viaListeningPoint != listeningPoint) {
+         viaHeader = headerFactory.createViaHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), listeningPoint.getTransport(), null);
+         viaHeader.setRPort();
+         viaListeningPoint = listeningPoint;
+      }
+      return (ViaHeader) viaHeader.clone();
+   }
+
+   /**
+    * Retrieve the Contact for the given address, if we have built it before
+    * @param ipAddress Contact address; either that of the listening point, or the one the server sees (i.e. Via received)
+    * @param port Contact port
+    * @param transport Transport of the listening point
+    * @param domain Registering domain for REGISTER requests, null otherwise
+    * @return A copy of the Contact, or null if we don't have one for the given address
+    */
+   ContactHeader getContactHeader(String ipAddress, int port, String transport, String domain)
+   {
+      ContactTemplate template = (domain != null) ? registerContact : contact;
+      if (template == null || !template.matches(ipAddress, port, transport, domain)) {
+         return null;
+      }
+      return (ContactHeader) template.header.clone();
+   }
+
+   void putContactHeader(String ipAddress, int port, String transport, String domain, ContactHeader header)
+   {
+      ContactTemplate template = new ContactTemplate();
+      template.ipAddress = ipAddress;
+      template.port = port;
+      template.transport = transport;
+      template.domain = domain;
+      template.header = (ContactHeader) header.clone();
+      if (domain != null) {
+         registerContact = template;
+      }
+      else {
+         contact = template;
+      }
+   }
+
+   // Forget address-dependent templates, for example because we bound to a new listening point
+   void clear()
+   {
+      viaListeningPoint = null;
+      viaHeader = null;
+      registerContact = null;
+      contact = null;
+   }
+
+   /**
+    * Switch the headers that have a compact form to it. Notice that the stack keeps finding the headers of the message by their full name since it
+    * indexed them when they were added, but copies of it (like the one JAIN SIP makes when re-sending a challenged request) would only know the compact
+    * names. So this is meant to be applied only for as long as the message is being encoded, and undone with expand() right after
+    * @param message Message to compact
+    */
+   static void compact(Message message)
+   {
+      rename(message, true);
+   }
+
+   // Switch headers back to their full names
+   static void expand(Message message)
+   {
+      rename(message, false);
+   }
+
+   // ------ Helpers
+   private static void rename(Message message, boolean compact)
+   {
+      Iterator<SIPHeader> iterator = ((SIPMessage) message).getHeaders();
+      while (iterator.hasNext()) {
+         SIPHeader header = iterator.next();
+         for (String[] forms : COMPACT_FORMS) {
+            if (header.getHeaderName().equalsIgnoreCase(forms[0]) || header.getHeaderName().equalsIgnoreCase(forms[1])) {
+               header.setHeaderName(compact ? forms[1] : forms[0]);
+               break;
+            }
+         }
+      }
+   }
+}
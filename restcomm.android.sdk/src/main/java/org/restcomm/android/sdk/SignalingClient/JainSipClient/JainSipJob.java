@@ -24,10 +24,13 @@ package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
 import android.gov.nist.javax.sip.ResponseEventExt;
 import android.javax.sip.Transaction;
+import android.os.SystemClock;
 
 import org.restcomm.android.sdk.RCClient;
 import org.restcomm.android.sdk.RCDevice;
 import org.restcomm.android.sdk.RCDeviceListener;
+import org.restcomm.android.sdk.SignalingClient.JobIdGenerator;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
 import org.restcomm.android.sdk.util.RCLogger;
 
 import java.util.Arrays;
@@ -39,7 +42,7 @@ import java.util.HashMap;
  * for a job depends on JainSipJob.hasFsm()
  *
  * A JainSipJob mainly holds the following information:
- * - jobId: that uniquely identifies a job within the signaling facilities. This typically is a unix timestamp (including milis)
+ * - jobId: that uniquely identifies a job within the signaling facilities. This is generated by JobIdGenerator
  *   for outgoing requests provided in the request by the App, and the SIP Call-Id for incoming requests
  * - transaction: the SIP Transaction object associated with the job at this point in time. Remember that a job might consist of multiple transactions, hence
  *   this field might be updated during the job's lifetime
@@ -66,6 +69,8 @@ class JainSipJob {
       AUTH_REQUIRED,
       REGISTER_FAILURE,
       REGISTER_SUCCESS,
+      // the local address to bind to has been picked in the background (see JainSipClient.jainSipClientPrepareBind())
+      BIND_ADDRESS_READY,
    }
 
    /**
@@ -121,6 +126,9 @@ class JainSipJob {
          else if (type == Type.TYPE_RECONFIGURE_RELOAD_NETWORKING) {
             states = new FsmStates[] { FsmStates.UNREGISTER, FsmStates.AUTH_1, FsmStates.UNBIND_BIND_REGISTER, FsmStates.AUTH_2, FsmStates.NOTIFY};
          }
+         else if (type == Type.TYPE_UNREGISTER) {
+            states = new FsmStates[] { FsmStates.UNREGISTER, FsmStates.AUTH, FsmStates.NOTIFY};
+         }
          else if (type == Type.TYPE_RELOAD_NETWORKING) {
             states = new FsmStates[] { FsmStates.UNBIND_BIND_REGISTER, FsmStates.AUTH, FsmStates.NOTIFY};
          }
@@ -169,6 +177,10 @@ class JainSipJob {
                      return;
                   }
                   if (states[index].equals(FsmStates.START_BIND_REGISTER)) {
+                     if (!jainSipClient.jainSipClientPrepareBind(JainSipJob.this, parameters)) {
+                        // picking the address to bind to in the background; we 'll be back at this state with BIND_ADDRESS_READY
+                        return;
+                     }
                      try {
                         jainSipClient.jainSipClientStartStack();
 
@@ -183,13 +195,15 @@ class JainSipJob {
 
                         if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                           updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                         }
                         else {
                            // No Domain there we are done here
                            jainSipClient.listener.onClientOpenedReply(jobId, JainSipNotificationManager.networkStatus2ConnectivityStatus(jainSipClient.jainSipNotificationManager.getNetworkStatus()),
                                  RCClient.ErrorCodes.SUCCESS, RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
                            jainSipJobManager.remove(jobId);
+                           // flush any messages queued while we were lacking networking facilities
+                           jainSipClient.jainSipMessagePipeline.pump();
                         }
                      }
                      catch (JainSipException e) {
@@ -227,6 +241,10 @@ class JainSipJob {
                      if (event.equals(FsmEvents.REGISTER_SUCCESS) || event.equals(FsmEvents.REGISTER_FAILURE)) {
                         jainSipJobManager.remove(jobId);
                      }
+                     if (event.equals(FsmEvents.REGISTER_SUCCESS)) {
+                        // flush any messages queued while we were lacking networking facilities
+                        jainSipClient.jainSipMessagePipeline.pump();
+                     }
                   }
                }
                else if (type == Type.TYPE_REGISTER_REFRESH) {
@@ -241,7 +259,7 @@ class JainSipJob {
 
                   if (states[index].equals(FsmStates.REGISTER)) {
                      try {
-                        transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                        updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                      }
                      catch (JainSipException e) {
                         e.printStackTrace();
@@ -278,7 +296,7 @@ class JainSipJob {
                else if (type == Type.TYPE_CLOSE) {
                   if (states[index].equals(FsmStates.UNREGISTER)) {
                      try {
-                        transaction = jainSipClient.jainSipClientUnregister(parameters);
+                        updateTransaction(jainSipClient.jainSipClientUnregister(parameters));
                         final String finalId = jobId;
 
                         // Schedule a check to see if we managed to close the signaling facilities. If not then we need to force closing.
@@ -394,10 +412,28 @@ class JainSipJob {
                         return;
                      }
                      try {
-                        if (((HashMap<String, Object>) parameters.get("old-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
-                              !((HashMap<String, Object>) parameters.get("old-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
-                           // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters"));
+                        HashMap<String, Object> oldParameters = (HashMap<String, Object>) parameters.get("old-parameters");
+                        HashMap<String, Object> newParameters = (HashMap<String, Object>) parameters.get("new-parameters");
+                        if (oldParameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
+                              !oldParameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
+                           if (JainSipConfiguration.getBoolean(newParameters, RCDevice.ParameterKeys.SIGNALING_CONCURRENT_RECONFIGURE_ENABLED)) {
+                              // Don't wait for the unregister, go straight to registering with the new settings
+                              if (JainSipConfiguration.sameAddressOfRecord(oldParameters, newParameters)) {
+                                 // Only the password changed. Registering again replaces the existing binding, while an unregister racing with the new
+                                 // register could end up removing it, so skip unregister altogether
+                                 RCLogger.i(TAG, "process(): same address of record in reconfigure, skipping unregister");
+                              }
+                              else {
+                                 // different address of record, unregister it in the background as a separate job
+                                 jainSipJobManager.add(JobIdGenerator.generate(), Type.TYPE_UNREGISTER, oldParameters);
+                              }
+                              loop = true;
+                              event = FsmEvents.REGISTER_SUCCESS;
+                           }
+                           else {
+                              // Domain has been provided do the registration
+                              updateTransaction(jainSipClient.jainSipClientUnregister(oldParameters));
+                           }
                         }
                         else {
                            // No Domain, need to loop through to next step
@@ -446,7 +482,7 @@ class JainSipJob {
                            if (((HashMap<String, Object>) parameters.get("new-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                                  !((HashMap<String, Object>) parameters.get("new-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                               // Domain has been provided do the registration
-                              transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters"));
+                              updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters")));
                            }
                            else {
                               // No domain, need to loop through to next step
@@ -481,12 +517,57 @@ class JainSipJob {
                   }
                   else if (states[index].equals(FsmStates.NOTIFY)) {
                      if (event.equals(FsmEvents.REGISTER_SUCCESS) || event.equals(FsmEvents.REGISTER_FAILURE)) {
+                        long latency = SystemClock.elapsedRealtime() - creationTime;
+                        RCLogger.i(TAG, "process(): reconfigure took " + latency + " ms");
+                        jainSipClient.counters.increment(SignalingMetrics.Counter.RECONFIGURES);
+                        jainSipClient.counters.set(SignalingMetrics.Counter.RECONFIGURE_LATENCY_LAST_MS, latency);
+                        jainSipClient.counters.max(SignalingMetrics.Counter.RECONFIGURE_LATENCY_MAX_MS, latency);
                         jainSipClient.listener.onClientReconfigureReply(jobId, JainSipNotificationManager.networkStatus2ConnectivityStatus(jainSipClient.jainSipNotificationManager.getNetworkStatus()),
                               statusCode, statusText);
                         jainSipJobManager.remove(jobId);
                      }
                   }
                }
+               else if (type == Type.TYPE_UNREGISTER) {
+                  // Background job, nobody is waiting on it. Whatever happens we just log it and go away
+                  if (event.equals(FsmEvents.TIMEOUT)) {
+                     RCLogger.w(TAG, "process(): background unregister timed out");
+                     jainSipJobManager.remove(jobId);
+                     return;
+                  }
+
+                  if (states[index].equals(FsmStates.UNREGISTER)) {
+                     try {
+                        updateTransaction(jainSipClient.jainSipClientUnregister(parameters));
+                     }
+                     catch (JainSipException e) {
+                        RCLogger.w(TAG, "process(): background unregister failed: " + e.errorText);
+                        jainSipJobManager.remove(jobId);
+                     }
+                  }
+                  else if (states[index].equals(FsmStates.AUTH)) {
+                     // the auth step is optional hence we check if auth-required event was passed by the caller, if not we loop around to visit next state
+                     if (event.equals(FsmEvents.AUTH_REQUIRED)) {
+                        ResponseEventExt responseEventExt = (ResponseEventExt) arg;
+                        try {
+                           jainSipClient.jainSipAuthenticate(JainSipJob.this, parameters, responseEventExt);
+                        }
+                        catch (JainSipException e) {
+                           RCLogger.w(TAG, "process(): background unregister failed to authenticate: " + e.errorText);
+                           jainSipJobManager.remove(jobId);
+                        }
+                     }
+                     else {
+                        loop = true;
+                     }
+                  }
+                  else if (states[index].equals(FsmStates.NOTIFY)) {
+                     if (event.equals(FsmEvents.REGISTER_SUCCESS) || event.equals(FsmEvents.REGISTER_FAILURE)) {
+                        RCLogger.i(TAG, "process(): background unregister done in " + (SystemClock.elapsedRealtime() - creationTime) + " ms, status: " + statusText);
+                        jainSipJobManager.remove(jobId);
+                     }
+                  }
+               }
                else if (type == Type.TYPE_RECONFIGURE_RELOAD_NETWORKING) {
                   if (states[index].equals(FsmStates.UNREGISTER)) {
                      if (!jainSipClient.jainSipNotificationManager.haveConnectivity()) {
@@ -500,7 +581,7 @@ class JainSipJob {
                         if (((HashMap<String, Object>) parameters.get("old-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                               !((HashMap<String, Object>) parameters.get("old-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters"));
+                           updateTransaction(jainSipClient.jainSipClientUnregister((HashMap<String, Object>) parameters.get("old-parameters")));
                         }
                         else {
                            // No domain, need to loop through to next step
@@ -544,7 +625,11 @@ class JainSipJob {
                         // unregister step of reconfigure failed. Not that catastrophic, let's log it and continue; no need to notify UI thread just yet
                         RCLogger.e(TAG, "process(): unregister failed: " + Arrays.toString(Thread.currentThread().getStackTrace()));
                      }
-                     if (event.equals(FsmEvents.REGISTER_SUCCESS) || event.equals(FsmEvents.REGISTER_FAILURE)) {
+                     if (event.equals(FsmEvents.REGISTER_SUCCESS) || event.equals(FsmEvents.REGISTER_FAILURE) || event.equals(FsmEvents.BIND_ADDRESS_READY)) {
+                        if (!jainSipClient.jainSipClientPrepareBind(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters"))) {
+                           // picking the address to bind to in the background; we 'll be back at this state with BIND_ADDRESS_READY
+                           return;
+                        }
                         try {
                            jainSipClient.jainSipClientUnbind();
 
@@ -553,7 +638,7 @@ class JainSipJob {
                            if (((HashMap<String, Object>) parameters.get("new-parameters")).containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) &&
                                  !((HashMap<String, Object>) parameters.get("new-parameters")).get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                               // Domain has been provided do the registration
-                              transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters"));
+                              updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, (HashMap<String, Object>) parameters.get("new-parameters")));
                            }
                            else {
                               // No domain, need to loop through to next step
@@ -594,12 +679,20 @@ class JainSipJob {
                         jainSipClient.listener.onClientReconfigureReply(jobId, JainSipNotificationManager.networkStatus2ConnectivityStatus(jainSipClient.jainSipNotificationManager.getNetworkStatus()),
                               statusCode, statusText);
                         jainSipJobManager.remove(jobId);
+                        if (event.equals(FsmEvents.REGISTER_SUCCESS)) {
+                           // flush any messages queued while we were lacking networking facilities
+                           jainSipClient.jainSipMessagePipeline.pump();
+                        }
                      }
 
                   }
                }
                else if (type == Type.TYPE_RELOAD_NETWORKING) {
                   if (states[index].equals(FsmStates.UNBIND_BIND_REGISTER)) {
+                     if (!jainSipClient.jainSipClientPrepareBind(JainSipJob.this, parameters)) {
+                        // picking the address to bind to in the background; we 'll be back at this state with BIND_ADDRESS_READY
+                        return;
+                     }
                      // no need for connectivity check here, we know there is connectivity
                      try {
                         jainSipClient.jainSipClientUnbind();
@@ -608,13 +701,16 @@ class JainSipJob {
 
                         if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                           updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                         }
                         else {
                            // No domain, need to loop through to next step
                            RCDeviceListener.RCConnectivityStatus connectivityStatus = (RCDeviceListener.RCConnectivityStatus) parameters.get("connectivity-status");
                            jainSipClient.listener.onClientConnectivityEvent(jobId, connectivityStatus);
                            jainSipJobManager.remove(jobId);
+                           onNetworkingRestored();
+                           // flush any messages queued while we were lacking networking facilities
+                           jainSipClient.jainSipMessagePipeline.pump();
                         }
                      }
                      catch (JainSipException e) {
@@ -645,6 +741,9 @@ class JainSipJob {
                         RCDeviceListener.RCConnectivityStatus connectivityStatus = (RCDeviceListener.RCConnectivityStatus) parameters.get("connectivity-status");
                         jainSipClient.listener.onClientConnectivityEvent(jobId, connectivityStatus);
                         jainSipJobManager.remove(jobId);
+                        onNetworkingRestored();
+                        // flush any messages queued while we were lacking networking facilities
+                        jainSipClient.jainSipMessagePipeline.pump();
                      }
                      if (event.equals(FsmEvents.REGISTER_FAILURE)) {
                         jainSipClient.listener.onClientErrorReply(jobId, RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone, statusCode, statusText);
@@ -664,19 +763,26 @@ class JainSipJob {
 
                   RCLogger.i(TAG, "Job, TYPE_START_NETWORKING: " + this.toString());
                   if (states[index].equals(FsmStates.BIND_REGISTER)) {
+                     if (!jainSipClient.jainSipClientPrepareBind(JainSipJob.this, parameters)) {
+                        // picking the address to bind to in the background; we 'll be back at this state with BIND_ADDRESS_READY
+                        return;
+                     }
                      // no need for connectivity check here, we know there is connectivity
                      try {
                         jainSipClient.jainSipClientBind(parameters);
 
                         if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_DOMAIN) && !parameters.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN).equals("")) {
                            // Domain has been provided do the registration
-                           transaction = jainSipClient.jainSipClientRegister(JainSipJob.this, parameters);
+                           updateTransaction(jainSipClient.jainSipClientRegister(JainSipJob.this, parameters));
                         }
                         else {
                            // No Domain there we are done here
                            RCDeviceListener.RCConnectivityStatus connectivityStatus = (RCDeviceListener.RCConnectivityStatus) parameters.get("connectivity-status");
                            jainSipClient.listener.onClientConnectivityEvent(jobId, connectivityStatus);
                            jainSipJobManager.remove(jobId);
+                           onNetworkingRestored();
+                           // flush any messages queued while we were lacking networking facilities
+                           jainSipClient.jainSipMessagePipeline.pump();
                         }
                      }
                      catch (JainSipException e) {
@@ -707,6 +813,9 @@ class JainSipJob {
                         RCDeviceListener.RCConnectivityStatus connectivityStatus = (RCDeviceListener.RCConnectivityStatus) parameters.get("connectivity-status");
                         jainSipClient.listener.onClientConnectivityEvent(jobId, connectivityStatus);
                         jainSipJobManager.remove(jobId);
+                        onNetworkingRestored();
+                        // flush any messages queued while we were lacking networking facilities
+                        jainSipClient.jainSipMessagePipeline.pump();
                      }
                      if (event.equals(FsmEvents.REGISTER_FAILURE)) {
                         jainSipClient.listener.onClientErrorReply(jobId, RCDeviceListener.RCConnectivityStatus.RCConnectivityStatusNone, statusCode, statusText);
@@ -741,15 +850,16 @@ class JainSipJob {
       TYPE_CLOSE,  // solicited by the user when releasing RCDevice
       TYPE_RECONFIGURE,  // solicited by the user when changing RCDevice configuration (without changing transport from cleartext <-> secure)
       TYPE_RECONFIGURE_RELOAD_NETWORKING,  // solicited by the user when changing RCDevice configuration and changing transport from cleartext <-> secure
+      TYPE_UNREGISTER,  // unsolicited; removes the old registration in the background during a concurrent TYPE_RECONFIGURE
       TYPE_RELOAD_NETWORKING,  // unsolicited; triggered by connectivity change between Wifi <-> Cellular data
       TYPE_START_NETWORKING,  // unsolicited; triggered by connectivity change from offline -> Wifi/Cellular Data
       TYPE_CALL, // solicited by the user when making a call
       TYPE_MESSAGE,  // solicited by the user when sending a text message
    }
 
-   // jobId is a unique identifier for a Job. It is App provided for outgoing requests (typically Unix time with miliseconds, as a string)
-   // and SIP Call-Id for incoming requests. Notice that for outgoing requests the App provided jobId is also used as SIP Call-ID, to make
-   // troubleshooting easier
+   // jobId is a unique identifier for a Job. It is App provided for outgoing requests (generated by JobIdGenerator)
+   // and SIP Call-Id for incoming requests. Notice that outgoing requests get their SIP Call-ID from the SIP stack instead, so responses find
+   // their job through the job manager's Call-ID index (see JainSipJobManager.getByCallId()) rather than through jobId
    public String jobId;
    public Type type;
    // current JAIN sip transaction this job is currently executing. Remember that usually one Job is made up of multiple transactions occuring one after another
@@ -757,6 +867,8 @@ class JainSipJob {
    public HashMap<String, Object> parameters;
    public JainSipCall jainSipCall;
    public int authenticationAttempts;
+   // uptime when the job was created, so that we can keep track of how long jobs take
+   long creationTime;
    // How many times to try to send REGISTER with creds. Default is one, so that we re-send REGISTER with creds
    public static int MAX_AUTH_ATTEMPTS = 1;
    JainSipClient jainSipClient;
@@ -772,6 +884,7 @@ class JainSipJob {
       this.transaction = transaction;
       this.parameters = parameters;
       this.authenticationAttempts = 0;
+      this.creationTime = SystemClock.elapsedRealtime();
       this.jainSipClient = jainSipClient;
       this.jainSipJobManager = jainSipJobManager;
       this.jainSipFsm = new JainSipFsm(type, jainSipClient);
@@ -791,6 +904,7 @@ class JainSipJob {
             type == Type.TYPE_CLOSE ||
             type == Type.TYPE_RECONFIGURE ||
             type == Type.TYPE_RECONFIGURE_RELOAD_NETWORKING ||
+            type == Type.TYPE_UNREGISTER ||
             type == Type.TYPE_RELOAD_NETWORKING ||
             type == Type.TYPE_START_NETWORKING) {
          return true;
@@ -805,9 +919,23 @@ class JainSipJob {
       }
    }
 
+   // Always use this instead of assigning 'transaction' directly, so that the job manager can keep its branch id & Call-ID indexes in sync
    void updateTransaction(Transaction transaction)
    {
+      Transaction previousTransaction = this.transaction;
       this.transaction = transaction;
+      jainSipJobManager.onTransactionUpdated(this, previousTransaction);
+   }
+
+   // Networking facilities are back after a connectivity change (TYPE_RELOAD_NETWORKING, TYPE_START_NETWORKING); keep track of how long it took since
+   // Android reported the change until we were bound (and registered, if applicable) on the new network
+   private void onNetworkingRestored()
+   {
+      long latency = SystemClock.elapsedRealtime() - jainSipClient.jainSipNotificationManager.connectivityChangeTime;
+      RCLogger.i(TAG, "onNetworkingRestored(): " + type + " done " + latency + " ms after connectivity change");
+      jainSipClient.counters.increment(SignalingMetrics.Counter.HANDOVERS);
+      jainSipClient.counters.set(SignalingMetrics.Counter.HANDOVER_LATENCY_LAST_MS, latency);
+      jainSipClient.counters.max(SignalingMetrics.Counter.HANDOVER_LATENCY_MAX_MS, latency);
    }
 
    // Should we try to authentication if original REGISTER (without creds) failed with 401 or 407
@@ -24,30 +24,44 @@ package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
 import android.javax.sip.Transaction;
 import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.message.Request;
 
 import org.restcomm.android.sdk.util.RCLogger;
 
 import java.util.HashMap;
-import java.util.Map;
 
 // Handles live JAIN SIP transactions. Each transaction is stored in 'transactions' map identified by an 'id' provided by the caller (in our RCDevice or RCConnection)
 // and keeps information such as the JAIN SIP Transaction (Client or Server) amongst other things
+//
+// Apart from the primary 'jobs' map we also maintain two secondary indexes, by branch id and by Call-ID of each job's current transaction, so that
+// incoming SIP requests/responses can be matched to their job in constant time instead of scanning (and re-parsing the Call-ID of) every live job.
+// Both indexes are kept consistent via add(), remove(), removeAll() and JainSipJob.updateTransaction() (which calls onTransactionUpdated()).
+// Remember that all these are only accessed from the signaling thread, so no synchronization is needed
 class JainSipJobManager {
    // TODO: consider using interface instead
    JainSipClient jainSipClient;
    HashMap<String, JainSipJob> jobs;
+   private HashMap<String, JainSipJob> jobsByBranchId;
+   private HashMap<String, JainSipJob> jobsByCallId;
    private static final String TAG = "JainSipJobManager";
 
    JainSipJobManager(JainSipClient jainSipClient)
    {
       this.jainSipClient = jainSipClient;
       jobs = new HashMap<>();
+      jobsByBranchId = new HashMap<>();
+      jobsByCallId = new HashMap<>();
    }
 
    JainSipJob add(String jobId, JainSipJob.Type type, Transaction transaction, HashMap<String, Object> parameters, JainSipCall jainSipCall)
    {
       JainSipJob jainSipJob = new JainSipJob(this, jainSipClient, jobId, type, transaction, parameters, jainSipCall);
-      jobs.put(jobId, jainSipJob);
+      JainSipJob previousJob = jobs.put(jobId, jainSipJob);
+      if (previousJob != null) {
+         RCLogger.w(TAG, "add(): replacing existing job with same id: " + jobId);
+         unindex(previousJob, previousJob.transaction);
+      }
+      index(jainSipJob);
 
       if (jainSipJob.hasFsm()) {
          jainSipJob.startFsm();
@@ -68,56 +82,101 @@ class JainSipJobManager {
 
    JainSipJob get(String jobId)
    {
-      if (jobs.containsKey(jobId)) {
-         return jobs.get(jobId);
-      }
-      else {
-         return null;
-      }
+      return jobs.get(jobId);
    }
 
    JainSipJob getByBranchId(String branchId)
    {
-      for (Map.Entry<String, JainSipJob> entry : jobs.entrySet()) {
-         JainSipJob job = entry.getValue();
-         if (job.transaction.getBranchId().equals(branchId)) {
-            return job;
-         }
-      }
-      return null;
+      return jobsByBranchId.get(branchId);
    }
 
    JainSipJob getByCallId(String callId)
    {
-      for (Map.Entry<String, JainSipJob> entry : jobs.entrySet()) {
-         JainSipJob job = entry.getValue();
-
-         if (job.transaction == null) {
-            RCLogger.w(TAG, "getByCallId(): " + callId + ", \njob: " + job + ", \ntransaction is null, check if legit");
-            continue;
-         }
-
-         if (((CallIdHeader)job.transaction.getRequest().getHeader("Call-ID")).getCallId().equals(callId)) {
-            return job;
-         }
-      }
-      return null;
+      return jobsByCallId.get(callId);
    }
 
    void remove(String jobId)
    {
-      if (jobs.containsKey(jobId)) {
-         jobs.remove(jobId);
+      JainSipJob jainSipJob = jobs.remove(jobId);
+      if (jainSipJob != null) {
+         unindex(jainSipJob, jainSipJob.transaction);
       }
    }
 
    void removeAll()
    {
       jobs.clear();
+      jobsByBranchId.clear();
+      jobsByCallId.clear();
+   }
+
+   // Called by JainSipJob.updateTransaction() whenever the current transaction of a job changes (for example after an authentication challenge, or when
+   // moving from the unregister to the register step of a reconfigure job)
+   void onTransactionUpdated(JainSipJob jainSipJob, Transaction previousTransaction)
+   {
+      // jobs that have already been removed (or replaced) might still update their transaction while winding down; those shouldn't be indexed
+      if (jobs.get(jainSipJob.jobId) != jainSipJob) {
+         return;
+      }
+
+      unindex(jainSipJob, previousTransaction);
+      index(jainSipJob);
    }
 
    String getPrintableJobs()
    {
       return "Job count: " + jobs.size() + ", details: " + jobs.toString();
    }
+
+   // ------ Helpers
+   private void index(JainSipJob jainSipJob)
+   {
+      if (jainSipJob.transaction == null) {
+         // legit for incoming calls, where the server transaction is set once we process the INVITE
+         return;
+      }
+
+      String branchId = jainSipJob.transaction.getBranchId();
+      if (branchId != null) {
+         jobsByBranchId.put(branchId, jainSipJob);
+      }
+
+      String callId = getCallId(jainSipJob.transaction);
+      if (callId != null) {
+         jobsByCallId.put(callId, jainSipJob);
+      }
+   }
+
+   private void unindex(JainSipJob jainSipJob, Transaction transaction)
+   {
+      if (transaction == null) {
+         return;
+      }
+
+      // only remove index entries that still point to this job, in case another job has since taken over the same key
+      String branchId = transaction.getBranchId();
+      if (branchId != null && jobsByBranchId.get(branchId) == jainSipJob) {
+         jobsByBranchId.remove(branchId);
+      }
+
+      String callId = getCallId(transaction);
+      if (callId != null && jobsByCallId.get(callId) == jainSipJob) {
+         jobsByCallId.remove(callId);
+      }
+   }
+
+   private static String getCallId(Transaction transaction)
+   {
+      Request request = transaction.getRequest();
+      if (request == null) {
+         return null;
+      }
+
+      CallIdHeader callIdHeader = (CallIdHeader) request.getHeader(CallIdHeader.NAME);
+      if (callIdHeader == null) {
+         return null;
+      }
+
+      return callIdHeader.getCallId();
+   }
 }
@@ -23,6 +23,9 @@
 package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
 import android.gov.nist.javax.sip.header.ExtensionHeaderImpl;
+import android.gov.nist.javax.sip.header.SIPHeader;
+import android.gov.nist.javax.sip.header.SIPHeaderList;
+import android.gov.nist.javax.sip.message.SIPMessage;
 import android.javax.sip.InvalidArgumentException;
 import android.javax.sip.ListeningPoint;
 import android.javax.sip.PeerUnavailableException;
@@ -43,20 +46,19 @@ import android.javax.sip.header.HeaderFactory;
 import android.javax.sip.header.ReasonHeader;
 import android.javax.sip.header.RouteHeader;
 import android.javax.sip.header.SupportedHeader;
-import android.javax.sip.header.UserAgentHeader;
 import android.javax.sip.header.ViaHeader;
 import android.javax.sip.message.Message;
 import android.javax.sip.message.MessageFactory;
 import android.javax.sip.message.Request;
 import android.javax.sip.message.Response;
 import android.org.mobicents.ext.javax.sip.dns.DNSAwareRouter;
-import android.org.mobicents.ext.javax.sip.dns.DefaultDNSServerLocator;
 
 
 import org.restcomm.android.sdk.BuildConfig;
 import org.restcomm.android.sdk.RCClient;
 import org.restcomm.android.sdk.RCConnection;
 import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
 import org.restcomm.android.sdk.util.RCException;
 import org.restcomm.android.sdk.util.RCLogger;
 //import org.xbill.DNS.Lookup;
@@ -65,13 +67,8 @@ import org.restcomm.android.sdk.util.RCLogger;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 class JainSipMessageBuilder {
@@ -79,24 +76,71 @@ class JainSipMessageBuilder {
    private AddressFactory jainSipAddressFactory;
    private MessageFactory jainSipMessageFactory;
    private SipProvider jainSipProvider;
+   // caches DNS results for the signaling domain; outlives initialize()/shutdown() cycles
+   private JainSipDnsResolver dnsResolver;
+   // templates of the headers we add to every request
+   private JainSipHeaderCache headerCache;
+   // use compact header forms in REGISTER and MESSAGE requests
+   private boolean compactHeaders;
 
    private static final String TAG = "JainSipMessageBuilder";
    private static final int MAX_FORWARDS = 70;
+   private static final String CUSTOM_HEADER_PREFIX = "X-";
+   // trickle ICE over SIP (RFC 8840): option tag & Info Package name, and content subtype of the INFO body
+   static final String TRICKLE_ICE = "trickle-ice";
+   static final String TRICKLE_ICE_SDPFRAG = "trickle-ice-sdpfrag";
    private static final String USERAGENT_STRING = "TelScale Restcomm Android Client " + BuildConfig.VERSION_NAME + "#" + BuildConfig.VERSION_CODE; //"TelScale Restcomm Android Client 1.0.0-BETA4#20";
 
+   JainSipMessageBuilder(SignalingCounters counters)
+   {
+      dnsResolver = new JainSipDnsResolver(counters);
+   }
+
+   // Called each time we bind. Factories don't depend on networking facilities so we only create them once per stack, i.e. until shutdown()
    void initialize(SipFactory sipFactory, SipProvider provider) throws PeerUnavailableException
    {
-      jainSipHeaderFactory = sipFactory.createHeaderFactory();
-      jainSipAddressFactory = sipFactory.createAddressFactory();
-      jainSipMessageFactory = sipFactory.createMessageFactory();
+      if (jainSipHeaderFactory == null) {
+         jainSipHeaderFactory = sipFactory.createHeaderFactory();
+         jainSipAddressFactory = sipFactory.createAddressFactory();
+         jainSipMessageFactory = sipFactory.createMessageFactory();
+         headerCache = new JainSipHeaderCache(jainSipHeaderFactory, USERAGENT_STRING, MAX_FORWARDS);
+      }
+      // new listening point, so Via and Contact need to be created anew
+      headerCache.clear();
       jainSipProvider = provider;
    }
 
    void shutdown()
    {
+      dnsResolver.shutdown();
       jainSipHeaderFactory = null;
       jainSipAddressFactory = null;
       jainSipMessageFactory = null;
+      headerCache = null;
+   }
+
+   // Compact forms are only used in out-of-dialog requests we build ourselves (i.e. REGISTER and MESSAGE), and only while they are being sent; requests
+   // are always built with full header names (see JainSipClient.sendRequest())
+   void setCompactHeaders(boolean compactHeaders)
+   {
+      this.compactHeaders = compactHeaders;
+   }
+
+   // Switch the headers of a request to their compact forms, if enabled for it. Returns true if it did, in which case the request needs to be
+   // expandHeaders()'d once sent
+   boolean compactHeaders(Request request)
+   {
+      String method = request.getMethod();
+      if (compactHeaders && (method.equals(Request.REGISTER) || method.equals(Request.MESSAGE))) {
+         JainSipHeaderCache.compact(request);
+         return true;
+      }
+      return false;
+   }
+
+   void expandHeaders(Request request)
+   {
+      JainSipHeaderCache.expand(request);
    }
 
    public HeaderFactory getHeaderFactory()
@@ -104,13 +148,18 @@ class JainSipMessageBuilder {
       return jainSipHeaderFactory;
    }
 
+   JainSipDnsResolver getDnsResolver()
+   {
+      return dnsResolver;
+   }
+
    // Base request builder common for all requests
    private Request buildBaseRequest(String method, String username, String domain, String toSipUri, ListeningPoint listeningPoint, HashMap<String, Object> clientContext) throws JainSipException
    {
       try {
          String fromSipUri = "sip:";
 
-         if (listeningPoint.getTransport().equals(ListeningPoint.TLS)) {
+         if (JainSipConfiguration.isSecure(listeningPoint.getTransport())) {
             // non registrar-less; use username@domain logic
             fromSipUri = "sips:";
          }
@@ -121,7 +170,7 @@ class JainSipMessageBuilder {
          }
          else {
             // registrar-less
-            fromSipUri += username + "@" + listeningPoint.getIPAddress();
+            fromSipUri += username + "@" + uriHost(listeningPoint.getIPAddress());
          }
 
          Address fromAddress = jainSipAddressFactory.createAddress(fromSipUri);
@@ -149,7 +198,7 @@ class JainSipMessageBuilder {
                jainSipHeaderFactory.createFromHeader(fromAddress, Long.toString(System.currentTimeMillis())),
                jainSipHeaderFactory.createToHeader(toAddress, null),
                createViaHeaders(listeningPoint),
-               jainSipHeaderFactory.createMaxForwardsHeader(MAX_FORWARDS));
+               headerCache.getMaxForwardsHeader());
 
          // Add route header with the proxy first, if proxy exists (i.e. non registrar-less)
          if (domain != null && !domain.equals("")) {
@@ -163,11 +212,8 @@ class JainSipMessageBuilder {
             registeringDomain = domain;
          }
 
-         Address contactAddress = createContactAddress(listeningPoint, registeringDomain, clientContext);
-         ContactHeader contactHeader = jainSipHeaderFactory.createContactHeader(contactAddress);
-
-         request.addHeader(contactHeader);
-         request.addHeader(createUserAgentHeader());
+         request.addHeader(createContactHeader(listeningPoint, registeringDomain, clientContext));
+         request.addHeader(headerCache.getUserAgentHeader());
 
          return request;
       }
@@ -195,7 +241,8 @@ class JainSipMessageBuilder {
       }
    }
 
-   Request buildRegisterRequest(ListeningPoint listeningPoint, int expires, HashMap<String, Object> parameters) throws JainSipException
+   // instanceId is the SIP Outbound (RFC 5626) instance id of the device, or null if we aren't using outbound
+   Request buildRegisterRequest(ListeningPoint listeningPoint, int expires, HashMap<String, Object> parameters, String instanceId) throws JainSipException
    {
       try {
          Request request = buildBaseRequest(Request.REGISTER, (String) parameters.get(RCDevice.ParameterKeys.SIGNALING_USERNAME),
@@ -205,6 +252,13 @@ class JainSipMessageBuilder {
          ExpiresHeader expiresHeader = jainSipHeaderFactory.createExpiresHeader(expires);
          request.addHeader(expiresHeader);
 
+         if (instanceId != null) {
+            // identify our flow to the registrar, so that it keeps routing requests over it and tells us how often to keep it alive
+            JainSipOutbound.addContactParameters((ContactHeader) request.getHeader(ContactHeader.NAME), instanceId);
+            SupportedHeader supportedHeader = headerCache.getSupportedHeader("path, outbound");
+            request.addHeader(supportedHeader);
+         }
+
          return request;
       }
       catch (JainSipException e) {
@@ -225,8 +279,14 @@ class JainSipMessageBuilder {
                (String) clientConfiguration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN),
                (String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER), listeningPoint, clientContext);
 
-         SupportedHeader supportedHeader = jainSipHeaderFactory.createSupportedHeader("replaces, outbound");
+         boolean trickleIce = parameters.containsKey(RCConnection.ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED) &&
+               (Boolean) parameters.get(RCConnection.ParameterKeys.CONNECTION_TRICKLE_ICE_ENABLED);
+         SupportedHeader supportedHeader = headerCache.getSupportedHeader(trickleIce ? "replaces, outbound, " + TRICKLE_ICE : "replaces, outbound");
          request.addHeader(supportedHeader);
+         if (trickleIce) {
+            // we are ready to receive candidates over INFO
+            request.addHeader(jainSipHeaderFactory.createHeader("Recv-Info", TRICKLE_ICE));
+         }
 
          // Create ContentTypeHeader
          ContentTypeHeader contentTypeHeader = jainSipHeaderFactory.createContentTypeHeader("application", "sdp");
@@ -267,7 +327,7 @@ class JainSipMessageBuilder {
                (String) clientConfiguration.get(RCDevice.ParameterKeys.SIGNALING_DOMAIN),
                toSipUri, listeningPoint, null);
 
-         SupportedHeader supportedHeader = jainSipHeaderFactory.createSupportedHeader("replaces, outbound");
+         SupportedHeader supportedHeader = headerCache.getSupportedHeader("replaces, outbound");
          request.addHeader(supportedHeader);
 
          ContentTypeHeader contentTypeHeader = jainSipHeaderFactory.createContentTypeHeader("text", "plain");
@@ -293,7 +353,7 @@ class JainSipMessageBuilder {
    {
       try {
          Request request = dialog.createRequest(Request.BYE);
-         request.addHeader(createUserAgentHeader());
+         request.addHeader(headerCache.getUserAgentHeader());
 
          // BYE requests are always inside a dialog and hence subsequent, so we shouldn't touch the route set; it should
          // be already populated properly. Keeping this piece of code though for now in case we need it at some point
@@ -356,13 +416,38 @@ class JainSipMessageBuilder {
       }
    }
 
-   Response buildInvite200OKResponse(ServerTransaction transaction, String sdp, ListeningPoint listeningPoint, HashMap<String, Object> clientContext) throws JainSipException
+   // Build INFO carrying trickle ICE candidates as an SDP fragment
+   Request buildTrickleIceInfoRequest(android.javax.sip.Dialog dialog, String sdpFragment) throws SipException
+   {
+      try {
+         Request request = dialog.createRequest(Request.INFO);
+         request.addHeader(jainSipHeaderFactory.createHeader("Info-Package", TRICKLE_ICE));
+         request.setContent(sdpFragment, jainSipHeaderFactory.createContentTypeHeader("application", TRICKLE_ICE_SDPFRAG));
+         return request;
+      }
+      catch (ParseException e) {
+         // header names and values are fixed, so if this happens it means there's programming error we need to fix
+         throw new RuntimeException("Error building trickle ICE INFO request", e);
+      }
+   }
+
+   // Does the message carry trickle ICE candidates?
+   static boolean isTrickleIce(Message message)
+   {
+      ContentTypeHeader contentTypeHeader = (ContentTypeHeader) message.getHeader(ContentTypeHeader.NAME);
+      return contentTypeHeader != null && TRICKLE_ICE_SDPFRAG.equalsIgnoreCase(contentTypeHeader.getContentSubType());
+   }
+
+   Response buildInvite200OKResponse(ServerTransaction transaction, String sdp, boolean trickleIce, ListeningPoint listeningPoint,
+                                     HashMap<String, Object> clientContext) throws JainSipException
    {
       try {
          Response response = jainSipMessageFactory.createResponse(Response.OK, transaction.getRequest());
-         Address contactAddress = createContactAddress(listeningPoint, null, clientContext);
-         ContactHeader contactHeader = jainSipHeaderFactory.createContactHeader(contactAddress);
-         response.addHeader(contactHeader);
+         response.addHeader(createContactHeader(listeningPoint, null, clientContext));
+         if (trickleIce) {
+            response.addHeader(headerCache.getSupportedHeader(TRICKLE_ICE));
+            response.addHeader(jainSipHeaderFactory.createHeader("Recv-Info", TRICKLE_ICE));
+         }
 
          // Not needed as it is being set when sending 180 Ringing
          //ToHeader toHeader = (ToHeader) response.getHeader(ToHeader.NAME);
@@ -397,9 +482,7 @@ class JainSipMessageBuilder {
       Response response;
       try {
          response = jainSipMessageFactory.createResponse(Response.OK, request);
-         Address contactAddress = createContactAddress(listeningPoint, null, null);
-         ContactHeader contactHeader = jainSipHeaderFactory.createContactHeader(contactAddress);
-         response.addHeader(contactHeader);
+         response.addHeader(createContactHeader(listeningPoint, null, null));
          response.removeHeader("P-Asserted-Identity");
          response.removeHeader("P-Charging-Vector");
          response.removeHeader("P-Charging-Function-Addresses");
@@ -485,7 +568,7 @@ class JainSipMessageBuilder {
 
    void normalizePeer(HashMap<String, Object> peerParameters, HashMap<String, Object> clientParameters, ListeningPoint listeningPoint) throws JainSipException
    {
-      boolean secure = listeningPoint.getTransport().equals(ListeningPoint.TLS);
+      boolean secure = JainSipConfiguration.isSecure(listeningPoint.getTransport());
       if (peerParameters.containsKey(RCConnection.ParameterKeys.CONNECTION_PEER)) {
          peerParameters.put(RCConnection.ParameterKeys.CONNECTION_PEER,
                convert2FullUri((String) peerParameters.get(RCConnection.ParameterKeys.CONNECTION_PEER),
@@ -505,31 +588,15 @@ class JainSipMessageBuilder {
       try {
          //SipURI routeUri = (SipURI) jainSipAddressFactory.createURI(route);
 
-         Set<String> supportedTransports = new HashSet<String>();
-         // Somehow only in Android Oreo and only when using cleartext signaling dnsServerLocator.locateHops() breaks
-         // because somehow the transport string that reaches DefaultDNSServerLocator.getDefaultTransportForSipUri() isn't uppercase
-         // and hence the matching fails to identify trasport. So let's workaround that by always uppercasing it
-         supportedTransports.add(listeningPoint.getTransport().toUpperCase());
-         DefaultDNSServerLocator dnsServerLocator = new DefaultDNSServerLocator(supportedTransports);
-
-         // This is a synchronous call that does one or more DNS queries (depending on if DNS SRV is used), let's time it to keep track of any big delays
-         long startTime = System.currentTimeMillis();
-         Queue<Hop> hops = dnsServerLocator.locateHops(jainSipAddressFactory.createURI(domain));
-         if (hops.size() == 0) {
-            throw new JainSipException(RCClient.ErrorCodes.ERROR_DEVICE_SIGNALING_DOMAIN_INVALID);
-         }
-         long queryDuration = System.currentTimeMillis() - startTime;
-         RCLogger.i(TAG, "createRouteHeader(): DNS query time: " + queryDuration + " ms, hops: " + hops.toString());
-         if (queryDuration > 3000) {
-            RCLogger.w(TAG, "Signaling DNS queries are taking too long, you might need to check your setup");
-         }
-         SipURI routeUri = jainSipAddressFactory.createSipURI(null, hops.peek().getHost());
+         // Served from the DNS cache, so that we don't block the signaling thread on DNS queries (apart from the very first time)
+         Hop hop = dnsResolver.resolve(jainSipAddressFactory.createURI(domain), listeningPoint.getTransport());
+         SipURI routeUri = jainSipAddressFactory.createSipURI(null, hop.getHost());
          routeUri.setParameter(DNSAwareRouter.DNS_ROUTE, Boolean.TRUE.toString());
-         routeUri.setPort(hops.peek().getPort());
-         if (hops.peek().getTransport() != null) {
-            routeUri.setTransportParam(hops.peek().getTransport());
+         routeUri.setPort(hop.getPort());
+         if (hop.getTransport() != null) {
+            routeUri.setTransportParam(hop.getTransport());
          }
-         routeUri.setSecure(listeningPoint.getTransport().equals(ListeningPoint.TLS));
+         routeUri.setSecure(JainSipConfiguration.isSecure(listeningPoint.getTransport()));
 
          routeUri.setLrParam();
          Address routeAddress = jainSipAddressFactory.createAddress(routeUri);
@@ -573,12 +640,7 @@ class JainSipMessageBuilder {
    {
       ArrayList<ViaHeader> viaHeaders = new ArrayList<ViaHeader>();
       try {
-         ViaHeader viaHeader = jainSipHeaderFactory.createViaHeader(listeningPoint.getIPAddress(),
-               listeningPoint.getPort(),
-               listeningPoint.getTransport(),
-               null);
-         viaHeader.setRPort();
-         viaHeaders.add(viaHeader);
+         viaHeaders.add(headerCache.getViaHeader(listeningPoint));
       }
       catch (InvalidArgumentException e) {
          throw new RuntimeException("Failed to create Via headers", e);
@@ -587,9 +649,9 @@ class JainSipMessageBuilder {
    }
 
 
-   private Address createContactAddress(ListeningPoint listeningPoint, String domain, HashMap<String, Object> clientContext) throws ParseException, JainSipException
+   // Contact is the same for as long as the listening point and what the server sees of us don't change, so it's served from the header cache
+   private ContactHeader createContactHeader(ListeningPoint listeningPoint, String domain, HashMap<String, Object> clientContext) throws ParseException, JainSipException
    {
-      RCLogger.i(TAG, "createContactAddress()");
       int contactPort = listeningPoint.getPort();
       String contactIPAddress = listeningPoint.getIPAddress();
 
@@ -603,9 +665,14 @@ class JainSipMessageBuilder {
          }
       }
 
-      String contactString = getContactString(contactIPAddress, contactPort, listeningPoint, domain);
-
-      return jainSipAddressFactory.createAddress(contactString);
+      ContactHeader contactHeader = headerCache.getContactHeader(contactIPAddress, contactPort, listeningPoint.getTransport(), domain);
+      if (contactHeader == null) {
+         RCLogger.i(TAG, "createContactHeader(): building Contact for " + contactIPAddress + ":" + contactPort);
+         String contactString = getContactString(contactIPAddress, contactPort, listeningPoint, domain);
+         contactHeader = jainSipHeaderFactory.createContactHeader(jainSipAddressFactory.createAddress(contactString));
+         headerCache.putContactHeader(contactIPAddress, contactPort, listeningPoint.getTransport(), domain, contactHeader);
+      }
+      return contactHeader;
    }
 
 /*
@@ -619,10 +686,10 @@ class JainSipMessageBuilder {
    private String getContactString(String ipAddress, int port, ListeningPoint listeningPoint, String domain) throws ParseException, JainSipException
    {
       String sip = "sip:";
-      if (listeningPoint.getTransport().equals(ListeningPoint.TLS)) {
+      if (JainSipConfiguration.isSecure(listeningPoint.getTransport())) {
          sip = "sips:";
       }
-      String contactString = sip + ipAddress + ':' + port + ";transport=" + listeningPoint.getTransport();
+      String contactString = sip + uriHost(ipAddress) + ':' + port + ";transport=" + listeningPoint.getTransport();
 
       if (domain != null && !domain.equals("")) {
          contactString += ";registering_acc=" + sipUri2IpAddress(domain);
@@ -631,40 +698,40 @@ class JainSipMessageBuilder {
       return contactString;
    }
 
-   private UserAgentHeader createUserAgentHeader()
+   // IPv6 addresses need brackets when used as the host part of a SIP URI
+   static String uriHost(String ipAddress)
    {
-      RCLogger.i(TAG, "createUserAgentHeader()");
-      List<String> userAgentTokens = new LinkedList<String>();
-      UserAgentHeader header = null;
-      userAgentTokens.add(USERAGENT_STRING);
-      try {
-         header = jainSipHeaderFactory.createUserAgentHeader(userAgentTokens);
+      if (ipAddress.indexOf(':') >= 0 && !ipAddress.startsWith("[")) {
+         return "[" + ipAddress + "]";
       }
-      catch (ParseException e) {
-         throw new RuntimeException("Error creating User Agent header", e);
-      }
-
-      return header;
+      return ipAddress;
    }
 
    /*
-    * Parse a SIP request/response (i.e. Message) and extract any custom sip headers inside a HashMap where key is the header name and value is the header value
+    * Parse a SIP request/response (i.e. Message) and extract any custom sip headers inside a HashMap where key is the header name and value is the header value.
+    * This runs for every incoming call, so we walk the parsed headers directly (instead of going through getHeaderNames(), which copies all names into a new
+    * list) and only allocate the map once we actually come across a custom header. Returns null if there aren't any
     */
    static HashMap<String, String> parseCustomHeaders(Message message)
    {
-      // See if there are any custom SIP headers and expose them. Custom headers are headers starting with 'X-'
-      HashMap<String,String> customHeaders = new HashMap<>();
-      ListIterator iterator =  message.getHeaderNames();
+      // Custom headers are headers starting with 'X-'
+      HashMap<String, String> customHeaders = null;
+      Iterator<SIPHeader> iterator = ((SIPMessage) message).getHeaders();
       while (iterator.hasNext()) {
-         String headerName = (String)iterator.next();
-         if (headerName.matches("(?s)^X-.*")) {
-            ExtensionHeaderImpl header = (ExtensionHeaderImpl)message.getHeader(headerName);
-            customHeaders.put(header.getName(), header.getHeaderValue());
+         SIPHeader header = iterator.next();
+         if (header instanceof SIPHeaderList) {
+            // repeated headers are kept in a list
+            header = (SIPHeader) ((SIPHeaderList<?>) header).getFirst();
+         }
+         if (header instanceof ExtensionHeaderImpl && header.getHeaderName().startsWith(CUSTOM_HEADER_PREFIX)) {
+            if (customHeaders == null) {
+               customHeaders = new HashMap<>();
+            }
+            // if a custom header appears more than once, keep the first one
+            if (!customHeaders.containsKey(header.getHeaderName())) {
+               customHeaders.put(header.getHeaderName(), ((ExtensionHeaderImpl) header).getHeaderValue());
+            }
          }
-      }
-
-      if (customHeaders.isEmpty()) {
-         customHeaders = null;
       }
 
       return customHeaders;
@@ -0,0 +1,402 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * JainSipMessageJournal is the outbound queue for text messages that couldn't be sent right away, typically because we are offline. Pending messages are
+ * kept in memory, and their job ids are tracked in an append-only file with two kinds of records: ADD (a message was queued) and REMOVE (a message reached
+ * a final status), so that queuing a message costs a single small append. Messages are keyed by job id, so queuing the same job twice is a no-op.
+ *
+ * The file is there so that no message goes unanswered: messages still pending when the process died are found when the journal is loaded again, and
+ * are reported by takePreviousSession() so that they can be failed explicitly. They are never sent in a later session, since that session might well
+ * be for a different account or the App might have given up on them. Since nothing is sent from the file, message text (and peer) never hit the disk.
+ * Each account gets its own file (see getFile()), so a session only hears about its own messages.
+ *
+ * The file is compacted (i.e. rewritten with just the pending messages) when REMOVE records pile up, and truncated when nothing is pending.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipMessageJournal {
+   private static final String FILENAME_PREFIX = "restcomm-outbound-messages-";
+   private static final String FILENAME_SUFFIX = ".journal";
+
+   private static final byte RECORD_ADD = 1;
+   private static final byte RECORD_REMOVE = 2;
+   // compact once we have at least that many REMOVE records in the file (and they outnumber pending messages)
+   private static final int COMPACT_THRESHOLD = 1000;
+
+   // A pending message; only the job id is written to the file
+   static class Record {
+      String jobId;
+      String peer;
+      String text;
+
+      Record(String jobId, String peer, String text)
+      {
+         this.jobId = jobId;
+         this.peer = peer;
+         this.text = text;
+      }
+   }
+
+   private File file;
+   private DataOutputStream outputStream;
+   // pending messages by job id, in the order they were queued
+   private LinkedHashMap<String, Record> records;
+   // pending messages that haven't been handed over for sending yet
+   private ArrayDeque<Record> undispatched;
+   // job ids of messages left pending by a previous session, in the order they were queued
+   private LinkedHashSet<String> previousSession;
+   private int removedCount;
+   private static final String TAG = "JainSipMessageJournal";
+
+   JainSipMessageJournal(File file)
+   {
+      this.file = file;
+      records = new LinkedHashMap<>();
+      undispatched = new ArrayDeque<>();
+      previousSession = new LinkedHashSet<>();
+      removedCount = 0;
+
+      load();
+   }
+
+   /**
+    * File of the journal for an account; the account is hashed so that it doesn't show up in the file name
+    * @param directory Directory to keep the journal in, typically the App's files directory
+    * @param username Account username
+    * @param domain Account domain
+    * @return The journal file
+    */
+   static File getFile(File directory, String username, String domain)
+   {
+      StringBuilder name = new StringBuilder(FILENAME_PREFIX);
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-256").digest((username + "@" + domain).getBytes("UTF-8"));
+         for (byte b : digest) {
+            name.append(String.format("%02x", b));
+         }
+      }
+      catch (NoSuchAlgorithmException | IOException e) {
+         // every Android release has SHA-256 and UTF-8, so this never happens
+         throw new RuntimeException("Failed to hash account for message journal", e);
+      }
+      return new File(directory, name.append(FILENAME_SUFFIX).toString());
+   }
+
+   /**
+    * Queue a message
+    * @param jobId Job id of the message
+    * @param peer Recipient of the message
+    * @param text Message text
+    * @return false if a message with the same job id is already queued
+    */
+   boolean add(String jobId, String peer, String text)
+   {
+      if (records.containsKey(jobId)) {
+         RCLogger.w(TAG, "add(): message already queued, ignoring; jobId: " + jobId);
+         return false;
+      }
+
+      Record record = new Record(jobId, peer, text);
+      records.put(jobId, record);
+      undispatched.add(record);
+
+      try {
+         writeAdd(getOutputStream(), jobId);
+         // adds need to hit the file right away, since that's the whole point
+         outputStream.flush();
+      }
+      catch (IOException e) {
+         // keep going in memory, we just won't be able to report this message if the process dies
+         RCLogger.e(TAG, "add(): failed to write journal: " + e.getMessage());
+         e.printStackTrace();
+      }
+      return true;
+   }
+
+   /**
+    * A queued message reached a final status and doesn't need to be kept any more. Notice that the REMOVE record is buffered until sync(); worst case if
+    * we crash before that the message is reported as failed by the next session
+    * @param jobId Job id of the message
+    */
+   void remove(String jobId)
+   {
+      if (records.remove(jobId) == null) {
+         return;
+      }
+
+      try {
+         if (records.isEmpty() && previousSession.isEmpty()) {
+            // nothing pending; start over with an empty file
+            truncate();
+         }
+         else {
+            DataOutputStream stream = getOutputStream();
+            stream.writeByte(RECORD_REMOVE);
+            stream.writeUTF(jobId);
+            removedCount++;
+            if (removedCount >= COMPACT_THRESHOLD && removedCount > records.size()) {
+               compact();
+            }
+         }
+      }
+      catch (IOException e) {
+         RCLogger.e(TAG, "remove(): failed to write journal: " + e.getMessage());
+         e.printStackTrace();
+      }
+   }
+
+   boolean contains(String jobId)
+   {
+      return records.containsKey(jobId);
+   }
+
+   int size()
+   {
+      return records.size();
+   }
+
+   /**
+    * Retrieve the messages left pending by a previous session, typically because the App got killed before they reached a final status, and stop
+    * tracking them
+    * @return Job ids of the messages, in the order they were queued
+    */
+   List<String> takePreviousSession()
+   {
+      List<String> jobIds = new ArrayList<>(previousSession);
+      if (jobIds.isEmpty()) {
+         return jobIds;
+      }
+
+      previousSession.clear();
+      try {
+         if (records.isEmpty()) {
+            truncate();
+         }
+         else {
+            compact();
+         }
+      }
+      catch (IOException e) {
+         RCLogger.e(TAG, "takePreviousSession(): failed to rewrite journal: " + e.getMessage());
+         e.printStackTrace();
+      }
+      return jobIds;
+   }
+
+   boolean hasUndispatched()
+   {
+      return !undispatched.isEmpty();
+   }
+
+   /**
+    * Retrieve the next pending message that hasn't been handed over for sending. The message stays in the journal until remove() is called for it
+    * @return The message, or null if there are no more undispatched messages
+    */
+   Record pollUndispatched()
+   {
+      Record record;
+      while ((record = undispatched.poll()) != null) {
+         // skip messages that were removed in the meantime
+         if (records.get(record.jobId) == record) {
+            return record;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Mark all pending messages as undispatched, so that they are handed over for sending again (for example after we lost networking facilities
+    * while some of them were in-flight)
+    */
+   void requeueAll()
+   {
+      undispatched.clear();
+      undispatched.addAll(records.values());
+   }
+
+   // Make sure any buffered records hit the file
+   void sync()
+   {
+      if (outputStream != null) {
+         try {
+            outputStream.flush();
+         }
+         catch (IOException e) {
+            RCLogger.e(TAG, "sync(): failed to flush journal: " + e.getMessage());
+            e.printStackTrace();
+         }
+      }
+   }
+
+   void close()
+   {
+      if (outputStream != null) {
+         try {
+            outputStream.close();
+         }
+         catch (IOException e) {
+            e.printStackTrace();
+         }
+         outputStream = null;
+      }
+   }
+
+   // ------ Helpers
+   // Replay the journal file to figure out the messages left pending by the previous session
+   private void load()
+   {
+      if (!file.exists()) {
+         return;
+      }
+
+      long startTime = System.currentTimeMillis();
+      boolean corrupted = false;
+      int recordCount = 0;
+      DataInputStream inputStream = null;
+      try {
+         inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         while (true) {
+            byte type;
+            try {
+               type = inputStream.readByte();
+            }
+            catch (EOFException e) {
+               break;
+            }
+
+            if (type == RECORD_ADD) {
+               previousSession.add(inputStream.readUTF());
+            }
+            else if (type == RECORD_REMOVE) {
+               previousSession.remove(inputStream.readUTF());
+               removedCount++;
+            }
+            else {
+               corrupted = true;
+               break;
+            }
+            recordCount++;
+         }
+      }
+      catch (EOFException e) {
+         // partially written record at the tail, typically because we got killed while appending; drop it
+         corrupted = true;
+      }
+      catch (IOException e) {
+         RCLogger.e(TAG, "load(): failed to read journal: " + e.getMessage());
+         e.printStackTrace();
+         corrupted = true;
+      }
+      finally {
+         if (inputStream != null) {
+            try {
+               inputStream.close();
+            }
+            catch (IOException e) {
+               e.printStackTrace();
+            }
+         }
+      }
+
+      RCLogger.i(TAG, "load(): replayed " + recordCount + " records in " + (System.currentTimeMillis() - startTime) + " ms, messages left pending: " +
+            previousSession.size());
+
+      if (corrupted) {
+         // rewrite so that subsequent appends don't end up after garbage
+         try {
+            compact();
+         }
+         catch (IOException e) {
+            RCLogger.e(TAG, "load(): failed to compact journal: " + e.getMessage());
+            e.printStackTrace();
+         }
+      }
+   }
+
+   // Rewrite the journal with just the pending messages
+   private void compact() throws IOException
+   {
+      close();
+
+      File tmpFile = new File(file.getPath() + ".tmp");
+      DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      try {
+         for (String jobId : previousSession) {
+            writeAdd(stream, jobId);
+         }
+         for (Record record : records.values()) {
+            writeAdd(stream, record.jobId);
+         }
+      }
+      finally {
+         stream.close();
+      }
+
+      if (!tmpFile.renameTo(file)) {
+         throw new IOException("Failed to rename " + tmpFile + " to " + file);
+      }
+      removedCount = 0;
+   }
+
+   private void truncate() throws IOException
+   {
+      close();
+      outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, false)));
+      removedCount = 0;
+   }
+
+   private DataOutputStream getOutputStream() throws IOException
+   {
+      if (outputStream == null) {
+         outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      }
+      return outputStream;
+   }
+
+   private static void writeAdd(DataOutputStream stream, String jobId) throws IOException
+   {
+      stream.writeByte(RECORD_ADD);
+      stream.writeUTF(jobId);
+   }
+}
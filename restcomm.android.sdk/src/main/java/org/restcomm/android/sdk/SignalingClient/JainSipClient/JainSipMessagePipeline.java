@@ -0,0 +1,389 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.Transaction;
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCConnection;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JainSipMessagePipeline provides flow control for outgoing text messages. Instead of firing a SIP MESSAGE transaction as soon as the App calls
+ * sendMessage(), messages are kept in a bounded outbound queue and sent out while respecting:
+ * - an in-flight window: at most 'window size' MESSAGE transactions can be waiting for a final response at any given time
+ * - per-peer ordering: at most one MESSAGE per peer can be in-flight, so that messages towards the same peer are delivered in the order they were sent
+ *
+ * When the queue is full new messages are rejected right away, so that bursts of thousands of messages don't stall the signaling thread. Notice that
+ * jobs (and their parameters) are only created when a message is actually sent out, not while it waits in the queue.
+ *
+ * Messages submitted while we don't have networking facilities (or while there are still older messages waiting there) go to the
+ * JainSipMessageJournal instead, and are moved over to the outbound queue in batches once networking facilities are back up. Likewise, when we lose
+ * networking facilities, queued and in-flight messages are parked in the journal. This means that a message in-flight when connectivity is lost might be
+ * sent twice (at-least-once semantics).
+ *
+ * Pending messages belong to the session and account they were sent in: they are failed when the client closes or switches accounts, and messages
+ * left pending by a previous session (i.e. when the process died) are failed once the journal is opened, without being sent.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipMessagePipeline {
+   static final int DEFAULT_WINDOW_SIZE = 8;
+   static final int DEFAULT_QUEUE_SIZE = 1000;
+   static final int DEFAULT_OFFLINE_QUEUE_SIZE = 10000;
+
+   // A message waiting in the outbound queue or in-flight
+   private static class PendingMessage {
+      String jobId;
+      String peer;
+      HashMap<String, Object> parameters;
+      // uptime when the message was queued, to measure latency
+      long queuedTime;
+
+      PendingMessage(String jobId, String peer, HashMap<String, Object> parameters)
+      {
+         this.jobId = jobId;
+         this.peer = peer;
+         this.parameters = parameters;
+         this.queuedTime = SystemClock.uptimeMillis();
+      }
+   }
+
+   private JainSipClient jainSipClient;
+   private SignalingCounters counters;
+   private JainSipMessageJournal journal;
+   // per-peer outbound queues; iteration order is the order in which peers first got a message queued, so that we serve them fairly
+   private LinkedHashMap<String, ArrayDeque<PendingMessage>> queues;
+   // in-flight messages by jobId, in the order they were sent
+   private LinkedHashMap<String, PendingMessage> inFlight;
+   // peers that currently have a message in-flight
+   private HashSet<String> busyPeers;
+   private int queuedCount;
+   // avoid re-entering pump() when a message completes synchronously while pumping
+   private boolean pumping;
+   // key for the message text in message parameters
+   static final String TEXT_MESSAGE = "text-message";
+   private static final String TAG = "JainSipMessagePipeline";
+
+   JainSipMessagePipeline(JainSipClient jainSipClient)
+   {
+      this.jainSipClient = jainSipClient;
+      this.counters = jainSipClient.counters;
+      queues = new LinkedHashMap<>();
+      inFlight = new LinkedHashMap<>();
+      busyPeers = new HashSet<>();
+      queuedCount = 0;
+      pumping = false;
+   }
+
+   /**
+    * Start using a journal, typically the one for the current account. Messages the journal has from a previous session are failed, so that the
+    * App hears back about them
+    * @param journal The journal
+    */
+   void open(JainSipMessageJournal journal)
+   {
+      this.journal = journal;
+      for (String jobId : journal.takePreviousSession()) {
+         RCLogger.w(TAG, "open(): failing message left pending by previous session; jobId: " + jobId);
+         counters.increment(SignalingMetrics.Counter.MESSAGES_FAILED);
+         jainSipClient.listener.onClientMessageReply(jobId, RCClient.ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE,
+               RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_SEND_FAILED_DEVICE_OFFLINE));
+      }
+      updateMetrics();
+   }
+
+   /**
+    * Fail all pending messages, queued, in-flight or in the journal, and stop using the journal. Used when the client closes or switches accounts
+    * @param status Delivery status to report for each message
+    */
+   void close(RCClient.ErrorCodes status)
+   {
+      RCLogger.i(TAG, "close(): failing " + inFlight.size() + " in-flight, " + queuedCount + " queued and " + journal.size() + " journaled messages");
+      ArrayList<PendingMessage> messages = new ArrayList<>(inFlight.values());
+      for (ArrayDeque<PendingMessage> queue : queues.values()) {
+         messages.addAll(queue);
+      }
+
+      queues.clear();
+      inFlight.clear();
+      busyPeers.clear();
+      queuedCount = 0;
+
+      for (PendingMessage message : messages) {
+         jainSipClient.jainSipJobManager.remove(message.jobId);
+         complete(message, status, RCClient.errorText(status));
+      }
+      // what's left in the journal was never handed over for sending
+      journal.requeueAll();
+      JainSipMessageJournal.Record record;
+      while ((record = journal.pollUndispatched()) != null) {
+         complete(new PendingMessage(record.jobId, record.peer, null), status, RCClient.errorText(status));
+      }
+      journal.close();
+      updateMetrics();
+   }
+
+   /**
+    * Queue a message for sending. If we have networking facilities the message's peer needs to be already normalized, otherwise the message
+    * is kept as is and normalized once it's time to send it. If the outbound queue is full the message is rejected right away, with
+    * ERROR_MESSAGE_QUEUE_FULL
+    * @param jobId Job id for the message, used to correlate the delivery status. Queuing a message with the same job id again is a no-op
+    * @param parameters Message parameters
+    */
+   void enqueue(String jobId, HashMap<String, Object> parameters)
+   {
+      if (journal.contains(jobId) || inFlight.containsKey(jobId)) {
+         RCLogger.w(TAG, "enqueue(): message already pending, ignoring; jobId: " + jobId);
+         return;
+      }
+
+      if (!canSend() || journal.hasUndispatched()) {
+         // either offline, or there are older messages still in the journal which need to go out first
+         if (journal.size() >= getOfflineQueueSize()) {
+            RCLogger.w(TAG, "enqueue(): offline message queue full, rejecting message with jobId: " + jobId);
+            reject(jobId);
+            return;
+         }
+         journal.add(jobId, (String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER), (String) parameters.get(TEXT_MESSAGE));
+         pump();
+         return;
+      }
+
+      if (queuedCount >= getQueueSize()) {
+         RCLogger.w(TAG, "enqueue(): outbound message queue full, rejecting message with jobId: " + jobId);
+         reject(jobId);
+         return;
+      }
+
+      String peer = (String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER);
+      ArrayDeque<PendingMessage> queue = queues.get(peer);
+      if (queue == null) {
+         queue = new ArrayDeque<>();
+         queues.put(peer, queue);
+      }
+      queue.add(new PendingMessage(jobId, peer, parameters));
+      queuedCount++;
+      updateMetrics();
+
+      pump();
+   }
+
+   /**
+    * A message we sent out received its final response (or timed out). Notify the listener and send out any messages waiting in the queue
+    * @param jobId Job id of the message
+    * @param status Delivery status
+    * @param text Delivery status text
+    */
+   void onMessageCompleted(String jobId, RCClient.ErrorCodes status, String text)
+   {
+      PendingMessage message = inFlight.remove(jobId);
+      jainSipClient.jainSipJobManager.remove(jobId);
+      if (message == null) {
+         RCLogger.w(TAG, "onMessageCompleted(): no in-flight message with jobId: " + jobId);
+         jainSipClient.listener.onClientMessageReply(jobId, status, text);
+         return;
+      }
+
+      busyPeers.remove(message.peer);
+      complete(message, status, text);
+
+      pump();
+   }
+
+   /**
+    * Networking facilities are going away: move all queued and in-flight messages to the journal, so that they are sent out once networking
+    * facilities are back up. Their jobs are removed, since the respective transactions won't be able to complete
+    */
+   void park()
+   {
+      if (inFlight.isEmpty() && queuedCount == 0) {
+         return;
+      }
+
+      RCLogger.i(TAG, "park(): parking " + inFlight.size() + " in-flight and " + queuedCount + " queued messages");
+      ArrayList<PendingMessage> messages = new ArrayList<>(inFlight.values());
+      for (ArrayDeque<PendingMessage> queue : queues.values()) {
+         messages.addAll(queue);
+      }
+
+      queues.clear();
+      inFlight.clear();
+      busyPeers.clear();
+      queuedCount = 0;
+
+      for (PendingMessage message : messages) {
+         jainSipClient.jainSipJobManager.remove(message.jobId);
+         // notice that messages that came from the journal in the first place are already there; add() will ignore them
+         journal.add(message.jobId, message.peer, (String) message.parameters.get(TEXT_MESSAGE));
+      }
+      journal.requeueAll();
+      journal.sync();
+      updateMetrics();
+   }
+
+   /**
+    * Send out as many queued messages as the in-flight window and per-peer ordering allow, topping up the outbound queue from the journal as needed.
+    * Typically called internally, but also needs to be called when networking facilities come back, to flush messages queued in the meantime
+    */
+   void pump()
+   {
+      if (pumping) {
+         return;
+      }
+
+      pumping = true;
+      try {
+         refill();
+
+         boolean progress = true;
+         while (progress && queuedCount > 0 && inFlight.size() < getWindowSize() && canSend()) {
+            progress = false;
+            Iterator<Map.Entry<String, ArrayDeque<PendingMessage>>> iterator = queues.entrySet().iterator();
+            while (iterator.hasNext() && inFlight.size() < getWindowSize()) {
+               Map.Entry<String, ArrayDeque<PendingMessage>> entry = iterator.next();
+               if (busyPeers.contains(entry.getKey())) {
+                  continue;
+               }
+
+               PendingMessage message = entry.getValue().poll();
+               if (entry.getValue().isEmpty()) {
+                  iterator.remove();
+               }
+               queuedCount--;
+               send(message);
+               progress = true;
+            }
+         }
+      }
+      finally {
+         pumping = false;
+      }
+      // REMOVE records of completed messages are buffered; write them out in one go
+      journal.sync();
+      updateMetrics();
+   }
+
+   // ------ Helpers
+   // Move messages from the journal over to the outbound queue, as long as there's room
+   private void refill()
+   {
+      while (canSend() && queuedCount < getQueueSize()) {
+         JainSipMessageJournal.Record record = journal.pollUndispatched();
+         if (record == null) {
+            return;
+         }
+
+         HashMap<String, Object> parameters = new HashMap<>();
+         parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, record.peer);
+         parameters.put(TEXT_MESSAGE, record.text);
+         try {
+            jainSipClient.jainSipMessageBuilder.normalizePeer(parameters, jainSipClient.configuration, jainSipClient.jainSipListeningPoint);
+         }
+         catch (JainSipException e) {
+            complete(new PendingMessage(record.jobId, record.peer, parameters), e.errorCode, e.errorText);
+            continue;
+         }
+
+         String peer = (String) parameters.get(RCConnection.ParameterKeys.CONNECTION_PEER);
+         ArrayDeque<PendingMessage> queue = queues.get(peer);
+         if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(peer, queue);
+         }
+         queue.add(new PendingMessage(record.jobId, peer, parameters));
+         queuedCount++;
+      }
+   }
+
+   private void send(PendingMessage message)
+   {
+      try {
+         Transaction transaction = jainSipClient.jainSipClientSendMessage(message.parameters);
+         inFlight.put(message.jobId, message);
+         busyPeers.add(message.peer);
+         jainSipClient.jainSipJobManager.add(message.jobId, JainSipJob.Type.TYPE_MESSAGE, transaction, message.parameters, null);
+         counters.increment(SignalingMetrics.Counter.MESSAGES_SENT);
+      }
+      catch (JainSipException e) {
+         complete(message, e.errorCode, e.errorText);
+      }
+   }
+
+   private void complete(PendingMessage message, RCClient.ErrorCodes status, String text)
+   {
+      journal.remove(message.jobId);
+      long latency = SystemClock.uptimeMillis() - message.queuedTime;
+      counters.increment((status == RCClient.ErrorCodes.SUCCESS) ? SignalingMetrics.Counter.MESSAGES_SUCCEEDED : SignalingMetrics.Counter.MESSAGES_FAILED);
+      counters.add(SignalingMetrics.Counter.MESSAGE_LATENCY_TOTAL_MS, latency);
+      counters.max(SignalingMetrics.Counter.MESSAGE_LATENCY_MAX_MS, latency);
+      jainSipClient.listener.onClientMessageReply(message.jobId, status, text);
+   }
+
+   private void reject(String jobId)
+   {
+      counters.increment(SignalingMetrics.Counter.MESSAGES_REJECTED);
+      jainSipClient.listener.onClientMessageReply(jobId, RCClient.ErrorCodes.ERROR_MESSAGE_QUEUE_FULL, RCClient.errorText(RCClient.ErrorCodes.ERROR_MESSAGE_QUEUE_FULL));
+   }
+
+   // we can only send when networking facilities are up; otherwise messages remain queued
+   boolean canSend()
+   {
+      return jainSipClient.jainSipListeningPoint != null && jainSipClient.jainSipNotificationManager.haveConnectivity();
+   }
+
+   private int getWindowSize()
+   {
+      return Math.max(1, JainSipConfiguration.getInt(jainSipClient.configuration, RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW_SIZE, DEFAULT_WINDOW_SIZE));
+   }
+
+   private int getQueueSize()
+   {
+      return JainSipConfiguration.getInt(jainSipClient.configuration, RCDevice.ParameterKeys.SIGNALING_MESSAGE_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+   }
+
+   private int getOfflineQueueSize()
+   {
+      return JainSipConfiguration.getInt(jainSipClient.configuration, RCDevice.ParameterKeys.SIGNALING_MESSAGE_OFFLINE_QUEUE_SIZE, DEFAULT_OFFLINE_QUEUE_SIZE);
+   }
+
+   private void updateMetrics()
+   {
+      counters.set(SignalingMetrics.Counter.MESSAGE_QUEUE_DEPTH, queuedCount);
+      counters.max(SignalingMetrics.Counter.MESSAGE_QUEUE_DEPTH_MAX, queuedCount);
+      counters.set(SignalingMetrics.Counter.MESSAGES_IN_FLIGHT, inFlight.size());
+      counters.set(SignalingMetrics.Counter.MESSAGE_OFFLINE_QUEUE_DEPTH, journal.size());
+   }
+}
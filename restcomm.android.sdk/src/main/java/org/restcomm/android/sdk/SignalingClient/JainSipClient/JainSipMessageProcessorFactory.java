@@ -0,0 +1,145 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.stack.MessageProcessor;
+import android.gov.nist.javax.sip.stack.MessageProcessorFactory;
+import android.gov.nist.javax.sip.stack.NioMessageProcessorFactory;
+import android.gov.nist.javax.sip.stack.OIOMessageProcessorFactory;
+import android.gov.nist.javax.sip.stack.SIPTransactionStack;
+import android.os.Build;
+
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.util.HashMap;
+
+/**
+ * JainSipMessageProcessorFactory picks the JAIN SIP message processors for the listening points of a SIP stack: NIO (selector based) ones that
+ * serve all signaling connections from a single thread, or the blocking ones that dedicate a reader thread to each connection.
+ *
+ * For TCP and TLS, NIO is an opt-in switch from Oreo on (RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED, see isEnabled()). It was turned off there
+ * because of signaling issues that were never pinned down, and this factory doesn't fix them: it only falls back to a blocking processor when an
+ * NIO one can't be created at all, not when one misbehaves later on. Before Oreo NIO remains the default, like it always was. WebSocket (RFC 7118,
+ * itself opt-in through RCDevice.ParameterKeys.SIGNALING_WEBSOCKET_ENABLED) always uses NIO, since JAIN SIP only has NIO WebSocket processors.
+ *
+ * JAIN SIP only lets us name a factory class through a stack property, so instead we replace the factory the stack created with one carrying the
+ * settings of that stack (see install()). Processors are created when listening points are, from the signaling thread
+ */
+class JainSipMessageProcessorFactory implements MessageProcessorFactory {
+   // whether TCP and TLS listening points get NIO processors
+   private final boolean nioEnabled;
+   // processors (one per listening point) created with NIO, and with blocking I/O (either by configuration or as a fallback) are counted here
+   private final SignalingCounters counters;
+   private final MessageProcessorFactory nioFactory;
+   private final MessageProcessorFactory blockingFactory;
+   private static final String TAG = "JainSipMessageProcessorFactory";
+
+   JainSipMessageProcessorFactory(boolean nioEnabled, SignalingCounters counters)
+   {
+      this.nioEnabled = nioEnabled;
+      this.counters = counters;
+      nioFactory = new NioMessageProcessorFactory();
+      blockingFactory = new OIOMessageProcessorFactory();
+   }
+
+   /**
+    * Check if NIO message processing should be used for the given configuration. If RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED is set, that's
+    * what we go with, otherwise NIO is only used before Oreo, like it always was. Don't change that default before the Oreo signaling issue is
+    * understood and fixed
+    * @param parameters Device configuration
+    * @return true if NIO message processing should be used
+    */
+   static boolean isEnabled(HashMap<String, Object> parameters)
+   {
+      if (parameters.containsKey(RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED)) {
+         return JainSipConfiguration.getBoolean(parameters, RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED);
+      }
+      return Build.VERSION.SDK_INT < Build.VERSION_CODES.O;
+   }
+
+   /**
+    * Install a factory in a SIP stack, replacing the one JAIN SIP created from its properties. Needs to happen before any listening point is created
+    * @param sipStack The SIP stack, right after creating it
+    * @param nioEnabled Whether TCP and TLS listening points of this stack get NIO processors
+    * @param counters Counters to keep track of processors with
+    * @return true if installed; if not, the stack keeps JAIN SIP's default (blocking) processors, and WebSocket isn't available
+    */
+   static boolean install(Object sipStack, boolean nioEnabled, SignalingCounters counters)
+   {
+      try {
+         for (Class<?> stackClass = sipStack.getClass(); stackClass != null; stackClass = stackClass.getSuperclass()) {
+            for (Field field : stackClass.getDeclaredFields()) {
+               if (field.getType() == MessageProcessorFactory.class) {
+                  field.setAccessible(true);
+                  field.set(sipStack, new JainSipMessageProcessorFactory(nioEnabled, counters));
+                  return true;
+               }
+            }
+         }
+         RCLogger.e(TAG, "install(): no message processor factory found in " + sipStack.getClass().getName());
+      }
+      catch (Exception e) {
+         RCLogger.e(TAG, "install(): failed to install message processor factory: " + e.toString());
+      }
+      return false;
+   }
+
+   @Override
+   public MessageProcessor createMessageProcessor(SIPTransactionStack sipStack, InetAddress ipAddress, int port, String transport) throws IOException
+   {
+      if (JainSipConfiguration.isWebSocket(transport)) {
+         // nothing to fall back to
+         MessageProcessor messageProcessor = nioFactory.createMessageProcessor(sipStack, ipAddress, port, transport);
+         counters.increment(SignalingMetrics.Counter.MESSAGE_PROCESSORS_NIO);
+         return messageProcessor;
+      }
+
+      if (!nioEnabled) {
+         MessageProcessor messageProcessor = blockingFactory.createMessageProcessor(sipStack, ipAddress, port, transport);
+         counters.increment(SignalingMetrics.Counter.MESSAGE_PROCESSORS_BLOCKING);
+         return messageProcessor;
+      }
+
+      try {
+         MessageProcessor messageProcessor = nioFactory.createMessageProcessor(sipStack, ipAddress, port, transport);
+         RCLogger.i(TAG, "createMessageProcessor(): using NIO message processor for " + transport + " at " + ipAddress.getHostAddress() + ":" + port);
+         counters.increment(SignalingMetrics.Counter.MESSAGE_PROCESSORS_NIO);
+         return messageProcessor;
+      }
+      catch (IOException | RuntimeException e) {
+         RCLogger.w(TAG, "createMessageProcessor(): failed to create NIO message processor for " + transport + ", falling back to blocking one: " +
+               e.getMessage());
+      }
+
+      MessageProcessor messageProcessor = blockingFactory.createMessageProcessor(sipStack, ipAddress, port, transport);
+      counters.increment(SignalingMetrics.Counter.MESSAGE_PROCESSORS_BLOCKING);
+      return messageProcessor;
+   }
+}
@@ -27,21 +27,27 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.LinkAddress;
 import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkInfo;
+import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.restcomm.android.sdk.RCDeviceListener;
 import org.restcomm.android.sdk.util.RCLogger;
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.util.List;
 import java.util.StringJoiner;
 
 /**
- * JainSipNotificationManager listens for Android connectivity changes and notifies NotificationManagerListener (typically JainSipClient)
+ * JainSipNotificationManager listens for Android connectivity changes and notifies NotificationManagerListener (typically JainSipClient). From API 24 and on
+ * we track the default network via ConnectivityManager.NetworkCallback, which also lets us notice switching between networks of the same type; before that
+ * we rely on CONNECTIVITY_ACTION broadcasts. In both cases events are debounced, since a single handover typically results in a burst of them
  */
 class JainSipNotificationManager extends BroadcastReceiver {
 
@@ -71,43 +77,168 @@ class JainSipNotificationManager extends BroadcastReceiver {
    NotificationManagerListener listener;
    static final String TAG = "NotificationManager";
    NetworkStatus networksStatus;
+   // Android typically reports a handover as a burst of events (new network available, old one lost, link properties updated, etc), so we wait
+   // for things to settle for that long before evaluating connectivity
+   static final int DEBOUNCE_INTERVAL = 300;
+   Handler handler;
+   ConnectivityManager connectivityManager;
+   // only used from API 24 and on, where we can track the default network directly; otherwise we rely on CONNECTIVITY_ACTION broadcasts
+   ConnectivityManager.NetworkCallback networkCallback;
+   // default network and its addresses as of last evaluation, so that we can tell when we switch between networks of the same type (i.e. wifi -> wifi)
+   // or our address changes
+   Network activeNetwork;
+   List<LinkAddress> activeAddresses;
+   // uptime when the connectivity change currently being handled was first reported by Android
+   long connectivityChangeTime;
+   private boolean evaluationPending;
+   // everything we post to the handler is tagged with this, so that close() can drop it all in one go
+   private final Object handlerToken = new Object();
+   // network callbacks arrive in another thread and may still be on their way after close(), so they need to be ignored from then on
+   private volatile boolean closed;
+   private Runnable evaluateRunnable = new Runnable() {
+      @Override
+      public void run()
+      {
+         evaluationPending = false;
+         if (closed) {
+            return;
+         }
+         evaluateConnectivity();
+      }
+   };
 
 
    JainSipNotificationManager(Context androidContext, Handler handler, NotificationManagerListener listener)
    {
       this.androidContext = androidContext;
       this.listener = listener;
-      IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+      this.handler = handler;
+      connectivityManager = (ConnectivityManager) androidContext.getSystemService(Context.CONNECTIVITY_SERVICE);
       // initialize current connectivity status
-      networksStatus = checkConnectivity(androidContext);
-      // register for connectivity related events
-      androidContext.registerReceiver(this, filter, null, handler);
+      networksStatus = checkNetworkStatus();
+      updateActiveNetwork();
+
+      registerForEvents();
    }
 
    public void close()
    {
-      // unregister from events
-      androidContext.unregisterReceiver(this);
+      closed = true;
+      unregisterForEvents();
+      handler.removeCallbacksAndMessages(handlerToken);
+      evaluationPending = false;
+   }
+
+   // Register for connectivity related events
+   void registerForEvents()
+   {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+         networkCallback = new ConnectivityManager.NetworkCallback() {
+            // Notice that callbacks arrive in a ConnectivityService thread, so we need to move over to the signaling thread
+            @Override
+            public void onAvailable(Network network)
+            {
+               // new default network; no need to wait until the old one is lost, we can rebind on the new one right away
+               onNetworkEvent("available: " + network);
+            }
+
+            @Override
+            public void onLost(Network network)
+            {
+               onNetworkEvent("lost: " + network);
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties)
+            {
+               onNetworkEvent("link properties changed: " + network);
+            }
+         };
+         connectivityManager.registerDefaultNetworkCallback(networkCallback);
+      }
+      else {
+         IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+         androidContext.registerReceiver(this, filter, null, handler);
+      }
+   }
+
+   void unregisterForEvents()
+   {
+      if (networkCallback != null) {
+         connectivityManager.unregisterNetworkCallback(networkCallback);
+         networkCallback = null;
+      }
+      else {
+         androidContext.unregisterReceiver(this);
+      }
    }
 
    @Override
    public void onReceive(Context context, Intent intent)
    {
       RCLogger.d(TAG, "BroadcastReceiver:onReceive()");
-      ConnectivityChange connectivityChange = ConnectivityChange.OFFLINE;
+      if (closed) {
+         return;
+      }
+      scheduleEvaluation();
+   }
 
-      // retrieve new connectivity status
-      NetworkStatus newConnectivityStatus = checkConnectivity(context);
-      /*
-      try {
-         Thread.sleep(4000);
+   // Local address to bind to on the default network, or null if we don't know it (in which case the caller needs to figure it out on its own)
+   String getLocalAddress(boolean useIPv4)
+   {
+      if (activeAddresses == null) {
+         return null;
+      }
+      for (LinkAddress linkAddress : activeAddresses) {
+         InetAddress address = linkAddress.getAddress();
+         if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isAnyLocalAddress()) {
+            continue;
+         }
+         if (useIPv4 == (address instanceof Inet4Address)) {
+            return address.getHostAddress().toUpperCase();
+         }
       }
-      catch (InterruptedException e) {
+      return null;
+   }
 
+   void onNetworkEvent(final String description)
+   {
+      if (closed) {
+         return;
       }
-      */
+      handler.postAtTime(new Runnable() {
+         @Override
+         public void run()
+         {
+            RCLogger.d(TAG, "NetworkCallback: " + description);
+            if (closed) {
+               return;
+            }
+            scheduleEvaluation();
+         }
+      }, handlerToken, SystemClock.uptimeMillis());
+   }
+
+   // Evaluate connectivity once events stop coming in for DEBOUNCE_INTERVAL
+   private void scheduleEvaluation()
+   {
+      if (!evaluationPending) {
+         connectivityChangeTime = SystemClock.elapsedRealtime();
+         evaluationPending = true;
+      }
+      handler.removeCallbacks(evaluateRunnable);
+      handler.postAtTime(evaluateRunnable, handlerToken, SystemClock.uptimeMillis() + DEBOUNCE_INTERVAL);
+   }
+
+   private void evaluateConnectivity()
+   {
+      ConnectivityChange connectivityChange = ConnectivityChange.OFFLINE;
+
+      // retrieve new connectivity status
+      NetworkStatus newConnectivityStatus = checkNetworkStatus();
+      boolean networkChanged = updateActiveNetwork();
 
-      if (newConnectivityStatus == networksStatus) {
+      if (newConnectivityStatus == networksStatus && (!networkChanged || newConnectivityStatus == NetworkStatus.NetworkStatusNone)) {
          RCLogger.w(TAG, "Connectivity change, but remained the same: " + newConnectivityStatus);
          return;
       }
@@ -117,9 +248,10 @@ class JainSipNotificationManager extends BroadcastReceiver {
          connectivityChange = ConnectivityChange.OFFLINE;
       }
 
-      RCLogger.w(TAG, "Connectivity change from: " + networksStatus + " to: " + newConnectivityStatus);
+      RCLogger.w(TAG, "Connectivity change from: " + networksStatus + " to: " + newConnectivityStatus + ", network: " + activeNetwork +
+            ", settled after: " + (SystemClock.elapsedRealtime() - connectivityChangeTime) + " ms");
 
-      // old state wifi and new state cellular or the reverse; need to shutdown and restart network facilities
+      // old state wifi and new state cellular or the reverse (or a different network of the same type); need to shutdown and restart network facilities
       if (networksStatus != NetworkStatus.NetworkStatusNone &&
             newConnectivityStatus == NetworkStatus.NetworkStatusCellular) {
          connectivityChange = ConnectivityChange.HANDOVER_TO_CELLULAR_DATA;
@@ -157,6 +289,41 @@ class JainSipNotificationManager extends BroadcastReceiver {
       listener.onConnectivityChange(connectivityChange);
    }
 
+   // Refresh the default network and its addresses (API 23 and on), returning true if we moved to a different network or our local address on it
+   // changed. Other link property changes (like DNS servers or IPv6 temporary addresses coming and going) don't affect our binding
+   boolean updateActiveNetwork()
+   {
+      if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+         return false;
+      }
+
+      String previousAddress = getLocalAddress(true);
+      Network network = connectivityManager.getActiveNetwork();
+      List<LinkAddress> addresses = null;
+      if (network != null) {
+         LinkProperties linkProperties = connectivityManager.getLinkProperties(network);
+         if (linkProperties != null) {
+            addresses = linkProperties.getLinkAddresses();
+         }
+      }
+
+      boolean changed = !equals(network, activeNetwork);
+      activeNetwork = network;
+      activeAddresses = addresses;
+      return changed || !equals(getLocalAddress(true), previousAddress);
+   }
+
+   // Current connectivity status, as Android reports it
+   NetworkStatus checkNetworkStatus()
+   {
+      return checkConnectivity(androidContext);
+   }
+
+   private static boolean equals(Object object1, Object object2)
+   {
+      return (object1 == null) ? (object2 == null) : object1.equals(object2);
+   }
+
    static public NetworkStatus checkConnectivity(Context context)
    {
       NetworkStatus networkStatus = NetworkStatus.NetworkStatusNone;
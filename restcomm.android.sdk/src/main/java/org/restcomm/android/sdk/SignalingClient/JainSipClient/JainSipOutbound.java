@@ -0,0 +1,262 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.content.Context;
+import android.gov.nist.javax.sip.ListeningPointExt;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.Header;
+import android.javax.sip.header.RequireHeader;
+import android.javax.sip.message.Response;
+import android.provider.Settings;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ListIterator;
+import java.util.UUID;
+
+/**
+ * JainSipOutbound implements the client side of SIP Outbound (RFC 5626), so that NAT bindings and the connection towards the registrar can be kept alive
+ * with tiny keep-alives instead of frequent re-REGISTERs:
+ * - REGISTER Contact carries +sip.instance (a stable per-device URN) and reg-id, so that the registrar can tell this flow apart
+ * - once registered, a double CRLF 'ping' is sent over the registration flow periodically. If the registrar sends a Flow-Timer header we keep
+ *   the interval below it, as RFC 5626 mandates
+ * - the interval is fixed while the flow stays up. It never grows on its own, as JAIN SIP consumes the CRLF 'pong' (RFC 5626 section 4.4.1)
+ *   without telling us, so a keep-alive that went out is no proof that the flow (or the NAT binding) is still there. It only drops, halving
+ *   each time the flow fails, in which case we also notify the listener so that it can re-register on a new flow
+ *
+ * We only use connection-oriented transports (TCP/TLS), so STUN keep-alives (the UDP flavor of RFC 5626) aren't applicable.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipOutbound {
+   interface OutboundListener {
+      // the registration flow broke; we need to register again to establish a new one
+      void onFlowFailed();
+   }
+
+   // keep-alive interval (seconds) to start with, unless configured otherwise
+   static final int DEFAULT_KEEPALIVE_INTERVAL = 120;
+   static final int MIN_KEEPALIVE_INTERVAL = 30;
+   // RFC 5626 default for connection-oriented transports
+   static final int MAX_KEEPALIVE_INTERVAL = 840;
+   // we only ever have one registration flow
+   static final int REG_ID = 1;
+   // size of the double CRLF 'ping'
+   static final int KEEPALIVE_SIZE = 4;
+   // name of the keep-alive task in the scheduler
+   static final String KEEPALIVE_TASK = "keep-alive";
+   // doesn't change for the lifetime of the process, so compute once
+   private static String instanceId;
+
+   private final JainSipScheduler scheduler;
+   // keep-alives sent and the current interval are counted here, next to the REGISTERs JainSipClient counts, to figure out bytes/hour spent
+   // on staying reachable
+   private final SignalingCounters counters;
+   private final OutboundListener listener;
+   private ListeningPointExt listeningPoint;
+   private String host;
+   private int port;
+   private boolean running;
+   // current keep-alive interval, in seconds
+   private int interval;
+   private int maxInterval;
+   private static final String TAG = "JainSipOutbound";
+
+   JainSipOutbound(JainSipScheduler scheduler, SignalingCounters counters, OutboundListener listener)
+   {
+      this.scheduler = scheduler;
+      this.counters = counters;
+      this.listener = listener;
+   }
+
+   /**
+    * Start sending keep-alives over the registration flow
+    * @param listeningPoint Listening point the registration was sent from
+    * @param host Registrar (or edge proxy) address, as the registration response came from
+    * @param port Registrar (or edge proxy) port
+    * @param flowTimer Flow-Timer the registrar asked for, in seconds, or 0 if none
+    * @param initialInterval Keep-alive interval to use (seconds), unless we already lowered it for this flow
+    */
+   void start(ListeningPoint listeningPoint, String host, int port, int flowTimer, int initialInterval)
+   {
+      boolean sameFlow = listeningPoint == this.listeningPoint && host.equals(this.host) && port == this.port;
+      stop();
+
+      this.listeningPoint = (ListeningPointExt) listeningPoint;
+      this.host = host;
+      this.port = port;
+      maxInterval = (flowTimer > 0) ? Math.max(MIN_KEEPALIVE_INTERVAL, Math.min(flowTimer, MAX_KEEPALIVE_INTERVAL)) : MAX_KEEPALIVE_INTERVAL;
+      if (!sameFlow || interval == 0) {
+         // new flow (say, after a handover), start over
+         interval = Math.max(MIN_KEEPALIVE_INTERVAL, Math.min(initialInterval, maxInterval));
+      }
+      else {
+         // re-registration on the same flow, keep what we learned
+         interval = Math.min(interval, maxInterval);
+      }
+
+      counters.set(SignalingMetrics.Counter.KEEP_ALIVE_INTERVAL, interval);
+      RCLogger.i(TAG, "start(): keep-alives towards " + host + ":" + port + " every " + interval + " s (max: " + maxInterval + " s)");
+      running = true;
+      schedule();
+   }
+
+   void stop()
+   {
+      scheduler.cancel(KEEPALIVE_TASK);
+      running = false;
+      counters.set(SignalingMetrics.Counter.KEEP_ALIVE_INTERVAL, 0);
+   }
+
+   /**
+    * The registration flow broke, for example the connection was reset. Use a shorter interval from now on and notify the listener
+    * @param host Remote host of the flow that failed
+    * @param port Remote port of the flow that failed
+    */
+   void onFlowFailure(String host, int port)
+   {
+      if (!running || !host.equals(this.host) || port != this.port) {
+         return;
+      }
+
+      stop();
+      int previousInterval = interval;
+      interval = Math.max(MIN_KEEPALIVE_INTERVAL, interval / 2);
+      RCLogger.w(TAG, "onFlowFailure(): flow towards " + host + ":" + port + " failed, keep-alive interval: " + previousInterval + " -> " + interval + " s");
+      listener.onFlowFailed();
+   }
+
+   boolean isRunning()
+   {
+      return running;
+   }
+
+   int getInterval()
+   {
+      return interval;
+   }
+
+   /**
+    * Add the RFC 5626 parameters to the Contact of a REGISTER
+    * @param contactHeader Contact header of the REGISTER
+    * @param instanceId Device instance id, from getInstanceId()
+    */
+   static void addContactParameters(ContactHeader contactHeader, String instanceId) throws ParseException
+   {
+      contactHeader.setParameter("+sip.instance", "\"<urn:uuid:" + instanceId + ">\"");
+      contactHeader.setParameter("reg-id", Integer.toString(REG_ID));
+   }
+
+   // Did the registrar accept outbound for this registration (i.e. 'outbound' option tag in Require)?
+   static boolean isSupported(Response response)
+   {
+      ListIterator headers = response.getHeaders(RequireHeader.NAME);
+      while (headers != null && headers.hasNext()) {
+         RequireHeader requireHeader = (RequireHeader) headers.next();
+         if ("outbound".equalsIgnoreCase(requireHeader.getOptionTag())) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   // Flow-Timer in seconds as sent by the registrar, or 0 if none
+   static int getFlowTimer(Response response)
+   {
+      Header header = response.getHeader("Flow-Timer");
+      if (header == null) {
+         return 0;
+      }
+      String value = header.toString();
+      value = value.substring(value.indexOf(':') + 1).trim();
+      try {
+         return Integer.parseInt(value);
+      }
+      catch (NumberFormatException e) {
+         RCLogger.w(TAG, "getFlowTimer(): invalid Flow-Timer: " + value);
+         return 0;
+      }
+   }
+
+   /**
+    * Stable identifier of this App instance on this device, as needed for +sip.instance. Derived from ANDROID_ID, which is per App signing key
+    * and user, so we don't need to store anything
+    */
+   static String getInstanceId(Context context)
+   {
+      if (instanceId != null) {
+         return instanceId;
+      }
+
+      String androidId = Settings.Secure.getString(context.getContentResolver(), Settings.Secure.ANDROID_ID);
+      if (androidId == null) {
+         // shouldn't happen, but if it does at least keep it stable for the lifetime of the process
+         androidId = "restcomm-" + android.os.Process.myPid();
+      }
+      String seed = context.getPackageName() + ":" + androidId;
+      instanceId = UUID.nameUUIDFromBytes(seed.getBytes(Charset.forName("UTF-8"))).toString();
+      return instanceId;
+   }
+
+   // ------ Helpers
+   private void schedule()
+   {
+      // RFC 5626: send keep-alives between 80% and 100% of the interval, so that clients don't synchronize. The scheduler picks the exact time,
+      // ideally together with other background work
+      scheduler.schedule(KEEPALIVE_TASK, interval * 1000L, interval * 200L, new Runnable() {
+         @Override
+         public void run()
+         {
+            sendKeepAlive();
+         }
+      });
+   }
+
+   private void sendKeepAlive()
+   {
+      if (!running) {
+         return;
+      }
+
+      try {
+         // double CRLF 'ping' over the existing connection towards the registrar
+         listeningPoint.sendHeartbeat(host, port);
+      }
+      catch (IOException e) {
+         RCLogger.w(TAG, "sendKeepAlive(): failed to send keep-alive: " + e.getMessage());
+         onFlowFailure(host, port);
+         return;
+      }
+
+      counters.increment(SignalingMetrics.Counter.KEEP_ALIVES_SENT);
+      counters.add(SignalingMetrics.Counter.KEEP_ALIVE_BYTES_SENT, KEEPALIVE_SIZE);
+      schedule();
+   }
+}
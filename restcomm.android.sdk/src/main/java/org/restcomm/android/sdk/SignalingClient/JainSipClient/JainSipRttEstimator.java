@@ -0,0 +1,267 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.Request;
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * JainSipRttEstimator keeps track of the round trip time towards the signaling server for each network type, based on how long REGISTER transactions
+ * take to get their first response, and uses it to pick the SIP T1 timer (RFC 3261 section 17.1.1.1) for new transactions. T1 drives both
+ * retransmissions and transaction timeouts (64*T1), so that on slow cellular networks we don't give up (or, on unreliable transports, retransmit)
+ * too early. T1 never goes below the RFC 3261 default of 500 ms, which is what the rest of the Internet expects from us.
+ *
+ * Only REGISTER is sampled, as it is answered by the registrar itself; other requests (like MESSAGE) are answered end to end, so their response
+ * time (or timeout, if the peer is unreachable) says more about the peer than about the network. They do get the resulting T1 though, and a
+ * response to them in time does show the network is answering again, so it eases off the backoff just like a REGISTER sample.
+ *
+ * Smoothing follows TCP's retransmission timer (RFC 6298): T1 = SRTT + 4 * RTTVAR, within [MIN_T1, MAX_T1]. A timeout doubles T1 for that network,
+ * and each valid sample after that halves the backoff again, so that a single response after a bad spell doesn't take us straight back to
+ * timing out. Like TCP we also apply Karn's rule: over UDP a response that comes in after the first retransmission (i.e. after T1) can't be told
+ * apart from a response to the retransmission, so it's not used as a sample. Reliable transports never retransmit, so all their samples are valid.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipRttEstimator {
+   // RFC 3261 default
+   static final int DEFAULT_T1 = 500;
+   static final int MIN_T1 = DEFAULT_T1;
+   static final int MAX_T1 = 2000;
+   // RFC 6298 gains
+   private static final double ALPHA = 0.125;
+   private static final double BETA = 0.25;
+   // transactions we timed but never got a response for are dropped after that long
+   private static final long MAX_PENDING_AGE = 64 * MAX_T1;
+
+   // how many times T1 can be doubled by timeouts
+   private static final int MAX_BACKOFF = MAX_T1 / MIN_T1;
+
+   private static class Estimate {
+      double srtt;
+      double rttvar;
+      int t1 = DEFAULT_T1;
+      int samples;
+      // 1, or 2^n after n timeouts not yet made up for by valid samples
+      int backoff = 1;
+   }
+
+   private static class Pending {
+      long sendTime;
+      JainSipNotificationManager.NetworkStatus network;
+      // T1 the transaction was sent with, and whether it may have been retransmitted
+      int t1;
+      boolean reliable;
+      // only REGISTER transactions are RTT samples, see class description
+      boolean sample;
+   }
+
+   private final HashMap<JainSipNotificationManager.NetworkStatus, Estimate> estimates;
+   // transactions in progress, by branch id
+   private final HashMap<String, Pending> pending;
+   // the latest sample and estimate (on whichever network it was taken), the T1 used for the latest transaction and the transactions that got
+   // no response in time (i.e. Timer F fired) are counted here
+   private final SignalingCounters counters;
+   private static final String TAG = "JainSipRttEstimator";
+
+   JainSipRttEstimator(SignalingCounters counters)
+   {
+      this.counters = counters;
+      estimates = new HashMap<>();
+      pending = new HashMap<>();
+   }
+
+   /**
+    * A new transaction is about to be sent: set its T1 based on what we know of the network and start timing it. Needs to be called before
+    * ClientTransaction.sendRequest()
+    * @param transaction The transaction
+    * @param network Network we are currently on
+    */
+   void onRequestSending(ClientTransaction transaction, JainSipNotificationManager.NetworkStatus network)
+   {
+      int t1 = getT1(network);
+      if (t1 != DEFAULT_T1) {
+         transaction.setRetransmitTimer(t1);
+      }
+      counters.set(SignalingMetrics.Counter.SIP_TIMER_T1_MS, t1);
+
+      purge();
+      Pending entry = new Pending();
+      entry.sendTime = now();
+      entry.network = network;
+      entry.t1 = t1;
+      entry.reliable = isReliable(transaction.getRequest());
+      entry.sample = Request.REGISTER.equals(transaction.getRequest().getMethod());
+      pending.put(transaction.getBranchId(), entry);
+   }
+
+   /**
+    * A response arrived for a transaction. Only the first response of a transaction is a valid sample, later ones (say 200 OK after 100 Trying, or
+    * after the server took its time to process it) would skew the estimate. Over UDP, so is the first response if the request was already
+    * retransmitted (Karn's rule)
+    * @param transaction The transaction
+    */
+   void onResponse(ClientTransaction transaction)
+   {
+      if (transaction == null) {
+         return;
+      }
+      Pending entry = pending.remove(transaction.getBranchId());
+      if (entry == null) {
+         return;
+      }
+
+      long rtt = now() - entry.sendTime;
+      if (!entry.reliable && rtt >= entry.t1) {
+         // Timer A fired at T1, so this may well be the response to the retransmission; keep the estimate (and any backoff) as is
+         RCLogger.v(TAG, "onResponse(): ignoring ambiguous response on " + entry.network + ", RTT: " + rtt + " ms, T1: " + entry.t1 + " ms");
+         if (entry.sample) {
+            counters.increment(SignalingMetrics.Counter.RTT_SAMPLES_DISCARDED);
+         }
+         return;
+      }
+
+      if (entry.sample) {
+         addSample(entry.network, rtt);
+      }
+      else {
+         Estimate estimate = estimates.get(entry.network);
+         if (estimate != null && estimate.backoff > 1) {
+            easeBackoff(estimate);
+         }
+      }
+   }
+
+   /**
+    * A transaction timed out; if it's a REGISTER, back off so that the next one has more time
+    * @param transaction The transaction
+    */
+   void onTimeout(ClientTransaction transaction)
+   {
+      counters.increment(SignalingMetrics.Counter.TRANSACTION_TIMEOUTS);
+      if (transaction == null) {
+         return;
+      }
+      Pending entry = pending.remove(transaction.getBranchId());
+      if (entry == null || !entry.sample) {
+         return;
+      }
+
+      Estimate estimate = getEstimate(entry.network);
+      estimate.backoff = Math.min(estimate.backoff * 2, MAX_BACKOFF);
+      updateT1(estimate);
+      RCLogger.w(TAG, "onTimeout(): transaction timed out on " + entry.network + ", T1: " + estimate.t1 + " ms");
+   }
+
+   int getT1(JainSipNotificationManager.NetworkStatus network)
+   {
+      Estimate estimate = estimates.get(network);
+      return (estimate != null) ? estimate.t1 : DEFAULT_T1;
+   }
+
+   // Smoothed RTT in miliseconds for a network, or 0 if we have no samples yet
+   long getSmoothedRtt(JainSipNotificationManager.NetworkStatus network)
+   {
+      Estimate estimate = estimates.get(network);
+      return (estimate != null) ? (long) estimate.srtt : 0;
+   }
+
+   long now()
+   {
+      return SystemClock.elapsedRealtime();
+   }
+
+   // ------ Helpers
+   void addSample(JainSipNotificationManager.NetworkStatus network, long rtt)
+   {
+      Estimate estimate = getEstimate(network);
+      if (estimate.samples == 0) {
+         estimate.srtt = rtt;
+         estimate.rttvar = rtt / 2.0;
+      }
+      else {
+         estimate.rttvar = (1 - BETA) * estimate.rttvar + BETA * Math.abs(estimate.srtt - rtt);
+         estimate.srtt = (1 - ALPHA) * estimate.srtt + ALPHA * rtt;
+      }
+      estimate.samples++;
+      easeBackoff(estimate);
+
+      RCLogger.v(TAG, "addSample(): " + network + " RTT: " + rtt + " ms, SRTT: " + (long) estimate.srtt + " ms, RTTVAR: " + (long) estimate.rttvar +
+            " ms, T1: " + estimate.t1 + " ms");
+      counters.increment(SignalingMetrics.Counter.RTT_SAMPLES);
+      counters.set(SignalingMetrics.Counter.RTT_LAST_MS, rtt);
+      counters.set(SignalingMetrics.Counter.RTT_SMOOTHED_MS, (long) estimate.srtt);
+      counters.set(SignalingMetrics.Counter.RTT_VARIANCE_MS, (long) estimate.rttvar);
+   }
+
+   // The network is answering again, ease off the backoff one step at a time
+   private static void easeBackoff(Estimate estimate)
+   {
+      estimate.backoff = Math.max(1, estimate.backoff / 2);
+      updateT1(estimate);
+   }
+
+   private static void updateT1(Estimate estimate)
+   {
+      long t1 = (estimate.samples > 0) ? Math.round(estimate.srtt + 4 * estimate.rttvar) : DEFAULT_T1;
+      estimate.t1 = (int) Math.max(MIN_T1, Math.min(MAX_T1, t1 * estimate.backoff));
+   }
+
+   // Only unreliable transports retransmit requests (RFC 3261 Timer A); over TCP, TLS and WebSockets they go out once
+   private static boolean isReliable(Request request)
+   {
+      ViaHeader viaHeader = (ViaHeader) request.getHeader(ViaHeader.NAME);
+      return viaHeader == null || !ListeningPoint.UDP.equalsIgnoreCase(viaHeader.getTransport());
+   }
+
+   private Estimate getEstimate(JainSipNotificationManager.NetworkStatus network)
+   {
+      Estimate estimate = estimates.get(network);
+      if (estimate == null) {
+         estimate = new Estimate();
+         estimates.put(network, estimate);
+      }
+      return estimate;
+   }
+
+   // Forget transactions that never got a response, for example because they were terminated along with their listening point
+   private void purge()
+   {
+      long now = now();
+      Iterator<Pending> iterator = pending.values().iterator();
+      while (iterator.hasNext()) {
+         if (now - iterator.next().sendTime > MAX_PENDING_AGE) {
+            iterator.remove();
+         }
+      }
+   }
+}
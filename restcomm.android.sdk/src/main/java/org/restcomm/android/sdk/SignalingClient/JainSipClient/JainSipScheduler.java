@@ -0,0 +1,255 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * JainSipScheduler runs periodic background work, like registration refreshes and keep-alives. Each task is scheduled with a deadline and a window
+ * before it in which it is fine to run early, and tasks whose windows overlap are batched in a single wake-up. This way the device (and, more
+ * importantly, the radio) wakes up once for all of them instead of once for each.
+ *
+ * On Android N and later wake-ups are inexact AlarmManager windows, which are Doze-aware: the system defers them to maintenance windows while
+ * in Doze (when there is no network anyway) and aligns them with wake-ups of other Apps. Earlier releases use the signaling handler, like before.
+ *
+ * Like the rest of JainSipClient, this is only accessed from the signaling thread, so no synchronization is needed
+ */
+class JainSipScheduler {
+   // token for wake-ups posted in the handler, when not using AlarmManager
+   private static final int WAKEUP_HANDLER_TOKEN = 3;
+   private static final String ALARM_TAG = "restcomm:signaling";
+
+   private static class Task {
+      String name;
+      Runnable runnable;
+      // elapsed realtime when the window opens and when the task is due, respectively
+      long windowStart;
+      long deadline;
+   }
+
+   private final Handler handler;
+   // null when alarms aren't available, in which case we use the handler
+   private final AlarmManager alarmManager;
+   private final HashMap<String, Task> tasks;
+   private final Random random;
+   // wake-ups and the tasks run in them are counted here; more tasks than wake-ups means batching paid off
+   private final SignalingCounters counters;
+   private Object alarmListener;
+   // window of the currently armed wake-up (elapsed realtime), and when exactly it happens if using the handler; 0 if none
+   private long armedWindowStart;
+   private long armedDeadline;
+   private long wakeupTime;
+   private static final String TAG = "JainSipScheduler";
+
+   /**
+    * @param handler Handler of the signaling thread; tasks run there
+    * @param alarmManager AlarmManager to schedule wake-ups with. Pass null to use the handler instead
+    * @param counters Counters to keep track of wake-ups with
+    */
+   JainSipScheduler(Handler handler, AlarmManager alarmManager, SignalingCounters counters)
+   {
+      this.handler = handler;
+      this.counters = counters;
+      this.alarmManager = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) ? alarmManager : null;
+      tasks = new HashMap<>();
+      random = new Random();
+   }
+
+   /**
+    * Schedule a task, replacing any task already scheduled with the same name
+    * @param name Name of the task, like 'register-refresh'
+    * @param delay Time from now until the task is due, in miliseconds
+    * @param window How much earlier than due the task may run so that it can be batched with other tasks, in miliseconds
+    * @param runnable What to run
+    */
+   void schedule(String name, long delay, long window, Runnable runnable)
+   {
+      long now = now();
+      Task task = new Task();
+      task.name = name;
+      task.runnable = runnable;
+      task.deadline = now + delay;
+      task.windowStart = now + Math.max(0, delay - window);
+      tasks.put(name, task);
+
+      arm();
+   }
+
+   void cancel(String name)
+   {
+      if (tasks.remove(name) != null) {
+         arm();
+      }
+   }
+
+   void cancelAll()
+   {
+      tasks.clear();
+      arm();
+   }
+
+   boolean isScheduled(String name)
+   {
+      return tasks.containsKey(name);
+   }
+
+   long now()
+   {
+      return SystemClock.elapsedRealtime();
+   }
+
+   // Woke up; run all tasks whose window is open
+   void onWakeup()
+   {
+      armedWindowStart = 0;
+      armedDeadline = 0;
+      wakeupTime = 0;
+      long now = now();
+
+      // tasks often reschedule themselves while running, so first figure out which to run
+      ArrayList<Task> dueTasks = new ArrayList<>();
+      Iterator<Task> iterator = tasks.values().iterator();
+      while (iterator.hasNext()) {
+         Task task = iterator.next();
+         if (task.windowStart <= now) {
+            dueTasks.add(task);
+            iterator.remove();
+         }
+      }
+
+      if (dueTasks.size() > 0) {
+         counters.increment(SignalingMetrics.Counter.SCHEDULER_WAKEUPS);
+         counters.add(SignalingMetrics.Counter.SCHEDULER_TASKS_RUN, dueTasks.size());
+         if (dueTasks.size() > 1) {
+            RCLogger.v(TAG, "onWakeup(): running " + dueTasks.size() + " tasks in a single wake-up");
+         }
+      }
+      for (Task task : dueTasks) {
+         task.runnable.run();
+      }
+
+      arm();
+   }
+
+   // ------ Helpers
+   // Arm a single wake-up for the earliest task, placed so that it also covers as many other tasks as possible
+   private void arm()
+   {
+      if (tasks.isEmpty()) {
+         disarm();
+         return;
+      }
+
+      long deadline = Long.MAX_VALUE;
+      for (Task task : tasks.values()) {
+         deadline = Math.min(deadline, task.deadline);
+      }
+      // the wake-up can happen as late as the earliest deadline, and as early as the latest window start that still comes before that deadline
+      long windowStart = 0;
+      for (Task task : tasks.values()) {
+         if (task.windowStart <= deadline) {
+            windowStart = Math.max(windowStart, task.windowStart);
+         }
+      }
+
+      if (windowStart == armedWindowStart && deadline == armedDeadline) {
+         // already armed for that window
+         return;
+      }
+      if (alarmManager == null && wakeupTime != 0 && wakeupTime >= windowStart && wakeupTime <= deadline) {
+         // the posted wake-up already falls within the window
+         return;
+      }
+      disarm();
+
+      armedWindowStart = windowStart;
+      armedDeadline = deadline;
+      if (alarmManager != null) {
+         setAlarm(windowStart, deadline - windowStart);
+      }
+      else {
+         // keep the randomness of an inexact window, so that clients don't synchronize
+         wakeupTime = windowStart + (long) (random.nextDouble() * (deadline - windowStart));
+         handler.postAtTime(new Runnable() {
+            @Override
+            public void run()
+            {
+               onWakeup();
+            }
+         }, WAKEUP_HANDLER_TOKEN, SystemClock.uptimeMillis() + Math.max(0, wakeupTime - now()));
+      }
+   }
+
+   private void disarm()
+   {
+      if (alarmManager != null) {
+         cancelAlarm();
+      }
+      else {
+         handler.removeCallbacksAndMessages(WAKEUP_HANDLER_TOKEN);
+      }
+      armedWindowStart = 0;
+      armedDeadline = 0;
+      wakeupTime = 0;
+   }
+
+   @TargetApi(Build.VERSION_CODES.N)
+   private void setAlarm(long windowStart, long windowLength)
+   {
+      AlarmManager.OnAlarmListener listener = new AlarmManager.OnAlarmListener() {
+         @Override
+         public void onAlarm()
+         {
+            if (alarmListener == this) {
+               alarmListener = null;
+               onWakeup();
+            }
+         }
+      };
+      alarmListener = listener;
+      // delivered in the signaling thread
+      alarmManager.setWindow(AlarmManager.ELAPSED_REALTIME_WAKEUP, windowStart, windowLength, ALARM_TAG, listener, handler);
+   }
+
+   @TargetApi(Build.VERSION_CODES.N)
+   private void cancelAlarm()
+   {
+      if (alarmListener != null) {
+         alarmManager.cancel((AlarmManager.OnAlarmListener) alarmListener);
+         alarmListener = null;
+      }
+   }
+}
@@ -23,7 +23,11 @@
 package org.restcomm.android.sdk.SignalingClient.JainSipClient;
 
 import android.content.Context;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
 
+import org.restcomm.android.sdk.util.RCLogger;
 import org.spongycastle.asn1.x509.BasicConstraints;
 import org.spongycastle.asn1.x509.ExtendedKeyUsage;
 import org.spongycastle.asn1.x509.GeneralName;
@@ -35,23 +39,36 @@ import org.spongycastle.jce.provider.BouncyCastleProvider;
 import org.spongycastle.x509.X509V3CertificateGenerator;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.SignatureException;
+import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.security.auth.x500.X500Principal;
 
 public class JainSipSecurityHelper {
@@ -62,10 +79,61 @@ public class JainSipSecurityHelper {
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
     }
 
+    // Metadata kept next to the keystore file, so that we can reuse the keystore across opens. The keystore password isn't part of it; it's
+    // derived from the salt with a key that never leaves the Android Keystore (see getPasswordMac()), and we only keep its hash to tell if
+    // that key is still the one the keystore was written with
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final String METADATA_SALT = "salt";
+    private static final String METADATA_PASSWORD_HASH = "password-hash";
+    private static final String METADATA_CA_FINGERPRINT = "ca-fingerprint";
+    private static final String METADATA_NOT_AFTER = "not-after";
+    // Android Keystore entry of the key the keystore password is derived with
+    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+    private static final String PASSWORD_KEY_ALIAS = "restcomm-android-sdk-keystore-password";
+    private static final String PASSWORD_MAC_ALGORITHM = "HmacSHA256";
+    // Our key and certificate are only there in case the server asks for a client certificate, which nobody pins, so there's no reason for
+    // them to last long. A week keeps the cost of generating the keystore off most opens while not leaving the same key around for long
+    private static final long CERTIFICATE_VALIDITY = 7L * 86400000;
+    // once our certificate gets that close to expiring the keystore is regenerated in the background, while still being served
+    private static final long CERTIFICATE_RENEWAL_MARGIN = 2L * 86400000;
+    // ... and past that point it isn't served any more and gets regenerated right away
+    private static final long CERTIFICATE_EXPIRY_MARGIN = 3600000L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // serializes keystore (re)generation between open() and the background check
+    private static final Object keystoreLock = new Object();
+    private static boolean keystoreCheckRunning = false;
+
+    /*
+     * Retrieve the TLS keystore to use for the signaling stack. Generating a keystore is expensive (key pair generation plus importing the whole
+     * System Wide Android CA Store), so the keystore generated the first time is kept in the filesystem and reused in subsequent calls. The keystore
+     * is keyed by a fingerprint of the CA Store; every time we reuse it we check that fingerprint in a background thread and only if the CA set
+     * has changed (or our certificate is about to expire) we regenerate it, again in the background. Notice that a regenerated keystore is
+     * picked up the next time the signaling stack is opened.
+     *
+     * Only if there's no usable keystore (typically the very first time) the keystore is generated synchronously. The keystore password is
+     * never stored; it's derived each time with a key kept in the Android Keystore. Where that's not available (API < 23) we fall back to
+     * generating a new keystore with a random password on every call, like generateKeystore()
+     *
+     * @param context Android context
+     * @param filename Filename to use for storing the keystore
+     * @return HashMap containing keystore full path (key 'keystore-path') and keystore password (key 'keystore-password')
+     */
+    public static HashMap<String, String> getKeystore(Context context, String filename)
+    {
+        return getKeystore(new File(context.getFilesDir(), filename), new Callable<KeyStore>() {
+            @Override
+            public KeyStore call() throws Exception
+            {
+                return loadAndroidCaStore();
+            }
+        }, getPasswordMac());
+    }
+
     /*
      * Create custom keystore, generate key and certificate and add them to it for use in encryption, etc, and in the end
      * also add to the keystore all the trusted certificates from the System Wide Android CA Store, so that we properly accept
-     * legit server certificates
+     * legit server certificates. Notice that this always generates a new keystore; getKeystore() should be preferred
      *
      * @param context Android context
      * @param filename Filename to use for storing the keystore
@@ -73,45 +141,64 @@ public class JainSipSecurityHelper {
      */
     public static HashMap<String, String> generateKeystore(Context context, String filename)
     {
+        File keystoreFile = new File(context.getFilesDir(), filename);
         HashMap<String, String> parameters = new HashMap<String, String>();
         try {
-            SecureRandom random = new SecureRandom();
-            // this yields 26 base32 characters
-            parameters.put("keystore-password", new BigInteger(130, random).toString(32));
-
-            // Create custom BKS store
-            KeyStore ks = KeyStore.getInstance("BKS");
-            ks.load(null);
-
-            // Generate key pair using Elliptic Curve algorithm and Bouncy Castle provider
-            KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
-            kpg.initialize(new ECGenParameterSpec("secp256r1"));
-            KeyPair kp = kpg.generateKeyPair();
-
-            // Generate actual X509v3 certificate
-            X509Certificate cert = generateCertificate(kp);
-            X509Certificate[] certs = new X509Certificate[1];
-            certs[0] = cert;
-
-            // Add all the above in the keystore
-            ks.setKeyEntry("restcomm-android-sdk", kp.getPrivate(), parameters.get("keystore-password").toCharArray(), certs);
-
-            // Copy all trusted CA certs from System Wide keystore to our custom keystore, so that JAIN sip can properly
-            // trust servers it talks to
-            KeyStore CAks = KeyStore.getInstance("AndroidCAStore");
-            CAks.load(null);
-            Enumeration<String> aliases = CAks.aliases();
-            while (aliases.hasMoreElements()) {
-                String alias = aliases.nextElement();
-                ks.setCertificateEntry(alias, CAks.getCertificate(alias));
+            String password = generatePassword();
+            synchronized (keystoreLock) {
+                writeKeystore(keystoreFile, loadAndroidCaStore(), password, null);
             }
+            parameters.put("keystore-password", password);
+            parameters.put("keystore-path", keystoreFile.getAbsolutePath());
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        return parameters;
+    }
 
-            // Save keystore in filesystem and retrieve path so that JAIN SIP can access it
-            File keystoreFile = new File(context.getFilesDir(), filename);
-            FileOutputStream outputStream = new FileOutputStream(keystoreFile);
-            ks.store(outputStream, parameters.get("keystore-password").toCharArray());
-            outputStream.close();
+    // getKeystore() logic, with the CA Store loader and the keystore password derivation abstracted out. A null passwordMac means there's
+    // nothing to protect a reusable keystore with, so a new one is generated every time
+    static HashMap<String, String> getKeystore(File keystoreFile, Callable<KeyStore> caStoreLoader, Mac passwordMac)
+    {
+        HashMap<String, String> parameters = new HashMap<String, String>();
+        long startTime = System.currentTimeMillis();
+
+        try {
+            String salt = null;
+            String password;
+            if (passwordMac != null) {
+                Properties metadata = readMetadata(keystoreFile);
+                if (metadata != null && metadata.getProperty(METADATA_SALT) != null) {
+                    // keep the salt if we have one, in case a background check is also regenerating the keystore
+                    salt = metadata.getProperty(METADATA_SALT);
+                    password = derivePassword(passwordMac, salt);
+                    if (keystoreFile.exists() && isUsable(metadata, password)) {
+                        parameters.put("keystore-password", password);
+                        parameters.put("keystore-path", keystoreFile.getAbsolutePath());
+                        RCLogger.i(TAG, "getKeystore(): reusing keystore, took " + (System.currentTimeMillis() - startTime) + " ms");
+
+                        checkKeystoreAsync(keystoreFile, caStoreLoader, password, salt, metadata.getProperty(METADATA_CA_FINGERPRINT),
+                                needsRenewal(metadata));
+                        return parameters;
+                    }
+                }
+                else {
+                    salt = generatePassword();
+                    password = derivePassword(passwordMac, salt);
+                }
+            }
+            else {
+                RCLogger.i(TAG, "getKeystore(): Android Keystore not available, keystore won't be reused");
+                password = generatePassword();
+            }
+
+            synchronized (keystoreLock) {
+                writeKeystore(keystoreFile, caStoreLoader.call(), password, salt);
+            }
+            parameters.put("keystore-password", password);
             parameters.put("keystore-path", keystoreFile.getAbsolutePath());
+            RCLogger.i(TAG, "getKeystore(): generated keystore, took " + (System.currentTimeMillis() - startTime) + " ms");
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -119,6 +206,254 @@ public class JainSipSecurityHelper {
         return parameters;
     }
 
+    /*
+     * Fingerprint of the CA set in a CA Store, so that we can tell when it changes. For system CAs the alias already identifies the
+     * certificate (it's derived from the subject hash), so we only need to hash the aliases, which is way cheaper than loading every
+     * certificate. User installed CAs are few, so we hash their encoded certificate as well
+     */
+    static String getCaFingerprint(KeyStore caStore) throws Exception
+    {
+        ArrayList<String> aliases = Collections.list(caStore.aliases());
+        Collections.sort(aliases);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String alias : aliases) {
+            digest.update(alias.getBytes(UTF8));
+            digest.update((byte) 0);
+            if (!alias.startsWith("system:")) {
+                Certificate certificate = caStore.getCertificate(alias);
+                if (certificate != null) {
+                    digest.update(certificate.getEncoded());
+                }
+            }
+        }
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    // Check in the background if the CA Store has changed since we generated the keystore, and if so regenerate it
+    private static void checkKeystoreAsync(final File keystoreFile, final Callable<KeyStore> caStoreLoader, final String password, final String salt,
+                                           final String fingerprint, final boolean renew)
+    {
+        synchronized (keystoreLock) {
+            if (keystoreCheckRunning) {
+                return;
+            }
+            keystoreCheckRunning = true;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    KeyStore caStore = caStoreLoader.call();
+                    if (!renew && getCaFingerprint(caStore).equals(fingerprint)) {
+                        RCLogger.v(TAG, "checkKeystoreAsync(): CA Store unchanged, keystore up to date");
+                        return;
+                    }
+
+                    RCLogger.i(TAG, "checkKeystoreAsync(): " + (renew ? "certificate about to expire" : "CA Store changed") + ", regenerating keystore");
+                    synchronized (keystoreLock) {
+                        writeKeystore(keystoreFile, caStore, password, salt);
+                    }
+                }
+                catch (Exception e) {
+                    RCLogger.e(TAG, "checkKeystoreAsync(): failed to check keystore: " + e.getMessage());
+                    e.printStackTrace();
+                }
+                finally {
+                    synchronized (keystoreLock) {
+                        keystoreCheckRunning = false;
+                    }
+                }
+            }
+        }, "restcomm-keystore");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    // Generate the keystore and store it along with its metadata (or without, and removing any previous one, if salt is null, in which case it
+    // can't be reused). The files are replaced atomically, so that a stack being set up concurrently always sees a complete keystore. Needs to be
+    // called with keystoreLock held
+    private static void writeKeystore(File keystoreFile, KeyStore caStore, String password, String salt) throws Exception
+    {
+        // Create custom BKS store
+        KeyStore ks = KeyStore.getInstance("BKS");
+        ks.load(null);
+
+        // Generate key pair using Elliptic Curve algorithm and Bouncy Castle provider
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair kp = kpg.generateKeyPair();
+
+        // Generate actual X509v3 certificate
+        X509Certificate cert = generateCertificate(kp);
+        X509Certificate[] certs = new X509Certificate[1];
+        certs[0] = cert;
+
+        // Add all the above in the keystore
+        ks.setKeyEntry("restcomm-android-sdk", kp.getPrivate(), password.toCharArray(), certs);
+
+        // Copy all trusted CA certs from System Wide keystore to our custom keystore, so that JAIN sip can properly
+        // trust servers it talks to
+        Enumeration<String> aliases = caStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            ks.setCertificateEntry(alias, caStore.getCertificate(alias));
+        }
+
+        // Save keystore in filesystem so that JAIN SIP can access it
+        File tmpFile = new File(keystoreFile.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+        try {
+            ks.store(outputStream, password.toCharArray());
+        }
+        finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(keystoreFile)) {
+            throw new IOException("Failed to rename " + tmpFile + " to " + keystoreFile);
+        }
+
+        File metadataFile = new File(keystoreFile.getPath() + METADATA_SUFFIX);
+        if (salt == null) {
+            metadataFile.delete();
+            return;
+        }
+
+        Properties metadata = new Properties();
+        metadata.setProperty(METADATA_SALT, salt);
+        metadata.setProperty(METADATA_PASSWORD_HASH, hash(password));
+        metadata.setProperty(METADATA_CA_FINGERPRINT, getCaFingerprint(caStore));
+        metadata.setProperty(METADATA_NOT_AFTER, Long.toString(cert.getNotAfter().getTime()));
+        tmpFile = new File(metadataFile.getPath() + ".tmp");
+        outputStream = new FileOutputStream(tmpFile);
+        try {
+            metadata.store(outputStream, null);
+        }
+        finally {
+            outputStream.close();
+        }
+        if (!tmpFile.renameTo(metadataFile)) {
+            throw new IOException("Failed to rename " + tmpFile + " to " + metadataFile);
+        }
+    }
+
+    private static Properties readMetadata(File keystoreFile)
+    {
+        File metadataFile = new File(keystoreFile.getPath() + METADATA_SUFFIX);
+        if (!metadataFile.exists()) {
+            return null;
+        }
+
+        Properties metadata = new Properties();
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(metadataFile);
+            metadata.load(inputStream);
+            return metadata;
+        }
+        catch (IOException e) {
+            RCLogger.w(TAG, "readMetadata(): failed to read keystore metadata: " + e.getMessage());
+            return null;
+        }
+        finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                }
+                catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Keystore described by metadata can be served, given the password we derived for it
+    private static boolean isUsable(Properties metadata, String password) throws Exception
+    {
+        if (metadata.getProperty(METADATA_CA_FINGERPRINT) == null || !hash(password).equals(metadata.getProperty(METADATA_PASSWORD_HASH))) {
+            // if the hash doesn't match, the Android Keystore key changed (for example the app data was restored on another device)
+            return false;
+        }
+        try {
+            long notAfter = Long.parseLong(metadata.getProperty(METADATA_NOT_AFTER));
+            return notAfter - System.currentTimeMillis() > CERTIFICATE_EXPIRY_MARGIN;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean needsRenewal(Properties metadata)
+    {
+        return Long.parseLong(metadata.getProperty(METADATA_NOT_AFTER)) - System.currentTimeMillis() < CERTIFICATE_RENEWAL_MARGIN;
+    }
+
+    /*
+     * Mac that derives keystore passwords with a key kept in the Android Keystore, created the first time around. The key can't be extracted,
+     * so the keystore password can only be derived on this device, by this app. Returns null if the Android Keystore isn't usable for that
+     * (before API 23, or if it fails)
+     */
+    private static Mac getPasswordMac()
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        try {
+            KeyStore androidKeyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+            androidKeyStore.load(null);
+            Key key = androidKeyStore.getKey(PASSWORD_KEY_ALIAS, null);
+            if (key == null) {
+                KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_HMAC_SHA256, ANDROID_KEYSTORE);
+                keyGenerator.init(new KeyGenParameterSpec.Builder(PASSWORD_KEY_ALIAS, KeyProperties.PURPOSE_SIGN).build());
+                key = keyGenerator.generateKey();
+            }
+
+            // SpongyCastle takes preference (see above) but can't work with Android Keystore keys, so go with the first provider that can
+            for (Provider provider : Security.getProviders("Mac." + PASSWORD_MAC_ALGORITHM)) {
+                try {
+                    Mac mac = Mac.getInstance(PASSWORD_MAC_ALGORITHM, provider);
+                    mac.init(key);
+                    return mac;
+                }
+                catch (Exception e) {
+                    // try the next one
+                }
+            }
+            throw new NoSuchAlgorithmException("No provider for " + PASSWORD_MAC_ALGORITHM + " with Android Keystore keys");
+        }
+        catch (Exception e) {
+            RCLogger.w(TAG, "getPasswordMac(): Android Keystore not usable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String derivePassword(Mac passwordMac, String salt)
+    {
+        return new BigInteger(1, passwordMac.doFinal(salt.getBytes(UTF8))).toString(32);
+    }
+
+    private static String hash(String password) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return new BigInteger(1, digest.digest(password.getBytes(UTF8))).toString(16);
+    }
+
+    private static KeyStore loadAndroidCaStore() throws Exception
+    {
+        KeyStore caStore = KeyStore.getInstance("AndroidCAStore");
+        caStore.load(null);
+        return caStore;
+    }
+
+    private static String generatePassword()
+    {
+        // this yields 26 base32 characters
+        return new BigInteger(130, new SecureRandom()).toString(32);
+    }
+
     /*
     // Sets up TLS keystore and return a full path to it, usable by JAIN
     private String setupTls(Context context)
@@ -170,8 +505,8 @@ public class JainSipSecurityHelper {
         certGen.setSerialNumber(BigInteger.valueOf(System.currentTimeMillis()));
         certGen.setIssuerDN(new X500Principal("CN=Restcomm Android SDK"));
         certGen.setNotBefore(new Date(System.currentTimeMillis() - 50000));
-        // TODO: using 1 day for now, need to increase that
-        certGen.setNotAfter(new Date(System.currentTimeMillis() + 86400000));
+        // keystores are reused across opens, so the certificate needs to last for a while; we regenerate it before it expires
+        certGen.setNotAfter(new Date(System.currentTimeMillis() + CERTIFICATE_VALIDITY));
         certGen.setSubjectDN(new X500Principal("CN=Restcomm Android SDK"));
         certGen.setPublicKey(pair.getPublic());
         certGen.setSignatureAlgorithm("SHA1withECDSA");
@@ -0,0 +1,205 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.restcomm.android.sdk.util.RCLogger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * JainSipTlsSocketFactory wraps the SSLSocketFactory JAIN SIP creates from our keystore (see JainSipSecurityHelper.setProperties()), so that TLS
+ * connections towards the signaling server can resume previous TLS sessions instead of doing a full handshake each time, which matters on every
+ * handover and reload of networking facilities:
+ * - sockets are always created with a peer host, which the TLS implementation needs as the key of its client session cache. JAIN SIP creates them
+ *   with an InetAddress, which (depending on the implementation) means sessions are cached but never looked up
+ * - session tickets (RFC 5077) are enabled where the TLS implementation supports them (i.e. Conscrypt), so that resumption works even when the
+ *   server doesn't keep session ids around
+ *
+ * The session cache itself lives in the SSLContext behind the wrapped factory, which stays around as long as the SIP stack does (i.e. across binds).
+ * Each handshake is also timed and checked for resumption, and the results are kept in 'metrics' (see SignalingMetrics).
+ *
+ * Sockets are created by JAIN SIP threads, hence the concurrent structures
+ */
+class JainSipTlsSocketFactory extends SSLSocketFactory {
+   private final SSLSocketFactory delegate;
+   // session id of the last session towards each peer (host:port), to tell resumed handshakes apart
+   private final ConcurrentHashMap<String, byte[]> sessionIds;
+   // full vs resumed handshakes and the time they took (including TCP connect) are counted here
+   private final SignalingCounters counters;
+   private static final String TAG = "JainSipTlsSocketFactory";
+
+   JainSipTlsSocketFactory(SSLSocketFactory delegate, SignalingCounters counters)
+   {
+      this.delegate = delegate;
+      this.counters = counters;
+      sessionIds = new ConcurrentHashMap<>();
+   }
+
+   /**
+    * Install the factory in the TLS network layer of a SIP stack. JAIN SIP doesn't provide a way to pass our own factory, so we replace the one it
+    * created from the keystore properties
+    * @param sipStack The SIP stack, right after creating it
+    * @param counters Counters to keep track of handshakes with
+    * @return true if installed; if not, TLS keeps working as before, just without resumption
+    */
+   static boolean install(Object sipStack, SignalingCounters counters)
+   {
+      try {
+         Method getNetworkLayer = sipStack.getClass().getMethod("getNetworkLayer");
+         Object networkLayer = getNetworkLayer.invoke(sipStack);
+         for (Class<?> layerClass = networkLayer.getClass(); layerClass != null; layerClass = layerClass.getSuperclass()) {
+            for (Field field : layerClass.getDeclaredFields()) {
+               if (field.getType() == SSLSocketFactory.class) {
+                  field.setAccessible(true);
+                  SSLSocketFactory factory = (SSLSocketFactory) field.get(networkLayer);
+                  if (factory == null) {
+                     continue;
+                  }
+                  if (!(factory instanceof JainSipTlsSocketFactory)) {
+                     field.set(networkLayer, new JainSipTlsSocketFactory(factory, counters));
+                  }
+                  return true;
+               }
+            }
+         }
+         RCLogger.w(TAG, "install(): no TLS socket factory found in " + networkLayer.getClass().getName() + ", TLS sessions won't be resumed");
+      }
+      catch (Exception e) {
+         RCLogger.w(TAG, "install(): failed to install TLS socket factory, TLS sessions won't be resumed: " + e.toString());
+      }
+      return false;
+   }
+
+   @Override
+   public String[] getDefaultCipherSuites()
+   {
+      return delegate.getDefaultCipherSuites();
+   }
+
+   @Override
+   public String[] getSupportedCipherSuites()
+   {
+      return delegate.getSupportedCipherSuites();
+   }
+
+   @Override
+   public Socket createSocket() throws IOException
+   {
+      return prepare(delegate.createSocket(), null, 0);
+   }
+
+   @Override
+   public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException
+   {
+      return prepare(delegate.createSocket(socket, host, port, autoClose), host, port);
+   }
+
+   @Override
+   public Socket createSocket(String host, int port) throws IOException
+   {
+      return prepare(delegate.createSocket(host, port), host, port);
+   }
+
+   @Override
+   public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException
+   {
+      return prepare(delegate.createSocket(host, port, localHost, localPort), host, port);
+   }
+
+   @Override
+   public Socket createSocket(InetAddress host, int port) throws IOException
+   {
+      // go through the host string variant, so that the session cache gets a key (IP literals don't need DNS)
+      return createSocket(host.getHostAddress(), port);
+   }
+
+   @Override
+   public Socket createSocket(InetAddress host, int port, InetAddress localHost, int localPort) throws IOException
+   {
+      return createSocket(host.getHostAddress(), port, localHost, localPort);
+   }
+
+   // ------ Helpers
+   private Socket prepare(Socket socket, final String host, final int port)
+   {
+      if (!(socket instanceof SSLSocket)) {
+         return socket;
+      }
+      SSLSocket sslSocket = (SSLSocket) socket;
+      enableSessionTickets(sslSocket);
+
+      // handshake starts as soon as JAIN SIP writes to the socket, which is right away
+      final long startTime = System.nanoTime();
+      sslSocket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+         @Override
+         public void handshakeCompleted(HandshakeCompletedEvent event)
+         {
+            onHandshakeCompleted(host + ":" + port, event.getSession().getId(), (System.nanoTime() - startTime) / 1000000);
+         }
+      });
+      return sslSocket;
+   }
+
+   private void onHandshakeCompleted(String peer, byte[] sessionId, long latency)
+   {
+      byte[] previousSessionId = (sessionId != null && sessionId.length > 0) ? sessionIds.put(peer, sessionId) : null;
+      boolean resumed = previousSessionId != null && Arrays.equals(previousSessionId, sessionId);
+      RCLogger.i(TAG, "onHandshakeCompleted(): " + (resumed ? "resumed" : "full") + " TLS handshake with " + peer + " in " + latency + " ms");
+      if (resumed) {
+         counters.increment(SignalingMetrics.Counter.TLS_HANDSHAKES_RESUMED);
+         counters.add(SignalingMetrics.Counter.TLS_HANDSHAKE_RESUMED_TOTAL_MS, latency);
+      }
+      else {
+         counters.increment(SignalingMetrics.Counter.TLS_HANDSHAKES_FULL);
+         counters.add(SignalingMetrics.Counter.TLS_HANDSHAKE_FULL_TOTAL_MS, latency);
+      }
+   }
+
+   // Conscrypt supports session tickets, but only through its own API
+   private static void enableSessionTickets(SSLSocket sslSocket)
+   {
+      try {
+         Method setUseSessionTickets = sslSocket.getClass().getMethod("setUseSessionTickets", boolean.class);
+         setUseSessionTickets.invoke(sslSocket, true);
+      }
+      catch (NoSuchMethodException e) {
+         // not Conscrypt; session ids still work
+      }
+      catch (Exception e) {
+         RCLogger.w(TAG, "enableSessionTickets(): failed to enable session tickets: " + e.toString());
+      }
+   }
+}
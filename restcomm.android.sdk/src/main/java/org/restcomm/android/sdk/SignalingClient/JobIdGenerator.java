@@ -0,0 +1,52 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique identifiers for signaling jobs. Previously jobIds where just the current Unix time in milis, which meant that two jobs created
+ * within the same milisecond (for example a burst of text messages) got the same id and overwrote each other in the job manager.
+ *
+ * Each id is made up of a per-process prefix (the Unix time in milis when the generator was loaded, followed by a random nonce, so that ids from
+ * different process runs don't collide either) and a monotonically increasing counter. Generation is lock-free and can be safely used from any thread.
+ * Ids look like: '1539789426155-3f9a1c2e-17'
+ */
+public final class JobIdGenerator {
+   private static final String PREFIX = Long.toString(System.currentTimeMillis()) + "-" + Integer.toHexString(new SecureRandom().nextInt()) + "-";
+   private static final AtomicLong counter = new AtomicLong();
+
+   private JobIdGenerator()
+   {
+   }
+
+   /**
+    * Generate a new unique job id
+    * @return The job id
+    */
+   public static String generate()
+   {
+      return PREFIX.concat(Long.toString(counter.incrementAndGet()));
+   }
+}
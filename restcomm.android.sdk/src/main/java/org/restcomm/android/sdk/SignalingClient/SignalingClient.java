@@ -121,6 +121,9 @@ public class SignalingClient extends Handler {
       void onCallIncomingCanceledEvent(String jobId);
 
       void onCallSentDigitsEvent(String jobId, RCClient.ErrorCodes statusCode, String statusText);
+
+      // trickle ICE candidates arrived from peer, as an SDP fragment
+      void onCallRemoteCandidatesEvent(String jobId, String sdpFragment);
    }
 
    // ------ Not used yet, we 'll use it when we introduce the new messaging API
@@ -135,6 +138,8 @@ public class SignalingClient extends Handler {
 
    // handler at signaling thread to send messages to
    private SignalingHandlerThread signalingHandlerThread;
+   // counters for SignalingMetrics, kept by the signaling facilities of this SignalingClient
+   private final SignalingCounters counters = new SignalingCounters();
    private Handler signalingHandler;
    //UIHandler uiHandler;
    private Context context;
@@ -154,7 +159,7 @@ public class SignalingClient extends Handler {
       }
 
       // create signaling handler thread and handler/signal
-      signalingHandlerThread = new SignalingHandlerThread(this);
+      signalingHandlerThread = new SignalingHandlerThread(this, counters);
       signalingHandler = signalingHandlerThread.getHandler();
 
       initialized = true;
@@ -181,7 +186,7 @@ public class SignalingClient extends Handler {
       this.listener = listener;
 
       String jobId = generateId();
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.OPEN_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.OPEN_REQUEST);
       signalingMessage.setParameters(parameters);
       signalingMessage.setAndroidContext(context);
 
@@ -198,7 +203,7 @@ public class SignalingClient extends Handler {
    public String reconfigure(HashMap<String, Object> parameters)
    {
       String jobId = generateId();
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.RECONFIGURE_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.RECONFIGURE_REQUEST);
       signalingMessage.setParameters(parameters);
 
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
@@ -216,7 +221,7 @@ public class SignalingClient extends Handler {
     */
    public void call(String jobId, HashMap<String, Object> parameters)
    {
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_REQUEST);
       signalingMessage.setParameters(parameters);
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
@@ -229,7 +234,7 @@ public class SignalingClient extends Handler {
     */
    public void accept(String jobId, HashMap<String, Object> parameters)
    {
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_ACCEPT_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_ACCEPT_REQUEST);
       signalingMessage.setParameters(parameters);
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
@@ -243,7 +248,7 @@ public class SignalingClient extends Handler {
     */
    public void disconnect(String jobId, String reason)
    {
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_DISCONNECT_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_DISCONNECT_REQUEST);
       signalingMessage.reason = reason;
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
@@ -256,12 +261,25 @@ public class SignalingClient extends Handler {
     */
    public void sendDigits(String jobId, String digits)
    {
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_SEND_DIGITS_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_SEND_DIGITS_REQUEST);
       signalingMessage.dtmfDigits = digits;
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
 
+   /**
+    * Send trickle ICE candidates to peer over existing call
+    * @param jobId Unique identifier to identify future replies & events
+    * @param sdpFragment SDP fragment carrying the candidates (see SignalingParameters.generateTrickleSdpFrag())
+    */
+   public void sendCandidates(String jobId, String sdpFragment)
+   {
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_SEND_CANDIDATES_REQUEST);
+      signalingMessage.sdp = sdpFragment;
+      Message message = signalingHandler.obtainMessage(1, signalingMessage);
+      message.sendToTarget();
+   }
+
    /**
     * Send text message to peer
     * @param parameters
@@ -271,7 +289,7 @@ public class SignalingClient extends Handler {
    {
       String jobId = generateId();
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.MESSAGE_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.MESSAGE_REQUEST);
       signalingMessage.parameters = parameters;
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
@@ -281,6 +299,15 @@ public class SignalingClient extends Handler {
       return jobId;
    }
 
+   /**
+    * Counters kept by the signaling facilities, for SignalingMetrics snapshots
+    * @return Counters of this SignalingClient
+    */
+   public SignalingCounters getCounters()
+   {
+      return counters;
+   }
+
    /**
     * Release the signaling facilities
     * @return
@@ -288,7 +315,7 @@ public class SignalingClient extends Handler {
    public String close()
    {
       String jobId = generateId();
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CLOSE_REQUEST);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CLOSE_REQUEST);
       //signalingMessage.setParameters(parameters);
 
       Message message = signalingHandler.obtainMessage(1, signalingMessage);
@@ -323,7 +350,17 @@ public class SignalingClient extends Handler {
    {
       // Gets the image task from the incoming Message object.
       SignalingMessage message = (SignalingMessage) inputMessage.obj;
+      try {
+         handleSignalingMessage(message);
+      }
+      finally {
+         // listeners only get the fields, never the message itself, so it can be reused right away
+         message.recycle();
+      }
+   }
 
+   private void handleSignalingMessage(SignalingMessage message)
+   {
       RCLogger.i(TAG, "handleMessage: type: " + message.type + ", jobId: " + message.jobId);
 
       if (message.type == SignalingMessage.MessageType.OPEN_REPLY && listener != null) {
@@ -364,6 +401,11 @@ public class SignalingClient extends Handler {
          */
          listener.onMessageReply(message.jobId, message.status, message.text);
       }
+      else if (message.type == SignalingMessage.MessageType.MESSAGE_REPLY_BATCH  && listener != null) {
+         for (SignalingMessage reply : message.messageReplies) {
+            listener.onMessageReply(reply.jobId, reply.status, reply.text);
+         }
+      }
       else if (message.type == SignalingMessage.MessageType.REGISTERING_EVENT  && listener != null) {
          listener.onRegisteringEvent(message.jobId);
       }
@@ -405,6 +447,10 @@ public class SignalingClient extends Handler {
          SignalingClientCallListener callListener = listener.getConnectionByJobId(message.jobId);
          callListener.onCallSentDigitsEvent(message.jobId, message.status, message.text);
       }
+      else if (message.type == SignalingMessage.MessageType.CALL_REMOTE_CANDIDATES_EVENT) {
+         SignalingClientCallListener callListener = listener.getConnectionByJobId(message.jobId);
+         callListener.onCallRemoteCandidatesEvent(message.jobId, message.sdp);
+      }
       else {
          RCLogger.e(TAG, "handleSignalingMessage(): no handler for signaling message");
       }
@@ -413,9 +459,9 @@ public class SignalingClient extends Handler {
 
    // ------ Helpers
 
-   // Generate unique identifier for 'transactions' created by SignalingClient, this can then be used as call-id when it enters JAIN SIP
+   // Generate unique identifier for 'transactions' created by SignalingClient (see JobIdGenerator)
    private String generateId()
    {
-      return Long.toString(System.currentTimeMillis());
+      return JobIdGenerator.generate();
    }
 }
@@ -0,0 +1,67 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+
+package org.restcomm.android.sdk.SignalingClient;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SignalingCounters holds the live counters behind SignalingMetrics for one owner: JainSipClient keeps one for the signaling facilities
+ * (created anew each time RCDevice opens them) and RCDevice keeps one for call setup. Components update them from their own thread while
+ * RCDevice.getSignalingMetrics() may read them from any thread, hence they are atomic.
+ *
+ * This is internal to the SDK; Apps should use RCDevice.getSignalingMetrics() instead
+ */
+public class SignalingCounters {
+   private final AtomicLongArray values = new AtomicLongArray(SignalingMetrics.Counter.values().length);
+
+   public void increment(SignalingMetrics.Counter counter)
+   {
+      values.incrementAndGet(counter.ordinal());
+   }
+
+   public void add(SignalingMetrics.Counter counter, long delta)
+   {
+      values.addAndGet(counter.ordinal(), delta);
+   }
+
+   public void set(SignalingMetrics.Counter counter, long value)
+   {
+      values.set(counter.ordinal(), value);
+   }
+
+   // Raise the counter to value, if value is bigger; used for high-water marks like max latency
+   public void max(SignalingMetrics.Counter counter, long value)
+   {
+      int index = counter.ordinal();
+      long current = values.get(index);
+      while (value > current && !values.compareAndSet(index, current, value)) {
+         current = values.get(index);
+      }
+   }
+
+   public long get(SignalingMetrics.Counter counter)
+   {
+      return values.get(counter.ordinal());
+   }
+}
@@ -32,6 +32,7 @@ import org.restcomm.android.sdk.SignalingClient.JainSipClient.JainSipCall;
 import org.restcomm.android.sdk.SignalingClient.JainSipClient.JainSipClient;
 import org.restcomm.android.sdk.util.RCLogger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -40,14 +41,27 @@ import java.util.HashMap;
 class SignalingHandler extends Handler implements JainSipClient.JainSipClientListener, JainSipCall.JainSipCallListener {
    JainSipClient jainSipClient;
    Handler uiHandler;
+   private SignalingCounters counters;
+   // message delivery status replies waiting to be conveyed to the UI thread in a single batch
+   private ArrayList<SignalingMessage> pendingMessageReplies;
+   private Runnable flushMessageRepliesRunnable;
    private static final String TAG = "SignalingHandler";
 
-   public SignalingHandler(Looper looper, Handler uiHandler)
+   public SignalingHandler(Looper looper, Handler uiHandler, SignalingCounters counters)
    {
       // instantiate parent Handler, and pass non UI looper remember by default associates this handler with the Looper for the current thread, hence signaling thread
       super(looper);
       this.uiHandler = uiHandler;
+      this.counters = counters;
       jainSipClient = null;
+      pendingMessageReplies = new ArrayList<>();
+      flushMessageRepliesRunnable = new Runnable() {
+         @Override
+         public void run()
+         {
+            flushMessageReplies();
+         }
+      };
    }
 
    @Override
@@ -55,7 +69,17 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       // Gets the image task from the incoming Message object.
       SignalingMessage message = (SignalingMessage) inputMessage.obj;
+      try {
+         handleSignalingMessage(message);
+      }
+      finally {
+         // all we need has been handed over to JainSipClient by now
+         message.recycle();
+      }
+   }
 
+   private void handleSignalingMessage(SignalingMessage message)
+   {
       RCLogger.i(TAG, "handleMessage: type: " + message.type + ", jobId: " + message.jobId);
 
       // all requests apart from OPEN_REQUEST require an initialized jainSipClient
@@ -71,7 +95,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
                   RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_ALREADY_OPEN));
             return;
          }
-         jainSipClient = new JainSipClient(this);
+         jainSipClient = new JainSipClient(this, counters);
          jainSipClient.open(message.jobId, message.androidContext, message.parameters, this);
       }
       else if (message.type == SignalingMessage.MessageType.CLOSE_REQUEST) {
@@ -95,6 +119,9 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
       else if (message.type == SignalingMessage.MessageType.CALL_SEND_DIGITS_REQUEST) {
          jainSipClient.sendDigits(message.jobId, message.dtmfDigits);
       }
+      else if (message.type == SignalingMessage.MessageType.CALL_SEND_CANDIDATES_REQUEST) {
+         jainSipClient.sendCandidates(message.jobId, message.sdp);
+      }
    }
 
    // -- JainSipClientListener events
@@ -102,7 +129,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       RCLogger.v(TAG, "onClientOpenedReply: jobId: " + jobId + ", connectivityStatus: " + connectivityStatus + ", status: " + status + ", text: " + text);
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.OPEN_REPLY);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.OPEN_REPLY);
       signalingMessage.status = status;  //RCClient.ErrorCodes.SUCCESS;
       signalingMessage.text = text;  //"Success";
       signalingMessage.connectivityStatus = connectivityStatus;
@@ -114,7 +141,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       RCLogger.v(TAG, "onClientErrorReply: jobId: " + jobId + ", connectivityStatus: " + connectivityStatus + ", status: " + status + ", text: " + text);
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.ERROR_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.ERROR_EVENT);
       signalingMessage.status = status;
       signalingMessage.text = text;
       signalingMessage.connectivityStatus = connectivityStatus;
@@ -126,7 +153,9 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       RCLogger.v(TAG, "onClientClosedEvent: jobId: " + jobId + ", status: " + status + ", text: " + text);
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CLOSE_REPLY);
+      // make sure any pending message replies reach the UI thread before the close reply
+      flushMessageReplies();
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CLOSE_REPLY);
       signalingMessage.status = status;  //RCClient.ErrorCodes.SUCCESS;
       signalingMessage.text = text;  //"Success";
       Message message = uiHandler.obtainMessage(1, signalingMessage);
@@ -140,7 +169,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       RCLogger.v(TAG, "onClientReconfigureReply: jobId: " + jobId + ", connectivityStatus: " + connectivityStatus + ", status: " + status + ", text: " + text);
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.RECONFIGURE_REPLY);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.RECONFIGURE_REPLY);
       signalingMessage.status = status;  //RCClient.ErrorCodes.SUCCESS;
       signalingMessage.text = text;  //"Success";
       signalingMessage.connectivityStatus = connectivityStatus;
@@ -152,7 +181,8 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       RCLogger.v(TAG, "onClientConnectivityEvent: jobId: " + jobId + ", connectivityStatus: " + connectivityStatus);
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CONNECTIVITY_EVENT);
+      flushMessageReplies();
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CONNECTIVITY_EVENT);
       signalingMessage.connectivityStatus = connectivityStatus;
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
@@ -162,7 +192,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    {
       RCLogger.v(TAG, "onClientMessageArrivedEvent: jobId: " + jobId + ", peer: " + peer + ", messageText: " + messageText);
 
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.MESSAGE_INCOMING_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.MESSAGE_INCOMING_EVENT);
       signalingMessage.messageText = messageText;
       signalingMessage.peer = peer;
       Message message = uiHandler.obtainMessage(1, signalingMessage);
@@ -172,9 +202,36 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onClientMessageReply(String jobId, RCClient.ErrorCodes status, String text)
    {
       RCLogger.v(TAG, "onClientMessageReply: jobId: " + jobId + ", status: " + status + ", text: " + text);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.MESSAGE_REPLY);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.MESSAGE_REPLY);
       signalingMessage.status = status;
       signalingMessage.text = text;
+
+      // Instead of waking up the UI thread once per reply, coalesce replies that arrive back to back (typical when sending a burst of messages)
+      // and convey them in a single batch once the signaling thread is done with what it is currently processing
+      if (pendingMessageReplies.isEmpty()) {
+         post(flushMessageRepliesRunnable);
+      }
+      pendingMessageReplies.add(signalingMessage);
+   }
+
+   // Convey any pending message replies to the UI thread
+   private void flushMessageReplies()
+   {
+      removeCallbacks(flushMessageRepliesRunnable);
+      if (pendingMessageReplies.isEmpty()) {
+         return;
+      }
+
+      SignalingMessage signalingMessage;
+      if (pendingMessageReplies.size() == 1) {
+         signalingMessage = pendingMessageReplies.get(0);
+      }
+      else {
+         signalingMessage = SignalingMessage.obtain(pendingMessageReplies.get(0).jobId, SignalingMessage.MessageType.MESSAGE_REPLY_BATCH);
+         signalingMessage.messageReplies = new ArrayList<>(pendingMessageReplies);
+      }
+      pendingMessageReplies.clear();
+
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -182,7 +239,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onClientRegisteringEvent(String jobId)
    {
       RCLogger.v(TAG, "onClientRegisteringEvent: jobId: " + jobId);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.REGISTERING_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.REGISTERING_EVENT);
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -191,7 +248,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallArrivedEvent(String jobId, String peer, String sdpOffer, HashMap<String, String> customHeaders)
    {
       RCLogger.v(TAG, "onCallArrivedEvent: jobId: " + jobId + ", peer: " + peer + ", sdpOffer: " + sdpOffer);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_INCOMING_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_INCOMING_EVENT);
       signalingMessage.sdp = sdpOffer;
       signalingMessage.customHeaders = customHeaders;
       signalingMessage.peer = peer;
@@ -202,7 +259,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallOutgoingConnectedEvent(String jobId, String sdpAnswer, HashMap<String, String> customHeaders)
    {
       RCLogger.v(TAG, "onCallOutgoingConnectedEvent: jobId: " + jobId + ", sdpAnswer: " + sdpAnswer);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_OUTGOING_CONNECTED_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_OUTGOING_CONNECTED_EVENT);
       signalingMessage.sdp = sdpAnswer;
       signalingMessage.customHeaders = customHeaders;
       Message message = uiHandler.obtainMessage(1, signalingMessage);
@@ -212,7 +269,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallIncomingConnectedEvent(String jobId)
    {
       RCLogger.v(TAG, "onCallIncomingConnectedEvent: jobId: " + jobId);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_INCOMING_CONNECTED_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_INCOMING_CONNECTED_EVENT);
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -220,7 +277,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallPeerDisconnectedEvent(String jobId)
    {
       RCLogger.v(TAG, "onCallPeerDisconnectedEvent: jobId: " + jobId);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_PEER_DISCONNECT_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_PEER_DISCONNECT_EVENT);
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -228,7 +285,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallLocalDisconnectedEvent(String jobId)
    {
       RCLogger.v(TAG, "onCallLocalDisconnectedEvent: jobId: " + jobId);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_LOCAL_DISCONNECT_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_LOCAL_DISCONNECT_EVENT);
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -236,7 +293,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallOutgoingPeerRingingEvent(String jobId)
    {
       RCLogger.v(TAG, "onCallOutgoingPeerRingingEvent: jobId: " + jobId);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_OUTGOING_PEER_RINGING_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_OUTGOING_PEER_RINGING_EVENT);
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -244,7 +301,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallIncomingCanceledEvent(String jobId)
    {
       RCLogger.v(TAG, "onCallIncomingCanceledEvent: jobId: " + jobId);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_INCOMING_CANCELED_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_INCOMING_CANCELED_EVENT);
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
@@ -258,7 +315,7 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallErrorEvent(String jobId, RCClient.ErrorCodes status, String text)
    {
       RCLogger.v(TAG, "onCallErrorEvent: jobId: " + jobId + ", status: " + status + ", text: " + text);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_ERROR_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_ERROR_EVENT);
       signalingMessage.status = status;
       signalingMessage.text = text;
       Message message = uiHandler.obtainMessage(1, signalingMessage);
@@ -268,10 +325,19 @@ class SignalingHandler extends Handler implements JainSipClient.JainSipClientLis
    public void onCallDigitsEvent(String jobId, RCClient.ErrorCodes status, String text)
    {
       RCLogger.v(TAG, "onCallDigitsEvent: jobId: " + jobId + ", status: " + status + ", text: " + text);
-      SignalingMessage signalingMessage = new SignalingMessage(jobId, SignalingMessage.MessageType.CALL_SEND_DIGITS_EVENT);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_SEND_DIGITS_EVENT);
       signalingMessage.status = status;
       signalingMessage.text = text;
       Message message = uiHandler.obtainMessage(1, signalingMessage);
       message.sendToTarget();
    }
+
+   public void onCallRemoteCandidatesEvent(String jobId, String sdpFragment)
+   {
+      RCLogger.v(TAG, "onCallRemoteCandidatesEvent: jobId: " + jobId + ", sdpFragment: " + sdpFragment);
+      SignalingMessage signalingMessage = SignalingMessage.obtain(jobId, SignalingMessage.MessageType.CALL_REMOTE_CANDIDATES_EVENT);
+      signalingMessage.sdp = sdpFragment;
+      Message message = uiHandler.obtainMessage(1, signalingMessage);
+      message.sendToTarget();
+   }
 }
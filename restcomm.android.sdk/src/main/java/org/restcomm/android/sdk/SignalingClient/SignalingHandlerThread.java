@@ -32,14 +32,14 @@ class SignalingHandlerThread extends HandlerThread {
    private static final String TAG = "SignalingHandlerThread";
    //Handler uiHandler;
 
-   SignalingHandlerThread(SignalingClient uiHandler)
+   SignalingHandlerThread(SignalingClient uiHandler, SignalingCounters counters)
    {
       super("signaling-handler-thread");
       //this.uiHandler = uiHandler;
 
       start();
 
-      signalingHandler = new SignalingHandler(this.getLooper(), uiHandler);
+      signalingHandler = new SignalingHandler(this.getLooper(), uiHandler, counters);
    }
 
    Handler getHandler()
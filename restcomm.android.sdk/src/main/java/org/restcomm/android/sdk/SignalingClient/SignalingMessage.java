@@ -27,9 +27,11 @@ import android.content.Context;
 import org.restcomm.android.sdk.RCClient;
 import org.restcomm.android.sdk.RCDeviceListener;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
-// Structure signaling messages exchanged between UI and signaling thread
+// Structure signaling messages exchanged between UI and signaling thread. Messages are recycled through a small pool, the same way android.os.Message
+// is, so prefer obtain() over the constructor and recycle() a message once it has been handled
 public class SignalingMessage {
    public enum MessageType {
       OPEN_REQUEST,
@@ -55,9 +57,14 @@ public class SignalingMessage {
       CALL_INCOMING_CANCELED_EVENT,
       CALL_SEND_DIGITS_REQUEST,
       CALL_SEND_DIGITS_EVENT,
+      // trickle ICE candidates, carried as SDP fragment in .sdp
+      CALL_SEND_CANDIDATES_REQUEST,
+      CALL_REMOTE_CANDIDATES_EVENT,
 
       MESSAGE_REQUEST,
       MESSAGE_REPLY,
+      // multiple MESSAGE_REPLYs coalesced together
+      MESSAGE_REPLY_BATCH,
       MESSAGE_INCOMING_EVENT,
 
    }
@@ -84,6 +91,17 @@ public class SignalingMessage {
    public String reason;
    // custom SIP headers
    public HashMap<String, String> customHeaders;
+   // coalesced message replies (for MESSAGE_REPLY_BATCH)
+   public ArrayList<SignalingMessage> messageReplies;
+
+   // Messages travel in both directions between UI and signaling thread, so the pool is shared between them and access needs to be synchronized
+   private static final Object poolSync = new Object();
+   private static SignalingMessage pool;
+   private static int poolSize = 0;
+   // enough to cover a burst of messages in flight (like a batch of message replies) without holding on to much memory
+   private static final int MAX_POOL_SIZE = 50;
+   // next free message when this one sits in the pool
+   private SignalingMessage next;
 
    // let's enforce id and type, to make sure we always get them
    public SignalingMessage(String jobId, MessageType type)
@@ -92,6 +110,65 @@ public class SignalingMessage {
       this.type = type;
    }
 
+   /**
+    * Return a message from the pool, or a new one if the pool is empty
+    * @param jobId Job identifier of the message
+    * @param type Type of the message
+    * @return A message with jobId and type set and every other field cleared
+    */
+   public static SignalingMessage obtain(String jobId, MessageType type)
+   {
+      synchronized (poolSync) {
+         if (pool != null) {
+            SignalingMessage message = pool;
+            pool = message.next;
+            message.next = null;
+            poolSize--;
+
+            message.jobId = jobId;
+            message.type = type;
+            return message;
+         }
+      }
+      return new SignalingMessage(jobId, type);
+   }
+
+   /**
+    * Return the message to the pool, together with any coalesced message replies it carries. The message must not be used after this call
+    */
+   public void recycle()
+   {
+      if (messageReplies != null) {
+         for (SignalingMessage reply : messageReplies) {
+            reply.recycle();
+         }
+      }
+
+      // drop all references, so that we don't keep parameters, SDP, etc alive while in the pool
+      jobId = null;
+      type = null;
+      parameters = null;
+      androidContext = null;
+      status = null;
+      text = null;
+      connectivityStatus = null;
+      sdp = null;
+      messageText = null;
+      peer = null;
+      dtmfDigits = null;
+      reason = null;
+      customHeaders = null;
+      messageReplies = null;
+
+      synchronized (poolSync) {
+         if (poolSize < MAX_POOL_SIZE) {
+            next = pool;
+            pool = this;
+            poolSize++;
+         }
+      }
+   }
+
    public void setParameters(HashMap<String, Object> parameters)
    {
       this.parameters = parameters;
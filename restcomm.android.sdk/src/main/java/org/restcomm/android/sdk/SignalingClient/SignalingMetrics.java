@@ -0,0 +1,275 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+package org.restcomm.android.sdk.SignalingClient;
+
+/**
+ * SignalingMetrics is a snapshot of the counters kept by the signaling (and call setup) facilities, so that the App (or us while troubleshooting)
+ * can get a picture of how signaling behaves in the field. Use RCDevice.getSignalingMetrics() to take one and get() to read individual counters.
+ *
+ * Counters are kept per instance, by whoever owns the components updating them (see SignalingCounters): the signaling counters start over each time
+ * RCDevice opens the signaling facilities, while call setup and ICE servers counters last as long as the RCDevice. A snapshot doesn't change once taken; take a new
+ * one to see newer values
+ */
+public final class SignalingMetrics {
+   // Rough time the cellular radio stays in high power state after some traffic (i.e. the 'tail'), used to estimate radio-active time saved by batching
+   public static final long RADIO_TAIL_MS = 10 * 1000;
+
+   /**
+    * Counters available in a snapshot
+    */
+   public enum Counter {
+      // ------ Instant messaging (see JainSipMessagePipeline)
+      // messages waiting in the outbound queue (i.e. not yet sent out)
+      MESSAGE_QUEUE_DEPTH,
+      MESSAGE_QUEUE_DEPTH_MAX,
+      // messages kept in the durable offline queue, waiting for networking facilities
+      MESSAGE_OFFLINE_QUEUE_DEPTH,
+      // messages sent out that haven't received a final response yet
+      MESSAGES_IN_FLIGHT,
+      MESSAGES_SENT,
+      MESSAGES_SUCCEEDED,
+      MESSAGES_FAILED,
+      // messages rejected because the outbound queue was full
+      MESSAGES_REJECTED,
+      // latency from the time a message is queued until its final response arrives
+      MESSAGE_LATENCY_TOTAL_MS,
+      MESSAGE_LATENCY_MAX_MS,
+
+      // ------ Authentication (see JainSipDigestCache)
+      // 401/407 challenges received
+      AUTH_CHALLENGES,
+      // requests sent with pre-emptive credentials, based on a cached challenge
+      AUTH_PREEMPTIVE,
+      // requests sent with pre-emptive credentials that weren't challenged, i.e. 401/407 round trips saved
+      AUTH_CHALLENGES_AVOIDED,
+
+      // ------ DNS (see JainSipDnsResolver)
+      // signaling domain resolutions served from the DNS cache vs. the ones that had to wait for DNS
+      DNS_CACHE_HITS,
+      DNS_CACHE_MISSES,
+
+      // ------ Connectivity (see JainSipJob)
+      // connectivity changes (handovers, or coming back online) after which networking facilities were successfully restored
+      HANDOVERS,
+      // latency from the time Android reports a connectivity change until we are bound (and registered, if applicable) on the new network
+      HANDOVER_LATENCY_LAST_MS,
+      HANDOVER_LATENCY_MAX_MS,
+
+      // ------ Reconfiguration (see JainSipJob)
+      // RCDevice reconfigurations notified to the App, and their latency from the time the App asked until it was notified. With
+      // SIGNALING_CONCURRENT_RECONFIGURE_ENABLED this shouldn't take longer than registering with the new settings
+      RECONFIGURES,
+      RECONFIGURE_LATENCY_LAST_MS,
+      RECONFIGURE_LATENCY_MAX_MS,
+
+      // ------ Registration upkeep (see JainSipOutbound)
+      // REGISTER requests sent (including refreshes) and their size, versus keep-alives sent and their size, to figure out bytes/hour spent on staying reachable
+      REGISTERS_SENT,
+      REGISTER_BYTES_SENT,
+      KEEP_ALIVES_SENT,
+      KEEP_ALIVE_BYTES_SENT,
+      // current keep-alive interval in seconds, as adapted to the network; 0 when not using keep-alives
+      KEEP_ALIVE_INTERVAL,
+
+      // ------ Transaction timers (see JainSipRttEstimator)
+      // round trip time of REGISTER transactions (time to first response), smoothed as in RFC 6298, and the SIP T1 timer used for the latest transaction
+      RTT_SAMPLES,
+      // REGISTER responses not used as samples because the request had already been retransmitted (Karn's rule)
+      RTT_SAMPLES_DISCARDED,
+      RTT_LAST_MS,
+      RTT_SMOOTHED_MS,
+      RTT_VARIANCE_MS,
+      SIP_TIMER_T1_MS,
+      // transactions that got no response in time (i.e. Timer F fired)
+      TRANSACTION_TIMEOUTS,
+
+      // ------ TLS (see JainSipTlsSocketFactory)
+      // full vs resumed TLS handshakes towards the signaling server, and the time they took (including TCP connect)
+      TLS_HANDSHAKES_FULL,
+      TLS_HANDSHAKES_RESUMED,
+      TLS_HANDSHAKE_FULL_TOTAL_MS,
+      TLS_HANDSHAKE_RESUMED_TOTAL_MS,
+
+      // ------ Dual-stack (see JainSipHappyEyeballs)
+      // IPv6 vs IPv4 races when binding (see RCDevice.ParameterKeys.SIGNALING_DUAL_STACK_ENABLED), who won, and the connect latency of each family
+      // in the latest race (-1 if it failed or was cut short)
+      DUAL_STACK_RACES,
+      DUAL_STACK_IPV6_WINS,
+      DUAL_STACK_IPV4_WINS,
+      DUAL_STACK_IPV6_CONNECT_LAST_MS,
+      DUAL_STACK_IPV4_CONNECT_LAST_MS,
+
+      // ------ Message processing (see JainSipMessageProcessorFactory)
+      // JAIN SIP message processors (one per listening point) created with NIO, and with blocking I/O (either by configuration or as a fallback)
+      MESSAGE_PROCESSORS_NIO,
+      MESSAGE_PROCESSORS_BLOCKING,
+
+      // ------ Background scheduling (see JainSipScheduler)
+      // device wake-ups for background work (registration refreshes, keep-alives), and the tasks run in them; more tasks than wake-ups means batching paid off
+      SCHEDULER_WAKEUPS,
+      SCHEDULER_TASKS_RUN,
+
+      // ------ ICE servers (see IceServerCache)
+      // calls served ICE servers from the cache vs calls that had to wait for them to be fetched, and HTTP fetches made
+      // (including background refreshes) with their latency
+      ICE_SERVERS_CACHE_HITS,
+      ICE_SERVERS_CACHE_MISSES,
+      ICE_SERVERS_FETCHES,
+      ICE_SERVERS_FETCH_FAILURES,
+      ICE_SERVERS_FETCH_LATENCY_TOTAL_MS,
+      ICE_SERVERS_FETCH_LATENCY_MAX_MS,
+
+      // ------ Call setup (see RCConnection)
+      // time from placing/accepting a call until the offer/answer is created, for calls that got their peer connection factory from the pool
+      // (see RCDevice.ParameterKeys.MEDIA_PREWARM_ENABLED) vs calls that had to create one
+      CALLS_WARM,
+      CALLS_COLD,
+      TIME_TO_OFFER_WARM_TOTAL_MS,
+      TIME_TO_OFFER_COLD_TOTAL_MS,
+      TIME_TO_OFFER_LAST_MS,
+      // pooled peer connection factories released under memory pressure
+      MEDIA_FACTORY_POOL_TRIMS
+   }
+
+   private final long[] values;
+
+   private SignalingMetrics(Builder builder)
+   {
+      values = builder.values.clone();
+   }
+
+   public long get(Counter counter)
+   {
+      return values[counter.ordinal()];
+   }
+
+   // Average latency in miliseconds from queuing a message until its final response, over all completed messages
+   public long getMessageLatencyAverageMs()
+   {
+      return average(get(Counter.MESSAGE_LATENCY_TOTAL_MS), get(Counter.MESSAGES_SUCCEEDED) + get(Counter.MESSAGES_FAILED));
+   }
+
+   public long getTlsHandshakeFullAverageMs()
+   {
+      return average(get(Counter.TLS_HANDSHAKE_FULL_TOTAL_MS), get(Counter.TLS_HANDSHAKES_FULL));
+   }
+
+   public long getTlsHandshakeResumedAverageMs()
+   {
+      return average(get(Counter.TLS_HANDSHAKE_RESUMED_TOTAL_MS), get(Counter.TLS_HANDSHAKES_RESUMED));
+   }
+
+   // Estimate of the handshake time saved thanks to TLS session resumption, compared to doing full handshakes instead
+   public long getTlsHandshakeSavedMs()
+   {
+      if (get(Counter.TLS_HANDSHAKES_FULL) == 0) {
+         return 0;
+      }
+      return Math.max(0, get(Counter.TLS_HANDSHAKES_RESUMED) * (getTlsHandshakeFullAverageMs() - getTlsHandshakeResumedAverageMs()));
+   }
+
+   // Wake-ups avoided by batching background tasks together, compared to waking up separately for each of them
+   public long getSchedulerWakeupsSaved()
+   {
+      return get(Counter.SCHEDULER_TASKS_RUN) - get(Counter.SCHEDULER_WAKEUPS);
+   }
+
+   // Estimate of the radio-active time saved by batching, assuming each avoided wake-up would have kept the radio up for RADIO_TAIL_MS
+   public long getSchedulerRadioActiveSavedMs()
+   {
+      return getSchedulerWakeupsSaved() * RADIO_TAIL_MS;
+   }
+
+   // Percentage of calls served ICE servers from the cache
+   public long getIceServersCacheHitRate()
+   {
+      return average(get(Counter.ICE_SERVERS_CACHE_HITS) * 100, get(Counter.ICE_SERVERS_CACHE_HITS) + get(Counter.ICE_SERVERS_CACHE_MISSES));
+   }
+
+   // Average latency in miliseconds of ICE server fetches, over all fetches
+   public long getIceServersFetchLatencyAverageMs()
+   {
+      return average(get(Counter.ICE_SERVERS_FETCH_LATENCY_TOTAL_MS), get(Counter.ICE_SERVERS_FETCHES));
+   }
+
+   // Average time to offer/answer in miliseconds for calls with a pooled peer connection factory
+   public long getTimeToOfferWarmAverageMs()
+   {
+      return average(get(Counter.TIME_TO_OFFER_WARM_TOTAL_MS), get(Counter.CALLS_WARM));
+   }
+
+   // Average time to offer/answer in miliseconds for calls that created their own peer connection factory
+   public long getTimeToOfferColdAverageMs()
+   {
+      return average(get(Counter.TIME_TO_OFFER_COLD_TOTAL_MS), get(Counter.CALLS_COLD));
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder result = new StringBuilder();
+
+      result.append(this.getClass().getName() + " Object { ");
+      for (Counter counter : Counter.values()) {
+         result.append(counter.name().toLowerCase() + ": " + get(counter) + ", ");
+      }
+      result.append("message latency avg: " + getMessageLatencyAverageMs() + " ms, ");
+      result.append("TLS handshake avg full/resumed: " + getTlsHandshakeFullAverageMs() + "/" + getTlsHandshakeResumedAverageMs() + " ms (saved: " +
+            getTlsHandshakeSavedMs() + " ms), ");
+      result.append("radio-active time saved by batching: ~" + getSchedulerRadioActiveSavedMs() / 1000 + " s, ");
+      result.append("ICE servers cache hit rate: " + getIceServersCacheHitRate() + "%, fetch latency avg: " + getIceServersFetchLatencyAverageMs() + " ms, ");
+      result.append("time to offer avg warm/cold: " + getTimeToOfferWarmAverageMs() + "/" + getTimeToOfferColdAverageMs() + " ms, ");
+      // drop the trailing separator
+      result.setLength(result.length() - 2);
+      result.append(" }");
+
+      return result.toString();
+   }
+
+   // ------ Helpers
+   private static long average(long total, long count)
+   {
+      return (count > 0) ? total / count : 0;
+   }
+
+   /**
+    * Used to put together a snapshot from the counters of each owner; Apps should use RCDevice.getSignalingMetrics() instead
+    */
+   public static final class Builder {
+      private final long[] values = new long[Counter.values().length];
+
+      // Each counter is only updated by one owner and stays 0 for the others, so adding them up gives us the owner's value
+      public Builder add(SignalingCounters counters)
+      {
+         for (Counter counter : Counter.values()) {
+            values[counter.ordinal()] += counters.get(counter);
+         }
+         return this;
+      }
+
+      public SignalingMetrics build()
+      {
+         return new SignalingMetrics(this);
+      }
+   }
+}
@@ -172,6 +172,76 @@ public class SignalingParameters {
       return params;
    }
 
+   // Does the SDP advertise support for trickle ICE (i.e. 'a=ice-options:trickle')?
+   public static boolean supportsTrickleIce(String sdp)
+   {
+      return sdp != null && Pattern.compile("a=ice-options:[^\\r\\n]*\\btrickle\\b").matcher(sdp).find();
+   }
+
+   // Make sure the SDP advertises trickle ICE support. WebRTC already adds it to the media sections, but that's not a given, so if it's missing
+   // add it at session level, right after the 't=' line
+   public static String addTrickleIceOption(String sdp)
+   {
+      if (supportsTrickleIce(sdp)) {
+         return sdp;
+      }
+      return sdp.replaceFirst("(t=.*?\\r\\n)", "$1a=ice-options:trickle\r\n");
+   }
+
+   // Generate an SDP fragment (application/trickle-ice-sdpfrag, as in RFC 8840) carrying given candidates, to be sent over SIP INFO.
+   // Local SDP is needed to pick up the ICE credentials the candidates belong to. Candidates are placed under a pseudo m-line per media type
+   // which keeps the fragment parseable by extractCandidates() at the receiving side
+   public static String generateTrickleSdpFrag(SessionDescription localSdp, List<IceCandidate> iceCandidates, boolean endOfCandidates)
+   {
+      StringBuilder fragment = new StringBuilder();
+      if (localSdp != null) {
+         Matcher matcher = Pattern.compile("(a=ice-ufrag:.*?\\r\\n)|(a=ice-pwd:.*?\\r\\n)").matcher(localSdp.description);
+         boolean ufragFound = false, pwdFound = false;
+         while (matcher.find() && !(ufragFound && pwdFound)) {
+            if (matcher.group(1) != null && !ufragFound) {
+               fragment.append(matcher.group(1));
+               ufragFound = true;
+            }
+            if (matcher.group(2) != null && !pwdFound) {
+               fragment.append(matcher.group(2));
+               pwdFound = true;
+            }
+         }
+      }
+      if (endOfCandidates) {
+         // at session level it covers all media
+         fragment.append("a=end-of-candidates\r\n");
+      }
+
+      StringBuilder audioCandidates = new StringBuilder();
+      StringBuilder videoCandidates = new StringBuilder();
+      String audioMid = null, videoMid = null;
+      for (IceCandidate candidate : iceCandidates) {
+         // same audio/video naming as in generateSipSdp()
+         if (candidate.sdpMid.equals("audio") || candidate.sdpMid.equals("sdparta_0")) {
+            audioCandidates.append("a=").append(candidate.sdp).append("\r\n");
+            audioMid = candidate.sdpMid;
+         }
+         if (candidate.sdpMid.equals("video") || candidate.sdpMid.equals("sdparta_1")) {
+            videoCandidates.append("a=").append(candidate.sdp).append("\r\n");
+            videoMid = candidate.sdpMid;
+         }
+      }
+      if (audioMid != null) {
+         fragment.append("m=audio 9 UDP/TLS/RTP/SAVPF 0\r\na=mid:").append(audioMid).append("\r\n").append(audioCandidates);
+      }
+      if (videoMid != null) {
+         fragment.append("m=video 9 UDP/TLS/RTP/SAVPF 0\r\na=mid:").append(videoMid).append("\r\n").append(videoCandidates);
+      }
+
+      return fragment.toString();
+   }
+
+   // Is this a candidate we can reach without any help from STUN/TURN, i.e. one of the first ones to be gathered?
+   public static boolean isHostCandidate(IceCandidate iceCandidate)
+   {
+      return iceCandidate.sdp.contains(" typ host");
+   }
 
    public void addIceCandidate(IceCandidate iceCandidate)
    {
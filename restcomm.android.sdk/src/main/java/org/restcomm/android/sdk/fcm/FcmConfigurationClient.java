@@ -31,13 +31,13 @@ import org.restcomm.android.sdk.fcm.model.FcmApplication;
 import org.restcomm.android.sdk.fcm.model.FcmBinding;
 import org.restcomm.android.sdk.fcm.model.FcmCredentials;
 import org.restcomm.android.sdk.util.RCException;
+import org.restcomm.android.sdk.util.RCHttpClient;
 import org.restcomm.android.sdk.util.RCLogger;
 
 import android.util.Base64;
 
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
@@ -45,6 +45,9 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -72,6 +75,29 @@ public class FcmConfigurationClient {
     private String pushDomain;
     private String pushPath;
 
+    // Bodies and validators (i.e. ETag, Last-Modified) of earlier GET responses, keyed by account and URL. Registration data rarely change, so
+    // this way most lookups are answered with a bodyless 304 Not Modified. Static, as a new client is created for every registration
+    private static final int MAX_CACHED_RESPONSES = 32;
+    private static final Map<String, CachedResponse> responseCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                    return size() > MAX_CACHED_RESPONSES;
+                }
+            });
+
+    private static class CachedResponse {
+        final String eTag;
+        final String lastModified;
+        final String body;
+
+        CachedResponse(String eTag, String lastModified, String body) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+    }
+
     /**
      * Constructor
      * @param accountEmail - account's email
@@ -107,13 +133,12 @@ public class FcmConfigurationClient {
         }
     }
 
-    private HttpURLConnection createUrlRequestWithUrl(String urlString) throws Exception{
-        URL url = new URL(urlString);
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-        urlConnection.setRequestProperty("Content-Type", "application/json");
+    // Requests go through the SDK wide RCHttpClient, so that consecutive calls towards the same domain reuse the connection
+    private RCHttpClient.Request createRequest(String method, String url) {
         String authorisationString = Base64.encodeToString((accountEmail + ":" + password).getBytes(), Base64.DEFAULT);
-        urlConnection.setRequestProperty("Authorization", "Basic " + authorisationString);
-        return urlConnection;
+        return new RCHttpClient.Request(method, url)
+                .setHeader("Content-Type", "application/json")
+                .setHeader("Authorization", "Basic " + authorisationString);
     }
 
     /**
@@ -123,18 +148,12 @@ public class FcmConfigurationClient {
     public String getAccountSid() throws RCException{
         RCLogger.v(TAG, "getAccountSid method started");
         String accountSid = null;
-        HttpURLConnection connection = null;
         try {
             String encodedEmail = URLEncoder.encode(accountEmail, "UTF-8");
             String url = restcommDomain + ACCOUNT_SID_URL + "/" + encodedEmail;
 
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("GET");
-
-            checkStatusCode(connection);
-
-            String jsonString = getJsonFromStream(connection.getInputStream());
+            String jsonString = getWithValidation(url);
             if (jsonString.length() > 0) {
                 JSONObject inputJson = new JSONObject(jsonString);
                 accountSid = inputJson.getString("sid");
@@ -142,10 +161,6 @@ public class FcmConfigurationClient {
 
         } catch (Exception ex){
             handleException(ex, false);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "getAccountSid method ended; returning account sid: " + accountSid);
         return accountSid;
@@ -161,15 +176,9 @@ public class FcmConfigurationClient {
     public String getClientSid(String accountSid, String username) throws RCException{
         RCLogger.v(TAG, "getClientSid method started");
         String clientSid = null;
-        HttpURLConnection connection = null;
         try{
             String url = restcommDomain + CLIENT_SID_URL + "/" + accountSid + "/Clients.json";
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("GET");
-
-            checkStatusCode(connection);
-
-            String jsonString = getJsonFromStream(connection.getInputStream());
+            String jsonString = getWithValidation(url);
             if (jsonString.length() > 0) {
                 JSONArray inputJson = new JSONArray(jsonString);
                 for (int i = 0; i < inputJson.length(); i++){
@@ -184,10 +193,6 @@ public class FcmConfigurationClient {
 
         } catch (Exception ex){
             handleException(ex, false);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "getClientSid method ended; returning client sid: " + clientSid);
         return clientSid;
@@ -203,30 +208,17 @@ public class FcmConfigurationClient {
     public void enableClientPushSettings(boolean enable, String accountSid, String clientSid) throws RCException{
         boolean ok = false;
         RCLogger.v(TAG, "enableClientPushSettings method started");
-        HttpURLConnection connection = null;
         try{
             String url = restcommDomain + CLIENT_SID_URL + "/" + accountSid + "/Clients/" + clientSid;
             RCLogger.v(TAG, "calling url: " + url);
             String urlParameters  = "IsPushEnabled=" + enable;
             byte[] postData = urlParameters.getBytes( StandardCharsets.UTF_8 );
-            int postDataLength = postData.length;
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("PUT");
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            connection.setRequestProperty("Content-Length", Integer.toString(postDataLength));
-
-            OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream());
-            outputStream.write(postData);
-            outputStream.close();
-
-            checkStatusCode(connection);
+            RCHttpClient.Response response = RCHttpClient.getInstance().execute(createRequest("PUT", url)
+                    .setBody("application/x-www-form-urlencoded", postData));
+            checkStatusCode(response);
 
         } catch (Exception ex){
             handleException(ex, false);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "enableClientPushSettings method ended; returning ok:" + ok);
 
@@ -240,23 +232,15 @@ public class FcmConfigurationClient {
     public FcmApplication getApplication(String applicationName) throws RCException{
         RCLogger.v(TAG, "getApplication method started");
         FcmApplication fcmApplication = null;
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/applications";
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("GET");
-
-            checkStatusCode(connection);
+            String jsonString = getWithValidation(url);
 
-            fcmApplication = getApplicationFromConnection(connection, applicationName);
+            fcmApplication = getApplicationFromJson(jsonString, applicationName);
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "getApplication method ended; returning fcmApplication");
         return fcmApplication;
@@ -271,31 +255,20 @@ public class FcmConfigurationClient {
     public FcmApplication createApplication(FcmApplication application) throws RCException{
         RCLogger.v(TAG, "createApplication method started");
         FcmApplication fcmApplication = null;
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/applications";
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
             String outputString =
                     "{\n" +
                         "  \"FriendlyName\": \"" + application.getFriendlyName() + "\"\n" +
                     "}";
-            OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream());
-            outputStream.write(outputString.getBytes());
-            outputStream.close();
-
-            checkStatusCode(connection);
+            RCHttpClient.Response response = RCHttpClient.getInstance().execute(createRequest("POST", url).setBody("application/json", outputString));
+            checkStatusCode(response);
 
-            fcmApplication = getApplicationFromConnection(connection, application.getFriendlyName());
+            fcmApplication = getApplicationFromJson(response.getBody(), application.getFriendlyName());
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "createApplication method ended; returning fcmApplication");
         return fcmApplication;
@@ -309,23 +282,15 @@ public class FcmConfigurationClient {
     public FcmCredentials getCredentials(FcmApplication application) throws RCException{
         RCLogger.v(TAG, "getCredentials method started");
         FcmCredentials fcmCredentials = null;
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/credentials";
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("GET");
+            String jsonString = getWithValidation(url);
 
-            checkStatusCode(connection);
-
-            fcmCredentials = getCredentialsFromConnection(connection, application.getSid());
+            fcmCredentials = getCredentialsFromJson(jsonString, application.getSid());
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "getCredentials method ended; returning fcmCredentials");
         return fcmCredentials;
@@ -340,33 +305,22 @@ public class FcmConfigurationClient {
     public FcmCredentials createCredentials(FcmCredentials credentials, String fcmSecret) throws RCException{
         RCLogger.v(TAG, "createCredentials method started");
         FcmCredentials fcmCredentials = null;
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/credentials";
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
             String outputString =
                     "{\n" +
                             "  \"ApplicationSid\": \"" + credentials.getApplicationSid() + "\",\n" +
                             "  \"CredentialType\": \""+ credentials.getCredentialType() +"\",\n" +
                             "  \"Secret\": \"" + fcmSecret + "\"\n" +
                             "}";
-            OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream());
-            outputStream.write(outputString.getBytes());
-            outputStream.close();
-
-            checkStatusCode(connection);
+            RCHttpClient.Response response = RCHttpClient.getInstance().execute(createRequest("POST", url).setBody("application/json", outputString));
+            checkStatusCode(response);
 
-            fcmCredentials = getCredentialsFromConnection(connection, credentials.getApplicationSid());
+            fcmCredentials = getCredentialsFromJson(response.getBody(), credentials.getApplicationSid());
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "createCredentials method ended; returning fcmCredentials");
         return fcmCredentials;
@@ -374,14 +328,10 @@ public class FcmConfigurationClient {
 
     public FcmCredentials updateCredentials(FcmCredentials credentials, String fcmSecret) throws RCException {
         RCLogger.v(TAG, "updateCredentials method started");
-        HttpURLConnection connection = null;
         FcmCredentials fcmCredentials = null;
         try {
             String url = pushDomain + "/" + this.pushPath + "/credentials/" + credentials.getSid();
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("PUT");
-            connection.setRequestProperty("Content-Type", "application/json");
             String outputString =
                     "{\n" +
                             "  \"Sid\": \"" + credentials.getSid() + "\",\n" +
@@ -389,20 +339,13 @@ public class FcmConfigurationClient {
                             "  \"CredentialType\": \"" + credentials.getCredentialType() + "\",\n" +
                             "  \"Secret\": \"" + fcmSecret + "\"\n" +
                             "}";
-            OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream());
-            outputStream.write(outputString.getBytes());
-            outputStream.close();
-
-            checkStatusCode(connection);
+            RCHttpClient.Response response = RCHttpClient.getInstance().execute(createRequest("PUT", url).setBody("application/json", outputString));
+            checkStatusCode(response);
 
-            fcmCredentials = getCredentialsFromConnection(connection, credentials.getApplicationSid());
+            fcmCredentials = getCredentialsFromJson(response.getBody(), credentials.getApplicationSid());
 
         } catch (Exception ex) {
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "updateCredentials method ends");
         return fcmCredentials;
@@ -418,23 +361,15 @@ public class FcmConfigurationClient {
     public FcmBinding getBinding(FcmApplication application, String clientSid) throws RCException{
         RCLogger.v(TAG, "getBinding method started");
         FcmBinding fcmBinding = null;
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/bindings";
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("GET");
+            String jsonString = getWithValidation(url);
 
-            checkStatusCode(connection);
-
-            fcmBinding = getBindingFromConnection(connection, application.getSid(), clientSid);
+            fcmBinding = getBindingFromJson(jsonString, application.getSid(), clientSid);
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "getBinding method ended; returning fcmBinding");
         return fcmBinding;
@@ -468,20 +403,16 @@ public class FcmConfigurationClient {
     private FcmBinding createOrUpdateBinding(FcmBinding binding, String bindingSid) throws RCException{
         RCLogger.v(TAG, "createBinding method started");
         FcmBinding fcmBinding = null;
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/bindings";
             if (bindingSid != null){
                 url = pushDomain + "/" + this.pushPath + "/bindings/" + bindingSid;
             }
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("POST");
-
+            String method = "POST";
             if (bindingSid != null){
-                connection.setRequestMethod("PUT");
+                method = "PUT";
             }
-            connection.setRequestProperty("Content-Type", "application/json");
             String outputString =
                     "{\n" +
                             "  \"Identity\": \"" + binding.getIdentity() + "\",\n" +
@@ -489,20 +420,13 @@ public class FcmConfigurationClient {
                             "  \"BindingType\": \"" + binding.getBindingType() + "\",\n" +
                             "  \"Address\": \"" + binding.getAddress() + "\"\n" +
                             "}";
-            OutputStream outputStream = new BufferedOutputStream(connection.getOutputStream());
-            outputStream.write(outputString.getBytes());
-            outputStream.close();
-
-            checkStatusCode(connection);
+            RCHttpClient.Response response = RCHttpClient.getInstance().execute(createRequest(method, url).setBody("application/json", outputString));
+            checkStatusCode(response);
 
-            fcmBinding = getBindingFromConnection(connection, binding.getApplicationSid(), binding.getIdentity());
+            fcmBinding = getBindingFromJson(response.getBody(), binding.getApplicationSid(), binding.getIdentity());
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "createBinding method ended; returning fcmBinding");
         return fcmBinding;
@@ -511,29 +435,57 @@ public class FcmConfigurationClient {
 
     public void deleteBinding(String bindingSid) throws RCException{
         RCLogger.v(TAG, "deleteBinding method started");
-        HttpURLConnection connection = null;
         try{
             String url = pushDomain + "/" + this.pushPath + "/bindings/" + bindingSid;
             RCLogger.v(TAG, "calling url: " + url);
-            connection = createUrlRequestWithUrl(url);
-            connection.setRequestMethod("DELETE");
-
-            checkStatusCode(connection);
+            RCHttpClient.Response response = RCHttpClient.getInstance().execute(createRequest("DELETE", url));
+            checkStatusCode(response);
 
         } catch (Exception ex){
             handleException(ex, true);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
         }
         RCLogger.v(TAG, "deleteBinding method ended;");
 
     }
 
     //-------------------------Helper methods -----------------------------//
-    private void checkStatusCode(HttpURLConnection connection) throws Exception{
-        int responseCode = connection.getResponseCode();
+    // GET given URL, revalidating the response we got last time (if any) instead of downloading it again. Returns the response body
+    private String getWithValidation(String url) throws Exception{
+        String cacheKey = accountEmail + "|" + url;
+        CachedResponse cachedResponse = responseCache.get(cacheKey);
+        RCHttpClient.Request request = createRequest("GET", url);
+        if (cachedResponse != null) {
+            if (cachedResponse.eTag != null) {
+                request.setHeader("If-None-Match", cachedResponse.eTag);
+            }
+            if (cachedResponse.lastModified != null) {
+                request.setHeader("If-Modified-Since", cachedResponse.lastModified);
+            }
+        }
+
+        RCHttpClient.Response response = RCHttpClient.getInstance().execute(request);
+        if (cachedResponse != null && response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            RCLogger.v(TAG, "not modified, using cached response for: " + url);
+            return cachedResponse.body;
+        }
+        checkStatusCode(response);
+
+        String eTag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        if (eTag != null || lastModified != null) {
+            responseCache.put(cacheKey, new CachedResponse(eTag, lastModified, response.getBody()));
+        } else {
+            responseCache.remove(cacheKey);
+        }
+        return response.getBody();
+    }
+
+    static void clearResponseCache() {
+        responseCache.clear();
+    }
+
+    private void checkStatusCode(RCHttpClient.Response response) throws Exception{
+        int responseCode = response.getStatusCode();
         if (responseCode != HttpURLConnection.HTTP_OK) {
             switch (responseCode) {
                 case 401:
@@ -549,8 +501,7 @@ public class FcmConfigurationClient {
         }
     }
 
-    private FcmApplication getApplicationFromConnection(HttpURLConnection connection, String applicationName) throws IOException, JSONException{
-        String jsonString = getJsonFromStream(connection.getInputStream());
+    private FcmApplication getApplicationFromJson(String jsonString, String applicationName) throws IOException, JSONException{
         if (jsonString.length() > 0) {
             Object json = new JSONTokener(jsonString).nextValue();
             if (json instanceof  JSONArray){
@@ -582,8 +533,7 @@ public class FcmConfigurationClient {
         return null;
     }
 
-    private FcmCredentials getCredentialsFromConnection(HttpURLConnection connection, String applicationSid) throws IOException, JSONException{
-        String jsonString = getJsonFromStream(connection.getInputStream());
+    private FcmCredentials getCredentialsFromJson(String jsonString, String applicationSid) throws IOException, JSONException{
         if (jsonString.length() > 0) {
             Object json = new JSONTokener(jsonString).nextValue();
             if (json instanceof  JSONArray){
@@ -613,8 +563,7 @@ public class FcmConfigurationClient {
         return null;
     }
 
-    private FcmBinding getBindingFromConnection(HttpURLConnection connection, String applicationSid, String clientSid) throws IOException, JSONException{
-        String jsonString = getJsonFromStream(connection.getInputStream());
+    private FcmBinding getBindingFromJson(String jsonString, String applicationSid, String clientSid) throws IOException, JSONException{
         if (jsonString.length() > 0) {
             Object json = new JSONTokener(jsonString).nextValue();
             if (json instanceof  JSONArray){
@@ -665,21 +614,6 @@ public class FcmConfigurationClient {
     }
 
 
-    private String getJsonFromStream(InputStream is) throws IOException{
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        StringBuilder sb = new StringBuilder();
-
-        String line;
-
-        while ((line = reader.readLine()) != null) {
-            sb.append(line);
-            sb.append("\n");
-        }
-        is.close();
-        return sb.toString();
-    }
-
     private static void disableSSLCertificateChecking() {
         TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
             public X509Certificate[] getAcceptedIssuers() {
@@ -35,10 +35,14 @@ import org.restcomm.android.sdk.fcm.model.FcmBinding;
 import org.restcomm.android.sdk.fcm.model.FcmCredentials;
 import org.restcomm.android.sdk.storage.StorageManagerInterface;
 import org.restcomm.android.sdk.util.RCException;
+import org.restcomm.android.sdk.util.RCHttpClient;
 import org.restcomm.android.sdk.util.RCLogger;
 import org.restcomm.android.sdk.util.RCUtils;
 
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Manage logic for registering device and user for push notifications
@@ -139,6 +143,16 @@ public class FcmConfigurationHandler {
         //if we don't have the app registered
         RCLogger.v(TAG, "updateBinding started");
         if (mEnablePush && !TextUtils.isEmpty(mUsername)) {
+            String bindingString = mStorageManager.getString(FCM_BINDING, null);
+            if (bindingString != null) {
+                FcmBinding binding = new FcmBinding();
+                binding.fillFromJson(bindingString);
+                String token = FirebaseInstanceId.getInstance().getToken();
+                if (token != null && token.equals(binding.getAddress())) {
+                    RCLogger.v(TAG, "Binding already has the current token. Updating the server is not needed.");
+                    return;
+                }
+            }
             RCLogger.v(TAG, "Push is enabled and username is found. Updating the server");
             registerOrUpdateForPush(true, true);
         } else {
@@ -163,28 +177,33 @@ public class FcmConfigurationHandler {
         map.put(FCM_CLIENT_SID, clientSid);
         map.put(FCM_APPLICATION, applicationString);
         map.put(FCM_BINDING, bindingString);
+        String token = FirebaseInstanceId.getInstance().getToken();
 
-        new AsyncTaskRegisterForPush(mEmail, mFcmConfigurationClient, mUsername, mApplicationName, mFcmSecretKey, updateToken, actionIsUpdate).execute(map);
+        new AsyncTaskRegisterForPush(mEmail, mFcmConfigurationClient, mUsername, mApplicationName, mFcmSecretKey, token, updateToken, actionIsUpdate).execute(map);
     }
 
-    private class AsyncTaskRegisterForPush extends AsyncTask<HashMap<String, String>, Void, Pair<HashMap<String, String>, RCClient.ErrorCodes>> {
+    class AsyncTaskRegisterForPush extends AsyncTask<HashMap<String, String>, Void, Pair<HashMap<String, String>, RCClient.ErrorCodes>> {
         String email;
         FcmConfigurationClient fcmConfigurationClient;
         String username;
         String applicationName;
         String fcmSecretKey;
+        String token;
         boolean updateToken;
         boolean actionIsUpdate;
+        long startTime;
 
         public AsyncTaskRegisterForPush(String email, FcmConfigurationClient fcmConfigurationClient,
-                                        String username, String applicationName, String fcmSecretKey, boolean updateToken, boolean actionIsUpdate) {
+                                        String username, String applicationName, String fcmSecretKey, String token, boolean updateToken, boolean actionIsUpdate) {
             this.email = email;
             this.username = username;
             this.fcmConfigurationClient = fcmConfigurationClient;
             this.applicationName = applicationName;
             this.fcmSecretKey = fcmSecretKey;
+            this.token = token;
             this.updateToken = updateToken;
             this.actionIsUpdate = actionIsUpdate;
+            this.startTime = System.currentTimeMillis();
         }
 
         @Override
@@ -198,9 +217,10 @@ public class FcmConfigurationHandler {
                     String bindingString = inputHashMap.get(FCM_BINDING);
 
                     if (bindingString != null) {
+                        // keep what we already have, as all results are stored when done
+                        resultHashMap.putAll(inputHashMap);
                         FcmBinding binding = new FcmBinding();
                         binding.fillFromJson(bindingString);
-                        String token = FirebaseInstanceId.getInstance().getToken();
                         if (!binding.getAddress().equals(token)) {
                             RCLogger.v(TAG, "Updating binding");
                             binding.setAddress(token);
@@ -214,6 +234,18 @@ public class FcmConfigurationHandler {
                     return new Pair<>(resultHashMap, RCClient.ErrorCodes.SUCCESS);
                     // register for push
                 } else {
+                    // The application lookup doesn't depend on account and client sid, so run it concurrently with theirs. Notice that only
+                    // lookups run concurrently; anything that changes server data still happens in the same order as before
+                    final String fcmApplicationString  = inputHashMap.get(FCM_APPLICATION);
+                    Future<FcmApplication> applicationFuture = null;
+                    if (TextUtils.isEmpty(fcmApplicationString)) {
+                        applicationFuture = RCHttpClient.getInstance().submit(new Callable<FcmApplication>() {
+                            @Override
+                            public FcmApplication call() throws RCException {
+                                return fcmConfigurationClient.getApplication(applicationName);
+                            }
+                        });
+                    }
 
                     //check the accountSid, if account sid is null we nee to get the new one from the server
                     RCLogger.v(TAG, "Getting an account sid");
@@ -240,8 +272,7 @@ public class FcmConfigurationHandler {
 
                             //APPLICATION
                             RCLogger.v(TAG, "Getting an application;");
-                            String fcmApplicationString  = inputHashMap.get(FCM_APPLICATION);
-                            FcmApplication application = getApplication(fcmApplicationString);
+                            final FcmApplication application = getApplication(fcmApplicationString, applicationFuture);
 
                             if (application == null) {
                                 RCLogger.v(TAG, "Application not found, raising error;");
@@ -251,6 +282,24 @@ public class FcmConfigurationHandler {
                             RCLogger.v(TAG, "Application found, Storing it.");
                             resultHashMap.put(FCM_APPLICATION, application.getJSONObject().toString());
 
+                            // same for the credentials and binding lookups, which only need the application and the client sid
+                            final String bindingClientSid = clientSid;
+                            Future<FcmBinding> bindingFuture = RCHttpClient.getInstance().submit(new Callable<FcmBinding>() {
+                                @Override
+                                public FcmBinding call() throws RCException {
+                                    return fcmConfigurationClient.getBinding(application, bindingClientSid);
+                                }
+                            });
+                            Future<FcmCredentials> credentialsFuture = null;
+                            if (mEnablePush) {
+                                credentialsFuture = RCHttpClient.getInstance().submit(new Callable<FcmCredentials>() {
+                                    @Override
+                                    public FcmCredentials call() throws RCException {
+                                        return fcmConfigurationClient.getCredentials(application);
+                                    }
+                                });
+                            }
+
                             fcmConfigurationClient.enableClientPushSettings(mEnablePush, accountSid, clientSid);
 
                             if (mEnablePush) {
@@ -258,7 +307,7 @@ public class FcmConfigurationHandler {
                                 //For the security reasons (we dont save the fcm server key), we delete the credentials
                                 //and create new one
                                 RCLogger.v(TAG, "Getting the credentials;");
-                                FcmCredentials credentials = getCredentials(application);
+                                FcmCredentials credentials = getCredentials(application, credentialsFuture);
                                 if (credentials == null) {
                                     RCLogger.v(TAG, "Credentials not found, raising error;");
                                     return new Pair<>(null, RCClient.ErrorCodes.ERROR_DEVICE_PUSH_NOTIFICATION_CREDENTIALS_MISSING);
@@ -269,8 +318,7 @@ public class FcmConfigurationHandler {
 
                                 //BINDING
                                 RCLogger.v(TAG, "Getting binding");
-                                FcmBinding binding = fcmConfigurationClient.getBinding(application, clientSid);
-                                String token = FirebaseInstanceId.getInstance().getToken();
+                                FcmBinding binding = await(bindingFuture);
                                 if (binding != null && !binding.getAddress().equals(token)) {
                                     RCLogger.v(TAG, "Updating binding");
                                     binding.setAddress(token);
@@ -289,7 +337,7 @@ public class FcmConfigurationHandler {
                             } else {
                                 //DISABLE PUSH ON SERVER
                                 //update the server for the client and delete binding for the client
-                                FcmBinding binding = fcmConfigurationClient.getBinding(application, clientSid);
+                                FcmBinding binding = await(bindingFuture);
                                 if (binding != null) {
                                     RCLogger.v(TAG, "delete binding with binding sid: " + binding.getSid());
                                     fcmConfigurationClient.deleteBinding(binding.getSid());
@@ -315,7 +363,7 @@ public class FcmConfigurationHandler {
             }
         }
 
-        private FcmApplication getApplication(String applicationStorageString) throws RCException {
+        private FcmApplication getApplication(String applicationStorageString, Future<FcmApplication> applicationFuture) throws RCException {
             FcmApplication application;
 
             if (!TextUtils.isEmpty(applicationStorageString)) {
@@ -326,7 +374,7 @@ public class FcmConfigurationHandler {
                 return application;
             }
 
-            application = fcmConfigurationClient.getApplication(this.applicationName);
+            application = await(applicationFuture);
             if (application == null) {
                 //create application
                 application = new FcmApplication("", this.applicationName);
@@ -336,9 +384,9 @@ public class FcmConfigurationHandler {
             return application;
         }
 
-        private FcmCredentials getCredentials(FcmApplication application) throws RCException{
+        private FcmCredentials getCredentials(FcmApplication application, Future<FcmCredentials> credentialsFuture) throws RCException{
             FcmCredentials credentials;
-            credentials = fcmConfigurationClient.getCredentials(application);
+            credentials = await(credentialsFuture);
             //create new credentials
             if (credentials != null) {
                 credentials = fcmConfigurationClient.updateCredentials(credentials, fcmSecretKey);
@@ -350,10 +398,24 @@ public class FcmConfigurationHandler {
             return credentials;
         }
 
+        // Wait for a lookup started earlier, passing on its errors
+        private <T> T await(Future<T> future) throws RCException {
+            try {
+                return future.get();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RCException) {
+                    throw (RCException) ex.getCause();
+                }
+                throw new RCException(RCClient.ErrorCodes.ERROR_DEVICE_PUSH_NOTIFICATION_UNKNOWN_ERROR);
+            } catch (InterruptedException ex) {
+                throw new RCException(RCClient.ErrorCodes.ERROR_DEVICE_PUSH_NOTIFICATION_UNKNOWN_ERROR);
+            }
+        }
+
         @Override
         protected void onPostExecute(Pair<HashMap<String, String>, RCClient.ErrorCodes> result) {
             if (result.second == RCClient.ErrorCodes.SUCCESS) {
-                RCLogger.i(TAG, "Push notifications configuration finished successfully");
+                RCLogger.i(TAG, "Push notifications configuration finished successfully in " + (System.currentTimeMillis() - startTime) + " ms");
 
                 HashMap<String, String> resultHash = result.first;
                 //save data to storage
@@ -0,0 +1,294 @@
+/*
+ * TeleStax, Open Source Cloud Communications
+ * Copyright 2011-2015, Telestax Inc and individual contributors
+ * by the @authors tag.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation; either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>
+ *
+ * For questions related to commercial use licensing, please contact sales@telestax.com.
+ *
+ */
+
+
+package org.restcomm.android.sdk.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * RCHttpClient is the HTTP client shared by all SDK facilities that talk HTTP (ICE servers configuration, push notifications configuration), so
+ * that they share threads and connections instead of each bringing their own. Specifically:
+ * - requests run either in the calling thread (execute()) or in a small bounded thread pool (submit()), never in a thread of their own
+ * - connections are kept alive and reused. HttpURLConnection only returns a connection to its pool once the response body has been fully read
+ *   and as long as disconnect() isn't called, which is how we handle every response here. TLS sessions are reused too, as all connections
+ *   go through the (process-wide) default SSL socket factory, so even a new connection towards a known host skips the full handshake
+ * - response bodies are gzip compressed if the server supports it
+ * - concurrent requests towards each host are limited to MAX_CONNECTIONS_PER_HOST, so that bursts of parallel requests don't turn into bursts
+ *   of new connections
+ *
+ * Thread safe; use getInstance() to retrieve it.
+ */
+public class RCHttpClient {
+   static final int MAX_THREADS = 4;
+   static final int MAX_QUEUED_REQUESTS = 64;
+   static final int MAX_CONNECTIONS_PER_HOST = 4;
+   static final int TIMEOUT_MS = 8000;
+   // for how long idle pool threads stick around waiting for more work
+   private static final long THREAD_KEEP_ALIVE_MS = 30 * 1000;
+
+   private static final RCHttpClient instance = new RCHttpClient();
+
+   /**
+    * HTTP request
+    */
+   public static class Request {
+      final String method;
+      final String url;
+      final Map<String, String> headers = new LinkedHashMap<>();
+      byte[] body;
+
+      public Request(String method, String url)
+      {
+         this.method = method;
+         this.url = url;
+      }
+
+      public Request setHeader(String name, String value)
+      {
+         headers.put(name, value);
+         return this;
+      }
+
+      public Request setBody(String contentType, byte[] body)
+      {
+         headers.put("Content-Type", contentType);
+         this.body = body;
+         return this;
+      }
+
+      public Request setBody(String contentType, String body)
+      {
+         return setBody(contentType, body.getBytes(StandardCharsets.UTF_8));
+      }
+   }
+
+   /**
+    * HTTP response. Error responses (i.e. 4xx/5xx) are responses too, it's up to the caller to check the status code
+    */
+   public static class Response {
+      private final int statusCode;
+      private final String body;
+      private final Map<String, String> headers;
+
+      Response(int statusCode, String body, Map<String, String> headers)
+      {
+         this.statusCode = statusCode;
+         this.body = body;
+         this.headers = headers;
+      }
+
+      public int getStatusCode()
+      {
+         return statusCode;
+      }
+
+      public String getBody()
+      {
+         return body;
+      }
+
+      /**
+       * Get the value of a response header (case insensitive)
+       * @param name Header name, like 'ETag'
+       * @return Header value, or null if not present
+       */
+      public String getHeader(String name)
+      {
+         return headers.get(name);
+      }
+   }
+
+   private final ThreadPoolExecutor executor;
+   private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+   private static final String TAG = "RCHttpClient";
+
+   RCHttpClient()
+   {
+      final AtomicInteger threadCount = new AtomicInteger();
+      executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "restcomm-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+      // no threads at all while idle
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   public static RCHttpClient getInstance()
+   {
+      return instance;
+   }
+
+   /**
+    * Send a request from the calling thread, blocking until the response arrives (or a timeout occurs)
+    * @param request Request to send
+    * @return The response
+    * @throws IOException if the request cannot go through
+    */
+   public Response execute(Request request) throws IOException
+   {
+      URL url = new URL(request.url);
+      Semaphore permits = hostPermits.get(url.getAuthority());
+      if (permits == null) {
+         permits = new Semaphore(MAX_CONNECTIONS_PER_HOST);
+         Semaphore existing = hostPermits.putIfAbsent(url.getAuthority(), permits);
+         if (existing != null) {
+            permits = existing;
+         }
+      }
+
+      try {
+         permits.acquire();
+      }
+      catch (InterruptedException e) {
+         throw new InterruptedIOException("Interrupted while waiting for a connection to " + url.getAuthority());
+      }
+      try {
+         return send(url, request);
+      }
+      finally {
+         permits.release();
+      }
+   }
+
+   /**
+    * Send a request from the HTTP thread pool
+    * @param request Request to send
+    * @return Future for the response; get() throws ExecutionException wrapping the IOException if the request cannot go through
+    * @throws java.util.concurrent.RejectedExecutionException if too many requests are already waiting
+    */
+   public Future<Response> submit(final Request request)
+   {
+      return submit(new Callable<Response>() {
+         @Override
+         public Response call() throws IOException
+         {
+            return execute(request);
+         }
+      });
+   }
+
+   /**
+    * Run a task made of one or more execute() calls from the HTTP thread pool, so that independent lookups can run concurrently. The pool is
+    * bounded, so tasks should never wait on other tasks submitted here
+    * @param task Task to run
+    * @return Future for the result of the task
+    * @throws java.util.concurrent.RejectedExecutionException if too many requests are already waiting
+    */
+   public <T> Future<T> submit(Callable<T> task)
+   {
+      return executor.submit(task);
+   }
+
+   // ------ Helpers
+   private Response send(URL url, Request request) throws IOException
+   {
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      try {
+         connection.setRequestMethod(request.method);
+         connection.setConnectTimeout(TIMEOUT_MS);
+         connection.setReadTimeout(TIMEOUT_MS);
+         connection.setUseCaches(false);
+         // Notice that by asking for gzip ourselves we also need to decompress ourselves (see readBody())
+         connection.setRequestProperty("Accept-Encoding", "gzip");
+         for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+         }
+         if (request.body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(request.body.length);
+            OutputStream outputStream = connection.getOutputStream();
+            outputStream.write(request.body);
+            outputStream.close();
+         }
+
+         int statusCode = connection.getResponseCode();
+         InputStream inputStream = (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) ? connection.getErrorStream() : connection.getInputStream();
+         String body = readBody(inputStream, "gzip".equalsIgnoreCase(connection.getContentEncoding()));
+
+         Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+         for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            // status line comes with a null key
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+               headers.put(header.getKey(), header.getValue().get(0));
+            }
+         }
+
+         RCLogger.v(TAG, request.method + " " + request.url + ": " + statusCode);
+         return new Response(statusCode, body, Collections.unmodifiableMap(headers));
+      }
+      catch (IOException e) {
+         // the connection might be in a bad state, make sure it's not reused
+         connection.disconnect();
+         throw e;
+      }
+   }
+
+   // Read the whole body, which is what allows the connection to be reused, and close the stream
+   private static String readBody(InputStream inputStream, boolean gzip) throws IOException
+   {
+      if (inputStream == null) {
+         return "";
+      }
+      InputStream bodyStream = gzip ? new GZIPInputStream(inputStream) : inputStream;
+      try {
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         int read;
+         while ((read = bodyStream.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+         }
+         return new String(body.toByteArray(), StandardCharsets.UTF_8);
+      }
+      finally {
+         bodyStream.close();
+      }
+   }
+}
@@ -0,0 +1,230 @@
+package org.restcomm.android.sdk.MediaClient.util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+import org.webrtc.PeerConnection;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for IceServerCache and ICE server response parsing. The HTTP
+ *  request is replaced by a stand-in that hands out a new TURN username
+ *  on each fetch, so that we can tell cached results from fresh ones.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class IceServerCacheTest {
+    private static final long TTL = 60 * 1000;
+    private static final long SHORT_TTL = 1000;
+    private static final String URL = "https://es.xirsys.com/_turn/restcomm";
+
+    private TestCache cache;
+    private SignalingCounters counters;
+    private AtomicInteger fetches;
+
+    @Before
+    public void setup() {
+        cache = new TestCache();
+        counters = new SignalingCounters();
+        fetches = new AtomicInteger();
+    }
+
+    @Test
+    public void get_Cached() throws Exception {
+        TestEvents events = new TestEvents(1);
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(events.username).isEqualTo("user-1");
+
+        // served right away
+        cache.time = TTL / 2;
+        events = new TestEvents(1);
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.getCount()).isEqualTo(0);
+        assertThat(events.username).isEqualTo("user-1");
+        assertThat(fetches.get()).isEqualTo(1);
+
+        // different account means different entry
+        events = new TestEvents(1);
+        cache.get(new TestFetcher("alice", events));
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(events.username).isEqualTo("user-2");
+        assertThat(counters.get(SignalingMetrics.Counter.ICE_SERVERS_CACHE_HITS)).isEqualTo(1);
+        assertThat(counters.get(SignalingMetrics.Counter.ICE_SERVERS_CACHE_MISSES)).isEqualTo(2);
+        assertThat(counters.get(SignalingMetrics.Counter.ICE_SERVERS_FETCHES)).isEqualTo(2);
+    }
+
+    @Test
+    public void get_ConcurrentRequestsShareFetch() throws Exception {
+        cache.release = new CountDownLatch(1);
+        TestEvents events = new TestEvents(2);
+        cache.get(new TestFetcher("bob", events));
+        cache.get(new TestFetcher("bob", events));
+        cache.release.countDown();
+
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_ExpiredFetchedAgain() throws Exception {
+        TestEvents events = new TestEvents(1);
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+
+        cache.time = TTL;
+        events = new TestEvents(1);
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(events.username).isEqualTo("user-2");
+    }
+
+    @Test
+    public void get_ErrorReported() throws Exception {
+        TestEvents events = new TestEvents(1);
+        cache.get(new TestFetcher(null, events));
+        assertThat(events.error.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(events.errorDescription).contains("timeout");
+        assertThat(counters.get(SignalingMetrics.Counter.ICE_SERVERS_FETCH_FAILURES)).isEqualTo(1);
+    }
+
+    @Test
+    public void refresh_AheadOfExpiry() throws Exception {
+        TestEvents events = new TestEvents(1);
+        cache.ttl = SHORT_TTL;
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // entry is in use, so it's refreshed in the background once 80% of its TTL has elapsed
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fetches.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(fetches.get()).isGreaterThanOrEqualTo(2);
+
+        events = new TestEvents(1);
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.getCount()).isEqualTo(0);
+        assertThat(events.username).isNotEqualTo("user-1");
+    }
+
+    @Test
+    public void get_EventsNotKept() throws Exception {
+        TestEvents events = new TestEvents(1);
+        cache.get(new TestFetcher("bob", events));
+        assertThat(events.ready.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // the entry stays in the cache (and keeps being refreshed), but the call that asked for it must be free to go
+        WeakReference<TestEvents> reference = new WeakReference<>(events);
+        events = null;
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertThat(reference.get()).isNull();
+    }
+
+    @Test
+    public void parseResponse_Ttl() throws Exception {
+        IceServerFetcher.Settings fetcher = new IceServerFetcher.Settings(URL, true, RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3,
+                "bob", "secret");
+
+        String servers = "{\"url\":\"stun:turn.restcomm.com\"},{\"url\":\"turn:turn.restcomm.com:80?transport=udp\",\"username\":\"%s\",\"credential\":\"pass\"}";
+        IceServerFetcher.IceServers result = fetcher.parseResponse("{\"v\":{\"iceServers\":[" + String.format(servers, "opaque") + "]},\"s\":\"ok\"}");
+        assertThat(result.iceServers).hasSize(2);
+        assertThat(result.ttl).isEqualTo(IceServerFetcher.DEFAULT_TTL);
+
+        result = fetcher.parseResponse("{\"v\":{\"iceServers\":[" + String.format(servers, "opaque") + "],\"ttl\":86400},\"s\":\"ok\"}");
+        assertThat(result.ttl).isEqualTo(86400 * 1000L);
+
+        // TURN REST API style username, expiring in an hour
+        long expiry = System.currentTimeMillis() / 1000 + 3600;
+        result = fetcher.parseResponse("{\"v\":{\"iceServers\":[" + String.format(servers, expiry + ":bob") + "]},\"s\":\"ok\"}");
+        assertThat(result.ttl).isBetween(3590 * 1000L, 3600 * 1000L);
+
+        IceServerFetcher.Settings stunOnly = new IceServerFetcher.Settings(URL, false, RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3,
+                "bob", "secret");
+        assertThat(stunOnly.parseResponse("{\"v\":{\"iceServers\":[" + String.format(servers, "opaque") + "]},\"s\":\"ok\"}").iceServers).hasSize(1);
+    }
+
+    @Test(expected = IOException.class)
+    public void parseResponse_Error() throws Exception {
+        IceServerFetcher.Settings fetcher = new IceServerFetcher.Settings(URL, true, RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3,
+                "bob", "secret");
+        fetcher.parseResponse("{\"v\":\"Unauthorized\",\"s\":\"error\"}");
+    }
+
+    private class TestCache extends IceServerCache {
+        volatile long time = 0;
+        volatile long ttl = TTL;
+        // when set, fetches block until it's released
+        volatile CountDownLatch release;
+
+        TestCache() {
+            super(0);
+        }
+
+        @Override
+        long now() {
+            return time;
+        }
+
+        @Override
+        IceServerFetcher.IceServers fetch(IceServerFetcher.Settings settings) throws IOException {
+            if (settings.getCacheKey().contains("|null|")) {
+                throw new IOException("ICE servers timeout or error: HTTP PUT to " + URL + " timeout");
+            }
+            if (release != null) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            LinkedList<PeerConnection.IceServer> iceServers = new LinkedList<>();
+            iceServers.add(new PeerConnection.IceServer("turn:turn.restcomm.com:80", "user-" + fetches.incrementAndGet(), "pass"));
+            return new IceServerFetcher.IceServers(iceServers, ttl);
+        }
+    }
+
+    private class TestFetcher extends IceServerFetcher {
+        TestFetcher(String username, IceServerFetcherEvents events) {
+            super(URL, true, RCDevice.MediaIceServersDiscoveryType.ICE_SERVERS_CONFIGURATION_URL_XIRSYS_V3, username, "secret", counters, events);
+        }
+    }
+
+    private static class TestEvents implements IceServerFetcher.IceServerFetcherEvents {
+        final CountDownLatch ready;
+        final CountDownLatch error = new CountDownLatch(1);
+        volatile String username;
+        volatile String errorDescription;
+
+        TestEvents(int count) {
+            ready = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onIceServersReady(LinkedList<PeerConnection.IceServer> iceServers) {
+            username = iceServers.get(0).username;
+            ready.countDown();
+        }
+
+        @Override
+        public void onIceServersError(String description) {
+            errorDescription = description;
+            error.countDown();
+        }
+    }
+}
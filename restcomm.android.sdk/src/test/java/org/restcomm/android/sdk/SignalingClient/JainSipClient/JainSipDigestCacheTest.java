@@ -0,0 +1,110 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.header.HeaderFactoryImpl;
+import android.gov.nist.javax.sip.message.MessageFactoryImpl;
+import android.javax.sip.header.AuthorizationHeader;
+import android.javax.sip.header.ProxyAuthorizationHeader;
+import android.javax.sip.message.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for JainSipDigestCache, with traffic mixing the 401 challenges
+ *  Restcomm sends for REGISTER and the 407 ones it sends for MESSAGE.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipDigestCacheTest {
+    private static final String DOMAIN = "cloud.restcomm.com";
+
+    private static final String REQUEST = "%1$s sip:%2$s SIP/2.0\r\n" +
+            "Via: SIP/2.0/TLS 192.168.1.10:5091;branch=z9hG4bK-%3$d\r\n" +
+            "Max-Forwards: 70\r\n" +
+            "To: <sip:%2$s>\r\n" +
+            "From: <sip:alice@cloud.restcomm.com>;tag=1508245263\r\n" +
+            "Call-ID: %3$d@192.168.1.10\r\n" +
+            "CSeq: %3$d %1$s\r\n" +
+            "Content-Length: 0\r\n\r\n";
+
+    private static final String CHALLENGE = "SIP/2.0 %1$d %2$s\r\n" +
+            "Via: SIP/2.0/TLS 192.168.1.10:5091;branch=z9hG4bK-%3$d\r\n" +
+            "To: <sip:%4$s>;tag=88c8a3b6\r\n" +
+            "From: <sip:alice@cloud.restcomm.com>;tag=1508245263\r\n" +
+            "Call-ID: %3$d@192.168.1.10\r\n" +
+            "CSeq: %3$d %5$s\r\n" +
+            "%6$s: Digest realm=\"cloud.restcomm.com\",nonce=\"%7$s\",qop=\"auth\",algorithm=MD5\r\n" +
+            "Content-Length: 0\r\n\r\n";
+
+    private MessageFactoryImpl messageFactory;
+    private HeaderFactoryImpl headerFactory;
+    private JainSipDigestCache digestCache;
+    private SignalingCounters counters;
+    private int cseq;
+
+    @Before
+    public void setup() {
+        messageFactory = new MessageFactoryImpl();
+        headerFactory = new HeaderFactoryImpl();
+        counters = new SignalingCounters();
+        digestCache = new JainSipDigestCache(counters);
+    }
+
+    @Test
+    public void authorize_MixedChallenges() throws Exception {
+        challenge(Request.REGISTER, "cloud.restcomm.com", 401, "Unauthorized", "WWW-Authenticate", "register-nonce");
+        challenge(Request.MESSAGE, "bob@cloud.restcomm.com", 407, "Proxy Authentication Required", "Proxy-Authenticate", "message-nonce");
+
+        // each method keeps getting the challenge it got last, no matter what came in between
+        for (int i = 0; i < 3; i++) {
+            Request register = authorize(Request.REGISTER, "cloud.restcomm.com");
+            assertThat(register.getHeader(ProxyAuthorizationHeader.NAME)).isNull();
+            assertThat(((AuthorizationHeader) register.getHeader(AuthorizationHeader.NAME)).getNonce()).isEqualTo("register-nonce");
+
+            Request message = authorize(Request.MESSAGE, "bob@cloud.restcomm.com");
+            assertThat(message.getHeader(AuthorizationHeader.NAME)).isNull();
+            assertThat(((ProxyAuthorizationHeader) message.getHeader(ProxyAuthorizationHeader.NAME)).getNonce()).isEqualTo("message-nonce");
+        }
+
+        // a method that hasn't been challenged yet goes with the latest challenge
+        assertThat(authorize(Request.INVITE, "bob@cloud.restcomm.com").getHeader(ProxyAuthorizationHeader.NAME)).isNotNull();
+
+        // stale nonce for REGISTER: only REGISTER picks up the new one
+        challenge(Request.REGISTER, "cloud.restcomm.com", 401, "Unauthorized", "WWW-Authenticate", "register-nonce-2");
+        assertThat(((AuthorizationHeader) authorize(Request.REGISTER, "cloud.restcomm.com").getHeader(AuthorizationHeader.NAME)).getNonce())
+                .isEqualTo("register-nonce-2");
+        assertThat(((ProxyAuthorizationHeader) authorize(Request.MESSAGE, "bob@cloud.restcomm.com").getHeader(ProxyAuthorizationHeader.NAME)).getNonce())
+                .isEqualTo("message-nonce");
+        assertThat(counters.get(SignalingMetrics.Counter.AUTH_PREEMPTIVE)).isEqualTo(9);
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        challenge(Request.REGISTER, "cloud.restcomm.com", 401, "Unauthorized", "WWW-Authenticate", "register-nonce");
+        challenge(Request.MESSAGE, "bob@cloud.restcomm.com", 407, "Proxy Authentication Required", "Proxy-Authenticate", "message-nonce");
+
+        digestCache.invalidate(DOMAIN);
+        assertThat(JainSipDigestCache.isAuthorized(authorize(Request.REGISTER, "cloud.restcomm.com"))).isFalse();
+        assertThat(JainSipDigestCache.isAuthorized(authorize(Request.MESSAGE, "bob@cloud.restcomm.com"))).isFalse();
+        assertThat(counters.get(SignalingMetrics.Counter.AUTH_PREEMPTIVE)).isEqualTo(0);
+    }
+
+    // ------ Helpers
+    private void challenge(String method, String target, int statusCode, String reason, String header, String nonce) throws Exception {
+        cseq++;
+        digestCache.onChallenge(DOMAIN, messageFactory.createResponse(String.format(CHALLENGE, statusCode, reason, cseq, target, method, header, nonce)));
+    }
+
+    private Request authorize(String method, String target) throws Exception {
+        cseq++;
+        Request request = messageFactory.createRequest(String.format(REQUEST, method, target, cseq));
+        digestCache.authorize(request, DOMAIN, "alice", "1234", headerFactory);
+        return request;
+    }
+}
@@ -0,0 +1,178 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.address.Hop;
+import android.javax.sip.address.URI;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the DNS cache of JainSipDnsResolver. DNS is replaced by a
+ *  stand-in that hands out a new host on each lookup, so that we can
+ *  tell cached results from fresh ones.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipDnsResolverTest {
+    // long enough for periodic refreshes (at 80% of it, in real time) never to kick in during a test; time is faked instead
+    private static final long TTL = 60 * 1000;
+
+    private SignalingCounters counters;
+    private TestResolver resolver;
+    private URI uri;
+
+    @Before
+    public void setup() {
+        counters = new SignalingCounters();
+        resolver = new TestResolver(counters);
+        uri = createUri("sip:cloud.restcomm.com");
+    }
+
+    @After
+    public void teardown() {
+        resolver.shutdown();
+    }
+
+    @Test
+    public void resolve_Cached() throws Exception {
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-1");
+        resolver.time = TTL / 2;
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-1");
+        assertThat(resolver.lookups.get()).isEqualTo(1);
+
+        // different transport means different entry
+        assertThat(resolver.resolve(uri, "tcp").getHost()).isEqualTo("host-2");
+        assertThat(counters.get(SignalingMetrics.Counter.DNS_CACHE_HITS)).isEqualTo(1);
+        assertThat(counters.get(SignalingMetrics.Counter.DNS_CACHE_MISSES)).isEqualTo(2);
+    }
+
+    @Test
+    public void resolve_ExpiredServedWhileRefreshing() throws Exception {
+        resolver.resolve(uri, "tls");
+
+        resolver.time = TTL + 1;
+        resolver.refreshed = new CountDownLatch(1);
+        // expired entry is served right away, and refreshed in the background
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-1");
+        assertThat(resolver.refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-2");
+    }
+
+    @Test
+    public void resolve_ExpiredAfterWarmResolve() throws Exception {
+        resolver.resolve(uri, "tls");
+        resolver.time = TTL / 2;
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-1");
+
+        // the periodic refresh is still pending, but an expired entry is refreshed right away
+        resolver.time = TTL + 1;
+        resolver.refreshed = new CountDownLatch(1);
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-1");
+        assertThat(resolver.refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-2");
+        assertThat(resolver.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void prefetch_Warm() throws Exception {
+        resolver.resolve(uri, "tls");
+        resolver.time = TTL / 2;
+        resolver.resolve(uri, "tls");
+
+        // like on a network change: re-resolved right away even though the entry is fresh and in use
+        resolver.refreshed = new CountDownLatch(1);
+        resolver.prefetch(uri, "tls");
+        assertThat(resolver.refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-2");
+        assertThat(resolver.lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        resolver.refreshed = new CountDownLatch(1);
+        resolver.prefetch(uri, "tls");
+        assertThat(resolver.refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(resolver.resolve(uri, "tls").getHost()).isEqualTo("host-1");
+        assertThat(resolver.lookups.get()).isEqualTo(1);
+    }
+
+    private static class TestResolver extends JainSipDnsResolver {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile long time = 0;
+        volatile CountDownLatch refreshed;
+
+        private volatile boolean looked;
+
+        TestResolver(SignalingCounters counters) {
+            super(counters, TTL);
+        }
+
+        @Override
+        Hop lookup(URI uri, String transport) {
+            looked = true;
+            return createHop("host-" + lookups.incrementAndGet());
+        }
+
+        @Override
+        long now() {
+            // now() is called right after a lookup result has been stored in the entry
+            if (looked) {
+                looked = false;
+                if (refreshed != null) {
+                    refreshed.countDown();
+                }
+            }
+            return time;
+        }
+    }
+
+    private static Hop createHop(final String host) {
+        return JainSipFakes.createProxy(Hop.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getHost") || method.getName().equals("toString")) {
+                    return host;
+                }
+                if (method.getName().equals("getPort")) {
+                    return 5061;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static URI createUri(final String uri) {
+        return JainSipFakes.createProxy(URI.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("toString")) {
+                    return uri;
+                }
+                if (method.getName().equals("isSipURI")) {
+                    return true;
+                }
+                if (method.getName().equals("getScheme")) {
+                    return "sip";
+                }
+                return null;
+            }
+        });
+    }
+}
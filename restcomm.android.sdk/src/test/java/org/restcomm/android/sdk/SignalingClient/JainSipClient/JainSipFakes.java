@@ -0,0 +1,98 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.Request;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ *  Minimal stand-ins for JAIN SIP objects, for tests that need to hand
+ *  them to our components without a SIP stack. Only what our components
+ *  actually use is supported; anything else returns null.
+ *
+ */
+final class JainSipFakes {
+    private JainSipFakes() {
+    }
+
+    // Client transaction with a request of the given method, and the given branch id and Call-ID
+    static ClientTransaction createTransaction(String method, String branchId, String callId) {
+        return createTransaction(method, branchId, callId, null);
+    }
+
+    // Same as above, with a Via header for the given transport (or none, if null)
+    static ClientTransaction createTransaction(final String method, final String branchId, final String callId, final String transport) {
+        final CallIdHeader callIdHeader = createProxy(CallIdHeader.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                if (invoked.getName().equals("getCallId")) {
+                    return callId;
+                }
+                return null;
+            }
+        });
+
+        final ViaHeader viaHeader = createProxy(ViaHeader.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                if (invoked.getName().equals("getTransport")) {
+                    return transport;
+                }
+                return null;
+            }
+        });
+
+        final Request request = createProxy(Request.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                if (invoked.getName().equals("getMethod")) {
+                    return method;
+                }
+                if (invoked.getName().equals("getHeader") && CallIdHeader.NAME.equals(args[0])) {
+                    return callIdHeader;
+                }
+                if (invoked.getName().equals("getHeader") && ViaHeader.NAME.equals(args[0]) && transport != null) {
+                    return viaHeader;
+                }
+                return null;
+            }
+        });
+
+        return createProxy(ClientTransaction.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                if (invoked.getName().equals("getBranchId")) {
+                    return branchId;
+                }
+                if (invoked.getName().equals("getRequest")) {
+                    return request;
+                }
+                if (invoked.getName().equals("toString")) {
+                    return "Transaction { method: " + method + ", branch: " + branchId + ", call-id: " + callId + " }";
+                }
+                return null;
+            }
+        });
+    }
+
+    // Proxy for a JAIN SIP interface; equals() and hashCode() are identity based, so that proxies can be used as keys
+    @SuppressWarnings("unchecked")
+    static <T> T createProxy(Class<T> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(JainSipFakes.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method invoked, Object[] args) throws Throwable {
+                if (invoked.getName().equals("equals") && args != null && args.length == 1) {
+                    return proxy == args[0];
+                }
+                if (invoked.getName().equals("hashCode") && args == null) {
+                    return System.identityHashCode(proxy);
+                }
+                return handler.invoke(proxy, invoked, args);
+            }
+        });
+    }
+}
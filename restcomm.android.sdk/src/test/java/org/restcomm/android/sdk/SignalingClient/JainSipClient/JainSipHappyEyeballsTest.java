@@ -0,0 +1,118 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the IPv6/IPv4 race of JainSipHappyEyeballs, against a local
+ *  server that is only reachable over IPv4 (like an IPv4-only signaling
+ *  server would be).
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipHappyEyeballsTest {
+    private ServerSocket serverSocket;
+    private JainSipHappyEyeballs happyEyeballs;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        happyEyeballs = new JainSipHappyEyeballs(new SignalingCounters());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        serverSocket.close();
+    }
+
+    @Test
+    public void race_FallsBackToIPv4() {
+        long startTime = System.currentTimeMillis();
+        String winner = happyEyeballs.race("::1", "127.0.0.1", new String[] { "127.0.0.1" }, serverSocket.getLocalPort());
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertThat(winner).isEqualTo("127.0.0.1");
+        // server has no IPv6 address, so IPv4 shouldn't have to sit through its whole head start delay, let alone a timeout
+        assertThat(duration).isLessThan(JainSipHappyEyeballs.RACE_TIMEOUT);
+    }
+
+    @Test
+    public void race_NobodyListening() throws Exception {
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        assertThat(happyEyeballs.race("::1", "127.0.0.1", new String[] { "127.0.0.1" }, port)).isNull();
+    }
+
+    @Test
+    public void race_PreviousWinnerReused() throws Exception {
+        int port = serverSocket.getLocalPort();
+        assertThat(happyEyeballs.race("::1", "127.0.0.1", new String[] { "127.0.0.1" }, port)).isEqualTo("127.0.0.1");
+
+        // same network and server, so no probing this time (which would fail now)
+        serverSocket.close();
+        assertThat(happyEyeballs.race("::1", "127.0.0.1", new String[] { "127.0.0.1" }, port)).isEqualTo("127.0.0.1");
+
+        // a different local address means a different network, where the outcome might differ
+        assertThat(happyEyeballs.race("::1", "127.0.0.2", new String[] { "127.0.0.1" }, port)).isNull();
+    }
+
+    @Test
+    public void race_IPv6ThroughOtherHost() throws Exception {
+        ServerSocket ipv6ServerSocket;
+        try {
+            ipv6ServerSocket = new ServerSocket(0, 50, InetAddress.getByName("::1"));
+        } catch (IOException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+
+        try {
+            // the hop is an IPv4 address, but the server also has an IPv6 one (like a domain with both A and AAAA records), which wins
+            String winner = happyEyeballs.race("::1", "127.0.0.1", new String[] { "127.0.0.2", "::1" }, ipv6ServerSocket.getLocalPort());
+            assertThat(winner).isEqualTo("::1");
+        } finally {
+            ipv6ServerSocket.close();
+        }
+    }
+
+    @Test
+    public void raceAsync_PostsWinner() throws Exception {
+        final String[] winner = new String[1];
+        final boolean[] finished = new boolean[1];
+        happyEyeballs.raceAsync("::1", "127.0.0.1", new String[] { "127.0.0.1" }, serverSocket.getLocalPort(), new Handler(Looper.getMainLooper()),
+                new JainSipHappyEyeballs.RaceListener() {
+                    @Override
+                    public void onRaceFinished(String result) {
+                        winner[0] = result;
+                        finished[0] = true;
+                    }
+                });
+        // the caller isn't kept waiting
+        assertThat(finished[0]).isFalse();
+
+        long deadline = System.currentTimeMillis() + JainSipHappyEyeballs.RACE_TIMEOUT + 2000;
+        while (!finished[0] && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            ShadowLooper.idleMainLooper(0, TimeUnit.MILLISECONDS);
+        }
+        assertThat(finished[0]).isTrue();
+        assertThat(winner[0]).isEqualTo("127.0.0.1");
+    }
+}
@@ -0,0 +1,185 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.SipFactory;
+import android.javax.sip.address.AddressFactory;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.header.ContactHeader;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.MessageFactory;
+import android.javax.sip.message.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for JainSipHeaderCache: header templates and compact header forms.
+ *  JainSipHeaderCacheBenchmark times templates against building from scratch.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipHeaderCacheTest {
+    private static final String USER_AGENT = "TelScale Restcomm Android Client test";
+    private static final String CONTACT = "sip:192.168.1.10:5090;transport=TCP";
+
+    private HeaderFactory headerFactory;
+    private AddressFactory addressFactory;
+    private MessageFactory messageFactory;
+    private JainSipHeaderCache headerCache;
+    private ListeningPoint listeningPoint;
+
+    @Before
+    public void setup() throws Exception {
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("android.gov.nist");
+        headerFactory = sipFactory.createHeaderFactory();
+        addressFactory = sipFactory.createAddressFactory();
+        messageFactory = sipFactory.createMessageFactory();
+        headerCache = new JainSipHeaderCache(headerFactory, USER_AGENT, 70);
+        listeningPoint = createListeningPoint("192.168.1.10", 5090, ListeningPoint.TCP);
+    }
+
+    @Test
+    public void templates_HandOutCopies() throws Exception {
+        ViaHeader via1 = headerCache.getViaHeader(listeningPoint);
+        via1.setBranch("z9hG4bK-1");
+        ViaHeader via2 = headerCache.getViaHeader(listeningPoint);
+        assertThat(via2).isNotSameAs(via1);
+        assertThat(via2.getBranch()).isNull();
+        assertThat(via2.toString()).contains("rport");
+
+        assertThat(headerCache.getUserAgentHeader()).isNotSameAs(headerCache.getUserAgentHeader());
+        assertThat(headerCache.getUserAgentHeader().toString()).contains(USER_AGENT);
+        assertThat(headerCache.getMaxForwardsHeader().getMaxForwards()).isEqualTo(70);
+    }
+
+    @Test
+    public void contact_CachedPerAddress() throws Exception {
+        assertThat(headerCache.getContactHeader("192.168.1.10", 5090, ListeningPoint.TCP, null)).isNull();
+
+        headerCache.putContactHeader("192.168.1.10", 5090, ListeningPoint.TCP, null, headerFactory.createContactHeader(addressFactory.createAddress(CONTACT)));
+        ContactHeader contactHeader = headerCache.getContactHeader("192.168.1.10", 5090, ListeningPoint.TCP, null);
+        assertThat(contactHeader.getAddress().toString()).contains("192.168.1.10:5090");
+        // copies can be modified freely
+        contactHeader.setParameter("reg-id", "1");
+        assertThat(headerCache.getContactHeader("192.168.1.10", 5090, ListeningPoint.TCP, null).getParameter("reg-id")).isNull();
+
+        // REGISTER contacts are kept separately, and a different address (i.e. Via received) is a miss
+        assertThat(headerCache.getContactHeader("192.168.1.10", 5090, ListeningPoint.TCP, "sip:cloud.restcomm.com")).isNull();
+        assertThat(headerCache.getContactHeader("10.0.0.1", 5090, ListeningPoint.TCP, null)).isNull();
+
+        headerCache.clear();
+        assertThat(headerCache.getContactHeader("192.168.1.10", 5090, ListeningPoint.TCP, null)).isNull();
+    }
+
+    @Test
+    public void compact_RoundTrip() throws Exception {
+        Request request = createRequest();
+        int fullSize = request.toString().length();
+
+        JainSipHeaderCache.compact(request);
+        String compacted = request.toString();
+        assertThat(compacted).contains("\ni: ").contains("\nf: ").contains("\nt: ").contains("\nv: ").contains("\nm: ");
+        assertThat(compacted).doesNotContain("Call-ID:");
+        assertThat(compacted.length()).isLessThan(fullSize);
+        // the stack still finds them by full name
+        assertThat(request.getHeader(CallIdHeader.NAME)).isNotNull();
+
+        JainSipHeaderCache.expand(request);
+        assertThat(request.toString()).contains("Call-ID:").contains("Via:");
+        assertThat(request.toString().length()).isEqualTo(fullSize);
+    }
+
+    @Test
+    public void compact_CopyAfterSend() throws Exception {
+        Request request = createRequest();
+        // what sending does: compact forms only while encoding
+        JainSipHeaderCache.compact(request);
+        assertThat(request.toString()).contains("\ni: ");
+        JainSipHeaderCache.expand(request);
+
+        // copies, like the one the authentication helper makes of a challenged request, find headers by name
+        Request copy = (Request) request.clone();
+        assertThat(copy.getHeader(CallIdHeader.NAME)).isNotNull();
+        assertThat(copy.getHeader(ViaHeader.NAME)).isNotNull();
+        assertThat(copy.getHeader(ContactHeader.NAME)).isNotNull();
+    }
+
+    @Test
+    public void templates_MatchScratch() throws Exception {
+        // the first round fills in the Contact template, the second one uses it
+        assertThat(buildFromTemplates().toString()).isEqualTo(buildFromScratch().toString());
+        assertThat(buildFromTemplates().toString()).isEqualTo(buildFromScratch().toString());
+    }
+
+    // ------ Helpers
+    ArrayList<Object> buildFromScratch() throws Exception {
+        ArrayList<Object> headers = new ArrayList<>();
+        headers.add(headerFactory.createUserAgentHeader(Collections.singletonList(USER_AGENT)));
+        headers.add(headerFactory.createMaxForwardsHeader(70));
+        ViaHeader viaHeader = headerFactory.createViaHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), listeningPoint.getTransport(), null);
+        viaHeader.setRPort();
+        headers.add(viaHeader);
+        headers.add(headerFactory.createContactHeader(addressFactory.createAddress(CONTACT)));
+        headers.add(headerFactory.createSupportedHeader("replaces, outbound"));
+        return headers;
+    }
+
+    ArrayList<Object> buildFromTemplates() throws Exception {
+        ArrayList<Object> headers = new ArrayList<>();
+        headers.add(headerCache.getUserAgentHeader());
+        headers.add(headerCache.getMaxForwardsHeader());
+        headers.add(headerCache.getViaHeader(listeningPoint));
+        ContactHeader contactHeader = headerCache.getContactHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), listeningPoint.getTransport(), null);
+        if (contactHeader == null) {
+            contactHeader = headerFactory.createContactHeader(addressFactory.createAddress(CONTACT));
+            headerCache.putContactHeader(listeningPoint.getIPAddress(), listeningPoint.getPort(), listeningPoint.getTransport(), null, contactHeader);
+        }
+        headers.add(contactHeader);
+        headers.add(headerCache.getSupportedHeader("replaces, outbound"));
+        return headers;
+    }
+
+    private Request createRequest() throws Exception {
+        SipURI requestUri = addressFactory.createSipURI("bob", "cloud.restcomm.com");
+        ArrayList<ViaHeader> viaHeaders = new ArrayList<>();
+        viaHeaders.add(headerCache.getViaHeader(listeningPoint));
+        Request request = messageFactory.createRequest(requestUri, Request.MESSAGE, headerFactory.createCallIdHeader("benchmark-call-id"),
+                headerFactory.createCSeqHeader(1L, Request.MESSAGE),
+                headerFactory.createFromHeader(addressFactory.createAddress("sip:alice@cloud.restcomm.com"), "1234"),
+                headerFactory.createToHeader(addressFactory.createAddress(requestUri), null),
+                viaHeaders, headerCache.getMaxForwardsHeader(), headerFactory.createContentTypeHeader("text", "plain"), "Hello");
+        request.addHeader(headerFactory.createContactHeader(addressFactory.createAddress(CONTACT)));
+        request.addHeader(headerCache.getUserAgentHeader());
+        return request;
+    }
+
+    private static ListeningPoint createListeningPoint(final String ipAddress, final int port, final String transport) {
+        return JainSipFakes.createProxy(ListeningPoint.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getIPAddress")) {
+                    return ipAddress;
+                }
+                if (method.getName().equals("getPort")) {
+                    return port;
+                }
+                if (method.getName().equals("getTransport")) {
+                    return transport;
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.Transaction;
+import android.javax.sip.message.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the branch id & Call-ID indexes of JainSipJobManager, that
+ *  incoming SIP requests/responses use to find their job.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipJobManagerTest {
+    private static final int JOB_COUNT = 5000;
+
+    private JainSipJobManager jainSipJobManager;
+
+    @Before
+    public void setup() {
+        jainSipJobManager = new JainSipJobManager(null);
+    }
+
+    @Test
+    public void lookup_ManyJobs() {
+        for (int i = 0; i < JOB_COUNT; i++) {
+            jainSipJobManager.add("job-" + i, JainSipJob.Type.TYPE_MESSAGE, createTransaction("branch-" + i, "call-" + i),
+                    new HashMap<String, Object>(), null);
+        }
+
+        for (int i = 0; i < JOB_COUNT; i++) {
+            assertThat(jainSipJobManager.getByCallId("call-" + i).jobId).isEqualTo("job-" + i);
+            assertThat(jainSipJobManager.getByBranchId("branch-" + i).jobId).isEqualTo("job-" + i);
+        }
+
+        assertThat(jainSipJobManager.getByCallId("call-unknown")).isNull();
+        assertThat(jainSipJobManager.getByBranchId("branch-unknown")).isNull();
+    }
+
+    @Test
+    public void lookup_UpdateTransaction() {
+        JainSipJob jainSipJob = jainSipJobManager.add("job", JainSipJob.Type.TYPE_MESSAGE, createTransaction("branch-1", "call-1"),
+                new HashMap<String, Object>(), null);
+
+        // for example after an authentication challenge the Call-ID stays the same but the branch changes
+        jainSipJob.updateTransaction(createTransaction("branch-2", "call-1"));
+        assertThat(jainSipJobManager.getByBranchId("branch-1")).isNull();
+        assertThat(jainSipJobManager.getByBranchId("branch-2")).isSameAs(jainSipJob);
+        assertThat(jainSipJobManager.getByCallId("call-1")).isSameAs(jainSipJob);
+
+        // for example when a reconfigure job moves from unregister to register, both change
+        jainSipJob.updateTransaction(createTransaction("branch-3", "call-2"));
+        assertThat(jainSipJobManager.getByCallId("call-1")).isNull();
+        assertThat(jainSipJobManager.getByCallId("call-2")).isSameAs(jainSipJob);
+    }
+
+    @Test
+    public void lookup_Remove() {
+        jainSipJobManager.add("job-1", JainSipJob.Type.TYPE_MESSAGE, createTransaction("branch-1", "call-1"), new HashMap<String, Object>(), null);
+        JainSipJob jainSipJob = jainSipJobManager.add("job-2", JainSipJob.Type.TYPE_MESSAGE, null, new HashMap<String, Object>(), null);
+
+        jainSipJobManager.remove("job-1");
+        assertThat(jainSipJobManager.getByCallId("call-1")).isNull();
+        assertThat(jainSipJobManager.getByBranchId("branch-1")).isNull();
+
+        // job whose transaction is set after being added (i.e. incoming call)
+        jainSipJob.updateTransaction(createTransaction("branch-2", "call-2"));
+        assertThat(jainSipJobManager.getByCallId("call-2")).isSameAs(jainSipJob);
+
+        // removed jobs that keep updating their transaction shouldn't re-enter the indexes
+        jainSipJobManager.remove("job-2");
+        jainSipJob.updateTransaction(createTransaction("branch-3", "call-3"));
+        assertThat(jainSipJobManager.getByCallId("call-3")).isNull();
+
+        jainSipJobManager.add("job-4", JainSipJob.Type.TYPE_MESSAGE, createTransaction("branch-4", "call-4"), new HashMap<String, Object>(), null);
+        jainSipJobManager.removeAll();
+        assertThat(jainSipJobManager.getByCallId("call-4")).isNull();
+        assertThat(jainSipJobManager.getByBranchId("branch-4")).isNull();
+    }
+
+    // ------ Helpers
+    private static Transaction createTransaction(String branchId, String callId) {
+        return JainSipFakes.createTransaction(Request.MESSAGE, branchId, callId);
+    }
+}
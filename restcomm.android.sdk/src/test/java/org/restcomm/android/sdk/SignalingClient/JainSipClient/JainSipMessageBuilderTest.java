@@ -0,0 +1,126 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.header.ExtensionHeaderImpl;
+import android.gov.nist.javax.sip.message.MessageFactoryImpl;
+import android.javax.sip.message.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.ListIterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for custom header extraction in JainSipMessageBuilder, against the
+ *  regex based extraction it replaced, using realistic INVITE and 200 OK
+ *  messages. JainSipMessageBuilderBenchmark compares their cost.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessageBuilderTest {
+    private static final String SDP = "v=0\r\n" +
+            "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+            "s=-\r\n" +
+            "t=0 0\r\n" +
+            "a=group:BUNDLE audio\r\n" +
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 0 8 106 105 13 110 112 113 126\r\n" +
+            "c=IN IP4 0.0.0.0\r\n" +
+            "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+            "a=ice-ufrag:Ff3x\r\n" +
+            "a=ice-pwd:4vJVPjPqAw3nnV/0m1RoHnDT\r\n" +
+            "a=fingerprint:sha-256 70:5A:3B:3C:9B:6B:2A:5D:6F:1D:A2:2E:61:1F:3E:6A:E6:5E:39:B0:60:9D:F5:07:2B:02:1B:C9:44:05:80:E5\r\n" +
+            "a=setup:actpass\r\n" +
+            "a=mid:audio\r\n" +
+            "a=sendrecv\r\n" +
+            "a=rtcp-mux\r\n" +
+            "a=rtpmap:111 opus/48000/2\r\n" +
+            "a=fmtp:111 minptime=10;useinbandfec=1\r\n";
+
+    static final String INVITE = "INVITE sip:alice@192.168.1.10:5090;transport=tcp SIP/2.0\r\n" +
+            "Via: SIP/2.0/TCP 10.0.0.5:5060;branch=z9hG4bK-524287-1---8a1f0d5e4d0d3a2b;rport\r\n" +
+            "Via: SIP/2.0/TCP 10.0.0.1:5080;branch=z9hG4bK-1cf29c3e;received=10.0.0.1\r\n" +
+            "Record-Route: <sip:10.0.0.5:5060;transport=tcp;lr>\r\n" +
+            "Max-Forwards: 69\r\n" +
+            "Contact: <sip:bob@10.0.0.1:5080;transport=tcp>\r\n" +
+            "To: <sip:alice@cloud.restcomm.com>\r\n" +
+            "From: \"Bob\" <sip:bob@cloud.restcomm.com>;tag=23911e3d\r\n" +
+            "Call-ID: 7e2bd5d0c5bd3a51b1e4a6f0e1d3c2b4@10.0.0.1\r\n" +
+            "CSeq: 1 INVITE\r\n" +
+            "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n" +
+            "Supported: replaces, timer\r\n" +
+            "User-Agent: Restcomm 8.2.0\r\n" +
+            "%s" +
+            "Content-Type: application/sdp\r\n" +
+            "Content-Length: " + SDP.length() + "\r\n\r\n" + SDP;
+
+    static final String OK = "SIP/2.0 200 OK\r\n" +
+            "Via: SIP/2.0/TCP 192.168.1.10:5090;branch=z9hG4bK-333332-4d4c6a3ae1ff;rport=5090;received=192.168.1.10\r\n" +
+            "Record-Route: <sip:10.0.0.5:5060;transport=tcp;lr>\r\n" +
+            "Contact: <sip:bob@10.0.0.1:5080;transport=tcp>\r\n" +
+            "To: <sip:bob@cloud.restcomm.com>;tag=88c8a3b6\r\n" +
+            "From: \"alice\" <sip:alice@cloud.restcomm.com>;tag=1508245263\r\n" +
+            "Call-ID: 3f8e3c8b4a5d1e2f@192.168.1.10\r\n" +
+            "CSeq: 1 INVITE\r\n" +
+            "Allow: INVITE, ACK, CANCEL, OPTIONS, BYE, REFER, NOTIFY, MESSAGE, SUBSCRIBE, INFO\r\n" +
+            "Supported: replaces, timer\r\n" +
+            "Server: Restcomm 8.2.0\r\n" +
+            "%s" +
+            "Content-Type: application/sdp\r\n" +
+            "Content-Length: " + SDP.length() + "\r\n\r\n" + SDP;
+
+    private MessageFactoryImpl messageFactory;
+
+    @Before
+    public void setup() {
+        messageFactory = new MessageFactoryImpl();
+    }
+
+    @Test
+    public void parseCustomHeaders() throws Exception {
+        assertThat(JainSipMessageBuilder.parseCustomHeaders(messageFactory.createRequest(String.format(INVITE, "")))).isNull();
+
+        Message invite = messageFactory.createRequest(String.format(INVITE, "X-Account-Sid: AC1234\r\nX-Call-Type: support\r\nP-Asserted-Identity: <sip:bob@cloud.restcomm.com>\r\n"));
+        HashMap<String, String> customHeaders = JainSipMessageBuilder.parseCustomHeaders(invite);
+        assertThat(customHeaders).hasSize(2);
+        assertThat(customHeaders.get("X-Account-Sid")).isEqualTo("AC1234");
+        assertThat(customHeaders.get("X-Call-Type")).isEqualTo("support");
+
+        Message ok = messageFactory.createResponse(String.format(OK, "X-Session: 42\r\n"));
+        assertThat(JainSipMessageBuilder.parseCustomHeaders(ok)).containsEntry("X-Session", "42").hasSize(1);
+    }
+
+    @Test
+    public void parseCustomHeaders_MatchesRegex() throws Exception {
+        Message[] messages = new Message[] {
+                messageFactory.createRequest(String.format(INVITE, "")),
+                messageFactory.createResponse(String.format(OK, "")),
+                messageFactory.createRequest(String.format(INVITE, "X-Account-Sid: AC1234\r\n")),
+                messageFactory.createResponse(String.format(OK, "X-Session: 42\r\n")),
+        };
+        for (Message message : messages) {
+            assertThat(JainSipMessageBuilder.parseCustomHeaders(message)).isEqualTo(parseCustomHeadersRegex(message));
+        }
+    }
+
+    // ------ Helpers
+    // The regex based extraction we used to have, as a baseline
+    static HashMap<String, String> parseCustomHeadersRegex(Message message) {
+        HashMap<String, String> customHeaders = new HashMap<>();
+        ListIterator iterator = message.getHeaderNames();
+        while (iterator.hasNext()) {
+            String headerName = (String) iterator.next();
+            if (headerName.matches("(?s)^X-.*")) {
+                ExtensionHeaderImpl header = (ExtensionHeaderImpl) message.getHeader(headerName);
+                customHeaders.put(header.getName(), header.getHeaderValue());
+            }
+        }
+        if (customHeaders.isEmpty()) {
+            customHeaders = null;
+        }
+        return customHeaders;
+    }
+}
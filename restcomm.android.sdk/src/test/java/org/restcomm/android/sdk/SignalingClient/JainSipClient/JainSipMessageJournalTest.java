@@ -0,0 +1,125 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for JainSipMessageJournal, the queue where outgoing messages are
+ *  kept while offline, and which keeps track of them in case the process dies.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessageJournalTest {
+    private static final int MESSAGE_COUNT = 10000;
+
+    private File file;
+
+    @Before
+    public void setup() throws IOException {
+        file = File.createTempFile("journal", null);
+        file.delete();
+    }
+
+    @After
+    public void teardown() {
+        file.delete();
+    }
+
+    @Test
+    public void journal_PreviousSessionReported() throws IOException {
+        JainSipMessageJournal journal = new JainSipMessageJournal(file);
+        journal.add("job-1", "bob", "hello");
+        journal.add("job-2", "alice", "hi");
+        journal.add("job-3", "bob", "again");
+        journal.remove("job-2");
+        journal.close();
+        // only job ids are kept in the file
+        assertThat(new String(Files.readAllBytes(file.toPath()), "UTF-8")).doesNotContain("hello").doesNotContain("bob");
+
+        // messages left pending are reported, but never handed over for sending
+        journal = new JainSipMessageJournal(file);
+        assertThat(journal.size()).isEqualTo(0);
+        assertThat(journal.pollUndispatched()).isNull();
+        assertThat(journal.takePreviousSession()).containsExactly("job-1", "job-3");
+        assertThat(journal.takePreviousSession()).isEmpty();
+        journal.close();
+
+        // and only once
+        journal = new JainSipMessageJournal(file);
+        assertThat(journal.takePreviousSession()).isEmpty();
+    }
+
+    @Test
+    public void journal_KeyedByAccount() {
+        File directory = file.getParentFile();
+        File bob = JainSipMessageJournal.getFile(directory, "bob", "cloud.restcomm.com");
+        assertThat(bob).isEqualTo(JainSipMessageJournal.getFile(directory, "bob", "cloud.restcomm.com"));
+        assertThat(bob).isNotEqualTo(JainSipMessageJournal.getFile(directory, "alice", "cloud.restcomm.com"));
+        assertThat(bob).isNotEqualTo(JainSipMessageJournal.getFile(directory, "bob", "other.restcomm.com"));
+        assertThat(bob.getName()).doesNotContain("bob");
+    }
+
+    @Test
+    public void journal_DedupByJobId() {
+        JainSipMessageJournal journal = new JainSipMessageJournal(file);
+        assertThat(journal.add("job-1", "bob", "hello")).isTrue();
+        assertThat(journal.add("job-1", "bob", "hello")).isFalse();
+        assertThat(journal.size()).isEqualTo(1);
+
+        // once dispatched, requeueAll() hands the message over again, but only once
+        assertThat(journal.pollUndispatched().jobId).isEqualTo("job-1");
+        journal.requeueAll();
+        assertThat(journal.pollUndispatched().jobId).isEqualTo("job-1");
+        assertThat(journal.pollUndispatched()).isNull();
+    }
+
+    @Test
+    public void journal_TruncatedTail() throws IOException {
+        JainSipMessageJournal journal = new JainSipMessageJournal(file);
+        journal.add("job-1", "bob", "hello");
+        journal.close();
+
+        // emulate getting killed in the middle of an append
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        outputStream.write(new byte[] { 1, 0, 5, 'j' });
+        outputStream.close();
+
+        journal = new JainSipMessageJournal(file);
+        journal.add("job-2", "bob", "world");
+        journal.close();
+
+        journal = new JainSipMessageJournal(file);
+        assertThat(journal.takePreviousSession()).containsExactly("job-1", "job-2");
+    }
+
+    @Test
+    public void journal_FlushAll() {
+        JainSipMessageJournal journal = new JainSipMessageJournal(file);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            journal.add("job-" + i, "bob", "message " + i);
+        }
+        assertThat(journal.size()).isEqualTo(MESSAGE_COUNT);
+        JainSipMessageJournal.Record record;
+        int count = 0;
+        while ((record = journal.pollUndispatched()) != null) {
+            journal.remove(record.jobId);
+            count++;
+        }
+        journal.sync();
+
+        assertThat(count).isEqualTo(MESSAGE_COUNT);
+        assertThat(journal.size()).isEqualTo(0);
+        // everything flushed, so the file should be empty
+        assertThat(file.length()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,180 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.Transaction;
+import android.javax.sip.message.Request;
+import android.os.Handler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCConnection;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the flow control of JainSipMessagePipeline: the in-flight
+ *  window, per-peer ordering and the queue limit. Sending is replaced by a
+ *  stand-in that just records the message, and replies are recorded as they
+ *  reach the client listener (SignalingHandlerTest covers how they are then
+ *  batched towards the UI thread).
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessagePipelineTest {
+    private SignalingCounters counters;
+    private TestClient client;
+    private JainSipMessagePipeline pipeline;
+    private File file;
+    // replies as they reach the client listener: job id and status
+    private ArrayList<Object[]> replies;
+
+    @Before
+    public void setup() throws IOException {
+        replies = new ArrayList<>();
+        counters = new SignalingCounters();
+        client = new TestClient(null, counters);
+        client.listener = JainSipFakes.createProxy(JainSipClient.JainSipClientListener.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("onClientMessageReply")) {
+                    replies.add(new Object[] { args[0], args[1] });
+                }
+                return null;
+            }
+        });
+        client.configuration = new HashMap<>();
+        client.jainSipJobManager = new JainSipJobManager(client);
+
+        file = File.createTempFile("journal", null);
+        file.delete();
+        pipeline = new JainSipMessagePipeline(client) {
+            @Override
+            boolean canSend() {
+                return true;
+            }
+        };
+        pipeline.open(new JainSipMessageJournal(file));
+    }
+
+    @After
+    public void teardown() {
+        file.delete();
+    }
+
+    @Test
+    public void pump_WindowLimit() {
+        setLimits(2, 10);
+        enqueue("job-1", "alice", "one");
+        enqueue("job-2", "bob", "two");
+        enqueue("job-3", "carol", "three");
+
+        assertThat(client.sent).containsExactly("one", "two");
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGES_IN_FLIGHT)).isEqualTo(2);
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGE_QUEUE_DEPTH)).isEqualTo(1);
+
+        // a completed message makes room for the next one
+        pipeline.onMessageCompleted("job-1", RCClient.ErrorCodes.SUCCESS, "Success");
+        assertThat(client.sent).containsExactly("one", "two", "three");
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGES_IN_FLIGHT)).isEqualTo(2);
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGE_QUEUE_DEPTH)).isEqualTo(0);
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGES_SUCCEEDED)).isEqualTo(1);
+    }
+
+    @Test
+    public void pump_PerPeerOrdering() {
+        setLimits(8, 10);
+        enqueue("job-1", "alice", "a1");
+        enqueue("job-2", "alice", "a2");
+        enqueue("job-3", "bob", "b1");
+
+        // only one message per peer in-flight, even though the window has room
+        assertThat(client.sent).containsExactly("a1", "b1");
+
+        pipeline.onMessageCompleted("job-3", RCClient.ErrorCodes.SUCCESS, "Success");
+        assertThat(client.sent).containsExactly("a1", "b1");
+
+        // failures free up the peer too
+        pipeline.onMessageCompleted("job-1", RCClient.ErrorCodes.ERROR_MESSAGE_TIMEOUT, "Timeout");
+        assertThat(client.sent).containsExactly("a1", "b1", "a2");
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGES_FAILED)).isEqualTo(1);
+    }
+
+    @Test
+    public void enqueue_QueueFull() {
+        setLimits(1, 2);
+        enqueue("job-1", "alice", "one");
+        enqueue("job-2", "alice", "two");
+        enqueue("job-3", "alice", "three");
+        enqueue("job-4", "alice", "four");
+
+        assertThat(client.sent).containsExactly("one");
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGE_QUEUE_DEPTH)).isEqualTo(2);
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGES_REJECTED)).isEqualTo(1);
+
+        assertThat(replies).hasSize(1);
+        assertThat(replies.get(0)).containsExactly("job-4", RCClient.ErrorCodes.ERROR_MESSAGE_QUEUE_FULL);
+
+        // rejected messages aren't kept around
+        pipeline.onMessageCompleted("job-1", RCClient.ErrorCodes.SUCCESS, "Success");
+        pipeline.onMessageCompleted("job-2", RCClient.ErrorCodes.SUCCESS, "Success");
+        pipeline.onMessageCompleted("job-3", RCClient.ErrorCodes.SUCCESS, "Success");
+        assertThat(client.sent).containsExactly("one", "two", "three");
+    }
+
+    @Test
+    public void onMessageCompleted_Replies() {
+        setLimits(8, 10);
+        enqueue("job-1", "alice", "one");
+        enqueue("job-2", "bob", "two");
+
+        // replies go out in completion order
+        pipeline.onMessageCompleted("job-2", RCClient.ErrorCodes.SUCCESS, "Success");
+        pipeline.onMessageCompleted("job-1", RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND, "Not found");
+
+        assertThat(replies).hasSize(2);
+        assertThat(replies.get(0)).containsExactly("job-2", RCClient.ErrorCodes.SUCCESS);
+        assertThat(replies.get(1)).containsExactly("job-1", RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND);
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGES_IN_FLIGHT)).isEqualTo(0);
+    }
+
+    // ------ Helpers
+    private void setLimits(int windowSize, int queueSize) {
+        client.configuration.put(RCDevice.ParameterKeys.SIGNALING_MESSAGE_WINDOW_SIZE, windowSize);
+        client.configuration.put(RCDevice.ParameterKeys.SIGNALING_MESSAGE_QUEUE_SIZE, queueSize);
+    }
+
+    private void enqueue(String jobId, String peer, String text) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(RCConnection.ParameterKeys.CONNECTION_PEER, "sip:" + peer + "@cloud.restcomm.com");
+        parameters.put(JainSipMessagePipeline.TEXT_MESSAGE, text);
+        pipeline.enqueue(jobId, parameters);
+    }
+
+    private static class TestClient extends JainSipClient {
+        // text of the messages sent out, in order
+        final ArrayList<String> sent = new ArrayList<>();
+
+        TestClient(Handler signalingHandler, SignalingCounters counters) {
+            super(signalingHandler, counters);
+        }
+
+        @Override
+        public Transaction jainSipClientSendMessage(HashMap<String, Object> parameters) {
+            sent.add((String) parameters.get(JainSipMessagePipeline.TEXT_MESSAGE));
+            return JainSipFakes.createTransaction(Request.MESSAGE, "branch-" + sent.size(), "call-" + sent.size());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.DialogTerminatedEvent;
+import android.javax.sip.IOExceptionEvent;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.RequestEvent;
+import android.javax.sip.ResponseEvent;
+import android.javax.sip.SipFactory;
+import android.javax.sip.SipListener;
+import android.javax.sip.SipProvider;
+import android.javax.sip.SipStack;
+import android.javax.sip.TimeoutEvent;
+import android.javax.sip.TransactionTerminatedEvent;
+import android.javax.sip.message.MessageFactory;
+import android.javax.sip.message.Response;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for JainSipMessageProcessorFactory: a local SIP stack answers OPTIONS
+ *  over many concurrent TCP connections, with NIO and with blocking processing.
+ *  The same stack is used by JainSipMessageProcessorFactoryBenchmark.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipMessageProcessorFactoryTest {
+    private static final int CONNECTION_COUNT = 50;
+    private static final int REQUESTS_PER_CONNECTION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static class Result {
+        int threads;
+        long memoryKb;
+        long latencyAverageUs;
+        int responses;
+    }
+
+    @Test
+    public void isEnabled_ExplicitSetting() {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED, true);
+        assertThat(JainSipMessageProcessorFactory.isEnabled(parameters)).isTrue();
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_NIO_ENABLED, false);
+        assertThat(JainSipMessageProcessorFactory.isEnabled(parameters)).isFalse();
+    }
+
+    @Test
+    public void nio_FewerThreadsThanBlocking() throws Exception {
+        SignalingCounters blockingCounters = new SignalingCounters();
+        Result blocking = run("blocking", false, blockingCounters, CONNECTION_COUNT, REQUESTS_PER_CONNECTION);
+        SignalingCounters nioCounters = new SignalingCounters();
+        Result nio = run("nio", true, nioCounters, CONNECTION_COUNT, REQUESTS_PER_CONNECTION);
+
+        assertThat(blocking.responses).isEqualTo(CONNECTION_COUNT * REQUESTS_PER_CONNECTION);
+        assertThat(nio.responses).isEqualTo(CONNECTION_COUNT * REQUESTS_PER_CONNECTION);
+        assertThat(blockingCounters.get(SignalingMetrics.Counter.MESSAGE_PROCESSORS_BLOCKING)).isEqualTo(1);
+        assertThat(nioCounters.get(SignalingMetrics.Counter.MESSAGE_PROCESSORS_NIO)).isEqualTo(1);
+        // blocking processing needs a thread per connection, NIO shouldn't
+        assertThat(blocking.threads).isGreaterThanOrEqualTo(CONNECTION_COUNT);
+        assertThat(nio.threads).isLessThan(blocking.threads);
+    }
+
+    // Bring up a SIP stack answering OPTIONS on a local TCP listening point, hit it from connectionCount connections at once and measure
+    static Result run(String name, boolean nio, SignalingCounters counters, int connectionCount, int requestsPerConnection) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("android.javax.sip.STACK_NAME", "benchmark-" + name);
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("android.gov.nist");
+        SipStack sipStack = sipFactory.createSipStack(properties);
+        assertThat(JainSipMessageProcessorFactory.install(sipStack, nio, counters)).isTrue();
+        final MessageFactory messageFactory = sipFactory.createMessageFactory();
+        int port = getFreePort();
+        ListeningPoint listeningPoint = sipStack.createListeningPoint("127.0.0.1", port, ListeningPoint.TCP);
+        final SipProvider sipProvider = sipStack.createSipProvider(listeningPoint);
+        sipProvider.addSipListener(new SipListener() {
+            @Override
+            public void processRequest(RequestEvent requestEvent) {
+                try {
+                    sipProvider.getNewServerTransaction(requestEvent.getRequest())
+                            .sendResponse(messageFactory.createResponse(Response.OK, requestEvent.getRequest()));
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+
+            @Override
+            public void processResponse(ResponseEvent responseEvent) {
+            }
+
+            @Override
+            public void processTimeout(TimeoutEvent timeoutEvent) {
+            }
+
+            @Override
+            public void processIOException(IOExceptionEvent exceptionEvent) {
+            }
+
+            @Override
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {
+            }
+
+            @Override
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {
+            }
+        });
+
+        Result result = new Result();
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            System.gc();
+            int baseThreads = Thread.activeCount();
+            long baseMemory = usedMemory();
+
+            for (int i = 0; i < connectionCount; i++) {
+                sockets.add(new Socket("127.0.0.1", port));
+            }
+
+            long latencyTotalNs = 0;
+            for (int j = 0; j < requestsPerConnection; j++) {
+                for (int i = 0; i < sockets.size(); i++) {
+                    long startTime = System.nanoTime();
+                    if (request(sockets.get(i), port, i, j)) {
+                        result.responses++;
+                    }
+                    latencyTotalNs += System.nanoTime() - startTime;
+                }
+            }
+
+            // measure while all connections are still up
+            result.threads = Thread.activeCount() - baseThreads;
+            System.gc();
+            result.memoryKb = (usedMemory() - baseMemory) / 1024;
+            result.latencyAverageUs = latencyTotalNs / (connectionCount * requestsPerConnection) / 1000;
+        }
+        finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            sipStack.deleteSipProvider(sipProvider);
+            sipStack.deleteListeningPoint(listeningPoint);
+            sipStack.stop();
+        }
+        return result;
+    }
+
+    // Send an OPTIONS over the given connection and wait for the 200 OK
+    private static boolean request(Socket socket, int port, int connection, int sequence) throws Exception {
+        String request = "OPTIONS sip:benchmark@127.0.0.1:" + port + ";transport=tcp SIP/2.0\r\n" +
+                "Via: SIP/2.0/TCP 127.0.0.1:" + socket.getLocalPort() + ";branch=z9hG4bK-" + connection + "-" + sequence + "\r\n" +
+                "Max-Forwards: 70\r\n" +
+                "From: <sip:client@127.0.0.1>;tag=" + connection + "\r\n" +
+                "To: <sip:benchmark@127.0.0.1>\r\n" +
+                "Call-ID: benchmark-" + connection + "-" + sequence + "\r\n" +
+                "CSeq: " + (sequence + 1) + " OPTIONS\r\n" +
+                "Content-Length: 0\r\n\r\n";
+        OutputStream outputStream = socket.getOutputStream();
+        outputStream.write(request.getBytes(UTF8));
+        outputStream.flush();
+
+        // responses carry no body, so the header block is all there is
+        String response = readHeaders(socket.getInputStream());
+        return response.startsWith("SIP/2.0 200");
+    }
+
+    // Read up to (and including) the blank line ending the header block, one byte at a time so that nothing belonging to the next response is consumed
+    private static String readHeaders(InputStream inputStream) throws Exception {
+        StringBuilder headers = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            headers.append((char) b);
+            int length = headers.length();
+            if (length >= 4 && headers.substring(length - 4).equals("\r\n\r\n")) {
+                break;
+            }
+        }
+        return headers.toString();
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int getFreePort() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+}
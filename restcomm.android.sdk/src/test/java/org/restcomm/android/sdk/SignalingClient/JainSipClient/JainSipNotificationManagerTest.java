@@ -0,0 +1,136 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for how JainSipNotificationManager debounces network events and
+ *  classifies the resulting change. Connectivity is reported by the test
+ *  instead of ConnectivityManager, and time is the Robolectric clock.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipNotificationManagerTest {
+    private JainSipNotificationManager manager;
+    private ArrayList<JainSipNotificationManager.ConnectivityChange> changes;
+    // what the manager sees on its next evaluation
+    private JainSipNotificationManager.NetworkStatus status;
+    private boolean networkChanged;
+
+    @Before
+    public void setup() {
+        changes = new ArrayList<>();
+        status = JainSipNotificationManager.NetworkStatus.NetworkStatusCellular;
+        manager = new TestNotificationManager();
+    }
+
+    @Test
+    public void onNetworkEvent_Debounced() {
+        status = JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi;
+        networkChanged = true;
+
+        // a handover typically comes as a burst of events
+        manager.onNetworkEvent("available");
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        manager.onNetworkEvent("lost");
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        manager.onNetworkEvent("link properties changed");
+
+        ShadowLooper.idleMainLooper(JainSipNotificationManager.DEBOUNCE_INTERVAL - 1, TimeUnit.MILLISECONDS);
+        assertThat(changes).isEmpty();
+
+        ShadowLooper.idleMainLooper(1, TimeUnit.MILLISECONDS);
+        assertThat(changes).containsExactly(JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_WIFI);
+    }
+
+    @Test
+    public void evaluate_SameTypeHandover() {
+        manager.networksStatus = JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi;
+        status = JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi;
+
+        // same network, nothing to report
+        networkChanged = false;
+        manager.onNetworkEvent("link properties changed");
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+        assertThat(changes).isEmpty();
+
+        // moving to a different wifi network still needs a rebind
+        networkChanged = true;
+        manager.onNetworkEvent("available");
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+        assertThat(changes).containsExactly(JainSipNotificationManager.ConnectivityChange.HANDOVER_TO_WIFI);
+    }
+
+    @Test
+    public void evaluate_OfflineAndBack() {
+        status = JainSipNotificationManager.NetworkStatus.NetworkStatusNone;
+        manager.onNetworkEvent("lost");
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+
+        status = JainSipNotificationManager.NetworkStatus.NetworkStatusCellular;
+        manager.onNetworkEvent("available");
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+
+        assertThat(changes).containsExactly(JainSipNotificationManager.ConnectivityChange.OFFLINE,
+                JainSipNotificationManager.ConnectivityChange.OFFLINE_TO_CELLULAR_DATA);
+    }
+
+    @Test
+    public void close_PendingEventsDropped() {
+        status = JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi;
+        networkChanged = true;
+
+        // one event still waiting for the signaling thread, another one waiting to settle
+        manager.onNetworkEvent("available");
+        ShadowLooper.pauseMainLooper();
+        manager.onNetworkEvent("lost");
+        manager.close();
+        ShadowLooper.unPauseMainLooper();
+
+        // and one that arrives late from the ConnectivityService thread
+        manager.onNetworkEvent("link properties changed");
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+        assertThat(changes).isEmpty();
+    }
+
+    private class TestNotificationManager extends JainSipNotificationManager {
+        TestNotificationManager() {
+            super(RuntimeEnvironment.application, new Handler(Looper.getMainLooper()), new NotificationManagerListener() {
+                @Override
+                public void onConnectivityChange(ConnectivityChange connectivityChange) {
+                    changes.add(connectivityChange);
+                }
+            });
+        }
+
+        @Override
+        NetworkStatus checkNetworkStatus() {
+            return status;
+        }
+
+        @Override
+        boolean updateActiveNetwork() {
+            return networkChanged;
+        }
+
+        @Override
+        void registerForEvents() {
+        }
+
+        @Override
+        void unregisterForEvents() {
+        }
+    }
+}
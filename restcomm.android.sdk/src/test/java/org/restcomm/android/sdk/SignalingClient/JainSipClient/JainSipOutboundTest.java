@@ -0,0 +1,103 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.ListeningPointExt;
+import android.javax.sip.ListeningPoint;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the keep-alive interval handling of JainSipOutbound.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipOutboundTest {
+    private JainSipOutbound outbound;
+    private ListeningPoint listeningPoint;
+    private SignalingCounters counters;
+    private int flowFailures;
+
+    @Before
+    public void setup() {
+        flowFailures = 0;
+        counters = new SignalingCounters();
+        outbound = new JainSipOutbound(new JainSipScheduler(new Handler(Looper.getMainLooper()), null, counters), counters,
+                new JainSipOutbound.OutboundListener() {
+                    @Override
+                    public void onFlowFailed() {
+                        flowFailures++;
+                    }
+                });
+        listeningPoint = createListeningPoint();
+    }
+
+    @Test
+    public void interval_Fixed() {
+        outbound.start(listeningPoint, "10.0.0.1", 5061, 0, 120);
+        assertThat(outbound.getInterval()).isEqualTo(120);
+
+        // never beyond what RFC 5626 allows
+        outbound.start(listeningPoint, "10.0.0.2", 5061, 0, 3600);
+        assertThat(outbound.getInterval()).isEqualTo(JainSipOutbound.MAX_KEEPALIVE_INTERVAL);
+        assertThat(counters.get(SignalingMetrics.Counter.KEEP_ALIVE_INTERVAL)).isEqualTo(JainSipOutbound.MAX_KEEPALIVE_INTERVAL);
+
+        outbound.stop();
+        assertThat(counters.get(SignalingMetrics.Counter.KEEP_ALIVE_INTERVAL)).isEqualTo(0);
+    }
+
+    @Test
+    public void interval_CappedByFlowTimer() {
+        outbound.start(listeningPoint, "10.0.0.1", 5061, 100, 120);
+        assertThat(outbound.getInterval()).isEqualTo(100);
+
+        // the registrar lowering its Flow-Timer on re-registration is honored too
+        outbound.start(listeningPoint, "10.0.0.1", 5061, 60, 120);
+        assertThat(outbound.getInterval()).isEqualTo(60);
+    }
+
+    @Test
+    public void flowFailure_HalvesInterval() {
+        outbound.start(listeningPoint, "10.0.0.1", 5061, 0, 120);
+
+        // failures on other flows are none of our business
+        outbound.onFlowFailure("10.0.0.2", 5061);
+        assertThat(flowFailures).isEqualTo(0);
+
+        outbound.onFlowFailure("10.0.0.1", 5061);
+        assertThat(flowFailures).isEqualTo(1);
+        assertThat(outbound.isRunning()).isFalse();
+        assertThat(outbound.getInterval()).isEqualTo(60);
+
+        // re-registering towards the same registrar keeps what we learned, instead of starting over
+        outbound.start(listeningPoint, "10.0.0.1", 5061, 0, 120);
+        assertThat(outbound.getInterval()).isEqualTo(60);
+        outbound.onFlowFailure("10.0.0.1", 5061);
+        outbound.start(listeningPoint, "10.0.0.1", 5061, 0, 120);
+        outbound.onFlowFailure("10.0.0.1", 5061);
+        assertThat(outbound.getInterval()).isEqualTo(JainSipOutbound.MIN_KEEPALIVE_INTERVAL);
+
+        // a new flow starts over
+        outbound.start(listeningPoint, "10.0.0.2", 5061, 0, 120);
+        assertThat(outbound.getInterval()).isEqualTo(120);
+    }
+
+    private static ListeningPoint createListeningPoint() {
+        return JainSipFakes.createProxy(ListeningPointExt.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+    }
+}
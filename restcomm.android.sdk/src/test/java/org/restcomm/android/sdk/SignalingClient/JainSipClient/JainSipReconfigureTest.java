@@ -0,0 +1,243 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.gov.nist.javax.sip.ResponseEventExt;
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.header.CallIdHeader;
+import android.javax.sip.message.Request;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for reconfiguring the registration through JainSipJobManager: the
+ *  time until the App is notified with and without concurrent reconfigure,
+ *  and the background unregister job that concurrent reconfigure starts.
+ *  Sending is replaced by a stand-in that just records the request, each
+ *  response is handed to the job its Call-ID maps to (like processResponse()
+ *  does), and time is the Robolectric clock.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipReconfigureTest {
+    // round-trip time of every simulated request
+    private static final long RTT = 200;
+
+    private SignalingCounters counters;
+    private TestClient client;
+    private JainSipJobManager jainSipJobManager;
+    // reconfigure replies as they reach the client listener: job id and status
+    private ArrayList<Object[]> replies;
+
+    @Before
+    public void setup() {
+        replies = new ArrayList<>();
+        counters = new SignalingCounters();
+        client = new TestClient(counters);
+        client.listener = JainSipFakes.createProxy(JainSipClient.JainSipClientListener.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("onClientReconfigureReply")) {
+                    replies.add(new Object[] { args[0], args[2] });
+                }
+                return null;
+            }
+        });
+        client.jainSipNotificationManager = new TestNotificationManager();
+        jainSipJobManager = new JainSipJobManager(client);
+        client.jainSipJobManager = jainSipJobManager;
+    }
+
+    @Test
+    public void reconfigure_Sequential() {
+        reconfigure("job", createParameters("alice", false), createParameters("bob", false));
+        assertThat(client.sent).containsExactly("UNREGISTER alice");
+
+        // the old registration has to go first, only then can we register the new one
+        respond("call-1", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(client.sent).containsExactly("UNREGISTER alice", "REGISTER bob");
+        assertThat(replies).isEmpty();
+
+        respond("call-2", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(replies).hasSize(1);
+        assertThat(replies.get(0)).containsExactly("job", RCClient.ErrorCodes.SUCCESS);
+        assertThat(counters.get(SignalingMetrics.Counter.RECONFIGURES)).isEqualTo(1);
+        assertThat(counters.get(SignalingMetrics.Counter.RECONFIGURE_LATENCY_LAST_MS)).isEqualTo(2 * RTT);
+    }
+
+    @Test
+    public void reconfigure_Concurrent() {
+        reconfigure("job", createParameters("alice", true), createParameters("bob", true));
+
+        // both go out right away, the unregister as a job of its own
+        assertThat(client.sent).containsExactly("UNREGISTER alice", "REGISTER bob");
+        JainSipJob unregisterJob = jainSipJobManager.getByCallId("call-1");
+        assertThat(unregisterJob.type).isEqualTo(JainSipJob.Type.TYPE_UNREGISTER);
+        assertThat(jainSipJobManager.getByCallId("call-2").jobId).isEqualTo("job");
+
+        // the App only waits for the new registration
+        respond("call-2", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(replies).hasSize(1);
+        assertThat(replies.get(0)).containsExactly("job", RCClient.ErrorCodes.SUCCESS);
+        assertThat(counters.get(SignalingMetrics.Counter.RECONFIGURE_LATENCY_LAST_MS)).isEqualTo(RTT);
+        assertThat(jainSipJobManager.get(unregisterJob.jobId)).isSameAs(unregisterJob);
+
+        respond("call-1", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(jainSipJobManager.get(unregisterJob.jobId)).isNull();
+        assertThat(replies).hasSize(1);
+    }
+
+    @Test
+    public void reconfigure_ConcurrentUnregisterFirst() {
+        reconfigure("job", createParameters("alice", true), createParameters("bob", true));
+        String unregisterJobId = jainSipJobManager.getByCallId("call-1").jobId;
+
+        // the old registration is challenged and then removed while the new one is still pending; none of this concerns the App
+        respond("call-1", JainSipJob.FsmEvents.AUTH_REQUIRED);
+        assertThat(client.sent).containsExactly("UNREGISTER alice", "REGISTER bob", "AUTH alice");
+        assertThat(jainSipJobManager.getByCallId("call-1").jobId).isEqualTo(unregisterJobId);
+
+        respond("call-1", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(jainSipJobManager.get(unregisterJobId)).isNull();
+        assertThat(replies).isEmpty();
+
+        // and the new registration, when challenged, still authenticates with the new credentials
+        respond("call-2", JainSipJob.FsmEvents.AUTH_REQUIRED);
+        assertThat(client.sent).containsExactly("UNREGISTER alice", "REGISTER bob", "AUTH alice", "AUTH bob");
+        respond("call-2", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(replies).hasSize(1);
+        assertThat(replies.get(0)).containsExactly("job", RCClient.ErrorCodes.SUCCESS);
+        assertThat(counters.get(SignalingMetrics.Counter.RECONFIGURE_LATENCY_LAST_MS)).isEqualTo(4 * RTT);
+        assertThat(counters.get(SignalingMetrics.Counter.RECONFIGURE_LATENCY_MAX_MS)).isEqualTo(4 * RTT);
+    }
+
+    @Test
+    public void reconfigure_ConcurrentSameAddressOfRecord() {
+        HashMap<String, Object> newParameters = createParameters("alice", true);
+        newParameters.put(RCDevice.ParameterKeys.SIGNALING_PASSWORD, "new-password");
+        reconfigure("job", createParameters("alice", true), newParameters);
+
+        // an unregister for the same Contact could race with the register and remove the new binding, so it's not sent at all
+        assertThat(client.sent).containsExactly("REGISTER alice");
+        respond("call-1", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(replies).hasSize(1);
+        assertThat(jainSipJobManager.get("job")).isNull();
+    }
+
+    @Test
+    public void unregister_Timeout() {
+        reconfigure("job", createParameters("alice", true), createParameters("bob", true));
+        String unregisterJobId = jainSipJobManager.getByCallId("call-1").jobId;
+
+        // a background unregister that times out just goes away, without affecting the reconfigure
+        jainSipJobManager.get(unregisterJobId).processFsm(unregisterJobId, JainSipJob.FsmEvents.TIMEOUT, null,
+                RCClient.ErrorCodes.ERROR_DEVICE_REGISTER_TIMEOUT, RCClient.errorText(RCClient.ErrorCodes.ERROR_DEVICE_REGISTER_TIMEOUT));
+        assertThat(jainSipJobManager.get(unregisterJobId)).isNull();
+        assertThat(replies).isEmpty();
+
+        respond("call-2", JainSipJob.FsmEvents.REGISTER_SUCCESS);
+        assertThat(replies).hasSize(1);
+        assertThat(replies.get(0)).containsExactly("job", RCClient.ErrorCodes.SUCCESS);
+    }
+
+    // ------ Helpers
+    private static HashMap<String, Object> createParameters(String username, boolean concurrent) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_USERNAME, username);
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_DOMAIN, "cloud.restcomm.com");
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_PASSWORD, "password");
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_CONCURRENT_RECONFIGURE_ENABLED, concurrent);
+        return parameters;
+    }
+
+    private void reconfigure(String jobId, HashMap<String, Object> oldParameters, HashMap<String, Object> newParameters) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("old-parameters", oldParameters);
+        parameters.put("new-parameters", newParameters);
+        jainSipJobManager.add(jobId, JainSipJob.Type.TYPE_RECONFIGURE, parameters);
+    }
+
+    // Response for the request with the given Call-ID, arriving one RTT later
+    private void respond(String callId, JainSipJob.FsmEvents event) {
+        ShadowLooper.idleMainLooper(RTT, TimeUnit.MILLISECONDS);
+        JainSipJob jainSipJob = jainSipJobManager.getByCallId(callId);
+        if (event == JainSipJob.FsmEvents.REGISTER_SUCCESS) {
+            jainSipJob.processFsm(jainSipJob.jobId, event, null, RCClient.ErrorCodes.SUCCESS, RCClient.errorText(RCClient.ErrorCodes.SUCCESS));
+        }
+        else {
+            jainSipJob.processFsm(jainSipJob.jobId, event, null, null, null);
+        }
+    }
+
+    private static class TestClient extends JainSipClient {
+        // requests sent out, in order: method and username
+        final ArrayList<String> sent = new ArrayList<>();
+
+        TestClient(SignalingCounters counters) {
+            super(null, counters);
+        }
+
+        @Override
+        public ClientTransaction jainSipClientRegister(JainSipJob jainSipJob, HashMap<String, Object> parameters) {
+            return send("REGISTER", parameters, "call-" + (sent.size() + 1));
+        }
+
+        @Override
+        public ClientTransaction jainSipClientUnregister(HashMap<String, Object> parameters) {
+            return send("UNREGISTER", parameters, "call-" + (sent.size() + 1));
+        }
+
+        @Override
+        public void jainSipAuthenticate(JainSipJob jainSipJob, HashMap<String, Object> parameters, ResponseEventExt responseEventExt) {
+            // authenticated requests keep the Call-ID of the one challenged
+            String callId = ((CallIdHeader) jainSipJob.transaction.getRequest().getHeader(CallIdHeader.NAME)).getCallId();
+            jainSipJob.updateTransaction(send("AUTH", parameters, callId));
+        }
+
+        private ClientTransaction send(String kind, HashMap<String, Object> parameters, String callId) {
+            sent.add(kind + " " + parameters.get(RCDevice.ParameterKeys.SIGNALING_USERNAME));
+            return JainSipFakes.createTransaction(Request.REGISTER, "branch-" + sent.size(), callId);
+        }
+    }
+
+    private static class TestNotificationManager extends JainSipNotificationManager {
+        TestNotificationManager() {
+            super(RuntimeEnvironment.application, new Handler(Looper.getMainLooper()), null);
+        }
+
+        @Override
+        NetworkStatus checkNetworkStatus() {
+            return NetworkStatus.NetworkStatusWiFi;
+        }
+
+        @Override
+        boolean updateActiveNetwork() {
+            return false;
+        }
+
+        @Override
+        void registerForEvents() {
+        }
+
+        @Override
+        void unregisterForEvents() {
+        }
+    }
+}
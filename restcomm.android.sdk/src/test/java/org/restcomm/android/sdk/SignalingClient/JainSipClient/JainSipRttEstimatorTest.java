@@ -0,0 +1,135 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.message.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for how JainSipRttEstimator derives T1 from RTT samples.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipRttEstimatorTest {
+    private static final JainSipNotificationManager.NetworkStatus WIFI = JainSipNotificationManager.NetworkStatus.NetworkStatusWiFi;
+    private static final JainSipNotificationManager.NetworkStatus CELLULAR = JainSipNotificationManager.NetworkStatus.NetworkStatusCellular;
+
+    private SignalingCounters counters;
+    private JainSipRttEstimator estimator;
+    private long time;
+
+    @Before
+    public void setup() {
+        counters = new SignalingCounters();
+        estimator = new JainSipRttEstimator(counters) {
+            @Override
+            long now() {
+                return time;
+            }
+        };
+    }
+
+    @Test
+    public void t1_DefaultWithoutSamples() {
+        assertThat(estimator.getT1(WIFI)).isEqualTo(JainSipRttEstimator.DEFAULT_T1);
+        assertThat(estimator.getSmoothedRtt(WIFI)).isEqualTo(0);
+    }
+
+    @Test
+    public void t1_FollowsNetwork() {
+        // fast, steady WiFi goes down to the floor, which is never below the RFC 3261 default
+        for (int i = 0; i < 50; i++) {
+            estimator.addSample(WIFI, 30);
+        }
+        assertThat(estimator.getSmoothedRtt(WIFI)).isEqualTo(30);
+        assertThat(estimator.getT1(WIFI)).isEqualTo(JainSipRttEstimator.MIN_T1).isGreaterThanOrEqualTo(500);
+
+        // slow, jittery cellular goes above the default, without affecting WiFi
+        for (int i = 0; i < 50; i++) {
+            estimator.addSample(CELLULAR, (i % 2 == 0) ? 400 : 900);
+        }
+        assertThat(estimator.getT1(CELLULAR)).isGreaterThan(JainSipRttEstimator.DEFAULT_T1).isLessThanOrEqualTo(JainSipRttEstimator.MAX_T1);
+        assertThat(estimator.getT1(WIFI)).isEqualTo(JainSipRttEstimator.MIN_T1);
+    }
+
+    @Test
+    public void onTimeout_OnlyRegister() {
+        // a MESSAGE towards an unreachable peer says nothing about the network
+        ClientTransaction message = createTransaction(Request.MESSAGE, "z9hG4bK-1");
+        estimator.onRequestSending(message, WIFI);
+        estimator.onTimeout(message);
+        assertThat(estimator.getT1(WIFI)).isEqualTo(JainSipRttEstimator.DEFAULT_T1);
+
+        ClientTransaction register = createTransaction(Request.REGISTER, "z9hG4bK-2");
+        estimator.onRequestSending(register, WIFI);
+        estimator.onTimeout(register);
+        assertThat(estimator.getT1(WIFI)).isEqualTo(2 * JainSipRttEstimator.DEFAULT_T1);
+    }
+
+    @Test
+    public void onResponse_KarnsRule() {
+        // over UDP the request was retransmitted at T1, so a response after that may belong to either
+        ClientTransaction udp = createRegister("z9hG4bK-1", ListeningPoint.UDP);
+        estimator.onRequestSending(udp, CELLULAR);
+        time += JainSipRttEstimator.DEFAULT_T1 + 100;
+        estimator.onResponse(udp);
+        assertThat(estimator.getSmoothedRtt(CELLULAR)).isEqualTo(0);
+        assertThat(counters.get(SignalingMetrics.Counter.RTT_SAMPLES_DISCARDED)).isEqualTo(1);
+
+        // before T1 there's no doubt
+        udp = createRegister("z9hG4bK-2", ListeningPoint.UDP);
+        estimator.onRequestSending(udp, CELLULAR);
+        time += JainSipRttEstimator.DEFAULT_T1 - 100;
+        estimator.onResponse(udp);
+        assertThat(estimator.getSmoothedRtt(CELLULAR)).isEqualTo(JainSipRttEstimator.DEFAULT_T1 - 100);
+
+        // reliable transports don't retransmit, so slow responses are valid samples
+        ClientTransaction tcp = createRegister("z9hG4bK-3", ListeningPoint.TCP);
+        estimator.onRequestSending(tcp, WIFI);
+        time += JainSipRttEstimator.DEFAULT_T1 + 100;
+        estimator.onResponse(tcp);
+        assertThat(estimator.getSmoothedRtt(WIFI)).isEqualTo(JainSipRttEstimator.DEFAULT_T1 + 100);
+        assertThat(counters.get(SignalingMetrics.Counter.RTT_SAMPLES)).isEqualTo(2);
+    }
+
+    @Test
+    public void onTimeout_BackoffDecays() {
+        for (int i = 0; i < 50; i++) {
+            estimator.addSample(CELLULAR, 600);
+        }
+        int t1 = estimator.getT1(CELLULAR);
+
+        ClientTransaction register = createRegister("z9hG4bK-1", ListeningPoint.TCP);
+        estimator.onRequestSending(register, CELLULAR);
+        estimator.onTimeout(register);
+        register = createRegister("z9hG4bK-2", ListeningPoint.TCP);
+        estimator.onRequestSending(register, CELLULAR);
+        estimator.onTimeout(register);
+        assertThat(estimator.getT1(CELLULAR)).isEqualTo(JainSipRttEstimator.MAX_T1);
+
+        // the first response after that only halves the backoff, even if it's not a sample, and the next one takes us back to normal
+        ClientTransaction message = createTransaction(Request.MESSAGE, "z9hG4bK-3");
+        estimator.onRequestSending(message, CELLULAR);
+        estimator.onResponse(message);
+        assertThat(estimator.getT1(CELLULAR)).isEqualTo(2 * t1);
+        estimator.addSample(CELLULAR, 600);
+        assertThat(estimator.getT1(CELLULAR)).isEqualTo(t1);
+    }
+
+    // ------ Helpers
+    private static ClientTransaction createTransaction(String method, String branchId) {
+        return JainSipFakes.createTransaction(method, branchId, "call-" + branchId);
+    }
+
+    private static ClientTransaction createRegister(String branchId, String transport) {
+        return JainSipFakes.createTransaction(Request.REGISTER, branchId, "call-" + branchId, transport);
+    }
+}
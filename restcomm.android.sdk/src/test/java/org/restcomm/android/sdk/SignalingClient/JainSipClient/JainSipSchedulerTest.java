@@ -0,0 +1,75 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the batching of background tasks in JainSipScheduler. Wake-ups
+ *  go through the handler, with the Robolectric clock.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipSchedulerTest {
+    private JainSipScheduler scheduler;
+    private SignalingCounters counters;
+    private int[] runs;
+
+    @Before
+    public void setup() {
+        counters = new SignalingCounters();
+        scheduler = new JainSipScheduler(new Handler(Looper.getMainLooper()), null, counters);
+        runs = new int[2];
+    }
+
+    @Test
+    public void schedule_OverlappingWindowsBatched() {
+        scheduler.schedule("register-refresh", 100 * 1000, 30 * 1000, counter(0));
+        scheduler.schedule("keep-alive", 120 * 1000, 40 * 1000, counter(1));
+
+        ShadowLooper.idleMainLooper(100, TimeUnit.SECONDS);
+        assertThat(runs[0]).isEqualTo(1);
+        assertThat(runs[1]).isEqualTo(1);
+
+        SignalingMetrics metrics = new SignalingMetrics.Builder().add(counters).build();
+        assertThat(metrics.get(SignalingMetrics.Counter.SCHEDULER_WAKEUPS)).isEqualTo(1);
+        assertThat(metrics.get(SignalingMetrics.Counter.SCHEDULER_TASKS_RUN)).isEqualTo(2);
+        assertThat(metrics.getSchedulerWakeupsSaved()).isEqualTo(1);
+    }
+
+    @Test
+    public void schedule_DisjointWindows() {
+        scheduler.schedule("register-refresh", 100 * 1000, 10 * 1000, counter(0));
+        scheduler.schedule("keep-alive", 200 * 1000, 10 * 1000, counter(1));
+
+        ShadowLooper.idleMainLooper(100, TimeUnit.SECONDS);
+        assertThat(runs[0]).isEqualTo(1);
+        assertThat(runs[1]).isEqualTo(0);
+
+        // cancelling the remaining task means no more wake-ups
+        scheduler.cancel("keep-alive");
+        ShadowLooper.idleMainLooper(100, TimeUnit.SECONDS);
+        assertThat(runs[1]).isEqualTo(0);
+        assertThat(counters.get(SignalingMetrics.Counter.SCHEDULER_WAKEUPS)).isEqualTo(1);
+    }
+
+    private Runnable counter(final int index) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runs[index]++;
+            }
+        };
+    }
+}
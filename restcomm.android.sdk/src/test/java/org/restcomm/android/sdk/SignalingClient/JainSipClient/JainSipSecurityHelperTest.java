@@ -0,0 +1,166 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the keystore caching of JainSipSecurityHelper. The System Wide
+ *  Android CA Store isn't available here, so we use a small in-memory one,
+ *  and keystore passwords are derived with a software key instead of one in
+ *  the Android Keystore.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipSecurityHelperTest {
+    private static final int CA_COUNT = 150;
+
+    private File keystoreFile;
+    private KeyStore caStore;
+    private Callable<KeyStore> caStoreLoader;
+    private Mac passwordMac;
+
+    @Before
+    public void setup() throws Exception {
+        keystoreFile = File.createTempFile("keystore", null);
+        keystoreFile.delete();
+
+        // SpongyCastle needs to take preference, same as in JainSipSecurityHelper
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        caStore = KeyStore.getInstance("BKS");
+        caStore.load(null);
+        for (int i = 0; i < CA_COUNT; i++) {
+            addCa("system:" + i);
+        }
+        caStoreLoader = new Callable<KeyStore>() {
+            @Override
+            public KeyStore call() {
+                return caStore;
+            }
+        };
+        passwordMac = createMac((byte) 1);
+    }
+
+    @After
+    public void teardown() {
+        keystoreFile.delete();
+        new File(keystoreFile.getPath() + ".properties").delete();
+    }
+
+    @Test
+    public void keystore_ReusedAcrossOpens() throws Exception {
+        HashMap<String, String> parameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+        long lastModified = keystoreFile.lastModified();
+
+        HashMap<String, String> cachedParameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+
+        assertThat(cachedParameters.get("keystore-path")).isEqualTo(keystoreFile.getAbsolutePath());
+        assertThat(cachedParameters.get("keystore-password")).isEqualTo(parameters.get("keystore-password"));
+        assertThat(keystoreFile.lastModified()).isEqualTo(lastModified);
+        assertThat(loadKeystore(cachedParameters.get("keystore-password")).containsAlias("system:0")).isTrue();
+    }
+
+    @Test
+    public void keystore_RegeneratedWhenCaStoreChanges() throws Exception {
+        HashMap<String, String> parameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+        String fingerprint = JainSipSecurityHelper.getCaFingerprint(caStore);
+
+        addCa("user:1");
+        assertThat(JainSipSecurityHelper.getCaFingerprint(caStore)).isNotEqualTo(fingerprint);
+
+        // the cached keystore keeps being served, and gets regenerated in the background
+        long deadline = System.currentTimeMillis() + 10000;
+        boolean regenerated = false;
+        while (!regenerated && System.currentTimeMillis() < deadline) {
+            HashMap<String, String> cachedParameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+            assertThat(cachedParameters.get("keystore-password")).isEqualTo(parameters.get("keystore-password"));
+            regenerated = loadKeystore(parameters.get("keystore-password")).containsAlias("user:1");
+            if (!regenerated) {
+                Thread.sleep(50);
+            }
+        }
+        assertThat(regenerated).isTrue();
+    }
+
+    @Test
+    public void keystore_PasswordNotStored() throws Exception {
+        HashMap<String, String> parameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+
+        Properties metadata = new Properties();
+        FileInputStream inputStream = new FileInputStream(keystoreFile.getPath() + ".properties");
+        try {
+            metadata.load(inputStream);
+        }
+        finally {
+            inputStream.close();
+        }
+        assertThat(metadata.values()).doesNotContain(parameters.get("keystore-password"));
+    }
+
+    @Test
+    public void keystore_RegeneratedWhenKeyChanges() throws Exception {
+        HashMap<String, String> parameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, passwordMac);
+
+        // like when the app data is restored on another device; the old keystore can't be opened any more
+        HashMap<String, String> newParameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, createMac((byte) 2));
+
+        assertThat(newParameters.get("keystore-password")).isNotEqualTo(parameters.get("keystore-password"));
+        assertThat(loadKeystore(newParameters.get("keystore-password")).containsAlias("system:0")).isTrue();
+    }
+
+    @Test
+    public void keystore_NotReusedWithoutKey() throws Exception {
+        HashMap<String, String> parameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, null);
+        HashMap<String, String> newParameters = JainSipSecurityHelper.getKeystore(keystoreFile, caStoreLoader, null);
+
+        assertThat(newParameters.get("keystore-password")).isNotEqualTo(parameters.get("keystore-password"));
+        assertThat(new File(keystoreFile.getPath() + ".properties").exists()).isFalse();
+        assertThat(loadKeystore(newParameters.get("keystore-password")).containsAlias("system:0")).isTrue();
+    }
+
+    private Mac createMac(byte seed) throws Exception {
+        byte[] key = new byte[32];
+        key[0] = seed;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac;
+    }
+
+    private void addCa(String alias) throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair kp = kpg.generateKeyPair();
+        caStore.setCertificateEntry(alias, JainSipSecurityHelper.generateCertificate(kp));
+    }
+
+    private KeyStore loadKeystore(String password) throws Exception {
+        KeyStore keystore = KeyStore.getInstance("BKS");
+        FileInputStream inputStream = new FileInputStream(keystoreFile);
+        try {
+            keystore.load(inputStream, password.toCharArray());
+        }
+        finally {
+            inputStream.close();
+        }
+        return keystore;
+    }
+}
@@ -0,0 +1,116 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+
+import java.net.InetAddress;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests TLS session resumption through JainSipTlsSocketFactory, against a
+ *  local TLS server standing in for the signaling server.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipTlsSocketFactoryTest {
+    private static final int CONNECTION_COUNT = 5;
+    private static final String[] PROTOCOLS = new String[] { "TLSv1.2" };
+
+    private SSLServerSocket serverSocket;
+    private Thread serverThread;
+    private JainSipTlsSocketFactory factory;
+    private SignalingCounters counters;
+
+    @Before
+    public void setup() throws Exception {
+        // SpongyCastle needs to take preference, same as in JainSipSecurityHelper
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        X509Certificate certificate = JainSipSecurityHelper.generateCertificate(keyPair);
+        KeyStore keyStore = KeyStore.getInstance("BKS");
+        keyStore.load(null);
+        keyStore.setKeyEntry("server", keyPair.getPrivate(), "secret".toCharArray(), new X509Certificate[] { certificate });
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, "secret".toCharArray());
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        counters = new SignalingCounters();
+        factory = new JainSipTlsSocketFactory(clientContext.getSocketFactory(), counters);
+
+        serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        serverSocket.setEnabledProtocols(PROTOCOLS);
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < CONNECTION_COUNT; i++) {
+                        SSLSocket socket = (SSLSocket) serverSocket.accept();
+                        socket.setSoTimeout(5000);
+                        socket.startHandshake();
+                        // wait for the client to hang up
+                        socket.getInputStream().read();
+                        socket.close();
+                    }
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        serverThread.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        serverSocket.close();
+        serverThread.join(5000);
+    }
+
+    @Test
+    public void reconnect_ResumesSession() throws Exception {
+        for (int i = 0; i < CONNECTION_COUNT; i++) {
+            // same as JAIN SIP does it, with an InetAddress
+            SSLSocket socket = (SSLSocket) factory.createSocket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+            socket.setEnabledProtocols(PROTOCOLS);
+            socket.startHandshake();
+            socket.close();
+        }
+
+        // handshake listeners are notified asynchronously
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counters.get(SignalingMetrics.Counter.TLS_HANDSHAKES_FULL) + counters.get(SignalingMetrics.Counter.TLS_HANDSHAKES_RESUMED) < CONNECTION_COUNT &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(counters.get(SignalingMetrics.Counter.TLS_HANDSHAKES_FULL)).isEqualTo(1);
+        assertThat(counters.get(SignalingMetrics.Counter.TLS_HANDSHAKES_RESUMED)).isEqualTo(CONNECTION_COUNT - 1);
+    }
+}
@@ -0,0 +1,321 @@
+package org.restcomm.android.sdk.SignalingClient.JainSipClient;
+
+import android.javax.sip.ClientTransaction;
+import android.javax.sip.DialogTerminatedEvent;
+import android.javax.sip.IOExceptionEvent;
+import android.javax.sip.ListeningPoint;
+import android.javax.sip.RequestEvent;
+import android.javax.sip.ResponseEvent;
+import android.javax.sip.SipFactory;
+import android.javax.sip.SipListener;
+import android.javax.sip.SipProvider;
+import android.javax.sip.SipStack;
+import android.javax.sip.TimeoutEvent;
+import android.javax.sip.TransactionTerminatedEvent;
+import android.javax.sip.address.AddressFactory;
+import android.javax.sip.address.SipURI;
+import android.javax.sip.header.HeaderFactory;
+import android.javax.sip.header.ViaHeader;
+import android.javax.sip.message.MessageFactory;
+import android.javax.sip.message.Request;
+import android.javax.sip.message.Response;
+import android.util.Base64;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.SignalingClient.SignalingCounters;
+import org.restcomm.android.sdk.SignalingClient.SignalingMetrics;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests SIP over WebSocket signaling, against a local WebSocket server
+ *  standing in for the signaling server. The same setup is used by
+ *  JainSipWebSocketTransportBenchmark.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class JainSipWebSocketTransportTest {
+    private static final int MESSAGE_COUNT = 50;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    static class Result {
+        int succeeded;
+        // from sending the first request to receiving the last response
+        long elapsedNs;
+    }
+
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+    private SipStack sipStack;
+    private SignalingCounters counters;
+
+    @Before
+    public void setup() throws Exception {
+        counters = new SignalingCounters();
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        serverThread = new Thread(new StandIn(serverSocket));
+        serverThread.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (sipStack != null) {
+            sipStack.stop();
+        }
+        serverSocket.close();
+        serverThread.join(5000);
+    }
+
+    @Test
+    public void getTransport() {
+        HashMap<String, Object> parameters = new HashMap<>();
+        assertThat(JainSipConfiguration.getTransport(parameters)).isEqualTo(ListeningPoint.TCP);
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_WEBSOCKET_ENABLED, true);
+        assertThat(JainSipConfiguration.getTransport(parameters)).isEqualTo(JainSipConfiguration.TRANSPORT_WS);
+        parameters.put(RCDevice.ParameterKeys.SIGNALING_SECURE_ENABLED, true);
+        assertThat(JainSipConfiguration.getTransport(parameters)).isEqualTo(JainSipConfiguration.TRANSPORT_WSS);
+        assertThat(JainSipConfiguration.isSecure(JainSipConfiguration.TRANSPORT_WSS)).isTrue();
+        assertThat(JainSipConfiguration.isSecure(JainSipConfiguration.TRANSPORT_WS)).isFalse();
+    }
+
+    @Test
+    public void send_Pipelined() throws Exception {
+        assertThat(send(MESSAGE_COUNT).succeeded).isEqualTo(MESSAGE_COUNT);
+        assertThat(counters.get(SignalingMetrics.Counter.MESSAGE_PROCESSORS_NIO)).isEqualTo(1);
+    }
+
+    // Send count MESSAGEs to the stand-in over a WS listening point and return how many got a 200 OK
+    Result send(int count) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("android.javax.sip.STACK_NAME", "websocket-test");
+        SipFactory sipFactory = SipFactory.getInstance();
+        sipFactory.setPathName("android.gov.nist");
+        sipStack = sipFactory.createSipStack(properties);
+        // TCP and TLS stick to blocking I/O, to make sure WebSocket gets NIO regardless
+        JainSipMessageProcessorFactory.install(sipStack, false, counters);
+        AddressFactory addressFactory = sipFactory.createAddressFactory();
+        HeaderFactory headerFactory = sipFactory.createHeaderFactory();
+        MessageFactory messageFactory = sipFactory.createMessageFactory();
+
+        ServerSocket portSocket = new ServerSocket(0);
+        int localPort = portSocket.getLocalPort();
+        portSocket.close();
+        ListeningPoint listeningPoint = sipStack.createListeningPoint("127.0.0.1", localPort, JainSipConfiguration.TRANSPORT_WS);
+        SipProvider sipProvider = sipStack.createSipProvider(listeningPoint);
+        final CountDownLatch responded = new CountDownLatch(count);
+        final AtomicInteger succeeded = new AtomicInteger();
+        sipProvider.addSipListener(new SipListener() {
+            @Override
+            public void processRequest(RequestEvent requestEvent) {
+            }
+
+            @Override
+            public void processResponse(ResponseEvent responseEvent) {
+                if (responseEvent.getResponse().getStatusCode() == Response.OK) {
+                    succeeded.incrementAndGet();
+                }
+                responded.countDown();
+            }
+
+            @Override
+            public void processTimeout(TimeoutEvent timeoutEvent) {
+                responded.countDown();
+            }
+
+            @Override
+            public void processIOException(IOExceptionEvent exceptionEvent) {
+            }
+
+            @Override
+            public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {
+            }
+
+            @Override
+            public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {
+            }
+        });
+
+        SipURI requestUri = addressFactory.createSipURI("standin", "127.0.0.1");
+        requestUri.setPort(serverSocket.getLocalPort());
+        requestUri.setTransportParam("ws");
+        byte[] body = "Hello over WebSocket".getBytes(UTF8);
+
+        Result result = new Result();
+        long startTime = System.nanoTime();
+        // send them all back to back, i.e. pipelined over the single WebSocket connection
+        for (int i = 0; i < count; i++) {
+            ArrayList<ViaHeader> viaHeaders = new ArrayList<>();
+            viaHeaders.add(headerFactory.createViaHeader("127.0.0.1", localPort, JainSipConfiguration.TRANSPORT_WS, null));
+            Request request = messageFactory.createRequest(requestUri, Request.MESSAGE, sipProvider.getNewCallId(),
+                    headerFactory.createCSeqHeader(1L, Request.MESSAGE),
+                    headerFactory.createFromHeader(addressFactory.createAddress("sip:bob@127.0.0.1"), "tag-" + i),
+                    headerFactory.createToHeader(addressFactory.createAddress(requestUri), null),
+                    viaHeaders, headerFactory.createMaxForwardsHeader(70), headerFactory.createContentTypeHeader("text", "plain"), body);
+            ClientTransaction transaction = sipProvider.getNewClientTransaction(request);
+            transaction.sendRequest();
+        }
+        assertThat(responded.await(30, TimeUnit.SECONDS)).isTrue();
+        result.elapsedNs = System.nanoTime() - startTime;
+        result.succeeded = succeeded.get();
+        return result;
+    }
+
+    // Minimal SIP over WebSocket server: accepts the upgrade, and answers each request frame with a 200 OK frame
+    private static class StandIn implements Runnable {
+        private final ServerSocket serverSocket;
+        // reused across frames, grown as needed
+        private byte[] payload = new byte[4096];
+
+        StandIn(ServerSocket serverSocket) {
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = serverSocket.accept();
+                InputStream inputStream = socket.getInputStream();
+                OutputStream outputStream = socket.getOutputStream();
+
+                String key = null;
+                for (String line : readHeaders(inputStream).split("\r\n")) {
+                    if (line.toLowerCase().startsWith("sec-websocket-key:")) {
+                        key = line.substring(line.indexOf(':') + 1).trim();
+                    }
+                }
+                String accept = Base64.encodeToString(MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(UTF8)), Base64.NO_WRAP);
+                outputStream.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Accept: " + accept + "\r\n" +
+                        "Sec-WebSocket-Protocol: sip\r\n\r\n").getBytes(UTF8));
+                outputStream.flush();
+
+                int length;
+                while ((length = readFrame(inputStream)) >= 0) {
+                    String request = new String(payload, 0, length, UTF8);
+                    if (request.startsWith("SIP/2.0")) {
+                        continue;
+                    }
+                    writeFrame(outputStream, respond(request).getBytes(UTF8));
+                }
+                socket.close();
+            }
+            catch (Exception e) {
+                // server socket closed on teardown
+            }
+        }
+
+        // Read a frame into payload, returning its length, or -1 on close
+        private int readFrame(InputStream inputStream) throws IOException {
+            int opcode = inputStream.read();
+            int second = inputStream.read();
+            if (opcode == -1 || second == -1 || (opcode & 0x0f) == 0x08) {
+                return -1;
+            }
+            boolean masked = (second & 0x80) != 0;
+            long length = second & 0x7f;
+            if (length == 126) {
+                length = (inputStream.read() << 8) | inputStream.read();
+            }
+            else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | inputStream.read();
+                }
+            }
+            byte[] mask = new byte[4];
+            if (masked) {
+                readFully(inputStream, mask, 4);
+            }
+            if (length > payload.length) {
+                payload = new byte[(int) length];
+            }
+            readFully(inputStream, payload, (int) length);
+            if (masked) {
+                for (int i = 0; i < length; i++) {
+                    payload[i] ^= mask[i % 4];
+                }
+            }
+            return (int) length;
+        }
+
+        private static void writeFrame(OutputStream outputStream, byte[] data) throws IOException {
+            // final text frame; server frames aren't masked
+            outputStream.write(0x81);
+            if (data.length < 126) {
+                outputStream.write(data.length);
+            }
+            else {
+                outputStream.write(126);
+                outputStream.write(data.length >> 8);
+                outputStream.write(data.length & 0xff);
+            }
+            outputStream.write(data);
+            outputStream.flush();
+        }
+
+        private static String respond(String request) {
+            StringBuilder response = new StringBuilder("SIP/2.0 200 OK\r\n");
+            for (String line : request.split("\r\n")) {
+                if (line.isEmpty()) {
+                    break;
+                }
+                String name = line.substring(0, Math.max(0, line.indexOf(':'))).trim().toLowerCase();
+                if (name.equals("via") || name.equals("from") || name.equals("call-id") || name.equals("cseq")) {
+                    response.append(line).append("\r\n");
+                }
+                else if (name.equals("to")) {
+                    response.append(line).append(";tag=standin\r\n");
+                }
+            }
+            response.append("Content-Length: 0\r\n\r\n");
+            return response.toString();
+        }
+
+        private static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int count = inputStream.read(buffer, offset, length - offset);
+                if (count == -1) {
+                    throw new IOException("Connection closed");
+                }
+                offset += count;
+            }
+        }
+
+        private static String readHeaders(InputStream inputStream) throws IOException {
+            StringBuilder headers = new StringBuilder();
+            int b;
+            while ((b = inputStream.read()) != -1) {
+                headers.append((char) b);
+                int length = headers.length();
+                if (length >= 4 && headers.substring(length - 4).equals("\r\n\r\n")) {
+                    break;
+                }
+            }
+            return headers.toString();
+        }
+    }
+}
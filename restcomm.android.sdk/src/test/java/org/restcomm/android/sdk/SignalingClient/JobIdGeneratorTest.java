@@ -0,0 +1,82 @@
+package org.restcomm.android.sdk.SignalingClient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Stress tests for JobIdGenerator, making sure that ids generated
+ *  concurrently at high rate never collide.
+ *
+ */
+public class JobIdGeneratorTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int IDS_PER_THREAD = 100000;
+
+    @Test
+    public void generate_Sequential() {
+        String previous = JobIdGenerator.generate();
+        for (int i = 0; i < 1000; i++) {
+            String current = JobIdGenerator.generate();
+            assertThat(current).isNotEqualTo(previous);
+            assertThat(counterOf(current)).isGreaterThan(counterOf(previous));
+            previous = current;
+        }
+    }
+
+    @Test
+    public void generate_Concurrent() throws InterruptedException {
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    }
+                    catch (InterruptedException e) {
+                        failure.set(e.toString());
+                        return;
+                    }
+
+                    long previousCounter = 0;
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        String id = JobIdGenerator.generate();
+                        long counter = counterOf(id);
+                        // ids seen by a single thread must be monotonic
+                        if (counter <= previousCounter) {
+                            failure.set("Non monotonic id: " + id + " after counter: " + previousCounter);
+                        }
+                        previousCounter = counter;
+                        ids.add(id);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(failure.get()).isNull();
+        assertThat(ids.size()).isEqualTo(THREAD_COUNT * IDS_PER_THREAD);
+    }
+
+    private static long counterOf(String id) {
+        return Long.parseLong(id.substring(id.lastIndexOf('-') + 1));
+    }
+}
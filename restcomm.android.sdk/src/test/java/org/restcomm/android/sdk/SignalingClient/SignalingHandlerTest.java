@@ -0,0 +1,72 @@
+package org.restcomm.android.sdk.SignalingClient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCClient;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for how SignalingHandler conveys message delivery replies to the UI
+ *  thread: replies that arrive back to back go in a single
+ *  MESSAGE_REPLY_BATCH, a lone one as a plain MESSAGE_REPLY.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SignalingHandlerTest {
+    private SignalingHandler signalingHandler;
+    // messages conveyed to the UI thread
+    private ArrayList<SignalingMessage> uiMessages;
+
+    @Before
+    public void setup() {
+        // replies are coalesced until the signaling thread is done with what it's processing, so keep control of when that happens
+        ShadowLooper.pauseMainLooper();
+        uiMessages = new ArrayList<>();
+        Handler uiHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message message) {
+                uiMessages.add((SignalingMessage) message.obj);
+            }
+        };
+        signalingHandler = new SignalingHandler(Looper.getMainLooper(), uiHandler, new SignalingCounters());
+    }
+
+    @Test
+    public void onClientMessageReply_Batched() {
+        signalingHandler.onClientMessageReply("job-2", RCClient.ErrorCodes.SUCCESS, "Success");
+        signalingHandler.onClientMessageReply("job-1", RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND, "Not found");
+        signalingHandler.onClientMessageReply("job-3", RCClient.ErrorCodes.SUCCESS, "Success");
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertThat(uiMessages).hasSize(1);
+        SignalingMessage batch = uiMessages.get(0);
+        assertThat(batch.type).isEqualTo(SignalingMessage.MessageType.MESSAGE_REPLY_BATCH);
+        assertThat(batch.messageReplies).hasSize(3);
+        assertThat(batch.messageReplies.get(0).jobId).isEqualTo("job-2");
+        assertThat(batch.messageReplies.get(1).jobId).isEqualTo("job-1");
+        assertThat(batch.messageReplies.get(1).status).isEqualTo(RCClient.ErrorCodes.ERROR_MESSAGE_PEER_NOT_FOUND);
+        assertThat(batch.messageReplies.get(2).jobId).isEqualTo("job-3");
+    }
+
+    @Test
+    public void onClientMessageReply_Single() {
+        signalingHandler.onClientMessageReply("job-1", RCClient.ErrorCodes.ERROR_MESSAGE_QUEUE_FULL, "Queue full");
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertThat(uiMessages).hasSize(1);
+        assertThat(uiMessages.get(0).type).isEqualTo(SignalingMessage.MessageType.MESSAGE_REPLY);
+        assertThat(uiMessages.get(0).jobId).isEqualTo("job-1");
+        assertThat(uiMessages.get(0).status).isEqualTo(RCClient.ErrorCodes.ERROR_MESSAGE_QUEUE_FULL);
+    }
+}
@@ -0,0 +1,195 @@
+package org.restcomm.android.sdk.SignalingClient;
+
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCDeviceListener;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for SignalingMessage pooling, and for events going through the
+ *  SignalingHandler -> SignalingClient handler pair with pooled messages.
+ *  SignalingMessageBenchmark measures the same pair.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SignalingMessageTest {
+    private static final int EVENT_COUNT = 300;
+    private static final String JOB_ID = "job";
+
+    private SignalingClient signalingClient;
+    private SignalingHandler signalingHandler;
+    private CountingListener listener;
+
+    @Before
+    public void setup() throws Exception {
+        signalingClient = new SignalingClient();
+        listener = new CountingListener();
+        signalingClient.listener = listener;
+        // run the signaling side on the main looper too, so that the whole exchange is deterministic
+        signalingHandler = new SignalingHandler(Looper.getMainLooper(), signalingClient, new SignalingCounters());
+    }
+
+    @After
+    public void teardown() {
+        // stops the signaling thread and allows a new SignalingClient to be created
+        signalingHandler.onClientClosedEvent(JOB_ID, RCClient.ErrorCodes.SUCCESS, "Success");
+        Robolectric.flushForegroundThreadScheduler();
+    }
+
+    @Test
+    public void obtain_ReusesRecycled() {
+        SignalingMessage message = SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.CALL_INCOMING_EVENT);
+        message.sdp = "v=0";
+        message.customHeaders = new HashMap<>();
+        message.recycle();
+
+        SignalingMessage reused = SignalingMessage.obtain("another-job", SignalingMessage.MessageType.CALL_SEND_DIGITS_REQUEST);
+        assertThat(reused).isSameAs(message);
+        assertThat(reused.jobId).isEqualTo("another-job");
+        assertThat(reused.type).isEqualTo(SignalingMessage.MessageType.CALL_SEND_DIGITS_REQUEST);
+        assertThat(reused.sdp).isNull();
+        assertThat(reused.customHeaders).isNull();
+        reused.recycle();
+    }
+
+    @Test
+    public void recycle_BatchReturnsReplies() {
+        SignalingMessage reply = SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.MESSAGE_REPLY);
+        SignalingMessage batch = SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.MESSAGE_REPLY_BATCH);
+        batch.messageReplies = new ArrayList<>();
+        batch.messageReplies.add(reply);
+        batch.recycle();
+
+        // last in, first out
+        assertThat(SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.MESSAGE_REPLY)).isSameAs(batch);
+        assertThat(SignalingMessage.obtain(JOB_ID, SignalingMessage.MessageType.MESSAGE_REPLY)).isSameAs(reply);
+    }
+
+    @Test
+    public void handlerPair_DeliversEvents() {
+        sendEvents(EVENT_COUNT);
+        assertThat(listener.events).isEqualTo(EVENT_COUNT);
+    }
+
+    // ------ Helpers
+    // Mix of the events that are most frequent during a call and while messaging
+    void sendEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    signalingHandler.onCallDigitsEvent(JOB_ID, RCClient.ErrorCodes.SUCCESS, "Success");
+                    break;
+                case 1:
+                    signalingHandler.onClientMessageArrivedEvent(JOB_ID, "sip:alice@cloud.restcomm.com", "Hello");
+                    break;
+                default:
+                    signalingHandler.onCallOutgoingPeerRingingEvent(JOB_ID);
+                    break;
+            }
+        }
+        Robolectric.flushForegroundThreadScheduler();
+    }
+
+    private static class CountingListener implements SignalingClient.SignalingClientListener, SignalingClient.SignalingClientCallListener {
+        int events;
+
+        @Override
+        public void onOpenReply(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus, RCClient.ErrorCodes status, String text) {
+        }
+
+        @Override
+        public void onCloseReply(String jobId, RCClient.ErrorCodes status, String text) {
+        }
+
+        @Override
+        public void onReconfigureReply(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus, RCClient.ErrorCodes status, String text) {
+        }
+
+        @Override
+        public void onMessageReply(String jobId, RCClient.ErrorCodes status, String text) {
+            events++;
+        }
+
+        @Override
+        public void onCallArrivedEvent(String jobId, String peer, String sdpOffer, HashMap<String, String> customHeaders) {
+            events++;
+        }
+
+        @Override
+        public void onMessageArrivedEvent(String jobId, String peer, String messageText) {
+            events++;
+        }
+
+        @Override
+        public void onErrorEvent(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus, RCClient.ErrorCodes status, String text) {
+        }
+
+        @Override
+        public void onConnectivityEvent(String jobId, RCDeviceListener.RCConnectivityStatus connectivityStatus) {
+        }
+
+        @Override
+        public void onRegisteringEvent(String jobId) {
+        }
+
+        @Override
+        public SignalingClient.SignalingClientCallListener getConnectionByJobId(String jobId) {
+            return this;
+        }
+
+        @Override
+        public void onCallOutgoingConnectedEvent(String jobId, String sdpAnswer, HashMap<String, String> customHeaders) {
+            events++;
+        }
+
+        @Override
+        public void onCallIncomingConnectedEvent(String jobId) {
+            events++;
+        }
+
+        @Override
+        public void onCallPeerDisconnectEvent(String jobId) {
+            events++;
+        }
+
+        @Override
+        public void onCallOutgoingPeerRingingEvent(String jobId) {
+            events++;
+        }
+
+        @Override
+        public void onCallLocalDisconnectedEvent(String jobId) {
+            events++;
+        }
+
+        @Override
+        public void onCallErrorEvent(String jobId, RCClient.ErrorCodes status, String text) {
+        }
+
+        @Override
+        public void onCallIncomingCanceledEvent(String jobId) {
+            events++;
+        }
+
+        @Override
+        public void onCallSentDigitsEvent(String jobId, RCClient.ErrorCodes statusCode, String statusText) {
+            events++;
+        }
+
+        @Override
+        public void onCallRemoteCandidatesEvent(String jobId, String sdpFragment) {
+            events++;
+        }
+    }
+}
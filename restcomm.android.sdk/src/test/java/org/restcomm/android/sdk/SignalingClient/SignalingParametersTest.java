@@ -0,0 +1,69 @@
+package org.restcomm.android.sdk.SignalingClient;
+
+import org.junit.Test;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for the trickle ICE helpers of SignalingParameters: trickle
+ *  support in SDP, and SDP fragments carrying trickled candidates.
+ *
+ */
+public class SignalingParametersTest {
+    private static final String SDP = "v=0\r\n" +
+            "o=- 4611731400430051336 2 IN IP4 127.0.0.1\r\n" +
+            "s=-\r\n" +
+            "t=0 0\r\n" +
+            "a=group:BUNDLE audio\r\n" +
+            "m=audio 9 UDP/TLS/RTP/SAVPF 111\r\n" +
+            "c=IN IP4 0.0.0.0\r\n" +
+            "a=rtcp:9 IN IP4 0.0.0.0\r\n" +
+            "a=ice-ufrag:Ff3x\r\n" +
+            "a=ice-pwd:4vJVPjPqAw3nnV/0m1RoHnDT\r\n" +
+            "a=mid:audio\r\n" +
+            "a=rtpmap:111 opus/48000/2\r\n";
+    private static final String HOST_CANDIDATE = "candidate:1 1 udp 2122260223 192.168.1.10 54321 typ host generation 0";
+    private static final String RELAY_CANDIDATE = "candidate:2 1 udp 41885439 34.1.2.3 61000 typ relay raddr 192.168.1.10 rport 54321 generation 0";
+
+    @Test
+    public void trickleIceOption() {
+        assertThat(SignalingParameters.supportsTrickleIce(SDP)).isFalse();
+        String trickleSdp = SignalingParameters.addTrickleIceOption(SDP);
+        assertThat(trickleSdp).contains("t=0 0\r\na=ice-options:trickle\r\n");
+        assertThat(SignalingParameters.supportsTrickleIce(trickleSdp)).isTrue();
+        // already there, leave it alone
+        assertThat(SignalingParameters.addTrickleIceOption(trickleSdp)).isEqualTo(trickleSdp);
+        assertThat(SignalingParameters.supportsTrickleIce(SDP.replace("a=mid:audio\r\n", "a=mid:audio\r\na=ice-options:renomination trickle\r\n"))).isTrue();
+    }
+
+    @Test
+    public void trickleSdpFrag_RoundTrip() {
+        List<IceCandidate> candidates = new ArrayList<>();
+        candidates.add(new IceCandidate("audio", 0, HOST_CANDIDATE));
+        candidates.add(new IceCandidate("audio", 0, RELAY_CANDIDATE));
+        assertThat(SignalingParameters.isHostCandidate(candidates.get(0))).isTrue();
+        assertThat(SignalingParameters.isHostCandidate(candidates.get(1))).isFalse();
+
+        String fragment = SignalingParameters.generateTrickleSdpFrag(new SessionDescription(SessionDescription.Type.OFFER, SDP), candidates, false);
+        assertThat(fragment).startsWith("a=ice-ufrag:Ff3x\r\na=ice-pwd:4vJVPjPqAw3nnV/0m1RoHnDT\r\n");
+        assertThat(fragment).contains("m=audio 9 UDP/TLS/RTP/SAVPF 0\r\na=mid:audio\r\n");
+        assertThat(fragment).doesNotContain("a=end-of-candidates");
+
+        List<IceCandidate> parsed = SignalingParameters.extractCandidates(new SessionDescription(SessionDescription.Type.ANSWER, fragment)).iceCandidates;
+        assertThat(parsed).hasSize(2);
+        assertThat(parsed.get(0).sdpMid).isEqualTo("audio");
+        assertThat(parsed.get(0).sdp).isEqualTo(HOST_CANDIDATE);
+        assertThat(parsed.get(1).sdp).isEqualTo(RELAY_CANDIDATE);
+    }
+
+    @Test
+    public void trickleSdpFrag_EndOfCandidates() {
+        String fragment = SignalingParameters.generateTrickleSdpFrag(null, new ArrayList<IceCandidate>(), true);
+        assertThat(fragment).isEqualTo("a=end-of-candidates\r\n");
+    }
+}
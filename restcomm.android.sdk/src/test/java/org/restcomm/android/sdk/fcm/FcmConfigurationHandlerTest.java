@@ -0,0 +1,269 @@
+package org.restcomm.android.sdk.fcm;
+
+import android.util.Pair;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.restcomm.android.sdk.RCClient;
+import org.restcomm.android.sdk.RCDevice;
+import org.restcomm.android.sdk.fcm.model.FcmBinding;
+import org.restcomm.android.sdk.storage.StorageManagerInterface;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for push registration through FcmConfigurationHandler against a
+ *  local stand-in Restcomm API. The same API is used by
+ *  FcmConfigurationHandlerBenchmark.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FcmConfigurationHandlerTest {
+    // latency of each request towards the stand-in API, like the one towards a real deployment
+    static final long LATENCY_MS = 20;
+    private static final String EMAIL = "bob@example.com";
+    private static final String TOKEN = "fcm-token-1";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private FcmConfigurationHandler handler;
+
+    // what the stand-in API has seen so far, like 'GET /pushNotifications/bindings' -> 2
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    final AtomicInteger notModified = new AtomicInteger();
+    private volatile String bindingAddress = TOKEN;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new StandInApi());
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        String domain = "http://127.0.0.1:" + server.getAddress().getPort();
+        MemoryStorage storage = new MemoryStorage();
+        storage.saveString(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_ACCOUNT_EMAIL, EMAIL);
+        storage.saveString(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_ACCOUNT_PASSWORD, "secret");
+        storage.saveString(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_PUSH_DOMAIN, domain);
+        storage.saveString(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_HTTP_DOMAIN, domain);
+        storage.saveBoolean(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_ENABLE_PUSH_FOR_ACCOUNT, true);
+        storage.saveString(RCDevice.ParameterKeys.SIGNALING_USERNAME, "bob");
+        storage.saveString(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_APPLICATION_NAME, "app");
+        storage.saveString(RCDevice.ParameterKeys.PUSH_NOTIFICATIONS_FCM_SERVER_KEY, "server-key");
+        handler = new FcmConfigurationHandler(storage, null);
+
+        FcmConfigurationClient.clearResponseCache();
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void register_RevalidatesLookups() {
+        Pair<HashMap<String, String>, RCClient.ErrorCodes> result = register(TOKEN, false, new HashMap<String, String>());
+        assertThat(result.second).isEqualTo(RCClient.ErrorCodes.SUCCESS);
+        assertThat(result.first.get(FcmConfigurationHandler.FCM_ACCOUNT_SID)).isEqualTo("AC1");
+        assertThat(result.first.get(FcmConfigurationHandler.FCM_CLIENT_SID)).isEqualTo("CL1");
+        assertThat(bindingOf(result).getSid()).isEqualTo("BN1");
+        assertThat(notModified.get()).isEqualTo(0);
+
+        // same again: all 5 lookups come back as 304 Not Modified, and as the token hasn't changed the binding is left alone
+        result = register(TOKEN, false, new HashMap<String, String>());
+        assertThat(result.second).isEqualTo(RCClient.ErrorCodes.SUCCESS);
+        assertThat(result.first.get(FcmConfigurationHandler.FCM_CLIENT_SID)).isEqualTo("CL1");
+        assertThat(bindingOf(result).getAddress()).isEqualTo(TOKEN);
+        assertThat(notModified.get()).isEqualTo(5);
+        assertThat(count("PUT /pushNotifications/bindings/BN1")).isEqualTo(0);
+
+        // new token: binding is updated, and the changed bindings are downloaded again next time
+        result = register("fcm-token-2", false, new HashMap<String, String>());
+        assertThat(bindingOf(result).getAddress()).isEqualTo("fcm-token-2");
+        assertThat(count("PUT /pushNotifications/bindings/BN1")).isEqualTo(1);
+        assertThat(notModified.get()).isEqualTo(10);
+        result = register("fcm-token-2", false, new HashMap<String, String>());
+        assertThat(bindingOf(result).getAddress()).isEqualTo("fcm-token-2");
+        assertThat(notModified.get()).isEqualTo(14);
+        assertThat(count("PUT /pushNotifications/bindings/BN1")).isEqualTo(1);
+    }
+
+    @Test
+    public void updateToken_Unchanged() {
+        HashMap<String, String> stored = register(TOKEN, false, new HashMap<String, String>()).first;
+        int sent = totalRequests();
+
+        Pair<HashMap<String, String>, RCClient.ErrorCodes> result = register(TOKEN, true, stored);
+        assertThat(result.second).isEqualTo(RCClient.ErrorCodes.SUCCESS);
+        assertThat(totalRequests()).isEqualTo(sent);
+        // nothing is lost when results are stored
+        assertThat(result.first).isEqualTo(stored);
+    }
+
+    // ------ Helpers
+    // Run registration in the calling thread, like AsyncTaskRegisterForPush does in the background
+    Pair<HashMap<String, String>, RCClient.ErrorCodes> register(String token, boolean updateToken, HashMap<String, String> stored) {
+        FcmConfigurationHandler.AsyncTaskRegisterForPush task = handler.new AsyncTaskRegisterForPush(EMAIL, new FcmConfigurationClient(EMAIL, "secret",
+                "http://127.0.0.1:" + server.getAddress().getPort(), "http://127.0.0.1:" + server.getAddress().getPort()),
+                "bob", "app", "server-key", token, updateToken, false);
+        return task.doInBackground(new HashMap<>(stored));
+    }
+
+    private static FcmBinding bindingOf(Pair<HashMap<String, String>, RCClient.ErrorCodes> result) {
+        FcmBinding binding = new FcmBinding();
+        binding.fillFromJson(result.first.get(FcmConfigurationHandler.FCM_BINDING));
+        return binding;
+    }
+
+    private int count(String request) {
+        AtomicInteger count = requests.get(request);
+        return count != null ? count.get() : 0;
+    }
+
+    int totalRequests() {
+        int total = 0;
+        for (AtomicInteger count : requests.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // Just enough of the Restcomm and push notifications APIs for one account (AC1), client (CL1), application (AP1), credentials (CR1)
+    // and binding (BN1). GET responses carry an ETag and honor If-None-Match
+    private class StandInApi implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            String requestBody = readFully(exchange.getRequestBody());
+            if (path.startsWith("/restcomm/2012-04-24/Accounts.json/")) {
+                path = "/restcomm/2012-04-24/Accounts.json/" + EMAIL;
+            }
+            requests.putIfAbsent(method + " " + path, new AtomicInteger());
+            requests.get(method + " " + path).incrementAndGet();
+
+            try {
+                Thread.sleep(LATENCY_MS);
+
+                String body = null;
+                if (method.equals("GET") && path.equals("/restcomm/2012-04-24/Accounts.json/" + EMAIL)) {
+                    body = "{\"sid\":\"AC1\"}";
+                } else if (method.equals("GET") && path.equals("/restcomm/2012-04-24/Accounts/AC1/Clients.json")) {
+                    body = "[{\"login\":\"alice\",\"sid\":\"CL0\"},{\"login\":\"bob\",\"sid\":\"CL1\"}]";
+                } else if (method.equals("PUT") && path.equals("/restcomm/2012-04-24/Accounts/AC1/Clients/CL1")) {
+                    body = "";
+                } else if (method.equals("GET") && path.equals("/pushNotifications/applications")) {
+                    body = "[{\"Sid\":\"AP1\",\"FriendlyName\":\"app\"}]";
+                } else if ((method.equals("GET") && path.equals("/pushNotifications/credentials")) ||
+                        (method.equals("PUT") && path.equals("/pushNotifications/credentials/CR1"))) {
+                    body = "{\"Sid\":\"CR1\",\"ApplicationSid\":\"AP1\",\"CredentialType\":\"fcm\"}";
+                } else if (method.equals("PUT") && path.equals("/pushNotifications/bindings/BN1")) {
+                    bindingAddress = new JSONObject(requestBody).getString("Address");
+                    body = binding();
+                } else if (method.equals("GET") && path.equals("/pushNotifications/bindings")) {
+                    body = "[" + binding() + "]";
+                }
+
+                if (body == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+                if (method.equals("GET")) {
+                    String eTag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+                    exchange.getResponseHeaders().set("ETag", eTag);
+                    if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        notModified.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+                }
+                byte[] response = body.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private String binding() {
+            return "{\"Sid\":\"BN1\",\"Identity\":\"CL1\",\"ApplicationSid\":\"AP1\",\"BindingType\":\"fcm\",\"Address\":\"" + bindingAddress + "\"}";
+        }
+    }
+
+    private static class MemoryStorage implements StorageManagerInterface {
+        private final HashMap<String, Object> entries = new HashMap<>();
+
+        @Override
+        public String getString(String key, String defaultValue) {
+            return entries.containsKey(key) ? (String) entries.get(key) : defaultValue;
+        }
+
+        @Override
+        public int getInt(String key, int defaultValue) {
+            return entries.containsKey(key) ? (Integer) entries.get(key) : defaultValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defaultValue) {
+            return entries.containsKey(key) ? (Boolean) entries.get(key) : defaultValue;
+        }
+
+        @Override
+        public void saveString(String key, String value) {
+            entries.put(key, value);
+        }
+
+        @Override
+        public void saveInt(String key, int value) {
+            entries.put(key, value);
+        }
+
+        @Override
+        public void saveBoolean(String key, boolean value) {
+            entries.put(key, value);
+        }
+
+        @Override
+        public Map<String, ?> getAllEntries() {
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.restcomm.android.sdk.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ *  Tests for RCHttpClient against a local stand-in server. The same server
+ *  is used by RCHttpClientBenchmark.
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RCHttpClientTest {
+    private static final String BODY = "{\"s\":\"ok\",\"v\":{\"iceServers\":[{\"url\":\"stun:stun.example.com\"}]}}";
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    String baseUrl;
+    RCHttpClient httpClient;
+
+    // what the server has seen so far
+    final Set<Integer> remotePorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private volatile long responseDelayMs;
+
+    @Before
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new StandInHandler());
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        httpClient = new RCHttpClient();
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void execute_Gzip() throws Exception {
+        RCHttpClient.Response response = httpClient.execute(new RCHttpClient.Request("GET", baseUrl + "/ice"));
+        assertThat(response.getStatusCode()).isEqualTo(200);
+        assertThat(response.getBody()).isEqualTo(BODY);
+        // header lookup is case insensitive
+        assertThat(response.getHeader("content-encoding")).isEqualTo("gzip");
+        assertThat(response.getHeader("ETag")).isEqualTo("\"v1\"");
+    }
+
+    @Test
+    public void execute_Error() throws Exception {
+        RCHttpClient.Response response = httpClient.execute(new RCHttpClient.Request("PUT", baseUrl + "/missing")
+                .setBody("application/json", "{}"));
+        assertThat(response.getStatusCode()).isEqualTo(404);
+        assertThat(response.getBody()).isEqualTo("Not found: PUT {}");
+    }
+
+    @Test
+    public void execute_ReusesConnections() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            assertThat(httpClient.execute(new RCHttpClient.Request("GET", baseUrl + "/ice")).getBody()).isEqualTo(BODY);
+        }
+        assertThat(remotePorts).hasSize(1);
+    }
+
+    @Test
+    public void execute_PerHostLimit() throws Exception {
+        responseDelayMs = 50;
+        // more parallel callers than the pool has threads, so that it's the per host limit that kicks in
+        ExecutorService callers = Executors.newFixedThreadPool(RCHttpClient.MAX_CONNECTIONS_PER_HOST * 3);
+        List<Future<RCHttpClient.Response>> futures = new ArrayList<>();
+        for (int i = 0; i < RCHttpClient.MAX_CONNECTIONS_PER_HOST * 3; i++) {
+            futures.add(callers.submit(new Callable<RCHttpClient.Response>() {
+                @Override
+                public RCHttpClient.Response call() throws IOException {
+                    return httpClient.execute(new RCHttpClient.Request("GET", baseUrl + "/ice"));
+                }
+            }));
+        }
+        for (Future<RCHttpClient.Response> future : futures) {
+            assertThat(future.get().getStatusCode()).isEqualTo(200);
+        }
+        callers.shutdown();
+
+        assertThat(maxConcurrentRequests.get()).isLessThanOrEqualTo(RCHttpClient.MAX_CONNECTIONS_PER_HOST);
+        assertThat(remotePorts.size()).isLessThanOrEqualTo(RCHttpClient.MAX_CONNECTIONS_PER_HOST);
+    }
+
+    // ------ Helpers
+    static String readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // Serves BODY at /ice (gzip compressed if the client asks for it) and 404 everywhere else
+    private class StandInHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            remotePorts.add(exchange.getRemoteAddress().getPort());
+            int concurrent = concurrentRequests.incrementAndGet();
+            while (concurrent > maxConcurrentRequests.get()) {
+                maxConcurrentRequests.compareAndSet(maxConcurrentRequests.get(), concurrent);
+            }
+            try {
+                String requestBody = readFully(exchange.getRequestBody());
+                if (responseDelayMs > 0) {
+                    Thread.sleep(responseDelayMs);
+                }
+
+                int statusCode = 200;
+                byte[] response = BODY.getBytes(StandardCharsets.UTF_8);
+                if (!exchange.getRequestURI().getPath().equals("/ice")) {
+                    statusCode = 404;
+                    response = ("Not found: " + exchange.getRequestMethod() + " " + requestBody).getBytes(StandardCharsets.UTF_8);
+                }
+                else {
+                    exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                    String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+                        gzipOutputStream.write(response);
+                        gzipOutputStream.close();
+                        response = compressed.toByteArray();
+                        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    }
+                }
+
+                exchange.sendResponseHeaders(statusCode, response.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(response);
+                outputStream.close();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                concurrentRequests.decrementAndGet();
+                exchange.close();
+            }
+        }
+    }
+}